@@ -0,0 +1,427 @@
+package mpicbg.imglib.algorithm.fft.custom;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Verifies phase correlation peaks with cross correlation using summed-area tables (integral images).
+ *
+ * The sums and the sums of squares of both images are precomputed once, so the means and the variances
+ * within any overlapping region are obtained in constant time, and only the cross term requires a pass over the overlap.
+ * The tables also provide an upper bound of the correlation for a given shift (Cauchy-Schwarz inequality applied to
+ * a grid of blocks within the overlap), which allows to skip candidates that cannot make it into the best peaks.
+ *
+ * The images are stored as flat arrays where the first dimension is the fastest.
+ *
+ * @author Igor Pisarev
+ */
+public class IntegralCrossCorrelation
+{
+	// number of blocks per dimension used for computing the upper bound of the correlation
+	private static final int BOUND_BLOCKS_PER_DIMENSION = 4;
+
+	final int numDimensions;
+	final int[] dims1, dims2;
+	final float[] data1, data2;
+	final double offset1, offset2;
+	final double[] sum1, sumSquares1, sum2, sumSquares2;
+
+	/**
+	 * @param data1 pixels of the first image (may be modified)
+	 * @param dims1 dimensions of the first image
+	 * @param data2 pixels of the second image (may be modified)
+	 * @param dims2 dimensions of the second image
+	 */
+	public IntegralCrossCorrelation( final float[] data1, final int[] dims1, final float[] data2, final int[] dims2 )
+	{
+		this.numDimensions = dims1.length;
+		this.dims1 = dims1.clone();
+		this.dims2 = dims2.clone();
+		this.data1 = data1;
+		this.data2 = data2;
+
+		// subtract the mean from both images to keep the sums of squares small (the correlation is invariant to it)
+		this.offset1 = subtractMean( data1 );
+		this.offset2 = subtractMean( data2 );
+
+		sum1 = new double[ getIntegralImageSize( dims1 ) ];
+		sumSquares1 = new double[ sum1.length ];
+		computeIntegralImages( data1, dims1, sum1, sumSquares1 );
+
+		sum2 = new double[ getIntegralImageSize( dims2 ) ];
+		sumSquares2 = new double[ sum2.length ];
+		computeIntegralImages( data2, dims2, sum2, sumSquares2 );
+	}
+
+	/**
+	 * Checks if the integral images for the given image sizes can be allocated.
+	 * They take four times more memory than the images themselves (two tables of doubles per image).
+	 */
+	public static boolean canAllocate( final int[] dims1, final int[] dims2 )
+	{
+		final long size1 = getIntegralImageSizeLong( dims1 ), size2 = getIntegralImageSizeLong( dims2 );
+		if ( size1 > Integer.MAX_VALUE - 8 || size2 > Integer.MAX_VALUE - 8 )
+			return false;
+
+		final Runtime runtime = Runtime.getRuntime();
+		final long availableMemory = runtime.maxMemory() - ( runtime.totalMemory() - runtime.freeMemory() );
+		return ( size1 + size2 ) * 2 * Double.BYTES < availableMemory / 2;
+	}
+
+	/**
+	 * Computes cross correlation for the given candidate peaks, and returns them sorted by cross correlation (ascending, as {@link PhaseCorrelationPeak} sorts).
+	 * Candidates that cannot get into the {@code numPeaksToKeep} best peaks are not evaluated and are not included in the returned list.
+	 *
+	 * @param candidates
+	 * @param minOverlapPx
+	 * @param numPeaksToKeep
+	 * @return
+	 */
+	public ArrayList<PhaseCorrelationPeak> verify( final List<PhaseCorrelationPeak> candidates, final int[] minOverlapPx, final int numPeaksToKeep )
+	{
+		return verify( candidates, minOverlapPx, numPeaksToKeep, null, 1 );
+	}
+
+	/**
+	 * Same as {@link #verify(List, int[], int)}, but evaluates up to {@code numThreads} candidates at a time using the given thread pool.
+	 *
+	 * @param candidates
+	 * @param minOverlapPx
+	 * @param numPeaksToKeep
+	 * @param threadPool thread pool to use, or null to evaluate the candidates in the calling thread
+	 * @param numThreads
+	 * @return
+	 */
+	public ArrayList<PhaseCorrelationPeak> verify( final List<PhaseCorrelationPeak> candidates, final int[] minOverlapPx, final int numPeaksToKeep,
+			final ExecutorService threadPool, final int numThreads )
+	{
+		// evaluate the candidates with the highest phase correlation first as they are more likely to be the best ones
+		final List<PhaseCorrelationPeak> sortedCandidates = new ArrayList<>( candidates );
+		Collections.sort( sortedCandidates, new Comparator<PhaseCorrelationPeak>()
+		{
+			@Override
+			public int compare( final PhaseCorrelationPeak p1, final PhaseCorrelationPeak p2 )
+			{
+				return Float.compare( p2.getPhaseCorrelationPeak(), p1.getPhaseCorrelationPeak() );
+			}
+		} );
+
+		final int batchSize = threadPool != null ? Math.max( numThreads, 1 ) : 1;
+		final ArrayList<PhaseCorrelationPeak> verifiedPeaks = new ArrayList<>();
+		final PriorityQueue<Double> bestCrossCorrelations = new PriorityQueue<>();
+
+		for ( int batchStart = 0; batchStart < sortedCandidates.size(); batchStart += batchSize )
+		{
+			final List<PhaseCorrelationPeak> batch = new ArrayList<>();
+			for ( final PhaseCorrelationPeak peak : sortedCandidates.subList( batchStart, Math.min( batchStart + batchSize, sortedCandidates.size() ) ) )
+				if ( bestCrossCorrelations.size() < numPeaksToKeep || getUpperBound( peak.getPosition(), minOverlapPx ) >= bestCrossCorrelations.peek() )
+					batch.add( peak );
+
+			if ( batch.size() > 1 )
+			{
+				final List<Future<?>> futures = new ArrayList<>();
+				for ( final PhaseCorrelationPeak peak : batch )
+					futures.add( threadPool.submit( () -> evaluate( peak, minOverlapPx ) ) );
+
+				try
+				{
+					for ( final Future<?> future : futures )
+						future.get();
+				}
+				catch ( final InterruptedException | ExecutionException e )
+				{
+					throw new RuntimeException( e );
+				}
+			}
+			else
+			{
+				for ( final PhaseCorrelationPeak peak : batch )
+					evaluate( peak, minOverlapPx );
+			}
+
+			for ( final PhaseCorrelationPeak peak : batch )
+			{
+				verifiedPeaks.add( peak );
+				bestCrossCorrelations.add( (double)peak.getCrossCorrelationPeak() );
+				if ( bestCrossCorrelations.size() > numPeaksToKeep )
+					bestCrossCorrelations.poll();
+			}
+		}
+
+		Collections.sort( verifiedPeaks );
+		return verifiedPeaks;
+	}
+
+	private void evaluate( final PhaseCorrelationPeak peak, final int[] minOverlapPx )
+	{
+		final long[] numPixels = new long[ 1 ];
+		peak.setCrossCorrelationPeak( (float)testCrossCorrelation( peak.getPosition(), minOverlapPx, numPixels ) );
+		peak.setNumPixels( numPixels[ 0 ] );
+		peak.setSortPhaseCorrelation( false );
+	}
+
+	/**
+	 * Computes the normalized cross correlation between the images in their overlapping region given by the shift
+	 * (image1 at x + shift corresponds to image2 at x). Same as {@link PhaseCorrelation#testCrossCorrelation}.
+	 *
+	 * @param shift
+	 * @param minOverlapPx
+	 * @param numPixels if not null, the number of pixels in the overlapping region is written into its first element
+	 * @return
+	 */
+	public double testCrossCorrelation( final int[] shift, final int[] minOverlapPx, final long[] numPixels )
+	{
+		final int[] min1 = new int[ numDimensions ], min2 = new int[ numDimensions ], size = new int[ numDimensions ];
+		final long numPx = getOverlap( shift, minOverlapPx, min1, min2, size );
+
+		if ( numPixels != null && numPixels.length > 0 )
+			numPixels[ 0 ] = numPx;
+
+		if ( numPx == 0 )
+			return 0;
+
+		final double s1 = boxSum( sum1, dims1, min1, size ), s2 = boxSum( sum2, dims2, min2, size );
+		final double avg1 = s1 / numPx, avg2 = s2 / numPx;
+		final double var1 = Math.max( boxSum( sumSquares1, dims1, min1, size ) / numPx - avg1 * avg1, 0 );
+		final double var2 = Math.max( boxSum( sumSquares2, dims2, min2, size ) / numPx - avg2 * avg2, 0 );
+
+		// all pixels had the same color....
+		if ( var1 == 0 || var2 == 0 )
+		{
+			if ( var1 == var2 && avg1 + offset1 == avg2 + offset2 )
+				return 1;
+			else
+				return 0;
+		}
+
+		final double coVar = crossSum( min1, min2, size ) / numPx - avg1 * avg2;
+		return coVar / Math.sqrt( var1 * var2 );
+	}
+
+	/**
+	 * Returns an upper bound of the cross correlation for the given shift without a pass over the overlapping region.
+	 */
+	public double getUpperBound( final int[] shift, final int[] minOverlapPx )
+	{
+		final int[] min1 = new int[ numDimensions ], min2 = new int[ numDimensions ], size = new int[ numDimensions ];
+		final long numPx = getOverlap( shift, minOverlapPx, min1, min2, size );
+		if ( numPx == 0 )
+			return 0;
+
+		final double avg1 = boxSum( sum1, dims1, min1, size ) / numPx;
+		final double avg2 = boxSum( sum2, dims2, min2, size ) / numPx;
+
+		final int[] numBlocks = new int[ numDimensions ];
+		int totalBlocks = 1;
+		for ( int d = 0; d < numDimensions; ++d )
+		{
+			numBlocks[ d ] = Math.min( BOUND_BLOCKS_PER_DIMENSION, size[ d ] );
+			totalBlocks *= numBlocks[ d ];
+		}
+
+		// sum over blocks of sqrt( sum (a-avg1)^2 * sum (b-avg2)^2 ) >= sum (a-avg1)(b-avg2)
+		final int[] blockMin1 = new int[ numDimensions ], blockMin2 = new int[ numDimensions ], blockSize = new int[ numDimensions ];
+		double boundSum = 0, var1 = 0, var2 = 0;
+		for ( int block = 0; block < totalBlocks; ++block )
+		{
+			long blockNumPx = 1;
+			for ( int d = 0, remainder = block; d < numDimensions; ++d )
+			{
+				final int blockIndex = remainder % numBlocks[ d ];
+				remainder /= numBlocks[ d ];
+				final int start = (int)( (long)size[ d ] * blockIndex / numBlocks[ d ] );
+				final int end = (int)( (long)size[ d ] * ( blockIndex + 1 ) / numBlocks[ d ] );
+				blockMin1[ d ] = min1[ d ] + start;
+				blockMin2[ d ] = min2[ d ] + start;
+				blockSize[ d ] = end - start;
+				blockNumPx *= blockSize[ d ];
+			}
+
+			final double blockVar1 = Math.max( boxSum( sumSquares1, dims1, blockMin1, blockSize ) - 2 * avg1 * boxSum( sum1, dims1, blockMin1, blockSize ) + blockNumPx * avg1 * avg1, 0 );
+			final double blockVar2 = Math.max( boxSum( sumSquares2, dims2, blockMin2, blockSize ) - 2 * avg2 * boxSum( sum2, dims2, blockMin2, blockSize ) + blockNumPx * avg2 * avg2, 0 );
+			boundSum += Math.sqrt( blockVar1 * blockVar2 );
+			var1 += blockVar1;
+			var2 += blockVar2;
+		}
+
+		// constant images are handled separately in testCrossCorrelation()
+		if ( var1 == 0 || var2 == 0 )
+			return 1;
+
+		return Math.min( boundSum / Math.sqrt( var1 * var2 ), 1 );
+	}
+
+	/**
+	 * Computes the overlapping region for the given shift.
+	 *
+	 * @return number of pixels in the overlap, or 0 if the overlap is smaller than {@code minOverlapPx}
+	 */
+	private long getOverlap( final int[] shift, final int[] minOverlapPx, final int[] min1, final int[] min2, final int[] size )
+	{
+		long numPx = 1;
+		for ( int d = 0; d < numDimensions; ++d )
+		{
+			if ( shift[ d ] >= 0 )
+			{
+				min1[ d ] = shift[ d ];
+				min2[ d ] = 0;
+				size[ d ] = Math.min( dims1[ d ] - shift[ d ], dims2[ d ] );
+			}
+			else
+			{
+				min1[ d ] = 0;
+				min2[ d ] = -shift[ d ];
+				size[ d ] = Math.min( dims2[ d ] + shift[ d ], dims1[ d ] );
+			}
+
+			if ( size[ d ] < minOverlapPx[ d ] || size[ d ] <= 0 )
+				return 0;
+
+			numPx *= size[ d ];
+		}
+		return numPx;
+	}
+
+	/**
+	 * Sum of a * b over the overlap, where the first dimension is traversed in the innermost loop.
+	 */
+	private double crossSum( final int[] min1, final int[] min2, final int[] size )
+	{
+		final int[] steps1 = new int[ numDimensions ], steps2 = new int[ numDimensions ];
+		steps1[ 0 ] = steps2[ 0 ] = 1;
+		for ( int d = 1; d < numDimensions; ++d )
+		{
+			steps1[ d ] = steps1[ d - 1 ] * dims1[ d - 1 ];
+			steps2[ d ] = steps2[ d - 1 ] * dims2[ d - 1 ];
+		}
+
+		final int[] position = new int[ numDimensions ];
+		double crossSum = 0;
+		while ( true )
+		{
+			int index1 = min1[ 0 ], index2 = min2[ 0 ];
+			for ( int d = 1; d < numDimensions; ++d )
+			{
+				index1 += ( min1[ d ] + position[ d ] ) * steps1[ d ];
+				index2 += ( min2[ d ] + position[ d ] ) * steps2[ d ];
+			}
+
+			double lineSum = 0;
+			for ( int x = 0; x < size[ 0 ]; ++x )
+				lineSum += (double)data1[ index1 + x ] * data2[ index2 + x ];
+			crossSum += lineSum;
+
+			int d = 1;
+			for ( ; d < numDimensions; ++d )
+			{
+				if ( ++position[ d ] < size[ d ] )
+					break;
+				position[ d ] = 0;
+			}
+			if ( d == numDimensions )
+				break;
+		}
+		return crossSum;
+	}
+
+	/**
+	 * Sum over the box [min, min + size) using the integral image with dimensions (dims + 1) via inclusion-exclusion over the box corners.
+	 */
+	private static double boxSum( final double[] integral, final int[] dims, final int[] min, final int[] size )
+	{
+		final int n = dims.length;
+		double sum = 0;
+		for ( int corner = 0; corner < ( 1 << n ); ++corner )
+		{
+			int index = 0, step = 1, sign = 1;
+			for ( int d = 0; d < n; ++d )
+			{
+				final int coord;
+				if ( ( corner & ( 1 << d ) ) != 0 )
+				{
+					coord = min[ d ] + size[ d ];
+				}
+				else
+				{
+					coord = min[ d ];
+					sign = -sign;
+				}
+				index += coord * step;
+				step *= dims[ d ] + 1;
+			}
+			sum += sign * integral[ index ];
+		}
+		return sum;
+	}
+
+	private static void computeIntegralImages( final float[] data, final int[] dims, final double[] sum, final double[] sumSquares )
+	{
+		final int n = dims.length;
+		final int[] integralDims = new int[ n ];
+		for ( int d = 0; d < n; ++d )
+			integralDims[ d ] = dims[ d ] + 1;
+
+		// copy the values shifted by one pixel in each dimension, the first row/plane stays zero
+		final int[] position = new int[ n ];
+		for ( int i = 0; i < data.length; ++i )
+		{
+			int integralIndex = 0;
+			for ( int d = n - 1; d >= 0; --d )
+				integralIndex = integralIndex * integralDims[ d ] + position[ d ] + 1;
+
+			sum[ integralIndex ] = data[ i ];
+			sumSquares[ integralIndex ] = (double)data[ i ] * data[ i ];
+
+			for ( int d = 0; d < n; ++d )
+			{
+				if ( ++position[ d ] < dims[ d ] )
+					break;
+				position[ d ] = 0;
+			}
+		}
+
+		// cumulative sums along each dimension
+		for ( int d = 0, step = 1; d < n; step *= integralDims[ d ], ++d )
+		{
+			for ( int i = 0; i < sum.length; ++i )
+			{
+				if ( ( i / step ) % integralDims[ d ] != 0 )
+				{
+					sum[ i ] += sum[ i - step ];
+					sumSquares[ i ] += sumSquares[ i - step ];
+				}
+			}
+		}
+	}
+
+	private static double subtractMean( final float[] data )
+	{
+		double mean = 0;
+		for ( final float value : data )
+			mean += value;
+		mean /= Math.max( data.length, 1 );
+
+		for ( int i = 0; i < data.length; ++i )
+			data[ i ] -= mean;
+		return mean;
+	}
+
+	private static int getIntegralImageSize( final int[] dims )
+	{
+		return (int)getIntegralImageSizeLong( dims );
+	}
+
+	private static long getIntegralImageSizeLong( final int[] dims )
+	{
+		long size = 1;
+		for ( final int dim : dims )
+			size *= dim + 1;
+		return size;
+	}
+}
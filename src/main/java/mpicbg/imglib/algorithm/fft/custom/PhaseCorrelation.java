@@ -28,6 +28,9 @@ package mpicbg.imglib.algorithm.fft.custom;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import mpicbg.imglib.algorithm.Algorithm;
@@ -38,6 +41,7 @@ import mpicbg.imglib.algorithm.fft.FourierTransform.Rearrangement;
 import mpicbg.imglib.algorithm.fft.InverseFourierTransform;
 import mpicbg.imglib.cursor.Cursor;
 import mpicbg.imglib.cursor.LocalizableByDimCursor;
+import mpicbg.imglib.cursor.LocalizableCursor;
 import mpicbg.imglib.cursor.special.LocalNeighborhoodCursor;
 import mpicbg.imglib.cursor.special.RegionOfInterestCursor;
 import mpicbg.imglib.custom.OffsetConverter;
@@ -67,6 +71,7 @@ public class PhaseCorrelation<T extends RealType<T>, S extends RealType<S>> impl
 	int[] minOverlapPx;
 	float normalizationThreshold;
 	boolean verifyWithCrossCorrelation;
+	int numVerifiedPeaksToKeep = Integer.MAX_VALUE;
 	ArrayList<PhaseCorrelationPeak> phaseCorrelationPeaks;
 
 	PointValidator searchRadiusPointValidator;
@@ -74,6 +79,7 @@ public class PhaseCorrelation<T extends RealType<T>, S extends RealType<S>> impl
 
 	String errorMessage = "";
 	int numThreads;
+	ExecutorService threadPool;
 	long processingTime;
 
 
@@ -104,6 +110,11 @@ public class PhaseCorrelation<T extends RealType<T>, S extends RealType<S>> impl
 	public void setKeepPhaseCorrelationMatrix( final boolean keepPCM ) { this.keepPCM = keepPCM; }
 	public void setNormalizationThreshold( final int normalizationThreshold ) { this.normalizationThreshold = normalizationThreshold; }
 	public void setVerifyWithCrossCorrelation( final boolean verifyWithCrossCorrelation ) { this.verifyWithCrossCorrelation = verifyWithCrossCorrelation; }
+	/**
+	 * Limits the number of best peaks that are required after the cross correlation verification.
+	 * The candidates that provably cannot get into this number of best peaks are not evaluated and are dropped from {@link #getAllShifts()}.
+	 */
+	public void setNumVerifiedPeaksToKeep( final int numVerifiedPeaksToKeep ) { this.numVerifiedPeaksToKeep = numVerifiedPeaksToKeep; }
 	public void setMinimalPixelOverlap( final int[] minOverlapPx ) { this.minOverlapPx = minOverlapPx.clone(); }
 	public void setMinimalPixelOverlap( final int minOverlapPx )
 	{
@@ -125,6 +136,7 @@ public class PhaseCorrelation<T extends RealType<T>, S extends RealType<S>> impl
 	public boolean getKeepPhaseCorrelationMatrix() { return keepPCM; }
 	public float getNormalizationThreshold() { return normalizationThreshold; }
 	public boolean getVerifyWithCrossCorrelation() { return verifyWithCrossCorrelation; }
+	public int getNumVerifiedPeaksToKeep() { return numVerifiedPeaksToKeep; }
 	public int[] getMinimalPixelOverlap() { return minOverlapPx.clone(); }
 	public Image<FloatType> getPhaseCorrelationMatrix() { return invPCM; }
 	public PhaseCorrelationPeak getShift() { return phaseCorrelationPeaks.get( phaseCorrelationPeaks.size() -1 ); }
@@ -293,15 +305,29 @@ public class PhaseCorrelation<T extends RealType<T>, S extends RealType<S>> impl
 		}
 
 
+		//
+		// test them using integral images if they fit into memory
+		//
+		if ( IntegralCrossCorrelation.canAllocate( image1.getDimensions(), image2.getDimensions() ) )
+		{
+			final IntegralCrossCorrelation integralCrossCorrelation = new IntegralCrossCorrelation(
+					toFloatArray( image1 ), image1.getDimensions(),
+					toFloatArray( image2 ), image2.getDimensions() );
+
+			peakList.clear();
+			peakList.addAll( integralCrossCorrelation.verify( newPeakList, minOverlapPx, numVerifiedPeaksToKeep, threadPool, getNumThreads() ) );
+			return;
+		}
+
 		//
 		// test them multithreaded
 		//
 		final AtomicInteger ai = new AtomicInteger(0);
-		final Thread[] threads = SimpleMultiThreading.newThreads( getNumThreads() );
-		final int numThreads = threads.length;
+		final int numThreads = Math.max( getNumThreads(), 1 );
+		final Runnable[] tasks = new Runnable[ numThreads ];
 
-		for (int ithread = 0; ithread < threads.length; ++ithread)
-			threads[ithread] = new Thread(new Runnable()
+		for (int ithread = 0; ithread < tasks.length; ++ithread)
+			tasks[ithread] = new Runnable()
 			{
 				@Override
 				public void run()
@@ -322,9 +348,31 @@ public class PhaseCorrelation<T extends RealType<T>, S extends RealType<S>> impl
 						}
 
 				}
-			});
+			};
 
-		SimpleMultiThreading.startAndJoin( threads );
+		if ( threadPool != null )
+		{
+			final ArrayList<Future<?>> futures = new ArrayList<>();
+			for ( final Runnable task : tasks )
+				futures.add( threadPool.submit( task ) );
+
+			try
+			{
+				for ( final Future<?> future : futures )
+					future.get();
+			}
+			catch ( final InterruptedException | ExecutionException e )
+			{
+				throw new RuntimeException( e );
+			}
+		}
+		else
+		{
+			final Thread[] threads = new Thread[ tasks.length ];
+			for ( int ithread = 0; ithread < threads.length; ++ithread )
+				threads[ ithread ] = new Thread( tasks[ ithread ] );
+			SimpleMultiThreading.startAndJoin( threads );
+		}
 
 		// update old list and sort
 		peakList.clear();
@@ -332,6 +380,32 @@ public class PhaseCorrelation<T extends RealType<T>, S extends RealType<S>> impl
 		Collections.sort( peakList );
 	}
 
+	/**
+	 * Copies the image into a flat array where the first dimension is the fastest.
+	 */
+	protected static <R extends RealType<R>> float[] toFloatArray( final Image<R> image )
+	{
+		final int[] dimensions = image.getDimensions();
+		final float[] data = new float[ image.getNumPixels() ];
+		final int[] position = new int[ dimensions.length ];
+
+		final LocalizableCursor<R> cursor = image.createLocalizableCursor();
+		while ( cursor.hasNext() )
+		{
+			cursor.fwd();
+			cursor.getPosition( position );
+
+			int index = 0;
+			for ( int d = dimensions.length - 1; d >= 0; --d )
+				index = index * dimensions[ d ] + position[ d ];
+
+			data[ index ] = cursor.getType().getRealFloat();
+		}
+		cursor.close();
+
+		return data;
+	}
+
 	public static <T extends RealType<T>, S extends RealType<S>> double testCrossCorrelation( final int[] shift, final Image<T> image1, final Image<S> image2 )
 	{
 		return testCrossCorrelation( shift, image1, image2, 5 );
@@ -810,6 +884,11 @@ public class PhaseCorrelation<T extends RealType<T>, S extends RealType<S>> impl
 	@Override
 	public void setNumThreads( final int numThreads ) { this.numThreads = numThreads; }
 
+	/**
+	 * Sets a thread pool that is used for the cross correlation verification instead of spawning new threads.
+	 */
+	public void setThreadPool( final ExecutorService threadPool ) { this.threadPool = threadPool; }
+
 	@Override
 	public int getNumThreads() { return numThreads; }
 
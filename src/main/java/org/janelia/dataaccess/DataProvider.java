@@ -37,6 +37,11 @@ public interface DataProvider
 	public void deleteFile( final String link ) throws IOException;
 	public void deleteFolder( final String link ) throws IOException;
 
+	/**
+	 * Returns the names of the files that are located directly within the given folder, or an empty list if the folder does not exist.
+	 */
+	public List< String > listFiles( final String link ) throws IOException;
+
 	public InputStream getInputStream( final String link ) throws IOException;
 	public OutputStream getOutputStream( final String link ) throws IOException;
 
@@ -12,6 +12,9 @@ import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
 
 import org.janelia.dataaccess.AbstractJSONDataProvider;
 import org.janelia.dataaccess.DataProviderType;
@@ -80,6 +83,21 @@ public class FSDataProvider extends AbstractJSONDataProvider
 		);
 	}
 
+	@Override
+	public List< String > listFiles( final String link ) throws IOException
+	{
+		final List< String > fileNames = new ArrayList<>();
+		final Path path = Paths.get( link );
+		if ( Files.isDirectory( path ) )
+		{
+			try ( final Stream< Path > children = Files.list( path ) )
+			{
+				children.filter( Files::isRegularFile ).forEach( child -> fileNames.add( child.getFileName().toString() ) );
+			}
+		}
+		return fileNames;
+	}
+
 	@Override
 	public void copyFile( final String srcLink, final String dstLink ) throws IOException
 	{
@@ -112,6 +112,23 @@ public class GoogleCloudDataProvider extends AbstractJSONDataProvider
 		storage.create( blobInfo, ( byte[] ) null );
 	}
 
+	@Override
+	public List< String > listFiles( final String link ) throws IOException
+	{
+		final GoogleCloudStorageURI googleCloudUri = new GoogleCloudStorageURI( link );
+		final String prefix = addTrailingSlash( googleCloudUri.getKey() );
+		final List< String > fileNames = new ArrayList<>();
+		final Page< Blob > blobListing = storage.list( googleCloudUri.getBucket(), BlobListOption.prefix( prefix ), BlobListOption.currentDirectory() );
+		for ( final Iterator< Blob > blobIterator = blobListing.iterateAll().iterator(); blobIterator.hasNext(); )
+		{
+			final Blob blob = blobIterator.next();
+			final String fileName = blob.getName().substring( prefix.length() );
+			if ( !blob.isDirectory() && !fileName.isEmpty() )
+				fileNames.add( fileName );
+		}
+		return fileNames;
+	}
+
 	@Override
 	public void copyFile( final String srcLink, final String dstLink ) throws IOException
 	{
@@ -161,6 +161,32 @@ public class AmazonS3DataProvider extends AbstractJSONDataProvider
 		while ( objectsListing.isTruncated() );
 	}
 
+	@Override
+	public List< String > listFiles( final String link ) throws IOException
+	{
+		final AmazonS3URI s3Uri = decodeS3Uri( link );
+		final String prefix = addTrailingSlash( s3Uri.getKey() );
+		final ListObjectsV2Request listObjectsRequest = new ListObjectsV2Request()
+				.withBucketName( s3Uri.getBucket() )
+				.withPrefix( prefix )
+				.withDelimiter( "/" );
+		final List< String > fileNames = new ArrayList<>();
+		ListObjectsV2Result objectsListing;
+		do
+		{
+			objectsListing = s3.listObjectsV2( listObjectsRequest );
+			for ( final S3ObjectSummary object : objectsListing.getObjectSummaries() )
+			{
+				final String fileName = object.getKey().substring( prefix.length() );
+				if ( !fileName.isEmpty() )
+					fileNames.add( fileName );
+			}
+			listObjectsRequest.setContinuationToken( objectsListing.getNextContinuationToken() );
+		}
+		while ( objectsListing.isTruncated() );
+		return fileNames;
+	}
+
 	@Override
 	public void copyFile( final String srcLink, final String dstLink ) throws IOException
 	{
@@ -27,6 +27,7 @@ import org.janelia.saalfeldlab.n5.GzipCompression;
 import org.janelia.saalfeldlab.n5.N5Reader;
 import org.janelia.saalfeldlab.n5.N5Writer;
 import org.janelia.saalfeldlab.n5.imglib2.N5Utils;
+import org.janelia.stitching.TileImageCache;
 import org.janelia.stitching.TileInfo;
 import org.janelia.stitching.TileLoader;
 import org.janelia.stitching.TileLoader.TileType;
@@ -197,6 +198,7 @@ public class HistogramsProvider implements Serializable
 		n5.setAttributes( histogramsDataset, histogramAttributes );
 
 		final Broadcast< TileInfo[] > broadcastedTiles = sparkContext.broadcast( tiles );
+		final TileImageCache tileImageCache = TileImageCache.create( sparkContext );
 
 		final List< long[] > blockPositions = getBlockPositions( fieldOfViewSize, blockSize );
 		sparkContext.parallelize( blockPositions, Math.min( blockPositions.size(), MAX_PARTITIONS ) ).foreach( blockPosition ->
@@ -233,7 +235,7 @@ public class HistogramsProvider implements Serializable
 				int done = 0;
 				for ( final TileInfo tile : broadcastedTiles.value() )
 				{
-					final RandomAccessibleInterval< T > tileStorageImg = TileLoader.loadTile( tile, dataProviderLocal );
+					final RandomAccessibleInterval< T > tileStorageImg = tileImageCache.loadTile( tile, dataProviderLocal );
 					final Interval tileImgOffsetInterval;
 					if ( tileStorageImg.numDimensions() == 3 )
 					{
@@ -299,6 +301,9 @@ public class HistogramsProvider implements Serializable
 
 		broadcastedTiles.destroy();
 
+		if ( tileImageCache.isEnabled() )
+			System.out.println( tileImageCache );
+
 		// mark all histograms as ready to skip block existence check and save time for subsequent runs
 		n5.setAttribute( histogramsDataset, ALL_HISTOGRAMS_EXIST_KEY, true );
 	}
@@ -5,8 +5,8 @@ import java.util.Arrays;
 import org.apache.commons.lang3.NotImplementedException;
 import org.apache.spark.api.java.JavaSparkContext;
 import org.janelia.dataaccess.DataProviderFactory;
+import org.janelia.stitching.TileImageCache;
 import org.janelia.stitching.TileInfo;
-import org.janelia.stitching.TileLoader;
 
 import net.imglib2.Cursor;
 import net.imglib2.RandomAccessibleInterval;
@@ -117,11 +117,12 @@ public class StackHistogram
 			final TileInfo[] tiles,
 			final HistogramSettings stackHistogramSettings )
 	{
+		final TileImageCache tileImageCache = TileImageCache.create( sparkContext );
 		final long[] stackHistogram = sparkContext.parallelize( Arrays.asList( tiles ), tiles.length ).map( tile ->
 			{
 				final long[] histogram = new long[ stackHistogramSettings.bins ];
 				final Real1dBinMapper< T > binMapper = new Real1dBinMapper<>( stackHistogramSettings.histMinValue, stackHistogramSettings.histMaxValue, stackHistogramSettings.bins, true );
-				final RandomAccessibleInterval< T > tileImg = TileLoader.loadTile( tile, DataProviderFactory.create( DataProviderFactory.detectType( tile.getFilePath() ) ) );
+				final RandomAccessibleInterval< T > tileImg = tileImageCache.loadTile( tile, DataProviderFactory.create( DataProviderFactory.detectType( tile.getFilePath() ) ) );
 				final Cursor< T > cursor = Views.iterable( tileImg ).cursor();
 				while ( cursor.hasNext() )
 					++histogram[ ( int ) binMapper.map( cursor.next() ) ];
@@ -0,0 +1,313 @@
+package org.janelia.stitching;
+
+import java.util.concurrent.ExecutorService;
+
+import mpicbg.imglib.custom.OffsetConverter;
+import mpicbg.imglib.custom.PointValidator;
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.IntervalIndexer;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+/**
+ * Coarse-to-fine pairwise registration.
+ *
+ * The shift is first estimated on downsampled copies of the overlap images. Since the full-resolution shift is then known
+ * to be within a small refinement window around the coarse shift, it is not necessary to correlate the entire overlap again:
+ * the full-resolution phase correlation is computed between a template taken from the center of the overlap in the second image
+ * and the corresponding region of the first image expanded by the refinement window. The images are padded only by a few pixels
+ * instead of the default relative extension, and the peaks are restricted to the refinement window with a {@link PointValidator}.
+ * This way the size of the full-resolution FFT depends on the refinement window rather than on the size of the overlap.
+ *
+ * @author Igor Pisarev
+ */
+public class CoarseToFineRegistration
+{
+	// the downsampled image should be at least this large in every dimension
+	private static final int MIN_DOWNSAMPLED_SIZE = 8;
+
+	// radius of the refinement window in terms of the downsampling factor
+	private static final int REFINEMENT_WINDOW_FACTOR = 2;
+
+	// size of the refinement template in terms of the refinement window (but not less than the minimum size)
+	private static final int REFINEMENT_TEMPLATE_FACTOR = 8;
+	private static final int MIN_REFINEMENT_TEMPLATE_SIZE = 64;
+
+	/**
+	 * Result of the coarse step: crops of both images for the refinement step (in the coordinates of the input images),
+	 * the extension of the crops for the phase correlation, and the point validator restricting the refined shift to the window around the coarse shift.
+	 */
+	public static class Refinement
+	{
+		public final Interval[] crops;
+		public final long[] imageExtension;
+		public final PointValidator pointValidator;
+		public final float[] coarseShift;
+
+		private Refinement( final Interval[] crops, final long[] imageExtension, final PointValidator pointValidator, final float[] coarseShift )
+		{
+			this.crops = crops;
+			this.imageExtension = imageExtension;
+			this.pointValidator = pointValidator;
+			this.coarseShift = coarseShift;
+		}
+	}
+
+	/**
+	 * Validates the points within the given distance from the center that are also accepted by the search radius (if specified).
+	 */
+	private static class WindowPointValidator implements PointValidator
+	{
+		private final double[] center;
+		private final double[] radius;
+		private final PointValidator searchRadiusPointValidator;
+
+		public WindowPointValidator( final double[] center, final double[] radius, final PointValidator searchRadiusPointValidator )
+		{
+			this.center = center;
+			this.radius = radius;
+			this.searchRadiusPointValidator = searchRadiusPointValidator;
+		}
+
+		@Override
+		public boolean testPoint( final double... coords )
+		{
+			for ( int d = 0; d < center.length; ++d )
+				if ( Math.abs( coords[ d ] - center[ d ] ) > radius[ d ] )
+					return false;
+			return searchRadiusPointValidator == null || searchRadiusPointValidator.testPoint( coords );
+		}
+
+		@Override
+		public int numDimensions()
+		{
+			return center.length;
+		}
+	}
+
+	/**
+	 * Maps the offsets estimated on downsampled images to the offsets between the full-resolution images.
+	 */
+	private static class DownsampledOffsetConverter implements OffsetConverter
+	{
+		private final OffsetConverter offsetConverter;
+		private final int[] downsamplingFactors;
+
+		public DownsampledOffsetConverter( final OffsetConverter offsetConverter, final int[] downsamplingFactors )
+		{
+			this.offsetConverter = offsetConverter;
+			this.downsamplingFactors = downsamplingFactors;
+		}
+
+		@Override
+		public long[] roiOffsetToTileOffset( final int[] roiOffset )
+		{
+			final double[] roiOffsetDouble = new double[ roiOffset.length ];
+			for ( int d = 0; d < roiOffset.length; ++d )
+				roiOffsetDouble[ d ] = roiOffset[ d ];
+
+			final double[] tileOffsetDouble = roiOffsetToTileOffset( roiOffsetDouble );
+			final long[] tileOffset = new long[ tileOffsetDouble.length ];
+			for ( int d = 0; d < tileOffset.length; ++d )
+				tileOffset[ d ] = Math.round( tileOffsetDouble[ d ] );
+			return tileOffset;
+		}
+
+		@Override
+		public double[] roiOffsetToTileOffset( final double[] roiOffset )
+		{
+			final double[] fullResolutionRoiOffset = new double[ roiOffset.length ];
+			for ( int d = 0; d < roiOffset.length; ++d )
+				fullResolutionRoiOffset[ d ] = roiOffset[ d ] * downsamplingFactors[ d ];
+			return offsetConverter.roiOffsetToTileOffset( fullResolutionRoiOffset );
+		}
+
+		@Override
+		public double[] tileOffsetToGlobalPosition( final long[] tileOffset )
+		{
+			return offsetConverter.tileOffsetToGlobalPosition( tileOffset );
+		}
+	}
+
+	/**
+	 * Chooses the downsampling factors for the given pyramid level such that the downsampled voxels are approximately isotropic.
+	 * The factors are reduced if the downsampled image would become too small.
+	 *
+	 * @param pyramidFactor
+	 * 			downsampling factor in the dimension with the highest resolution (e.g. 2, 4, 8)
+	 * @param normalizedVoxelDimensions
+	 * @param imageDimensions
+	 * @return
+	 */
+	public static int[] getDownsamplingFactors( final int pyramidFactor, final double[] normalizedVoxelDimensions, final long[] imageDimensions )
+	{
+		final int[] downsamplingFactors = new int[ normalizedVoxelDimensions.length ];
+		for ( int d = 0; d < downsamplingFactors.length; ++d )
+		{
+			final int anisotropicFactor = ( int ) Math.max( Math.round( pyramidFactor / normalizedVoxelDimensions[ d ] ), 1 );
+			downsamplingFactors[ d ] = ( int ) Math.max( Math.min( anisotropicFactor, imageDimensions[ d ] / MIN_DOWNSAMPLED_SIZE ), 1 );
+		}
+		return downsamplingFactors;
+	}
+
+	/**
+	 * Downsamples the image by averaging non-overlapping blocks of the given size. The incomplete blocks at the max border are discarded.
+	 */
+	public static ArrayImg< FloatType, FloatArray > downsample( final RandomAccessibleInterval< FloatType > img, final int[] downsamplingFactors )
+	{
+		final int n = img.numDimensions();
+		final long[] downsampledDimensions = new long[ n ];
+		for ( int d = 0; d < n; ++d )
+			downsampledDimensions[ d ] = Math.max( img.dimension( d ) / downsamplingFactors[ d ], 1 );
+
+		final ArrayImg< FloatType, FloatArray > downsampled = ArrayImgs.floats( downsampledDimensions );
+		final float[] downsampledData = downsampled.update( null ).getCurrentStorageArray();
+		final int[] counts = new int[ downsampledData.length ];
+
+		final Cursor< FloatType > cursor = Views.flatIterable( Views.zeroMin( img ) ).localizingCursor();
+		final long[] position = new long[ n ];
+		while ( cursor.hasNext() )
+		{
+			cursor.fwd();
+			cursor.localize( position );
+
+			boolean withinDownsampled = true;
+			for ( int d = 0; d < n; ++d )
+			{
+				position[ d ] /= downsamplingFactors[ d ];
+				withinDownsampled &= position[ d ] < downsampledDimensions[ d ];
+			}
+
+			if ( withinDownsampled )
+			{
+				final int index = ( int ) IntervalIndexer.positionToIndex( position, downsampledDimensions );
+				downsampledData[ index ] += cursor.get().getRealFloat();
+				++counts[ index ];
+			}
+		}
+
+		for ( int i = 0; i < downsampledData.length; ++i )
+			if ( counts[ i ] != 0 )
+				downsampledData[ i ] /= counts[ i ];
+
+		return downsampled;
+	}
+
+	/**
+	 * Estimates the shift between two zero-min images on their downsampled copies and prepares the refinement step.
+	 * The shift is defined such that img1(x + shift) corresponds to img2(x).
+	 *
+	 * @param img1
+	 * @param img2
+	 * @param downsamplingFactors
+	 * @param numPeaks
+	 * 			number of phase correlation peaks to investigate
+	 * @param searchRadiusPointValidator
+	 * 			used for filtering the peaks if not null (the refinement window is also restricted by it)
+	 * @param offsetConverter
+	 * 			converter for the full-resolution images, required if the search radius is specified
+	 * @param numThreads
+	 * @param threadPool
+	 * @return refinement parameters, or null if no shift could be estimated on the downsampled images or the resulting overlap is too small
+	 */
+	public static Refinement estimateCoarseShift(
+			final RandomAccessibleInterval< FloatType > img1,
+			final RandomAccessibleInterval< FloatType > img2,
+			final int[] downsamplingFactors,
+			final int numPeaks,
+			final PointValidator searchRadiusPointValidator,
+			final OffsetConverter offsetConverter,
+			final int numThreads,
+			final ExecutorService threadPool )
+	{
+		final int n = img1.numDimensions();
+
+		final SerializablePairWiseStitchingResult coarseResult = PhaseCorrelationImgLib2.stitchPairwise(
+				downsample( img1, downsamplingFactors ),
+				downsample( img2, downsamplingFactors ),
+				numPeaks,
+				false,
+				1,
+				searchRadiusPointValidator,
+				searchRadiusPointValidator != null ? new DownsampledOffsetConverter( offsetConverter, downsamplingFactors ) : null,
+				numThreads,
+				threadPool
+			)[ 0 ];
+
+		if ( coarseResult == null )
+			return null;
+
+		final float[] coarseShift = new float[ n ];
+		final long[] refinementWindow = new long[ n ];
+		for ( int d = 0; d < n; ++d )
+		{
+			coarseShift[ d ] = coarseResult.getOffset( d ) * downsamplingFactors[ d ];
+			refinementWindow[ d ] = REFINEMENT_WINDOW_FACTOR * downsamplingFactors[ d ];
+		}
+
+		final Interval[] crops = getRefinementCrops( Intervals.dimensionsAsLongArray( img1 ), Intervals.dimensionsAsLongArray( img2 ), coarseShift, refinementWindow );
+		if ( crops == null )
+			return null;
+
+		final PointValidator refinementPointValidator;
+		if ( offsetConverter != null )
+		{
+			final int[] coarseShiftRounded = new int[ n ];
+			final double[] radius = new double[ n ];
+			for ( int d = 0; d < n; ++d )
+			{
+				coarseShiftRounded[ d ] = Math.round( coarseShift[ d ] );
+				radius[ d ] = refinementWindow[ d ];
+			}
+			final double[] center = offsetConverter.tileOffsetToGlobalPosition( offsetConverter.roiOffsetToTileOffset( coarseShiftRounded ) );
+			refinementPointValidator = new WindowPointValidator( center, radius, searchRadiusPointValidator );
+		}
+		else
+		{
+			refinementPointValidator = searchRadiusPointValidator;
+		}
+
+		// the first crop already includes the refinement window, so the images need only the minimal extension
+		return new Refinement( crops, new long[ n ], refinementPointValidator, coarseShift );
+	}
+
+	/**
+	 * Finds the regions of both images for the refinement step: the template is the central part of the overlap under the given shift
+	 * in the second image (limited to the template size), and the search region is the corresponding region of the first image
+	 * expanded by the refinement window so that all shifts within the window can still be detected.
+	 *
+	 * @return crops of both images { search region in the first image, template in the second image }, or null if the overlap is too small
+	 */
+	public static Interval[] getRefinementCrops(
+			final long[] dimensions1,
+			final long[] dimensions2,
+			final float[] shift,
+			final long[] refinementWindow )
+	{
+		final int n = dimensions1.length;
+		final long[] min1 = new long[ n ], max1 = new long[ n ], min2 = new long[ n ], max2 = new long[ n ];
+		for ( int d = 0; d < n; ++d )
+		{
+			// img1(x + shift) = img2(x): the overlap in img2 coordinates is [max(0, -shift), min(dim2, dim1 - shift))
+			final long s = Math.round( shift[ d ] );
+			final long overlapMin2 = Math.max( 0, -s ), overlapMax2 = Math.min( dimensions2[ d ], dimensions1[ d ] - s ) - 1;
+			final long overlapSize = overlapMax2 - overlapMin2 + 1;
+			if ( overlapSize <= 1 )
+				return null;
+
+			final long templateSize = Math.min( Math.max( REFINEMENT_TEMPLATE_FACTOR * refinementWindow[ d ], MIN_REFINEMENT_TEMPLATE_SIZE ), overlapSize );
+			min2[ d ] = overlapMin2 + ( overlapSize - templateSize ) / 2;
+			max2[ d ] = min2[ d ] + templateSize - 1;
+			min1[ d ] = Math.max( min2[ d ] + s - refinementWindow[ d ], 0 );
+			max1[ d ] = Math.min( max2[ d ] + s + refinementWindow[ d ], dimensions1[ d ] - 1 );
+		}
+		return new Interval[] { new FinalInterval( min1, max1 ), new FinalInterval( min2, max2 ) };
+	}
+}
@@ -260,6 +260,7 @@ public class DeconvolutionSpark
 			for ( final String channelPath : parsedArgs.inputChannelsPaths )
 				channelFlatfields.add( FlatfieldCorrection.loadCorrectionImages( dataProvider, channelPath, inputTileChannels.get( 0 )[ 0 ].numDimensions() ) );
 			final Broadcast< List< RandomAccessiblePairNullable< U, U > > > broadcastedChannelFlatfields = sparkContext.broadcast( channelFlatfields );
+			final TileImageCache tileImageCache = TileImageCache.create( sparkContext );
 
 			sparkContext.parallelize( channelIndicesAndTileBlocks, Math.min( channelIndicesAndTileBlocks.size(), MAX_PARTITIONS ) ).foreach( tileBlockAndChannelIndex ->
 				{
@@ -269,32 +270,14 @@ public class DeconvolutionSpark
 
 					final DataProvider localDataProvider = DataProviderFactory.create( dataProviderType );
 
-					// load tile image
-					final RandomAccessibleInterval< T > tileImg = TileLoader.loadTile( tile, localDataProvider );
-
 					// load PSF image
 					final ImagePlus psfImp = localDataProvider.loadImage( parsedArgs.psfPaths.get( channelIndex ) );
 					Utils.workaroundImagePlusNSlices( psfImp );
 					final RandomAccessibleInterval< T > psfImg = ImagePlusImgs.from( psfImp );
 
 					// convert to float type for the deconvolution to work properly
-					final RandomAccessibleInterval< FloatType > tileImgFloat = Converters.convert( tileImg, new RealConverter<>(), new FloatType() );
 					final RandomAccessibleInterval< FloatType > psfImgFloat = Converters.convert( psfImg, new RealConverter<>(), new FloatType() );
 
-					// apply flatfield correction
-					final RandomAccessibleInterval< FloatType > sourceImgFloat;
-					final RandomAccessiblePairNullable< U, U > flatfield = broadcastedChannelFlatfields.value().get( channelIndex );
-					if ( flatfield != null )
-					{
-						final FlatfieldCorrectedRandomAccessible< FloatType, U > flatfieldCorrectedTileImg = new FlatfieldCorrectedRandomAccessible<>( tileImgFloat, flatfield.toRandomAccessiblePair() );
-						final RandomAccessibleInterval< U > correctedImg = Views.interval( flatfieldCorrectedTileImg, tileImgFloat );
-						sourceImgFloat = Converters.convert( correctedImg, new RealConverter<>(), new FloatType() );
-					}
-					else
-					{
-						sourceImgFloat = tileImgFloat;
-					}
-
 					// rescale PSF with respect to the pixel resolution
 					final long[] rescaledPsfDimensions = Intervals.dimensionsAsLongArray( psfImgFloat );
 					rescaledPsfDimensions[ 2 ] = Math.round( psfImgFloat.dimension( 2 ) * ( parsedArgs.psfStepZ / tile.getPixelResolution( 2 ) ) );
@@ -307,13 +290,28 @@ public class DeconvolutionSpark
 					final long[] paddedProcessingBlockMin = new long[ processingBlock.numDimensions() ], paddedProcessingBlockMax = new long[ processingBlock.numDimensions() ];
 					for ( int d = 0; d < processingBlock.numDimensions(); ++d )
 					{
-						paddedProcessingBlockMin[ d ] = Math.max( processingBlock.min( d ) - rescaledPsfDimensions[ d ], tileImg.min( d ) );
-						paddedProcessingBlockMax[ d ] = Math.min( processingBlock.max( d ) + rescaledPsfDimensions[ d ], tileImg.max( d ) );
+						paddedProcessingBlockMin[ d ] = Math.max( processingBlock.min( d ) - rescaledPsfDimensions[ d ], 0 );
+						paddedProcessingBlockMax[ d ] = Math.min( processingBlock.max( d ) + rescaledPsfDimensions[ d ], tile.getSize( d ) - 1 );
 					}
 					final Interval paddedProcessingBlock = new FinalInterval( paddedProcessingBlockMin, paddedProcessingBlockMax );
 
-					// get padded processing block image
-					final RandomAccessibleInterval< FloatType > paddedProcessingBlockImg = Views.interval( sourceImgFloat, paddedProcessingBlock );
+					// load only the padded processing block of the tile image
+					final RandomAccessibleInterval< T > tileBlockImg = tileImageCache.loadTileRegion( tile, paddedProcessingBlock, localDataProvider );
+					final RandomAccessibleInterval< FloatType > tileBlockImgFloat = Converters.convert( tileBlockImg, new RealConverter<>(), new FloatType() );
+
+					// apply flatfield correction
+					final RandomAccessibleInterval< FloatType > paddedProcessingBlockImg;
+					final RandomAccessiblePairNullable< U, U > flatfield = broadcastedChannelFlatfields.value().get( channelIndex );
+					if ( flatfield != null )
+					{
+						final FlatfieldCorrectedRandomAccessible< FloatType, U > flatfieldCorrectedTileImg = new FlatfieldCorrectedRandomAccessible<>( tileBlockImgFloat, flatfield.toRandomAccessiblePair() );
+						final RandomAccessibleInterval< U > correctedImg = Views.interval( flatfieldCorrectedTileImg, tileBlockImgFloat );
+						paddedProcessingBlockImg = Converters.convert( correctedImg, new RealConverter<>(), new FloatType() );
+					}
+					else
+					{
+						paddedProcessingBlockImg = tileBlockImgFloat;
+					}
 
 					// subtract background
 					final double backgroundValue = channelBackgroundValues.get( channelIndex );
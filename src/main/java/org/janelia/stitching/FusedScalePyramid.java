@@ -0,0 +1,140 @@
+package org.janelia.stitching;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.janelia.saalfeldlab.n5.N5Writer;
+import org.janelia.saalfeldlab.n5.imglib2.N5Utils;
+
+import bdv.export.Downsample;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.imageplus.ImagePlusImg;
+import net.imglib2.img.imageplus.ImagePlusImgFactory;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Util;
+
+/**
+ * Helpers for generating the first levels of the scale pyramid directly during fusion.
+ *
+ * The downsampling factors are powers of two, and the dimensions with larger voxel size start being downsampled
+ * at later levels, so the pixels become closer to isotropic. Since the factors of every level are multiples of the
+ * factors of the previous level, the coarser levels can be generated from the last directly written level.
+ *
+ * If the processing cells are aligned to the output blocks of a scale level, every processing cell can downsample
+ * its own fused image and write whole blocks of that level without reading anything back from the storage.
+ *
+ * @author Igor Pisarev
+ */
+public class FusedScalePyramid
+{
+	public static final String DOWNSAMPLING_FACTORS_ATTRIBUTE_KEY = "downsamplingFactors";
+
+	/**
+	 * @param dimensions
+	 * 			full-scale image dimensions
+	 * @param blockSize
+	 * 			block size of the output datasets
+	 * @param normalizedVoxelDimensions
+	 * 			voxel size normalized to have minimum value of 1
+	 * @return absolute downsampling factors for every scale level starting from 1, the last level fits into a single block
+	 */
+	public static List< int[] > getDownsamplingFactors( final long[] dimensions, final int[] blockSize, final double[] normalizedVoxelDimensions )
+	{
+		final List< int[] > levelsFactors = new ArrayList<>();
+		final long[] levelDimensions = dimensions.clone();
+		for ( int level = 1; !fitsIntoBlock( levelDimensions, blockSize ); ++level )
+		{
+			final int[] factors = new int[ dimensions.length ];
+			for ( int d = 0; d < factors.length; ++d )
+			{
+				final int voxelLevel = ( int ) Math.max( Math.round( Math.log( normalizedVoxelDimensions[ d ] ) / Math.log( 2 ) ), 0 );
+				// do not downsample the dimension below a single pixel
+				final int maxFactorLevel = Math.min( 63 - Long.numberOfLeadingZeros( Math.max( dimensions[ d ], 1 ) ), 30 );
+				factors[ d ] = 1 << Math.min( Math.max( level - voxelLevel, 0 ), maxFactorLevel );
+				levelDimensions[ d ] = dimensions[ d ] / factors[ d ];
+			}
+			levelsFactors.add( factors );
+		}
+		return levelsFactors;
+	}
+
+	/**
+	 * @return processing cell size increased to be a multiple of the output blocks of the given scale level
+	 */
+	public static int[] alignProcessingCellSize( final int[] processingCellSize, final int[] blockSize, final int[] downsamplingFactors )
+	{
+		final int[] alignedProcessingCellSize = new int[ processingCellSize.length ];
+		for ( int d = 0; d < alignedProcessingCellSize.length; ++d )
+		{
+			final int levelCellSize = blockSize[ d ] * downsamplingFactors[ d ];
+			alignedProcessingCellSize[ d ] = ( int ) Math.ceil( ( double ) processingCellSize[ d ] / levelCellSize ) * levelCellSize;
+		}
+		return alignedProcessingCellSize;
+	}
+
+	/**
+	 * @return factors of the given level relative to the previous level
+	 */
+	public static int[] getRelativeDownsamplingFactors( final List< int[] > levelsFactors, final int level )
+	{
+		final int[] factors = levelsFactors.get( level - 1 ).clone();
+		if ( level > 1 )
+			for ( int d = 0; d < factors.length; ++d )
+				factors[ d ] /= levelsFactors.get( level - 2 )[ d ];
+		return factors;
+	}
+
+	/**
+	 * Downsamples the fused processing cell and writes the blocks of the given scale levels.
+	 *
+	 * @param fullScaleCell
+	 * 			fused image of the processing cell
+	 * @param cellOffset
+	 * 			position of the processing cell in the full-scale dataset, aligned to the blocks of all given levels
+	 * @param blockSize
+	 * 			block size of the output datasets
+	 * @param levelsFactors
+	 * 			absolute downsampling factors for the levels to be written
+	 * @param levelsDatasetPaths
+	 * 			dataset paths of the levels to be written
+	 */
+	public static < T extends RealType< T > & NativeType< T > > void saveDownsampledCell(
+			final RandomAccessibleInterval< T > fullScaleCell,
+			final long[] cellOffset,
+			final int[] blockSize,
+			final List< int[] > levelsFactors,
+			final List< String > levelsDatasetPaths,
+			final N5Writer n5 ) throws IOException
+	{
+		final T type = Util.getTypeFromInterval( fullScaleCell ).createVariable();
+		for ( int i = 0; i < levelsFactors.size(); ++i )
+		{
+			final int[] factors = levelsFactors.get( i );
+			final long[] downsampledDimensions = new long[ factors.length ];
+			final long[] gridOffset = new long[ factors.length ];
+			boolean empty = false;
+			for ( int d = 0; d < factors.length; ++d )
+			{
+				downsampledDimensions[ d ] = fullScaleCell.dimension( d ) / factors[ d ];
+				gridOffset[ d ] = cellOffset[ d ] / factors[ d ] / blockSize[ d ];
+				empty |= downsampledDimensions[ d ] == 0;
+			}
+			if ( empty )
+				continue;
+
+			final ImagePlusImg< T, ? > downsampledCell = new ImagePlusImgFactory< T >().create( downsampledDimensions, type );
+			Downsample.downsample( fullScaleCell, downsampledCell, factors );
+			N5Utils.saveBlock( downsampledCell, n5, levelsDatasetPaths.get( i ), gridOffset );
+		}
+	}
+
+	private static boolean fitsIntoBlock( final long[] dimensions, final int[] blockSize )
+	{
+		for ( int d = 0; d < dimensions.length; ++d )
+			if ( dimensions[ d ] > blockSize[ d ] )
+				return false;
+		return true;
+	}
+}
@@ -1,15 +1,14 @@
 package org.janelia.stitching;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import org.janelia.dataaccess.DataProvider;
-import org.janelia.flatfield.FlatfieldCorrectedRandomAccessible;
 
 import bdv.export.Downsample;
 import net.imglib2.Cursor;
@@ -18,27 +17,21 @@ import net.imglib2.FinalInterval;
 import net.imglib2.FinalRealInterval;
 import net.imglib2.Interval;
 import net.imglib2.IterableInterval;
+import net.imglib2.RandomAccess;
 import net.imglib2.RandomAccessible;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.RealRandomAccessible;
-import net.imglib2.converter.Converters;
-import net.imglib2.converter.RealFloatConverter;
-import net.imglib2.img.array.ArrayImgs;
 import net.imglib2.img.imageplus.ImagePlusImg;
 import net.imglib2.img.imageplus.ImagePlusImgFactory;
-import net.imglib2.img.list.ListImg;
 import net.imglib2.interpolation.randomaccess.NLinearInterpolatorFactory;
 import net.imglib2.realtransform.AbstractTranslation;
 import net.imglib2.realtransform.RealViews;
-import net.imglib2.realtransform.Translation;
 import net.imglib2.realtransform.Translation2D;
 import net.imglib2.realtransform.Translation3D;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.RealType;
-import net.imglib2.type.numeric.real.FloatType;
 import net.imglib2.util.Intervals;
 import net.imglib2.util.IntervalsNullable;
-import net.imglib2.view.RandomAccessiblePair;
 import net.imglib2.view.RandomAccessiblePairNullable;
 import net.imglib2.view.Views;
 
@@ -90,13 +83,92 @@ public class FusionPerformer
 			final Number backgroundValue,
 			final RandomAccessiblePairNullable< U, U > flatfield,
 			final Map< Integer, Set< Integer > > pairwiseConnectionsMap ) throws Exception
+	{
+		return fuseTilesWithinCell( dataProvider, mode, tilesWithinCell, targetInterval, dataType, backgroundValue, flatfield, pairwiseConnectionsMap, null );
+	}
+
+	public static <
+		T extends RealType< T > & NativeType< T >,
+		U extends RealType< U > & NativeType< U > >
+	ImagePlusImg< T, ? > fuseTilesWithinCell(
+			final DataProvider dataProvider,
+			final FusionMode mode,
+			final List< TileInfo > tilesWithinCell,
+			final Interval targetInterval,
+			final T dataType,
+			final Number backgroundValue,
+			final RandomAccessiblePairNullable< U, U > flatfield,
+			final Map< Integer, Set< Integer > > pairwiseConnectionsMap,
+			final TileImageCache tileImageCache ) throws Exception
+	{
+		return fuseTilesWithinCell( dataProvider, mode, tilesWithinCell, targetInterval, dataType, backgroundValue, flatfield, pairwiseConnectionsMap, tileImageCache, null );
+	}
+
+	/**
+	 * @param loadedTileImages
+	 * 			tile images that have already been loaded by the same task and can be reused (keyed by the file path), or null if the images should not be kept
+	 */
+	public static <
+		T extends RealType< T > & NativeType< T >,
+		U extends RealType< U > & NativeType< U > >
+	ImagePlusImg< T, ? > fuseTilesWithinCell(
+			final DataProvider dataProvider,
+			final FusionMode mode,
+			final List< TileInfo > tilesWithinCell,
+			final Interval targetInterval,
+			final T dataType,
+			final Number backgroundValue,
+			final RandomAccessiblePairNullable< U, U > flatfield,
+			final Map< Integer, Set< Integer > > pairwiseConnectionsMap,
+			final TileImageCache tileImageCache,
+			final Map< String, RandomAccessibleInterval< T > > loadedTileImages ) throws Exception
 	{
 		switch ( mode )
 		{
 		case MAX_MIN_DISTANCE:
-			return fuseTilesWithinCellUsingMaxMinDistance( dataProvider, tilesWithinCell, targetInterval, dataType, backgroundValue, flatfield, pairwiseConnectionsMap );
+			return fuseTilesWithinCellUsingMaxMinDistance( dataProvider, tilesWithinCell, targetInterval, dataType, backgroundValue, flatfield, pairwiseConnectionsMap, tileImageCache, loadedTileImages );
 		case BLENDING:
-			return fuseTilesWithinCellUsingBlending( dataProvider, tilesWithinCell, targetInterval, dataType, backgroundValue, flatfield, pairwiseConnectionsMap );
+			return fuseTilesWithinCellUsingBlending( dataProvider, tilesWithinCell, targetInterval, dataType, backgroundValue, flatfield, pairwiseConnectionsMap, tileImageCache, loadedTileImages );
+		default:
+			throw new RuntimeException( "Unknown fusion mode" );
+		}
+	}
+
+	/**
+	 * Fuses multiple channels within the cell at once. The tiles of all channels should have the same positions,
+	 * so the geometry (intersections, sampling positions, and fusion weights) is computed only once for all channels.
+	 *
+	 * @param channelsTilesWithinCell
+	 * 			tiles within the cell for every channel, the tiles at the same position in the lists correspond to each other
+	 * @param backgroundValues
+	 * 			background value for every channel (entries can be null)
+	 * @param flatfields
+	 * 			flatfield correction for every channel (entries can be null)
+	 * @param pairwiseConnectionsMaps
+	 * 			pairwise connections for every channel when exporting only overlaps (entries can be null)
+	 * @return fused image for every channel
+	 */
+	public static <
+		T extends RealType< T > & NativeType< T >,
+		U extends RealType< U > & NativeType< U > >
+	List< ImagePlusImg< T, ? > > fuseTilesWithinCellMultichannel(
+			final DataProvider dataProvider,
+			final FusionMode mode,
+			final List< List< TileInfo > > channelsTilesWithinCell,
+			final Interval targetInterval,
+			final T dataType,
+			final List< Number > backgroundValues,
+			final List< RandomAccessiblePairNullable< U, U > > flatfields,
+			final List< Map< Integer, Set< Integer > > > pairwiseConnectionsMaps,
+			final TileImageCache tileImageCache,
+			final Map< String, RandomAccessibleInterval< T > > loadedTileImages ) throws Exception
+	{
+		switch ( mode )
+		{
+		case MAX_MIN_DISTANCE:
+			return fuseChannelsUsingMaxMinDistance( dataProvider, channelsTilesWithinCell, targetInterval, dataType, backgroundValues, flatfields, pairwiseConnectionsMaps, tileImageCache, loadedTileImages );
+		case BLENDING:
+			return fuseChannelsUsingBlending( dataProvider, channelsTilesWithinCell, targetInterval, dataType, backgroundValues, flatfields, pairwiseConnectionsMaps, tileImageCache, loadedTileImages );
 		default:
 			throw new RuntimeException( "Unknown fusion mode" );
 		}
@@ -114,153 +186,180 @@ public class FusionPerformer
 			final T dataType,
 			final Number backgroundValue,
 			final RandomAccessiblePairNullable< U, U > flatfield,
-			final Map< Integer, Set< Integer > > pairwiseConnectionsMap ) throws Exception
+			final Map< Integer, Set< Integer > > pairwiseConnectionsMap,
+			final TileImageCache tileImageCache,
+			final Map< String, RandomAccessibleInterval< T > > loadedTileImages ) throws Exception
 	{
-		// initialize helper images for blending fusion strategy
-		final RandomAccessibleInterval< FloatType > weights = ArrayImgs.floats( Intervals.dimensionsAsLongArray( targetInterval ) );
-		final RandomAccessibleInterval< FloatType > values = ArrayImgs.floats( Intervals.dimensionsAsLongArray( targetInterval ) );
+		return fuseChannelsUsingBlending(
+				dataProvider,
+				Collections.singletonList( tilesWithinCell ),
+				targetInterval,
+				dataType,
+				Collections.singletonList( backgroundValue ),
+				Collections.singletonList( flatfield ),
+				Collections.singletonList( pairwiseConnectionsMap ),
+				tileImageCache,
+				loadedTileImages
+			).get( 0 );
+	}
 
-		// initialize helper image for tile connections when exporting only overlaps
-		final RandomAccessibleInterval< Set< Integer > > tileIndexes;
-		if ( pairwiseConnectionsMap != null )
-		{
-			final int numElements = ( int ) Intervals.numElements( targetInterval );
-			final List< Set< Integer > > tileIndexesList = new ArrayList<>( numElements );
-			for ( int i = 0; i < numElements; ++i )
-				tileIndexesList.add( new HashSet<>() );
-			tileIndexes = new ListImg<>( tileIndexesList, Intervals.dimensionsAsLongArray( targetInterval ) );
-		}
-		else
-		{
-			tileIndexes = null;
-		}
+	private static <
+		T extends RealType< T > & NativeType< T >,
+		U extends RealType< U > & NativeType< U > >
+	List< ImagePlusImg< T, ? > > fuseChannelsUsingBlending(
+			final DataProvider dataProvider,
+			final List< List< TileInfo > > channelsTilesWithinCell,
+			final Interval targetInterval,
+			final T dataType,
+			final List< Number > backgroundValues,
+			final List< RandomAccessiblePairNullable< U, U > > flatfields,
+			final List< Map< Integer, Set< Integer > > > pairwiseConnectionsMaps,
+			final TileImageCache tileImageCache,
+			final Map< String, RandomAccessibleInterval< T > > loadedTileImages ) throws Exception
+	{
+		final int numChannels = channelsTilesWithinCell.size();
+		final List< TileInfo > tilesWithinCell = channelsTilesWithinCell.get( 0 );
+
+		// initialize helper images for blending fusion strategy (the weights depend only on the tile positions, so they are shared by all channels)
+		final int numElements = ( int ) Intervals.numElements( targetInterval );
+		final float[] weightsArray = new float[ numElements ];
+		final float[][] channelsValuesArrays = new float[ numChannels ][ numElements ];
 
-		for ( final TileInfo tile : tilesWithinCell )
+		// initialize helper structures for tile connections when exporting only overlaps
+		final TileMembership[] channelsTileMemberships = createTileMemberships( channelsTilesWithinCell, numElements, pairwiseConnectionsMaps );
+		final long[] strides = getStrides( targetInterval );
+
+		for ( int tileSlot = 0; tileSlot < tilesWithinCell.size(); ++tileSlot )
 		{
-			System.out.println( "Loading tile image " + tile.getFilePath() );
+			final TileInfo tile = tilesWithinCell.get( tileSlot );
 			final Dimensions tileDimensions = tile.getBoundaries();
 
-			final FinalRealInterval intersection = IntervalsNullable.intersectReal(
-					new FinalRealInterval( tile.getPosition(), tile.getMax() ),
-					targetInterval );
+			final double[] offset = new double[ targetInterval.numDimensions() ];
+			final Interval intersectionIntervalInTargetInterval = getIntersectionInTargetInterval( tile, targetInterval, offset );
+			final List< TileSampler< T, U > > channelsTileSamplers = createTileSamplers( dataProvider, channelsTilesWithinCell, tileSlot, flatfields, offset, intersectionIntervalInTargetInterval, tileImageCache, loadedTileImages );
 
-			if ( intersection == null )
-				throw new IllegalArgumentException( "tilesWithinCell contains a tile that doesn't intersect with the target interval:\n" + "Tile " + tile.getIndex() + " at " + Arrays.toString( tile.getPosition() ) + " of size " + Arrays.toString( tile.getSize() ) + "\n" + "Output cell " + " at " + Arrays.toString( Intervals.minAsIntArray( targetInterval ) ) + " of size " + Arrays.toString( Intervals.dimensionsAsIntArray( targetInterval ) ) );
+			// the blending weight is a function of the product of the per-axis distances, so it is enough to compute them once for every row
+			final double[][] axisWeights = getBlendingAxisWeights( intersectionIntervalInTargetInterval, offset, tileDimensions, FRACTION_BLENDED );
 
-			final double[] offset = new double[ targetInterval.numDimensions() ];
-			final long[] minIntersectionInTargetInterval = new long[ targetInterval.numDimensions() ];
-			final long[] maxIntersectionInTargetInterval = new long[ targetInterval.numDimensions() ];
-			for ( int d = 0; d < minIntersectionInTargetInterval.length; ++d )
+			final int rowLength = ( int ) intersectionIntervalInTargetInterval.dimension( 0 );
+			final double[] rowWeights = new double[ rowLength ];
+			final float[] rowValues = new float[ rowLength ];
+			final int[] rowPosition = new int[ intersectionIntervalInTargetInterval.numDimensions() ];
+			do
 			{
-				offset[ d ] = tile.getPosition( d ) - targetInterval.min( d );
-				minIntersectionInTargetInterval[ d ] = ( long ) Math.floor( intersection.realMin( d ) ) - targetInterval.min( d );
-				maxIntersectionInTargetInterval[ d ] = ( long ) Math.ceil ( intersection.realMax( d ) ) - targetInterval.min( d );
-			}
-			final Interval intersectionIntervalInTargetInterval = new FinalInterval( minIntersectionInTargetInterval, maxIntersectionInTargetInterval );
-			final Translation translation = new Translation( offset );
+				double rowAxisWeightsProduct = 1;
+				for ( int d = 1; d < rowPosition.length; ++d )
+					rowAxisWeightsProduct *= axisWeights[ d ][ rowPosition[ d ] ];
 
-			final RandomAccessibleInterval< T > rawTile = TileLoader.loadTile( tile, dataProvider );
-			final RandomAccessibleInterval< R > convertedTile = ( RandomAccessibleInterval ) Converters.convert( rawTile, new RealFloatConverter<>(), new FloatType() );
-			final RandomAccessible< R > extendedTile = Views.extendBorder( convertedTile );
-			final RealRandomAccessible< R > interpolatedTile = Views.interpolate( extendedTile, new NLinearInterpolatorFactory<>() );
-			final RandomAccessible< R > rasteredInterpolatedTile = Views.raster( RealViews.affine( interpolatedTile, translation ) );
-			final RandomAccessibleInterval< R > interpolatedTileInterval = Views.interval( rasteredInterpolatedTile, intersectionIntervalInTargetInterval );
+				final int rowIndex = ( int ) getRowIndex( intersectionIntervalInTargetInterval, rowPosition, strides );
+				for ( int x = 0; x < rowLength; ++x )
+				{
+					rowWeights[ x ] = getBlendingWeight( axisWeights[ 0 ][ x ] * rowAxisWeightsProduct );
+					weightsArray[ rowIndex + x ] += rowWeights[ x ];
+				}
 
-			final RandomAccessibleInterval< R > sourceInterval;
-			if ( flatfield != null )
-			{
-				final RandomAccessible< U >[] flatfieldComponents = new RandomAccessible[] { flatfield.getA(), flatfield.getB() }, adjustedFlatfieldComponents = new RandomAccessible[ 2 ];
-				for ( int i = 0; i < flatfieldComponents.length; ++i )
+				for ( int channel = 0; channel < numChannels; ++channel )
 				{
-					final RandomAccessibleInterval< U > flatfieldComponentInterval = Views.interval( flatfieldComponents[ i ], new FinalInterval( tile.getSize() ) );
-					final RandomAccessible< U > extendedFlatfieldComponent = Views.extendBorder( flatfieldComponentInterval );
-					final RealRandomAccessible< U > interpolatedFlatfieldComponent = Views.interpolate( extendedFlatfieldComponent, new NLinearInterpolatorFactory<>() );
-					final RandomAccessible< U > rasteredInterpolatedFlatfieldComponent = Views.raster( RealViews.affine( interpolatedFlatfieldComponent, translation ) );
-					adjustedFlatfieldComponents[ i ] = Views.interval( rasteredInterpolatedFlatfieldComponent, intersectionIntervalInTargetInterval );
+					channelsTileSamplers.get( channel ).sampleRow( rowPosition, rowValues );
+					final float[] valuesArray = channelsValuesArrays[ channel ];
+					for ( int x = 0; x < rowLength; ++x )
+						valuesArray[ rowIndex + x ] += rowValues[ x ] * rowWeights[ x ];
+
+					if ( channelsTileMemberships[ channel ] != null )
+						channelsTileMemberships[ channel ].add( tileSlot, rowIndex, rowLength );
 				}
-				final RandomAccessiblePair< U, U > adjustedFlatfield = new RandomAccessiblePair<>( adjustedFlatfieldComponents[ 0 ], adjustedFlatfieldComponents[ 1 ] );
-				final FlatfieldCorrectedRandomAccessible< R, U > flatfieldCorrectedTile = new FlatfieldCorrectedRandomAccessible<>( interpolatedTileInterval, adjustedFlatfield );
-				final RandomAccessibleInterval< U > flatfieldCorrectedInterval = Views.interval( flatfieldCorrectedTile, intersectionIntervalInTargetInterval );
-				sourceInterval = ( RandomAccessibleInterval ) Converters.convert( flatfieldCorrectedInterval, new RealFloatConverter<>(), new FloatType() );
 			}
-			else
-			{
-				sourceInterval = interpolatedTileInterval;
-			}
-
-			final RandomAccessibleInterval< FloatType > weightsInterval = Views.interval( weights, intersectionIntervalInTargetInterval ) ;
-			final RandomAccessibleInterval< FloatType > valuesInterval = Views.interval( values, intersectionIntervalInTargetInterval ) ;
-			final RandomAccessibleInterval< Set< Integer > > tileIndexesInterval = tileIndexes != null ? Views.interval( tileIndexes, intersectionIntervalInTargetInterval ) : null;
+			while ( nextRow( intersectionIntervalInTargetInterval, rowPosition ) );
+		}
 
-			final Cursor< R > sourceCursor = Views.flatIterable( sourceInterval ).localizingCursor();
-			final Cursor< FloatType > weightsCursor = Views.flatIterable( weightsInterval ).cursor();
-			final Cursor< FloatType > valuesCursor = Views.flatIterable( valuesInterval ).cursor();
-			final Cursor< Set< Integer > > tileIndexesCursor = tileIndexesInterval != null ? Views.flatIterable( tileIndexesInterval ).cursor() : null;
+		final List< ImagePlusImg< T, ? > > channelsOut = new ArrayList<>();
+		for ( int channel = 0; channel < numChannels; ++channel )
+		{
+			final T fillType = dataType.createVariable();
+			if ( backgroundValues.get( channel ) != null)
+				fillType.setReal( backgroundValues.get( channel ).doubleValue() );
 
-			final double[] position = new double[ sourceCursor.numDimensions() ];
-			while ( sourceCursor.hasNext() || weightsCursor.hasNext() || valuesCursor.hasNext() || ( tileIndexesCursor != null && tileIndexesCursor.hasNext() ) )
+			// initialize output image
+			final ImagePlusImg< T, ? > out = new ImagePlusImgFactory< T >().create( Intervals.dimensionsAsLongArray( targetInterval ), dataType.createVariable() );
+			final float[] valuesArray = channelsValuesArrays[ channel ];
+			final Cursor< T > outCursor = Views.flatIterable( out ).cursor();
+			for ( int i = 0; i < numElements; ++i )
 			{
-				final double value = sourceCursor.next().getRealDouble();
-
-				sourceCursor.localize( position );
-				for ( int d = 0; d < position.length; ++d )
-					position[ d ] -= offset[ d ];
-				final double weight = getBlendingWeight( position, tileDimensions, FRACTION_BLENDED );
-
-				final FloatType weightAccum = weightsCursor.next();
-				final FloatType valueAccum = valuesCursor.next();
-				weightAccum.setReal( weightAccum.getRealDouble() + weight );
-				valueAccum.setReal( valueAccum.getRealDouble() + value * weight );
-
-				if ( tileIndexesCursor != null )
-					tileIndexesCursor.next().add( tile.getIndex() );
+				final double weight = weightsArray[ i ];
+				outCursor.next().setReal( weight == 0 ? fillType.getRealDouble() : valuesArray[ i ] / weight );
 			}
-		}
 
-		final T fillType = dataType.createVariable();
-		if ( backgroundValue != null)
-			fillType.setReal( backgroundValue.doubleValue() );
+			// retain only requested content within overlaps that corresponds to pairwise connections map
+			if ( channelsTileMemberships[ channel ] != null )
+				retainConnectedPixels( out, channelsTileMemberships[ channel ], fillType );
 
-		// initialize output image
-		final ImagePlusImg< T, ? > out = new ImagePlusImgFactory< T >().create( Intervals.dimensionsAsLongArray( targetInterval ), dataType.createVariable() );
-		final Cursor< FloatType > weightsCursor = Views.flatIterable( weights ).cursor();
-		final Cursor< FloatType > valuesCursor = Views.flatIterable( values ).cursor();
-		final Cursor< T > outCursor = Views.flatIterable( out ).cursor();
-		while ( outCursor.hasNext() || weightsCursor.hasNext() || valuesCursor.hasNext() )
-		{
-			final double weight = weightsCursor.next().getRealDouble();
-			final double value = valuesCursor.next().getRealDouble();
-			outCursor.next().setReal( weight == 0 ? fillType.getRealDouble() : value / weight );
+			channelsOut.add( out );
 		}
+		return channelsOut;
+	}
 
-		// retain only requested content within overlaps that corresponds to pairwise connections map
-		if ( tileIndexes != null )
+	private static final int BLENDING_RAMP_SIZE = 1 << 12;
+	private static final double[] BLENDING_RAMP = new double[ BLENDING_RAMP_SIZE + 1 ];
+	static
+	{
+		for ( int i = 0; i <= BLENDING_RAMP_SIZE; ++i )
+			BLENDING_RAMP[ i ] = ( Math.cos( ( 1 - ( double ) i / BLENDING_RAMP_SIZE ) * Math.PI ) + 1 ) / 2;
+	}
+
+	/**
+	 * Computes the normalized distances to the closer tile border along each axis (1 if farther than the blending area)
+	 * for every position of the interval, so the blending weight at any point can be evaluated from their product.
+	 *
+	 * @param interval
+	 * 			the interval in the coordinate space of the target cell
+	 * @param offset
+	 * 			position of the tile in the coordinate space of the target cell
+	 * @return distances as [dimension][position within the interval]
+	 */
+	static double[][] getBlendingAxisWeights( final Interval interval, final double[] offset, final Dimensions dimensions, final double percentScaling )
+	{
+		final double[][] axisWeights = new double[ interval.numDimensions() ][];
+		for ( int dim = 0; dim < axisWeights.length; ++dim )
 		{
-			outCursor.reset();
-			final Cursor< Set< Integer > > tileIndexesCursor = Views.flatIterable( tileIndexes ).cursor();
-			while ( outCursor.hasNext() || tileIndexesCursor.hasNext() )
+			final float imgAreaBlend = Math.round( percentScaling * 0.5f * ( dimensions.dimension( dim ) - 1 ) );
+			axisWeights[ dim ] = new double[ ( int ) interval.dimension( dim ) ];
+			for ( int i = 0; i < axisWeights[ dim ].length; ++i )
 			{
-				boolean retainPixel = false;
-				final Set< Integer > tilesAtPoint = tileIndexesCursor.next();
-				for ( final Integer testTileIndex : tilesAtPoint )
-				{
-					final Set< Integer > connectedTileIndexes = pairwiseConnectionsMap.get( testTileIndex );
-					if ( connectedTileIndexes != null && !Collections.disjoint( tilesAtPoint, connectedTileIndexes ) )
-					{
-						retainPixel = true;
-						break;
-					}
-				}
+				// the position in the image
+				final double localImgPos = interval.min( dim ) + i - offset[ dim ];
 
-				outCursor.fwd();
-				if ( !retainPixel )
-					outCursor.get().set( fillType );
+				// the distance to the border that is closer
+				final double value = Math.max( 1, Math.min( localImgPos, dimensions.dimension( dim ) - 1 - localImgPos ) );
+
+				axisWeights[ dim ][ i ] = value < imgAreaBlend ? value / imgAreaBlend : 1;
 			}
 		}
+		return axisWeights;
+	}
 
-		return out;
+	/**
+	 * Evaluates the cosine blending ramp using the precomputed table with linear interpolation (the error is below 1e-7).
+	 *
+	 * @param minDistance
+	 * 			product of the normalized distances to the tile borders along each axis [0...1]
+	 */
+	static double getBlendingWeight( final double minDistance )
+	{
+		if ( minDistance >= 1 )
+			return 1;
+		else if ( minDistance <= 0 )
+			return 0.0000001;
+
+		final double scaled = minDistance * BLENDING_RAMP_SIZE;
+		final int i = ( int ) scaled;
+		final double t = scaled - i;
+		return BLENDING_RAMP[ i ] + ( BLENDING_RAMP[ i + 1 ] - BLENDING_RAMP[ i ] ) * t;
 	}
-	private static double getBlendingWeight( final double[] location, final Dimensions dimensions, final double percentScaling )
+
+	/**
+	 * Evaluates the blending weight at a single point of the tile (the reference for the precomputed weights).
+	 */
+	static double getBlendingWeight( final double[] location, final Dimensions dimensions, final double percentScaling )
 	{
 		// compute multiplicative distance to the respective borders [0...1]
 		double minDistance = 1;
@@ -302,151 +401,321 @@ public class FusionPerformer
 			final T dataType,
 			final Number backgroundValue,
 			final RandomAccessiblePairNullable< U, U > flatfield,
-			final Map< Integer, Set< Integer > > pairwiseConnectionsMap ) throws Exception
+			final Map< Integer, Set< Integer > > pairwiseConnectionsMap,
+			final TileImageCache tileImageCache,
+			final Map< String, RandomAccessibleInterval< T > > loadedTileImages ) throws Exception
 	{
-		// initialize output image
-		final ImagePlusImg< T, ? > out = new ImagePlusImgFactory< T >().create( Intervals.dimensionsAsLongArray( targetInterval ), dataType.createVariable() );
+		return fuseChannelsUsingMaxMinDistance(
+				dataProvider,
+				Collections.singletonList( tilesWithinCell ),
+				targetInterval,
+				dataType,
+				Collections.singletonList( backgroundValue ),
+				Collections.singletonList( flatfield ),
+				Collections.singletonList( pairwiseConnectionsMap ),
+				tileImageCache,
+				loadedTileImages
+			).get( 0 );
+	}
 
-		final T fillType = dataType.createVariable();
-		if ( backgroundValue != null)
-			fillType.setReal( backgroundValue.doubleValue() );
+	private static <
+		T extends RealType< T > & NativeType< T >,
+		U extends RealType< U > & NativeType< U > >
+	List< ImagePlusImg< T, ? > > fuseChannelsUsingMaxMinDistance(
+			final DataProvider dataProvider,
+			final List< List< TileInfo > > channelsTilesWithinCell,
+			final Interval targetInterval,
+			final T dataType,
+			final List< Number > backgroundValues,
+			final List< RandomAccessiblePairNullable< U, U > > flatfields,
+			final List< Map< Integer, Set< Integer > > > pairwiseConnectionsMaps,
+			final TileImageCache tileImageCache,
+			final Map< String, RandomAccessibleInterval< T > > loadedTileImages ) throws Exception
+	{
+		final int numChannels = channelsTilesWithinCell.size();
+		final List< TileInfo > tilesWithinCell = channelsTilesWithinCell.get( 0 );
+
+		// initialize output images
+		final List< ImagePlusImg< T, ? > > channelsOut = new ArrayList<>();
+		final List< T > channelsFillTypes = new ArrayList<>();
+		final List< RandomAccess< T > > channelsOutRandomAccesses = new ArrayList<>();
+		for ( int channel = 0; channel < numChannels; ++channel )
+		{
+			final ImagePlusImg< T, ? > out = new ImagePlusImgFactory< T >().create( Intervals.dimensionsAsLongArray( targetInterval ), dataType.createVariable() );
 
-		// fill with default value
-		if ( backgroundValue != null )
-			for ( final T outVal : out )
-				outVal.set( fillType );
+			final T fillType = dataType.createVariable();
+			if ( backgroundValues.get( channel ) != null)
+				fillType.setReal( backgroundValues.get( channel ).doubleValue() );
 
-		// initialize helper image for hard-cut fusion strategy
-		final RandomAccessibleInterval< FloatType > maxMinDistances = ArrayImgs.floats( Intervals.dimensionsAsLongArray( targetInterval ) );
+			// fill with default value
+			if ( backgroundValues.get( channel ) != null )
+				for ( final T outVal : out )
+					outVal.set( fillType );
 
-		// initialize helper image for tile connections when exporting only overlaps
-		final RandomAccessibleInterval< Set< Integer > > tileIndexes;
-		if ( pairwiseConnectionsMap != null )
-		{
-			final List< Set< Integer > > tileIndexesList = new ArrayList<>( ( int ) out.size() );
-			for ( int i = 0; i < out.size(); ++i )
-				tileIndexesList.add( new HashSet<>() );
-			tileIndexes = new ListImg<>( tileIndexesList, Intervals.dimensionsAsLongArray( targetInterval ) );
-		}
-		else
-		{
-			tileIndexes = null;
+			channelsOut.add( out );
+			channelsFillTypes.add( fillType );
+			channelsOutRandomAccesses.add( out.randomAccess() );
 		}
 
-		for ( final TileInfo tile : tilesWithinCell )
-		{
-			System.out.println( "Loading tile image " + tile.getFilePath() );
+		// initialize helper image for hard-cut fusion strategy (the distances depend only on the tile positions, so they are shared by all channels)
+		final int numElements = ( int ) Intervals.numElements( targetInterval );
+		final float[] maxMinDistancesArray = new float[ numElements ];
 
-			final FinalRealInterval intersection = IntervalsNullable.intersectReal(
-					new FinalRealInterval( tile.getPosition(), tile.getMax() ),
-					targetInterval );
+		// initialize helper structures for tile connections when exporting only overlaps
+		final TileMembership[] channelsTileMemberships = createTileMemberships( channelsTilesWithinCell, numElements, pairwiseConnectionsMaps );
+		final long[] strides = getStrides( targetInterval );
 
-			if ( intersection == null )
-				throw new IllegalArgumentException( "tilesWithinCell contains a tile that doesn't intersect with the target interval:\n" + "Tile " + tile.getIndex() + " at " + Arrays.toString( tile.getPosition() ) + " of size " + Arrays.toString( tile.getSize() ) + "\n" + "Output cell " + " at " + Arrays.toString( Intervals.minAsIntArray( targetInterval ) ) + " of size " + Arrays.toString( Intervals.dimensionsAsIntArray( targetInterval ) ) );
+		for ( int tileSlot = 0; tileSlot < tilesWithinCell.size(); ++tileSlot )
+		{
+			final TileInfo tile = tilesWithinCell.get( tileSlot );
 
 			final double[] offset = new double[ targetInterval.numDimensions() ];
-			final long[] minIntersectionInTargetInterval = new long[ targetInterval.numDimensions() ];
-			final long[] maxIntersectionInTargetInterval = new long[ targetInterval.numDimensions() ];
-			for ( int d = 0; d < minIntersectionInTargetInterval.length; ++d )
-			{
-				offset[ d ] = tile.getPosition( d ) - targetInterval.min( d );
-				minIntersectionInTargetInterval[ d ] = ( long ) Math.floor( intersection.realMin( d ) ) - targetInterval.min( d );
-				maxIntersectionInTargetInterval[ d ] = ( long ) Math.ceil ( intersection.realMax( d ) ) - targetInterval.min( d );
-			}
-			final Interval intersectionIntervalInTargetInterval = new FinalInterval( minIntersectionInTargetInterval, maxIntersectionInTargetInterval );
-			final Translation translation = new Translation( offset );
-
-			final RandomAccessibleInterval< T > rawTile = TileLoader.loadTile( tile, dataProvider );
-			final RandomAccessibleInterval< R > convertedTile = ( RandomAccessibleInterval ) Converters.convert( rawTile, new RealFloatConverter<>(), new FloatType() );
-			final RandomAccessible< R > extendedTile = Views.extendBorder( convertedTile );
-			final RealRandomAccessible< R > interpolatedTile = Views.interpolate( extendedTile, new NLinearInterpolatorFactory<>() );
-			final RandomAccessible< R > rasteredInterpolatedTile = Views.raster( RealViews.affine( interpolatedTile, translation ) );
-			final RandomAccessibleInterval< R > interpolatedTileInterval = Views.interval( rasteredInterpolatedTile, intersectionIntervalInTargetInterval );
+			final Interval intersectionIntervalInTargetInterval = getIntersectionInTargetInterval( tile, targetInterval, offset );
+			final List< TileSampler< T, U > > channelsTileSamplers = createTileSamplers( dataProvider, channelsTilesWithinCell, tileSlot, flatfields, offset, intersectionIntervalInTargetInterval, tileImageCache, loadedTileImages );
 
-			final RandomAccessibleInterval< R > sourceInterval;
-			if ( flatfield != null )
+			// distance to the closer tile border along every axis
+			final double[][] axisDistances = new double[ offset.length ][];
+			for ( int d = 0; d < offset.length; ++d )
 			{
-				final RandomAccessible< U >[] flatfieldComponents = new RandomAccessible[] { flatfield.getA(), flatfield.getB() }, adjustedFlatfieldComponents = new RandomAccessible[ 2 ];
-				for ( int i = 0; i < flatfieldComponents.length; ++i )
+				axisDistances[ d ] = new double[ ( int ) intersectionIntervalInTargetInterval.dimension( d ) ];
+				for ( int i = 0; i < axisDistances[ d ].length; ++i )
 				{
-					final RandomAccessibleInterval< U > flatfieldComponentInterval = Views.interval( flatfieldComponents[ i ], new FinalInterval( tile.getSize() ) );
-					final RandomAccessible< U > extendedFlatfieldComponent = Views.extendBorder( flatfieldComponentInterval );
-					final RealRandomAccessible< U > interpolatedFlatfieldComponent = Views.interpolate( extendedFlatfieldComponent, new NLinearInterpolatorFactory<>() );
-					final RandomAccessible< U > rasteredInterpolatedFlatfieldComponent = Views.raster( RealViews.affine( interpolatedFlatfieldComponent, translation ) );
-					adjustedFlatfieldComponents[ i ] = Views.interval( rasteredInterpolatedFlatfieldComponent, intersectionIntervalInTargetInterval );
+					final double position = intersectionIntervalInTargetInterval.min( d ) + i;
+					axisDistances[ d ][ i ] = Math.min(
+							position - offset[ d ],
+							tile.getSize( d ) - 1 + offset[ d ] - position );
 				}
-				final RandomAccessiblePair< U, U > adjustedFlatfield = new RandomAccessiblePair<>( adjustedFlatfieldComponents[ 0 ], adjustedFlatfieldComponents[ 1 ] );
-				final FlatfieldCorrectedRandomAccessible< R, U > flatfieldCorrectedTile = new FlatfieldCorrectedRandomAccessible<>( interpolatedTileInterval, adjustedFlatfield );
-				final RandomAccessibleInterval< U > flatfieldCorrectedInterval = Views.interval( flatfieldCorrectedTile, intersectionIntervalInTargetInterval );
-				sourceInterval = ( RandomAccessibleInterval ) Converters.convert( flatfieldCorrectedInterval, new RealFloatConverter<>(), new FloatType() );
 			}
-			else
+
+			final int rowLength = ( int ) intersectionIntervalInTargetInterval.dimension( 0 );
+			final float[][] channelsRowValues = new float[ numChannels ][ rowLength ];
+			final int[] rowPosition = new int[ intersectionIntervalInTargetInterval.numDimensions() ];
+			final long[] outPosition = new long[ rowPosition.length ];
+			do
 			{
-				sourceInterval = interpolatedTileInterval;
-			}
+				for ( int channel = 0; channel < numChannels; ++channel )
+					channelsTileSamplers.get( channel ).sampleRow( rowPosition, channelsRowValues[ channel ] );
 
-			final RandomAccessibleInterval< T > outInterval = Views.interval( out, intersectionIntervalInTargetInterval ) ;
-			final RandomAccessibleInterval< FloatType > maxMinDistanceInterval = Views.interval( maxMinDistances, intersectionIntervalInTargetInterval ) ;
-			final RandomAccessibleInterval< Set< Integer > > tileIndexesInterval = tileIndexes != null ? Views.interval( tileIndexes, intersectionIntervalInTargetInterval ) : null;
+				double rowMinDistance = Double.MAX_VALUE;
+				for ( int d = 1; d < rowPosition.length; ++d )
+					rowMinDistance = Math.min( axisDistances[ d ][ rowPosition[ d ] ], rowMinDistance );
 
-			final Cursor< R > sourceCursor = Views.flatIterable( sourceInterval ).localizingCursor();
-			final Cursor< T > outCursor = Views.flatIterable( outInterval ).cursor();
-			final Cursor< FloatType > maxMinDistanceCursor = Views.flatIterable( maxMinDistanceInterval ).cursor();
-			final Cursor< Set< Integer > > tileIndexesCursor = tileIndexesInterval != null ? Views.flatIterable( tileIndexesInterval ).cursor() : null;
+				for ( int d = 0; d < outPosition.length; ++d )
+					outPosition[ d ] = intersectionIntervalInTargetInterval.min( d ) + rowPosition[ d ];
+				for ( final RandomAccess< T > outRandomAccess : channelsOutRandomAccesses )
+					outRandomAccess.setPosition( outPosition );
 
-			while ( sourceCursor.hasNext() || outCursor.hasNext() || maxMinDistanceCursor.hasNext() || ( tileIndexesCursor != null && tileIndexesCursor.hasNext() ) )
-			{
-				sourceCursor.fwd();
-				outCursor.fwd();
-				final FloatType maxMinDistance = maxMinDistanceCursor.next();
-				double minDistance = Double.MAX_VALUE;
-				for ( int d = 0; d < offset.length; ++d )
-				{
-					final double cursorPosition = sourceCursor.getDoublePosition( d );
-					final double dx = Math.min(
-							cursorPosition - offset[ d ],
-							tile.getSize( d ) - 1 + offset[ d ] - cursorPosition );
-					if ( dx < minDistance ) minDistance = dx;
-				}
-				if ( minDistance >= maxMinDistance.get() )
+				final int rowIndex = ( int ) getRowIndex( intersectionIntervalInTargetInterval, rowPosition, strides );
+				for ( int x = 0; x < rowLength; ++x )
 				{
-					maxMinDistance.setReal( minDistance );
-					outCursor.get().setReal( sourceCursor.get().getRealDouble() );
+					final double minDistance = Math.min( axisDistances[ 0 ][ x ], rowMinDistance );
+					if ( minDistance >= maxMinDistancesArray[ rowIndex + x ] )
+					{
+						maxMinDistancesArray[ rowIndex + x ] = ( float ) minDistance;
+						for ( int channel = 0; channel < numChannels; ++channel )
+							channelsOutRandomAccesses.get( channel ).get().setReal( channelsRowValues[ channel ][ x ] );
+					}
+					for ( final RandomAccess< T > outRandomAccess : channelsOutRandomAccesses )
+						outRandomAccess.fwd( 0 );
 				}
 
-				if ( tileIndexesCursor != null )
-					tileIndexesCursor.next().add( tile.getIndex() );
+				for ( final TileMembership tileMembership : channelsTileMemberships )
+					if ( tileMembership != null )
+						tileMembership.add( tileSlot, rowIndex, rowLength );
 			}
+			while ( nextRow( intersectionIntervalInTargetInterval, rowPosition ) );
 		}
 
 		// retain only requested content within overlaps that corresponds to pairwise connections map
-		if ( tileIndexes != null )
+		for ( int channel = 0; channel < numChannels; ++channel )
+			if ( channelsTileMemberships[ channel ] != null )
+				retainConnectedPixels( channelsOut.get( channel ), channelsTileMemberships[ channel ], channelsFillTypes.get( channel ) );
+
+		return channelsOut;
+	}
+
+	/**
+	 * Computes the intersection of the tile with the target interval.
+	 *
+	 * @param offset
+	 * 			output array for the position of the tile in the coordinate space of the target interval
+	 * @return intersection in the coordinate space of the target interval
+	 */
+	private static Interval getIntersectionInTargetInterval( final TileInfo tile, final Interval targetInterval, final double[] offset )
+	{
+		final FinalRealInterval intersection = IntervalsNullable.intersectReal(
+				new FinalRealInterval( tile.getPosition(), tile.getMax() ),
+				targetInterval );
+
+		if ( intersection == null )
+			throw new IllegalArgumentException( "tilesWithinCell contains a tile that doesn't intersect with the target interval:\n" + "Tile " + tile.getIndex() + " at " + Arrays.toString( tile.getPosition() ) + " of size " + Arrays.toString( tile.getSize() ) + "\n" + "Output cell " + " at " + Arrays.toString( Intervals.minAsIntArray( targetInterval ) ) + " of size " + Arrays.toString( Intervals.dimensionsAsIntArray( targetInterval ) ) );
+
+		final long[] minIntersectionInTargetInterval = new long[ targetInterval.numDimensions() ];
+		final long[] maxIntersectionInTargetInterval = new long[ targetInterval.numDimensions() ];
+		for ( int d = 0; d < minIntersectionInTargetInterval.length; ++d )
 		{
-			final Cursor< T > outCursor = Views.flatIterable( out ).cursor();
-			final Cursor< Set< Integer > > tileIndexesCursor = Views.flatIterable( tileIndexes ).cursor();
-			while ( outCursor.hasNext() || tileIndexesCursor.hasNext() )
+			offset[ d ] = tile.getPosition( d ) - targetInterval.min( d );
+			minIntersectionInTargetInterval[ d ] = ( long ) Math.floor( intersection.realMin( d ) ) - targetInterval.min( d );
+			maxIntersectionInTargetInterval[ d ] = ( long ) Math.ceil ( intersection.realMax( d ) ) - targetInterval.min( d );
+		}
+		return new FinalInterval( minIntersectionInTargetInterval, maxIntersectionInTargetInterval );
+	}
+
+	/**
+	 * Loads the images of the tile at the given slot for all channels and creates their samplers.
+	 */
+	private static <
+		T extends RealType< T > & NativeType< T >,
+		U extends RealType< U > & NativeType< U > >
+	List< TileSampler< T, U > > createTileSamplers(
+			final DataProvider dataProvider,
+			final List< List< TileInfo > > channelsTilesWithinCell,
+			final int tileSlot,
+			final List< RandomAccessiblePairNullable< U, U > > flatfields,
+			final double[] offset,
+			final Interval intersectionIntervalInTargetInterval,
+			final TileImageCache tileImageCache,
+			final Map< String, RandomAccessibleInterval< T > > loadedTileImages ) throws IOException
+	{
+		final List< TileSampler< T, U > > channelsTileSamplers = new ArrayList<>();
+		for ( int channel = 0; channel < channelsTilesWithinCell.size(); ++channel )
+		{
+			final TileInfo channelTile = channelsTilesWithinCell.get( channel ).get( tileSlot );
+			System.out.println( "Loading tile image " + channelTile.getFilePath() );
+			final RandomAccessibleInterval< T > rawTile = loadTile( channelTile, dataProvider, tileImageCache, loadedTileImages );
+			channelsTileSamplers.add( new TileSampler<>( rawTile, flatfields.get( channel ), channelTile, offset, intersectionIntervalInTargetInterval ) );
+		}
+		return channelsTileSamplers;
+	}
+
+	private static TileMembership[] createTileMemberships(
+			final List< List< TileInfo > > channelsTilesWithinCell,
+			final int numElements,
+			final List< Map< Integer, Set< Integer > > > pairwiseConnectionsMaps )
+	{
+		final TileMembership[] channelsTileMemberships = new TileMembership[ channelsTilesWithinCell.size() ];
+		for ( int channel = 0; channel < channelsTileMemberships.length; ++channel )
+			if ( pairwiseConnectionsMaps.get( channel ) != null )
+				channelsTileMemberships[ channel ] = new TileMembership( channelsTilesWithinCell.get( channel ), numElements, pairwiseConnectionsMaps.get( channel ) );
+		return channelsTileMemberships;
+	}
+
+	private static < T extends RealType< T > & NativeType< T > > void retainConnectedPixels( final ImagePlusImg< T, ? > out, final TileMembership tileMembership, final T fillType )
+	{
+		final Cursor< T > outCursor = Views.flatIterable( out ).cursor();
+		int pixelIndex = 0;
+		while ( outCursor.hasNext() )
+		{
+			outCursor.fwd();
+			if ( !tileMembership.isConnected( pixelIndex++ ) )
+				outCursor.get().set( fillType );
+		}
+	}
+
+
+	/**
+	 * Samples the rows of the translated tile image, and applies the flatfield correction if it is provided
+	 * (the flatfield components are translated and interpolated in the same way as the tile image).
+	 */
+	private static class TileSampler< T extends RealType< T >, U extends RealType< U > >
+	{
+		private final TileRowSampler< T > imageSampler;
+		private final TileRowSampler< U > flatfieldScaleSampler, flatfieldTranslationSampler;
+		private final float[] flatfieldScaleRow, flatfieldTranslationRow;
+
+		public TileSampler(
+				final RandomAccessibleInterval< T > tileImage,
+				final RandomAccessiblePairNullable< U, U > flatfield,
+				final TileInfo tile,
+				final double[] offset,
+				final Interval interval )
+		{
+			imageSampler = new TileRowSampler<>( tileImage, offset, interval );
+			if ( flatfield != null )
 			{
-				boolean retainPixel = false;
-				final Set< Integer > tilesAtPoint = tileIndexesCursor.next();
-				for ( final Integer testTileIndex : tilesAtPoint )
-				{
-					final Set< Integer > connectedTileIndexes = pairwiseConnectionsMap.get( testTileIndex );
-					if ( connectedTileIndexes != null && !Collections.disjoint( tilesAtPoint, connectedTileIndexes ) )
-					{
-						retainPixel = true;
-						break;
-					}
-				}
+				final Interval flatfieldInterval = new FinalInterval( tile.getSize() );
+				flatfieldScaleSampler = new TileRowSampler<>( Views.interval( flatfield.getA(), flatfieldInterval ), offset, interval );
+				flatfieldTranslationSampler = new TileRowSampler<>( Views.interval( flatfield.getB(), flatfieldInterval ), offset, interval );
+				flatfieldScaleRow = new float[ ( int ) interval.dimension( 0 ) ];
+				flatfieldTranslationRow = new float[ ( int ) interval.dimension( 0 ) ];
+			}
+			else
+			{
+				flatfieldScaleSampler = flatfieldTranslationSampler = null;
+				flatfieldScaleRow = flatfieldTranslationRow = null;
+			}
+		}
 
-				outCursor.fwd();
-				if ( !retainPixel )
-					outCursor.get().set( fillType );
+		public void sampleRow( final int[] rowPosition, final float[] out )
+		{
+			imageSampler.sampleRow( rowPosition, out );
+			if ( flatfieldScaleSampler != null )
+			{
+				flatfieldScaleSampler.sampleRow( rowPosition, flatfieldScaleRow );
+				flatfieldTranslationSampler.sampleRow( rowPosition, flatfieldTranslationRow );
+				for ( int x = 0; x < flatfieldScaleRow.length; ++x )
+					out[ x ] = out[ x ] * flatfieldScaleRow[ x ] + flatfieldTranslationRow[ x ];
 			}
 		}
+	}
 
-		return out;
+	/**
+	 * @return strides of the flat (X-fastest) index for the given interval
+	 */
+	private static long[] getStrides( final Interval interval )
+	{
+		final long[] strides = new long[ interval.numDimensions() ];
+		strides[ 0 ] = 1;
+		for ( int d = 1; d < strides.length; ++d )
+			strides[ d ] = strides[ d - 1 ] * interval.dimension( d - 1 );
+		return strides;
+	}
+
+	/**
+	 * @return flat index of the first pixel of the row within the target image
+	 */
+	private static long getRowIndex( final Interval rowsInterval, final int[] rowPosition, final long[] strides )
+	{
+		long index = rowsInterval.min( 0 );
+		for ( int d = 1; d < rowPosition.length; ++d )
+			index += ( rowsInterval.min( d ) + rowPosition[ d ] ) * strides[ d ];
+		return index;
 	}
 
+	/**
+	 * Moves to the next row of the interval in the flat iteration order.
+	 *
+	 * @return false if there are no more rows
+	 */
+	private static boolean nextRow( final Interval interval, final int[] rowPosition )
+	{
+		for ( int d = 1; d < rowPosition.length; ++d )
+		{
+			if ( ++rowPosition[ d ] < interval.dimension( d ) )
+				return true;
+			rowPosition[ d ] = 0;
+		}
+		return false;
+	}
+
+	/**
+	 * Loads the tile image, or reuses it if it has already been loaded by the same task.
+	 */
+	private static < T extends RealType< T > & NativeType< T > > RandomAccessibleInterval< T > loadTile(
+			final TileInfo tile,
+			final DataProvider dataProvider,
+			final TileImageCache tileImageCache,
+			final Map< String, RandomAccessibleInterval< T > > loadedTileImages ) throws IOException
+	{
+		final RandomAccessibleInterval< T > loadedImg = loadedTileImages != null ? loadedTileImages.get( tile.getFilePath() ) : null;
+		if ( loadedImg != null )
+			return loadedImg;
+
+		final RandomAccessibleInterval< T > img = tileImageCache != null ? tileImageCache.loadTile( tile, dataProvider ) : TileLoader.loadTile( tile, dataProvider );
+		if ( loadedTileImages != null )
+			loadedTileImages.put( tile.getFilePath(), img );
+		return img;
+	}
 
 	/**
 	 * Performs the fusion of a collection of {@link TileInfo} objects within specified cell.
@@ -0,0 +1,120 @@
+package org.janelia.stitching;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import scala.Tuple2;
+
+/**
+ * Schedules the fusion cells so that the cells sharing the same tiles are processed by the same task.
+ *
+ * The cells are ordered along the Z-order (Morton) curve of their grid positions, which keeps spatially close cells
+ * next to each other, and then split into groups of consecutive cells. The group boundaries are preferably placed
+ * where the set of intersecting tiles changes, so the cells covered by the same tiles are not split between the tasks.
+ * Within a group, every tile image needs to be loaded only once.
+ *
+ * @author Igor Pisarev
+ */
+public class FusionScheduler
+{
+	/**
+	 * Groups the cells for processing by separate tasks.
+	 *
+	 * @param cellsWithTiles
+	 * 			cells along with the indexes of the tiles that intersect with them
+	 * @param cellSize
+	 * 			size of the cells (the last cell in every dimension can be smaller)
+	 * @param numGroups
+	 * 			desired number of groups
+	 * @return groups of cells, the cells within each group are ordered along the Z-order curve
+	 */
+	public static List< List< Tuple2< TileInfo, int[] > > > groupCells(
+			final List< Tuple2< TileInfo, int[] > > cellsWithTiles,
+			final int[] cellSize,
+			final int numGroups )
+	{
+		final List< List< Tuple2< TileInfo, int[] > > > groups = new ArrayList<>();
+		if ( cellsWithTiles.isEmpty() )
+			return groups;
+
+		// order the cells along the Z-order curve of their grid positions
+		final int dim = cellSize.length;
+		final double[] minPosition = new double[ dim ];
+		Arrays.fill( minPosition, Double.POSITIVE_INFINITY );
+		for ( final Tuple2< TileInfo, int[] > cellWithTiles : cellsWithTiles )
+			for ( int d = 0; d < dim; ++d )
+				minPosition[ d ] = Math.min( cellWithTiles._1().getPosition( d ), minPosition[ d ] );
+
+		final List< Tuple2< Long, Tuple2< TileInfo, int[] > > > orderedCells = new ArrayList<>();
+		for ( final Tuple2< TileInfo, int[] > cellWithTiles : cellsWithTiles )
+		{
+			final long[] gridPosition = new long[ dim ];
+			for ( int d = 0; d < dim; ++d )
+				gridPosition[ d ] = Math.round( ( cellWithTiles._1().getPosition( d ) - minPosition[ d ] ) / cellSize[ d ] );
+			orderedCells.add( new Tuple2<>( getZOrderIndex( gridPosition ), cellWithTiles ) );
+		}
+		orderedCells.sort( ( a, b ) -> Long.compare( a._1(), b._1() ) );
+
+		// split into groups of consecutive cells, preferably where the set of intersecting tiles changes
+		final int targetGroupSize = ( int ) Math.ceil( ( double ) cellsWithTiles.size() / Math.max( numGroups, 1 ) );
+		final int maxGroupSize = targetGroupSize * 2;
+		List< Tuple2< TileInfo, int[] > > group = new ArrayList<>();
+		int[] prevTiles = null;
+		for ( final Tuple2< Long, Tuple2< TileInfo, int[] > > orderedCell : orderedCells )
+		{
+			final int[] tiles = orderedCell._2()._2();
+			if ( group.size() >= maxGroupSize || ( group.size() >= targetGroupSize && !sameTiles( tiles, prevTiles ) ) )
+			{
+				groups.add( group );
+				group = new ArrayList<>();
+			}
+			group.add( orderedCell._2() );
+			prevTiles = tiles;
+		}
+		groups.add( group );
+		return groups;
+	}
+
+	/**
+	 * @return total number of tile loads that are needed to process the given groups of cells if every tile is loaded once per group
+	 */
+	public static long getTileLoadsCount( final List< List< Tuple2< TileInfo, int[] > > > groups )
+	{
+		long tileLoads = 0;
+		for ( final List< Tuple2< TileInfo, int[] > > group : groups )
+		{
+			final Set< Integer > groupTiles = new HashSet<>();
+			for ( final Tuple2< TileInfo, int[] > cellWithTiles : group )
+				for ( final int tile : cellWithTiles._2() )
+					groupTiles.add( tile );
+			tileLoads += groupTiles.size();
+		}
+		return tileLoads;
+	}
+
+	/**
+	 * Interleaves the bits of the grid coordinates (up to 21 bits per coordinate in 3D).
+	 */
+	static long getZOrderIndex( final long[] gridPosition )
+	{
+		final int bitsPerDim = 63 / gridPosition.length;
+		long index = 0;
+		for ( int bit = 0; bit < bitsPerDim; ++bit )
+			for ( int d = 0; d < gridPosition.length; ++d )
+				index |= ( ( gridPosition[ d ] >> bit ) & 1L ) << ( bit * gridPosition.length + d );
+		return index;
+	}
+
+	private static boolean sameTiles( final int[] tiles, final int[] otherTiles )
+	{
+		if ( otherTiles == null )
+			return false;
+		final int[] sortedTiles = tiles.clone(), sortedOtherTiles = otherTiles.clone();
+		Arrays.sort( sortedTiles );
+		Arrays.sort( sortedOtherTiles );
+		return Arrays.equals( sortedTiles, sortedOtherTiles );
+	}
+}
@@ -2,16 +2,30 @@ package org.janelia.stitching;
 
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.janelia.util.Conversions;
+import org.janelia.util.UnionFind;
 
 import mpicbg.models.ErrorStatistic;
+import mpicbg.models.Model;
 import mpicbg.models.Point;
 import mpicbg.models.PointMatch;
 import mpicbg.models.Tile;
@@ -80,6 +94,39 @@ public class GlobalOptimizationPerformer
 	public int remainingGraphSize;
 	public double avgDisplacement, maxDisplacement;
 
+	private final boolean directSolver;
+	private final boolean allGraphs;
+	private final int numThreads;
+
+	public GlobalOptimizationPerformer()
+	{
+		this( false );
+	}
+
+	/**
+	 * @param directSolver
+	 * 			solve the translation-only problem directly as a sparse least-squares system instead of the iterative relaxation
+	 */
+	public GlobalOptimizationPerformer( final boolean directSolver )
+	{
+		this( directSolver, false, 1 );
+	}
+
+	/**
+	 * @param directSolver
+	 * 			solve the translation-only problem directly as a sparse least-squares system instead of the iterative relaxation
+	 * @param allGraphs
+	 * 			keep and optimize all connected tile graphs instead of only the largest one
+	 * @param numThreads
+	 * 			number of threads for optimizing the graphs concurrently
+	 */
+	public GlobalOptimizationPerformer( final boolean directSolver, final boolean allGraphs, final int numThreads )
+	{
+		this.directSolver = directSolver;
+		this.allGraphs = allGraphs;
+		this.numThreads = Math.max( numThreads, 1 );
+	}
+
 	public static void suppressOutput()
 	{
 		System.setOut( suppressedOut );
@@ -386,8 +433,8 @@ public class GlobalOptimizationPerformer
 			if ( tilesSet.isEmpty() )
 				return null;
 
-			// trash everything but the largest graph
-			final ArrayList< Set< Tile< ? > > > graphs = Tile.identifyConnectedGraphs( tilesSet );
+			// trash everything but the largest graph (unless all graphs need to be kept)
+			final List< Set< Tile< ? > > > graphs = identifyConnectedGraphs( tilesSet );
 			Log.info( "Number of tile graphs = " + graphs.size() );
 
 			if ( logWriter != null )
@@ -396,25 +443,12 @@ public class GlobalOptimizationPerformer
 				logWriter.println( "Tile graphs: " + graphs.size() );
 			}
 
-			int largestGraphSize = 0;
-			int largestGraphId = -1;
 			int graphSizesSum = 0;
-
 			final TreeMap< Integer, Integer > graphSizeToCount = new TreeMap<>();
-
-			for ( int i = 0; i < graphs.size(); ++i )
+			for ( final Set< Tile< ? > > graph : graphs )
 			{
-				final int graphSize = graphs.get( i ).size();
-
-				graphSizesSum += graphSize;
-
-				if ( graphSize > largestGraphSize )
-				{
-					largestGraphSize = graphSize;
-					largestGraphId = i;
-				}
-
-				graphSizeToCount.put( graphSize, graphSizeToCount.getOrDefault( graphSize, 0 ) + 1 );
+				graphSizesSum += graph.size();
+				graphSizeToCount.put( graph.size(), graphSizeToCount.getOrDefault( graph.size(), 0 ) + 1 );
 			}
 
 			for ( final Entry< Integer, Integer > entry : graphSizeToCount.descendingMap().entrySet() )
@@ -424,43 +458,42 @@ public class GlobalOptimizationPerformer
 					logWriter.println( "   " + entry.getKey() + " tiles: " + entry.getValue() + " graphs" );
 			}
 
-			final ArrayList< Tile< ? > > largestGraph = new ArrayList< >();
-			largestGraph.addAll( graphs.get( largestGraphId ) );
+			final int largestGraphSize = graphs.get( 0 ).size();
+			final List< Set< Tile< ? > > > selectedGraphs = allGraphs ? graphs : graphs.subList( 0, 1 );
 			tilesSet.clear();
-			tilesSet.addAll( largestGraph );
+			for ( final Set< Tile< ? > > graph : selectedGraphs )
+				tilesSet.addAll( graph );
 
-			System.out.println( "Using the largest graph of size " + largestGraphSize + " (throwing away " + ( graphSizesSum - largestGraphSize ) + " tiles from smaller graphs)" );
+			final String selectedGraphsMessage = allGraphs ?
+					"Using all " + graphs.size() + " graphs (the largest graph has " + largestGraphSize + " tiles)" :
+					"Using the largest graph of size " + largestGraphSize + " (throwing away " + ( graphSizesSum - largestGraphSize ) + " tiles from smaller graphs)";
+			System.out.println( selectedGraphsMessage );
 			if ( logWriter != null )
-				logWriter.println(  "Using the largest graph of size " + largestGraphSize + " (throwing away " + ( graphSizesSum - largestGraphSize ) + " tiles from smaller graphs)" );
+				logWriter.println( selectedGraphsMessage );
 			remainingGraphSize = largestGraphSize;
 
-
+			// every graph is optimized separately, the merged configuration is only used for collecting the results
+			final List< TileConfiguration > graphConfigurations = new ArrayList<>();
 			tc = new TileConfiguration();
-			tc.addTiles( tilesSet );
-
-			// find a useful fixed tile
-			for ( final Tile<?> tile : tilesSet )
-				if ( tile.getConnectedTiles().size() > 0 )
-				{
-					tc.fixTile( tile );
-					break;
-				}
+			for ( final Set< Tile< ? > > graph : selectedGraphs )
+			{
+				final TileConfiguration graphConfiguration = new TileConfiguration();
+				graphConfiguration.addTiles( graph );
 
-			//Log.info(" tiles size =" + tiles.size());
-			//Log.info(" tc.getTiles() size =" + tc.getTiles().size());
+				// find a useful fixed tile
+				for ( final Tile<?> tile : graph )
+					if ( tile.getConnectedTiles().size() > 0 )
+					{
+						graphConfiguration.fixTile( tile );
+						break;
+					}
 
-			final ArrayList< Set< Tile< ? > > > graphsDebug = Tile.identifyConnectedGraphs( tilesSet );
-			final ArrayList< Integer > graphsSize = new ArrayList<>();
-			graphSizesSum = 0;
-			for ( final Set< Tile< ? > > graph : graphsDebug )
-			{
-				graphsSize.add( graph.size() );
-				graphSizesSum += graph.size();
+				graphConfigurations.add( graphConfiguration );
+				tc.addTiles( graph );
+				for ( final Tile< ? > fixedTile : graphConfiguration.getFixedTiles() )
+					tc.fixTile( fixedTile );
 			}
-			Collections.sort( graphsSize );
-			Collections.reverse( graphsSize );
-			System.out.println( "Tiles total = " + tc.getTiles().size() + ",   graphs=" + graphsDebug.size() + ",   sum="+graphSizesSum );
-			System.out.println( graphsSize );
+			System.out.println( "Tiles total = " + tc.getTiles().size() + ",   graphs=" + graphConfigurations.size() );
 
 			try
 			{
@@ -470,20 +503,19 @@ public class GlobalOptimizationPerformer
 
 				long elapsed = System.nanoTime();
 
-				final int iterations = 2000;
-				tc.preAlign();
-
-				TileUtil.optimizeConcurrently(
-						new ErrorStatistic( iterations + 1 ),
-						10,
-						iterations,
-						iterations,
-						1.f,
-						tc,
-						tc.getTiles(),
-						tc.getFixedTiles(),
-						1 // single-threaded because run with different configurations in parallel using Spark
-					);
+				// optimize the graphs independently and merge the errors in the same order regardless of the completion order
+				final List< Callable< double[] > > graphTasks = new ArrayList<>();
+				for ( final TileConfiguration graphConfiguration : graphConfigurations )
+					graphTasks.add( () -> optimizeGraph( graphConfiguration, params.dimensionality ) );
+				final double[][] graphErrors = runGraphTasks( graphTasks );
+
+				double avgError = 0, maxError = 0;
+				for ( int i = 0; i < graphConfigurations.size(); ++i )
+				{
+					avgError += graphErrors[ i ][ 0 ] * graphConfigurations.get( i ).getTiles().size();
+					maxError = Math.max( graphErrors[ i ][ 1 ], maxError );
+				}
+				avgError /= tc.getTiles().size();
 
 				elapsed = System.nanoTime() - elapsed;
 
@@ -509,10 +541,6 @@ public class GlobalOptimizationPerformer
 					observer.configurationUpdated( this, updatedTilesConfiguration );
 				}
 
-
-				final double avgError = tc.getError();
-				final double maxError = tc.getMaxError();
-
 				itersCount++;
 
 
@@ -693,6 +721,337 @@ public class GlobalOptimizationPerformer
 
 		return imageInformationList;
 	}
+
+	/**
+	 * Optimizes the tile graph given in the compact representation without creating the Fiji tile objects.
+	 * Sets {@link #remainingGraphSize}, {@link #avgDisplacement}, and {@link #maxDisplacement} the same way as
+	 * {@link #optimize(Vector, StitchingParameters)} would do for the corresponding {@link ComparePair}s.
+	 *
+	 * @param graph
+	 * @param validEdges
+	 * 			edges of the graph that should be used for the optimization
+	 */
+	public void optimize( final TileGraph graph, final BitSet validEdges ) throws Exception
+	{
+		remainingGraphSize = 0;
+		avgDisplacement = maxDisplacement = 0;
+
+		final List< int[] > components = graph.getConnectedComponents( validEdges );
+		if ( components.isEmpty() )
+			return;
+
+		final List< int[] > selectedComponents = allGraphs ? components : components.subList( 0, 1 );
+		remainingGraphSize = components.get( 0 ).length;
+
+		// collect the edges for every component
+		final int[] tileComponent = new int[ graph.numTiles() ];
+		Arrays.fill( tileComponent, -1 );
+		for ( int c = 0; c < selectedComponents.size(); ++c )
+			for ( final int tile : selectedComponents.get( c ) )
+				tileComponent[ tile ] = c;
+		final int[] componentEdgesCount = new int[ selectedComponents.size() ];
+		for ( int e = validEdges.nextSetBit( 0 ); e >= 0; e = validEdges.nextSetBit( e + 1 ) )
+			if ( tileComponent[ graph.getEdgeTileA( e ) ] != -1 )
+				++componentEdgesCount[ tileComponent[ graph.getEdgeTileA( e ) ] ];
+		final int[][] componentEdges = new int[ selectedComponents.size() ][];
+		for ( int c = 0; c < selectedComponents.size(); ++c )
+			componentEdges[ c ] = new int[ componentEdgesCount[ c ] ];
+		Arrays.fill( componentEdgesCount, 0 );
+		for ( int e = validEdges.nextSetBit( 0 ); e >= 0; e = validEdges.nextSetBit( e + 1 ) )
+		{
+			final int c = tileComponent[ graph.getEdgeTileA( e ) ];
+			if ( c != -1 )
+				componentEdges[ c ][ componentEdgesCount[ c ]++ ] = e;
+		}
+
+		final boolean needSuppressingAndRestoringOutput = System.out != suppressedOut;
+		if ( needSuppressingAndRestoringOutput )
+			suppressOutput();
+
+		final double[][] componentErrors;
+		try
+		{
+			final List< Callable< double[] > > componentTasks = new ArrayList<>();
+			for ( int c = 0; c < selectedComponents.size(); ++c )
+			{
+				final int[] tiles = selectedComponents.get( c ), edges = componentEdges[ c ];
+				componentTasks.add( () -> directSolver ? solveDirectly( graph, tiles, edges ) : relax( createTileConfiguration( graph, tiles, edges ) ) );
+			}
+			componentErrors = runGraphTasks( componentTasks );
+		}
+		finally
+		{
+			if ( needSuppressingAndRestoringOutput )
+				restoreOutput();
+		}
+
+		int tilesCount = 0;
+		for ( int c = 0; c < selectedComponents.size(); ++c )
+		{
+			avgDisplacement += componentErrors[ c ][ 0 ] * selectedComponents.get( c ).length;
+			maxDisplacement = Math.max( componentErrors[ c ][ 1 ], maxDisplacement );
+			tilesCount += selectedComponents.get( c ).length;
+		}
+		avgDisplacement /= tilesCount;
+	}
+
+	/**
+	 * Runs the tasks on the thread pool if multiple threads are allowed.
+	 *
+	 * @return results of the tasks in the same order as the tasks
+	 */
+	private double[][] runGraphTasks( final List< Callable< double[] > > tasks ) throws Exception
+	{
+		final double[][] results = new double[ tasks.size() ][];
+		final int graphThreads = Math.min( numThreads, tasks.size() );
+		if ( graphThreads > 1 )
+		{
+			final ExecutorService threadPool = Executors.newFixedThreadPool( graphThreads );
+			try
+			{
+				final List< Future< double[] > > futures = threadPool.invokeAll( tasks );
+				for ( int i = 0; i < futures.size(); ++i )
+					results[ i ] = futures.get( i ).get();
+			}
+			finally
+			{
+				threadPool.shutdown();
+			}
+		}
+		else
+		{
+			for ( int i = 0; i < tasks.size(); ++i )
+				results[ i ] = tasks.get( i ).call();
+		}
+		return results;
+	}
+
+	/**
+	 * @return shift of the tile B relative to the tile A for the given edge of the graph (the z component is discarded if {@link #ignoreZ} is set)
+	 */
+	private static double[] getEdgeShift( final TileGraph graph, final int edge )
+	{
+		final double[] shift = Conversions.toDoubleArray( graph.getEdgeShift( edge ) );
+		if ( ignoreZ && shift.length == 3 )
+			shift[ 2 ] = 0;
+		return shift;
+	}
+
+	/**
+	 * Creates plain mpicbg tiles (without any Fiji image objects) for the given component of the graph.
+	 * The tile with the smallest index is fixed.
+	 */
+	private static TileConfiguration createTileConfiguration( final TileGraph graph, final int[] tiles, final int[] edges ) throws Exception
+	{
+		final Map< Integer, Tile< ? > > mpicbgTiles = new HashMap<>();
+		for ( final int tile : tiles )
+			mpicbgTiles.put( tile, createTile( graph.getTilePosition( tile ) ) );
+
+		for ( final int edge : edges )
+		{
+			final Tile t1 = mpicbgTiles.get( graph.getEdgeTileA( edge ) );
+			final Tile t2 = mpicbgTiles.get( graph.getEdgeTileB( edge ) );
+
+			// the transformations that map each tile into the relative global coordinate system (that's why the "-")
+			final double[] shift = getEdgeShift( graph, edge );
+			for ( int d = 0; d < shift.length; ++d )
+				shift[ d ] = -shift[ d ];
+			final Point p1 = new Point( new double[ shift.length ] );
+			final Point p2 = new Point( shift );
+
+			t1.addMatch( new PointMatch( p1, p2, graph.getEdgeWeight( edge ) ) );
+			t2.addMatch( new PointMatch( p2, p1, graph.getEdgeWeight( edge ) ) );
+			t1.addConnectedTile( t2 );
+			t2.addConnectedTile( t1 );
+		}
+
+		final TileConfiguration tc = new TileConfiguration();
+		for ( final int tile : tiles )
+			tc.addTile( mpicbgTiles.get( tile ) );
+		tc.fixTile( mpicbgTiles.get( tiles[ 0 ] ) );
+		return tc;
+	}
+
+	private static < M extends Model< M > > Tile< M > createTile( final double[] position ) throws Exception
+	{
+		final M model = TileModelFactory.createOffsetModel( position );
+		return new Tile<>( model );
+	}
+
+	/**
+	 * Solves the translation-only problem for the given component of the graph directly (see {@link #solveDirectly(TileConfiguration, int)}).
+	 * The tile with the smallest index is fixed.
+	 *
+	 * @return average and max tile displacement computed the same way as in {@link TileConfiguration}
+	 */
+	private static double[] solveDirectly( final TileGraph graph, final int[] tiles, final int[] edges )
+	{
+		final Map< Integer, Integer > localIndexes = new HashMap<>();
+		final double[][] initialPositions = new double[ tiles.length ][];
+		for ( int i = 0; i < tiles.length; ++i )
+		{
+			localIndexes.put( tiles[ i ], i );
+			initialPositions[ i ] = graph.getTilePosition( tiles[ i ] );
+		}
+
+		final TranslationLeastSquaresSolver solver = new TranslationLeastSquaresSolver( tiles.length, graph.numDimensions() );
+		for ( final int edge : edges )
+			solver.addEdge( localIndexes.get( graph.getEdgeTileA( edge ) ), localIndexes.get( graph.getEdgeTileB( edge ) ), getEdgeShift( graph, edge ), graph.getEdgeWeight( edge ) );
+		solver.fixTile( 0 );
+		final double[][] solution = solver.solve( initialPositions );
+
+		// every tile has its own copy of the match, so the distance of the edge contributes to both tiles
+		final double[] tileDistanceSum = new double[ tiles.length ];
+		final int[] tileMatches = new int[ tiles.length ];
+		for ( int e = 0; e < edges.length; ++e )
+		{
+			final double distance = solver.getResidual( e, solution );
+			for ( final int tile : new int[] { localIndexes.get( graph.getEdgeTileA( edges[ e ] ) ), localIndexes.get( graph.getEdgeTileB( edges[ e ] ) ) } )
+			{
+				tileDistanceSum[ tile ] += distance;
+				++tileMatches[ tile ];
+			}
+		}
+
+		double avgError = 0, maxError = 0;
+		for ( int i = 0; i < tiles.length; ++i )
+		{
+			final double tileDistance = tileMatches[ i ] > 0 ? tileDistanceSum[ i ] / tileMatches[ i ] : 0;
+			avgError += tileDistance;
+			maxError = Math.max( tileDistance, maxError );
+		}
+		avgError /= tiles.length;
+		return new double[] { avgError, maxError };
+	}
+
+	/**
+	 * Finds connected tile graphs using union-find over the tile indices.
+	 *
+	 * @return connected graphs sorted by size in descending order, graphs of the same size are sorted by their smallest tile index
+	 */
+	private static List< Set< Tile< ? > > > identifyConnectedGraphs( final Set< Tile< ? > > tilesSet )
+	{
+		final List< Tile< ? > > tiles = new ArrayList<>( tilesSet );
+		tiles.sort( ( a, b ) -> Integer.compare( ( ( ImagePlusTimePoint ) a ).getImpId(), ( ( ImagePlusTimePoint ) b ).getImpId() ) );
+
+		final Map< Tile< ? >, Integer > tileIndexes = new IdentityHashMap<>();
+		for ( int i = 0; i < tiles.size(); ++i )
+			tileIndexes.put( tiles.get( i ), i );
+
+		final UnionFind unionFind = new UnionFind( tiles.size() );
+		for ( int i = 0; i < tiles.size(); ++i )
+		{
+			for ( final Tile< ? > connectedTile : tiles.get( i ).getConnectedTiles() )
+			{
+				final Integer connectedTileIndex = tileIndexes.get( connectedTile );
+				if ( connectedTileIndex != null )
+					unionFind.union( i, connectedTileIndex );
+			}
+		}
+
+		// tiles are visited in the order of their indices, so the graphs are initially ordered by their smallest tile index
+		final Map< Integer, Set< Tile< ? > > > rootToGraph = new LinkedHashMap<>();
+		for ( int i = 0; i < tiles.size(); ++i )
+			rootToGraph.computeIfAbsent( unionFind.find( i ), root -> new LinkedHashSet<>() ).add( tiles.get( i ) );
+
+		final List< Set< Tile< ? > > > graphs = new ArrayList<>( rootToGraph.values() );
+		graphs.sort( ( a, b ) -> -Integer.compare( a.size(), b.size() ) );
+		return graphs;
+	}
+
+	/**
+	 * Optimizes a single connected tile graph.
+	 *
+	 * @return average and max tile displacement
+	 */
+	private double[] optimizeGraph( final TileConfiguration graphConfiguration, final int numDimensions ) throws Exception
+	{
+		if ( directSolver )
+			return solveDirectly( graphConfiguration, numDimensions );
+		else
+			return relax( graphConfiguration );
+	}
+
+	/**
+	 * Optimizes the tile configuration with the iterative relaxation.
+	 *
+	 * @return average and max tile displacement
+	 */
+	private static double[] relax( final TileConfiguration graphConfiguration ) throws Exception
+	{
+		final int iterations = 2000;
+		graphConfiguration.preAlign();
+
+		TileUtil.optimizeConcurrently(
+				new ErrorStatistic( iterations + 1 ),
+				10,
+				iterations,
+				iterations,
+				1.f,
+				graphConfiguration,
+				graphConfiguration.getTiles(),
+				graphConfiguration.getFixedTiles(),
+				1 // single-threaded because the graphs are optimized in parallel, or different configurations are run in parallel using Spark
+			);
+
+		return new double[] { graphConfiguration.getError(), graphConfiguration.getMaxError() };
+	}
+
+	/**
+	 * Finds the optimal translations of the tiles by solving the weighted linear least-squares system on the tile graph
+	 * (the same problem that the iterative relaxation converges to, because all tile models are translations).
+	 *
+	 * @return average and max tile displacement computed the same way as in {@link TileConfiguration}
+	 */
+	private static double[] solveDirectly( final TileConfiguration tc, final int numDimensions ) throws Exception
+	{
+		final List< Tile< ? > > tiles = new ArrayList<>( tc.getTiles() );
+		final Map< Tile< ? >, Integer > tileIndexes = new HashMap<>();
+		for ( int i = 0; i < tiles.size(); ++i )
+			tileIndexes.put( tiles.get( i ), i );
+
+		final TranslationLeastSquaresSolver solver = new TranslationLeastSquaresSolver( tiles.size(), numDimensions );
+		final double[][] initialPositions = new double[ tiles.size() ][];
+		for ( int i = 0; i < tiles.size(); ++i )
+		{
+			final Tile< ? > tile = tiles.get( i );
+			initialPositions[ i ] = tile.getModel().apply( new double[ numDimensions ] );
+			if ( tc.getFixedTiles().contains( tile ) )
+				solver.fixTile( i );
+
+			for ( final PointMatch match : tile.getMatches() )
+			{
+				// every match is added to both tiles in the opposite directions, use only one of them
+				final ComparePair pair = ( ( PointMatchStitching ) match ).getPair();
+				if ( pair.getTile1() != tile || !tileIndexes.containsKey( pair.getTile2() ) )
+					continue;
+
+				// tile1 + p1 = tile2 + p2
+				final double[] shift = new double[ numDimensions ];
+				for ( int d = 0; d < numDimensions; ++d )
+					shift[ d ] = match.getP1().getL()[ d ] - match.getP2().getL()[ d ];
+				solver.addEdge( i, tileIndexes.get( pair.getTile2() ), shift, match.getWeight() );
+			}
+		}
+
+		final double[][] solution = solver.solve( initialPositions );
+		System.out.println( "Direct solver: " + tiles.size() + " tiles, " + solver.numEdges() + " pairs, " + solver.getLastIterations() + " conjugate gradient iterations" );
+
+		for ( int i = 0; i < tiles.size(); ++i )
+			TileModelFactory.setTranslation( tiles.get( i ).getModel(), solution[ i ] );
+		for ( final Tile< ? > tile : tiles )
+			tile.apply();
+
+		double avgError = 0, maxError = 0;
+		for ( final Tile< ? > tile : tiles )
+		{
+			tile.updateCost();
+			avgError += tile.getDistance();
+			maxError = Math.max( tile.getDistance(), maxError );
+		}
+		avgError /= Math.max( tiles.size(), 1 );
+		return new double[] { avgError, maxError };
+	}
 }
 
 
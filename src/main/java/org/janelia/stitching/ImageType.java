@@ -17,21 +17,23 @@ import net.imglib2.type.numeric.real.FloatType;
 public enum ImageType
 {
 	/** 8-bit grayscale (unsigned) */
-	GRAY8( ImagePlus.GRAY8, new UnsignedByteType() ),
+	GRAY8( ImagePlus.GRAY8, new UnsignedByteType(), 1 ),
 
 	/** 16-bit grayscale (unsigned) */
-	GRAY16( ImagePlus.GRAY16, new UnsignedShortType() ),
+	GRAY16( ImagePlus.GRAY16, new UnsignedShortType(), 2 ),
 
 	/** 32-bit floating-point grayscale */
-	GRAY32( ImagePlus.GRAY32, new FloatType() );
+	GRAY32( ImagePlus.GRAY32, new FloatType(), 4 );
 
 	private final int val;
 	private final RealType< ? > type;
+	private final int bytesPerPixel;
 
-	private ImageType( final int val, final RealType< ? > type )
+	private ImageType( final int val, final RealType< ? > type, final int bytesPerPixel )
 	{
 		this.val = val;
 		this.type = type;
+		this.bytesPerPixel = bytesPerPixel;
 	}
 
 	public RealType< ? > getType()
@@ -39,6 +41,11 @@ public enum ImageType
 		return type;
 	}
 
+	public int getBytesPerPixel()
+	{
+		return bytesPerPixel;
+	}
+
 	// for creating ImageType object from an integer value
 	private static final TreeMap< Integer, ImageType > map = new TreeMap<>();
 	static
@@ -0,0 +1,78 @@
+package org.janelia.stitching;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Intervals;
+import net.imglib2.util.Util;
+
+/**
+ * Tile images that have been loaded by a task and can be reused by its subsequent cells (keyed by the file path).
+ *
+ * The total size of the images is limited by the byte budget. When it is exceeded, the least recently used images are released
+ * and will be loaded again if they are requested later. The most recently added image is always kept,
+ * so the images used by a single cell may exceed the budget, but the images kept for the next cells do not accumulate beyond it.
+ *
+ * @author Igor Pisarev
+ */
+public class LoadedTileImages< T extends RealType< T > > extends LinkedHashMap< String, RandomAccessibleInterval< T > >
+{
+	private static final long serialVersionUID = 4627731873529087306L;
+
+	private final long maxBytes;
+	private long currentBytes;
+	private long evictions;
+
+	public LoadedTileImages( final long maxBytes )
+	{
+		super( 16, 0.75f, true );
+		this.maxBytes = maxBytes;
+	}
+
+	public long getCurrentBytes() { return currentBytes; }
+	public long getEvictions() { return evictions; }
+
+	@Override
+	public RandomAccessibleInterval< T > put( final String key, final RandomAccessibleInterval< T > img )
+	{
+		final RandomAccessibleInterval< T > previousImg = super.put( key, img );
+		if ( previousImg != null )
+			currentBytes -= getBytes( previousImg );
+		currentBytes += getBytes( img );
+
+		for ( final Iterator< Map.Entry< String, RandomAccessibleInterval< T > > > it = entrySet().iterator(); it.hasNext() && currentBytes > maxBytes; )
+		{
+			final Map.Entry< String, RandomAccessibleInterval< T > > entry = it.next();
+			if ( entry.getKey().equals( key ) )
+				continue;
+			currentBytes -= getBytes( entry.getValue() );
+			it.remove();
+			++evictions;
+		}
+		return previousImg;
+	}
+
+	@Override
+	public RandomAccessibleInterval< T > remove( final Object key )
+	{
+		final RandomAccessibleInterval< T > img = super.remove( key );
+		if ( img != null )
+			currentBytes -= getBytes( img );
+		return img;
+	}
+
+	@Override
+	public void clear()
+	{
+		super.clear();
+		currentBytes = 0;
+	}
+
+	static < T extends RealType< T > > long getBytes( final RandomAccessibleInterval< T > img )
+	{
+		return Intervals.numElements( img ) * Math.max( Util.getTypeFromInterval( img ).getBitsPerPixel() / 8, 1 );
+	}
+}
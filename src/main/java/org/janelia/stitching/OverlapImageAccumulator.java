@@ -0,0 +1,166 @@
+package org.janelia.stitching;
+
+import net.imglib2.Cursor;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessible;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.RandomAccessiblePairNullable;
+import net.imglib2.view.Views;
+
+/**
+ * Prepares the overlap image for pairwise stitching by averaging the corresponding crops of all channels.
+ *
+ * Each channel crop is read once and accumulated directly into a primitive float array, with the flatfield correction
+ * applied inline (no intermediate converted or corrected views are created). The pixel sum and the sum of squares of the
+ * resulting average are accumulated in the same loop, so the variance of the unmodified average is available without another pass.
+ *
+ * @author Igor Pisarev
+ */
+public class OverlapImageAccumulator
+{
+	private final long[] dimensions;
+	private final float[] data;
+
+	private int numChannels;
+	private boolean normalized;
+	private double pixelSum, pixelSumSquares;
+
+	public OverlapImageAccumulator( final Interval interval )
+	{
+		dimensions = Intervals.dimensionsAsLongArray( interval );
+		data = new float[ ( int ) Intervals.numElements( dimensions ) ];
+	}
+
+	/**
+	 * Adds the image of the next channel.
+	 *
+	 * @param img
+	 * 			channel crop positioned in the tile coordinate space
+	 * @param flatfield
+	 * 			flatfield correction (S and T images in the tile coordinate space) for this channel, or null
+	 */
+	public < T extends RealType< T >, U extends RealType< U > > void add( final RandomAccessibleInterval< T > img, final RandomAccessiblePairNullable< U, U > flatfield )
+	{
+		if ( normalized )
+			throw new IllegalStateException( "the average has already been computed" );
+		if ( Intervals.numElements( img ) != data.length )
+			throw new IllegalArgumentException( "image size does not match the overlap size" );
+
+		final boolean firstChannel = numChannels == 0;
+		double sum = 0, sumSquares = 0;
+
+		final Cursor< T > cursor = Views.flatIterable( img ).cursor();
+		final Cursor< U > scalingCursor = flatfield != null ? getFlatfieldCursor( flatfield.getA(), img ) : null;
+		final Cursor< U > translationCursor = flatfield != null ? getFlatfieldCursor( flatfield.getB(), img ) : null;
+
+		for ( int i = 0; i < data.length; ++i )
+		{
+			double val = cursor.next().getRealDouble();
+			if ( scalingCursor != null )
+				val *= scalingCursor.next().getRealDouble();
+			if ( translationCursor != null )
+				val += translationCursor.next().getRealDouble();
+
+			final float fval = ( float ) val;
+			if ( firstChannel )
+			{
+				data[ i ] = fval;
+				sum += fval;
+				sumSquares += ( double ) fval * fval;
+			}
+			else
+			{
+				data[ i ] += fval;
+			}
+		}
+
+		// the sums are only valid for the resulting image if there is a single channel, otherwise they are computed on normalization
+		if ( firstChannel )
+		{
+			pixelSum = sum;
+			pixelSumSquares = sumSquares;
+		}
+		++numChannels;
+	}
+
+	private static < U extends RealType< U > > Cursor< U > getFlatfieldCursor( final RandomAccessible< U > flatfieldImg, final Interval interval )
+	{
+		return flatfieldImg != null ? Views.flatIterable( Views.interval( flatfieldImg, interval ) ).cursor() : null;
+	}
+
+	public int numChannels()
+	{
+		return numChannels;
+	}
+
+	/**
+	 * Divides the accumulated values by the number of channels (in place) and wraps the result into an image without copying.
+	 * Note that the returned image shares the data with this accumulator, so if it is modified afterwards (e.g. blurred),
+	 * {@link #getVariance()} no longer describes its contents.
+	 */
+	public ArrayImg< FloatType, FloatArray > getAverage()
+	{
+		if ( !normalized && numChannels > 1 )
+		{
+			final float denom = numChannels;
+			double sum = 0, sumSquares = 0;
+			for ( int i = 0; i < data.length; ++i )
+			{
+				final float val = data[ i ] / denom;
+				data[ i ] = val;
+				sum += val;
+				sumSquares += ( double ) val * val;
+			}
+			pixelSum = sum;
+			pixelSumSquares = sumSquares;
+		}
+		normalized = true;
+		return ArrayImgs.floats( data, dimensions );
+	}
+
+	public double getPixelSum()
+	{
+		return pixelSum;
+	}
+
+	public double getPixelSumSquares()
+	{
+		return pixelSumSquares;
+	}
+
+	public long getNumPixels()
+	{
+		return data.length;
+	}
+
+	/**
+	 * @return variance of the pixel values of the averaged image (see {@link #getAverage()})
+	 */
+	public double getVariance()
+	{
+		return getVariance( this );
+	}
+
+	/**
+	 * @return variance of the pixel values of all given averaged images combined
+	 */
+	public static double getVariance( final OverlapImageAccumulator... accumulators )
+	{
+		double pixelSum = 0, pixelSumSquares = 0;
+		long pixelCount = 0;
+		for ( final OverlapImageAccumulator accumulator : accumulators )
+		{
+			pixelSum += accumulator.getPixelSum();
+			pixelSumSquares += accumulator.getPixelSumSquares();
+			pixelCount += accumulator.getNumPixels();
+		}
+		final double mean = pixelSum / pixelCount;
+		return pixelSumSquares / pixelCount - mean * mean;
+	}
+}
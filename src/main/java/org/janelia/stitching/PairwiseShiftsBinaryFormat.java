@@ -0,0 +1,442 @@
+package org.janelia.stitching;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.Gson;
+
+/**
+ * Compact binary columnar representation of pairwise stitching results (an alternative to the JSON format).
+ *
+ * Every distinct {@link TileInfo} is stored only once in the tile table, and the results reference the tiles by their position in the table.
+ * All numeric properties of the results are stored as primitive arrays, and the pairs are indexed by their (min,max) tile indexes,
+ * so a particular pair can be looked up without materializing the whole list of results.
+ *
+ * Layout (big-endian): magic, version, tile table as JSON, number of pairs, number of peaks for every pair, number of dimensions,
+ * and the result columns (tile A, tile B, flags, offset, cross correlation, phase correlation, variance, displacement).
+ *
+ * @author Igor Pisarev
+ */
+public class PairwiseShiftsBinaryFormat
+{
+	public static final String FILE_EXTENSION = ".bin";
+
+	private static final byte[] MAGIC = "PWSHIFTS".getBytes( StandardCharsets.US_ASCII );
+	private static final int VERSION = 1;
+
+	private static final byte FLAG_VALID = 1 << 0;
+	private static final byte FLAG_OFFSET = 1 << 1;
+	private static final byte FLAG_PHASE_CORRELATION = 1 << 2;
+	private static final byte FLAG_VARIANCE = 1 << 3;
+	private static final byte FLAG_DISPLACEMENT = 1 << 4;
+
+	/**
+	 * Column storage of a list of pairwise results, where every pair may have multiple peaks.
+	 */
+	public static class Columns
+	{
+		private final TileInfo[] tiles;
+		private final int numDimensions;
+
+		// pair i is represented by the results in the range [ pairStart[ i ], pairStart[ i + 1 ] )
+		private final int[] pairStart;
+
+		private final int[] tileA, tileB;
+		private final byte[] flags;
+		private final float[] offsets;
+		private final float[] crossCorrelations;
+		private final float[] phaseCorrelations;
+		private final double[] variances;
+		private final double[] displacements;
+
+		// pair keys (min,max) sorted in ascending order, and the corresponding pair positions
+		private final long[] sortedPairKeys;
+		private final int[] sortedPairs;
+
+		private Columns(
+				final TileInfo[] tiles,
+				final int numDimensions,
+				final int[] pairStart,
+				final int[] tileA,
+				final int[] tileB,
+				final byte[] flags,
+				final float[] offsets,
+				final float[] crossCorrelations,
+				final float[] phaseCorrelations,
+				final double[] variances,
+				final double[] displacements )
+		{
+			this.tiles = tiles;
+			this.numDimensions = numDimensions;
+			this.pairStart = pairStart;
+			this.tileA = tileA;
+			this.tileB = tileB;
+			this.flags = flags;
+			this.offsets = offsets;
+			this.crossCorrelations = crossCorrelations;
+			this.phaseCorrelations = phaseCorrelations;
+			this.variances = variances;
+			this.displacements = displacements;
+
+			final int numPairs = numPairs();
+			final long[] pairKeys = new long[ numPairs ];
+			final Integer[] order = new Integer[ numPairs ];
+			for ( int pair = 0; pair < numPairs; ++pair )
+			{
+				pairKeys[ pair ] = getPairKey( tiles[ tileA[ pairStart[ pair ] ] ].getIndex(), tiles[ tileB[ pairStart[ pair ] ] ].getIndex() );
+				order[ pair ] = pair;
+			}
+			Arrays.sort( order, ( a, b ) -> Long.compare( pairKeys[ a ], pairKeys[ b ] ) );
+
+			sortedPairKeys = new long[ numPairs ];
+			sortedPairs = new int[ numPairs ];
+			for ( int i = 0; i < numPairs; ++i )
+			{
+				sortedPairs[ i ] = order[ i ];
+				sortedPairKeys[ i ] = pairKeys[ order[ i ] ];
+			}
+		}
+
+		public static Columns fromList( final List< SerializablePairWiseStitchingResult[] > shiftsMulti )
+		{
+			final Gson gson = new Gson();
+			final Map< String, Integer > tilesMap = new HashMap<>();
+			final List< TileInfo > tilesList = new ArrayList<>();
+
+			final int[] pairStart = new int[ shiftsMulti.size() + 1 ];
+			for ( int pair = 0; pair < shiftsMulti.size(); ++pair )
+			{
+				if ( shiftsMulti.get( pair ).length == 0 )
+					throw new IllegalArgumentException( "pair " + pair + " does not have any results" );
+				pairStart[ pair + 1 ] = pairStart[ pair ] + shiftsMulti.get( pair ).length;
+			}
+			final int numResults = pairStart[ shiftsMulti.size() ];
+
+			int numDimensions = 0;
+			for ( final SerializablePairWiseStitchingResult[] shiftMulti : shiftsMulti )
+				for ( final SerializablePairWiseStitchingResult shift : shiftMulti )
+					numDimensions = Math.max( numDimensions, shift.getTilePair().getA().numDimensions() );
+
+			final int[] tileA = new int[ numResults ], tileB = new int[ numResults ];
+			final byte[] flags = new byte[ numResults ];
+			final float[] offsets = new float[ numResults * numDimensions ];
+			final float[] crossCorrelations = new float[ numResults ];
+			final float[] phaseCorrelations = new float[ numResults ];
+			final double[] variances = new double[ numResults ];
+			final double[] displacements = new double[ numResults * numDimensions ];
+
+			int result = 0;
+			for ( final SerializablePairWiseStitchingResult[] shiftMulti : shiftsMulti )
+			{
+				for ( final SerializablePairWiseStitchingResult shift : shiftMulti )
+				{
+					for ( int i = 0; i < 2; ++i )
+					{
+						final TileInfo tile = i == 0 ? shift.getTilePair().getA() : shift.getTilePair().getB();
+						final String tileKey = gson.toJson( tile );
+						Integer tileIndex = tilesMap.get( tileKey );
+						if ( tileIndex == null )
+						{
+							tileIndex = tilesList.size();
+							tilesMap.put( tileKey, tileIndex );
+							tilesList.add( tile );
+						}
+						( i == 0 ? tileA : tileB )[ result ] = tileIndex;
+					}
+
+					byte resultFlags = shift.getIsValidOverlap() ? FLAG_VALID : 0;
+					if ( shift.getOffset() != null )
+					{
+						checkDimensionality( shift.getOffset().length, numDimensions );
+						resultFlags |= FLAG_OFFSET;
+						System.arraycopy( shift.getOffset(), 0, offsets, result * numDimensions, numDimensions );
+					}
+					crossCorrelations[ result ] = shift.getCrossCorrelation();
+					if ( shift.getPhaseCorrelation() != null )
+					{
+						resultFlags |= FLAG_PHASE_CORRELATION;
+						phaseCorrelations[ result ] = shift.getPhaseCorrelation();
+					}
+					if ( shift.getVariance() != null )
+					{
+						resultFlags |= FLAG_VARIANCE;
+						variances[ result ] = shift.getVariance();
+					}
+					if ( shift.getDisplacement() != null )
+					{
+						checkDimensionality( shift.getDisplacement().length, numDimensions );
+						resultFlags |= FLAG_DISPLACEMENT;
+						System.arraycopy( shift.getDisplacement(), 0, displacements, result * numDimensions, numDimensions );
+					}
+					flags[ result ] = resultFlags;
+					++result;
+				}
+			}
+
+			return new Columns(
+					tilesList.toArray( new TileInfo[ 0 ] ),
+					numDimensions,
+					pairStart,
+					tileA,
+					tileB,
+					flags,
+					offsets,
+					crossCorrelations,
+					phaseCorrelations,
+					variances,
+					displacements
+				);
+		}
+
+		public int numPairs() { return pairStart.length - 1; }
+		public int numResults() { return flags.length; }
+		public int numDimensions() { return numDimensions; }
+		public TileInfo[] getTiles() { return tiles; }
+
+		public int getNumPeaks( final int pair ) { return pairStart[ pair + 1 ] - pairStart[ pair ]; }
+
+		/**
+		 * @return position of the first (best) result of the pair in the result columns
+		 */
+		public int getFirstResult( final int pair ) { return pairStart[ pair ]; }
+
+		public TileInfo getTileA( final int result ) { return tiles[ tileA[ result ] ]; }
+		public TileInfo getTileB( final int result ) { return tiles[ tileB[ result ] ]; }
+		public boolean getIsValidOverlap( final int result ) { return ( flags[ result ] & FLAG_VALID ) != 0; }
+		public float getCrossCorrelation( final int result ) { return crossCorrelations[ result ]; }
+
+		public float getOffset( final int result, final int d )
+		{
+			if ( ( flags[ result ] & FLAG_OFFSET ) == 0 )
+				throw new IllegalStateException( "result " + result + " does not have an offset" );
+			return offsets[ result * numDimensions + d ];
+		}
+
+		/**
+		 * Looks up the pair of tiles with the given indexes regardless of their order.
+		 *
+		 * @param tileIndex1
+		 * @param tileIndex2
+		 * @return position of the pair, or -1 if there is no such pair
+		 */
+		public int findPair( final int tileIndex1, final int tileIndex2 )
+		{
+			final int i = Arrays.binarySearch( sortedPairKeys, getPairKey( tileIndex1, tileIndex2 ) );
+			return i >= 0 ? sortedPairs[ i ] : -1;
+		}
+
+		/**
+		 * Materializes all the results of the given pair. The returned results share the {@link TileInfo} objects from the tile table.
+		 */
+		public SerializablePairWiseStitchingResult[] getPair( final int pair )
+		{
+			final SerializablePairWiseStitchingResult[] shiftMulti = new SerializablePairWiseStitchingResult[ getNumPeaks( pair ) ];
+			for ( int i = 0; i < shiftMulti.length; ++i )
+				shiftMulti[ i ] = getResult( pairStart[ pair ] + i );
+			return shiftMulti;
+		}
+
+		public SerializablePairWiseStitchingResult getResult( final int result )
+		{
+			final byte resultFlags = flags[ result ];
+			final SerializablePairWiseStitchingResult shift = new SerializablePairWiseStitchingResult(
+					new TilePair( getTileA( result ), getTileB( result ) ),
+					( resultFlags & FLAG_OFFSET ) != 0 ? Arrays.copyOfRange( offsets, result * numDimensions, ( result + 1 ) * numDimensions ) : null,
+					crossCorrelations[ result ],
+					( resultFlags & FLAG_PHASE_CORRELATION ) != 0 ? phaseCorrelations[ result ] : null,
+					( resultFlags & FLAG_VARIANCE ) != 0 ? variances[ result ] : null
+				);
+			if ( ( resultFlags & FLAG_DISPLACEMENT ) != 0 )
+				shift.setDisplacement( Arrays.copyOfRange( displacements, result * numDimensions, ( result + 1 ) * numDimensions ) );
+			shift.setIsValidOverlap( ( resultFlags & FLAG_VALID ) != 0 );
+			return shift;
+		}
+
+		public ArrayList< SerializablePairWiseStitchingResult[] > toList()
+		{
+			final ArrayList< SerializablePairWiseStitchingResult[] > shiftsMulti = new ArrayList<>( numPairs() );
+			for ( int pair = 0; pair < numPairs(); ++pair )
+				shiftsMulti.add( getPair( pair ) );
+			return shiftsMulti;
+		}
+
+		private static long getPairKey( final int tileIndex1, final int tileIndex2 )
+		{
+			return ( ( long ) Math.min( tileIndex1, tileIndex2 ) << 32 ) | ( Math.max( tileIndex1, tileIndex2 ) & 0xffffffffL );
+		}
+
+		private static void checkDimensionality( final int length, final int numDimensions )
+		{
+			if ( length != numDimensions )
+				throw new IllegalArgumentException( "dimensionality mismatch: " + length + " vs " + numDimensions );
+		}
+	}
+
+	/**
+	 * Checks if the stream contains pairwise results in the binary format. The stream should support marking.
+	 */
+	public static boolean isBinary( final InputStream in ) throws IOException
+	{
+		if ( !in.markSupported() )
+			throw new IllegalArgumentException( "the stream does not support marking" );
+
+		in.mark( MAGIC.length );
+		try
+		{
+			final byte[] header = new byte[ MAGIC.length ];
+			int bytesRead = 0;
+			while ( bytesRead < header.length )
+			{
+				final int n = in.read( header, bytesRead, header.length - bytesRead );
+				if ( n < 0 )
+					return false;
+				bytesRead += n;
+			}
+			return Arrays.equals( header, MAGIC );
+		}
+		finally
+		{
+			in.reset();
+		}
+	}
+
+	public static void save( final List< SerializablePairWiseStitchingResult[] > shiftsMulti, final OutputStream out ) throws IOException
+	{
+		save( Columns.fromList( shiftsMulti ), out );
+	}
+
+	public static void save( final Columns columns, final OutputStream out ) throws IOException
+	{
+		final DataOutputStream dataOut = new DataOutputStream( out );
+		dataOut.write( MAGIC );
+		dataOut.writeInt( VERSION );
+
+		final byte[] tilesBytes = new Gson().toJson( columns.tiles ).getBytes( StandardCharsets.UTF_8 );
+		dataOut.writeInt( tilesBytes.length );
+		dataOut.write( tilesBytes );
+
+		final int numPairs = columns.numPairs();
+		final int[] peaksPerPair = new int[ numPairs ];
+		for ( int pair = 0; pair < numPairs; ++pair )
+			peaksPerPair[ pair ] = columns.getNumPeaks( pair );
+		dataOut.writeInt( numPairs );
+		writeInts( dataOut, peaksPerPair );
+
+		dataOut.writeInt( columns.numDimensions );
+		writeInts( dataOut, columns.tileA );
+		writeInts( dataOut, columns.tileB );
+		dataOut.write( columns.flags );
+		writeFloats( dataOut, columns.offsets );
+		writeFloats( dataOut, columns.crossCorrelations );
+		writeFloats( dataOut, columns.phaseCorrelations );
+		writeDoubles( dataOut, columns.variances );
+		writeDoubles( dataOut, columns.displacements );
+		dataOut.flush();
+	}
+
+	public static Columns load( final InputStream in ) throws IOException
+	{
+		final DataInputStream dataIn = new DataInputStream( in );
+		final byte[] header = new byte[ MAGIC.length ];
+		dataIn.readFully( header );
+		if ( !Arrays.equals( header, MAGIC ) )
+			throw new IOException( "not a binary pairwise results file" );
+		final int version = dataIn.readInt();
+		if ( version != VERSION )
+			throw new IOException( "unsupported binary pairwise results version: " + version );
+
+		final byte[] tilesBytes = new byte[ dataIn.readInt() ];
+		dataIn.readFully( tilesBytes );
+		final TileInfo[] tiles = new Gson().fromJson( new String( tilesBytes, StandardCharsets.UTF_8 ), TileInfo[].class );
+
+		final int numPairs = dataIn.readInt();
+		final int[] peaksPerPair = readInts( dataIn, numPairs );
+		final int[] pairStart = new int[ numPairs + 1 ];
+		for ( int pair = 0; pair < numPairs; ++pair )
+			pairStart[ pair + 1 ] = pairStart[ pair ] + peaksPerPair[ pair ];
+		final int numResults = pairStart[ numPairs ];
+
+		final int numDimensions = dataIn.readInt();
+		final int[] tileA = readInts( dataIn, numResults );
+		final int[] tileB = readInts( dataIn, numResults );
+		final byte[] flags = new byte[ numResults ];
+		dataIn.readFully( flags );
+		final float[] offsets = readFloats( dataIn, numResults * numDimensions );
+		final float[] crossCorrelations = readFloats( dataIn, numResults );
+		final float[] phaseCorrelations = readFloats( dataIn, numResults );
+		final double[] variances = readDoubles( dataIn, numResults );
+		final double[] displacements = readDoubles( dataIn, numResults * numDimensions );
+
+		return new Columns(
+				tiles,
+				numDimensions,
+				pairStart,
+				tileA,
+				tileB,
+				flags,
+				offsets,
+				crossCorrelations,
+				phaseCorrelations,
+				variances,
+				displacements
+			);
+	}
+
+	private static void writeInts( final DataOutputStream out, final int[] values ) throws IOException
+	{
+		final ByteBuffer buffer = ByteBuffer.allocate( values.length * Integer.BYTES );
+		buffer.asIntBuffer().put( values );
+		out.write( buffer.array() );
+	}
+
+	private static void writeFloats( final DataOutputStream out, final float[] values ) throws IOException
+	{
+		final ByteBuffer buffer = ByteBuffer.allocate( values.length * Float.BYTES );
+		buffer.asFloatBuffer().put( values );
+		out.write( buffer.array() );
+	}
+
+	private static void writeDoubles( final DataOutputStream out, final double[] values ) throws IOException
+	{
+		final ByteBuffer buffer = ByteBuffer.allocate( values.length * Double.BYTES );
+		buffer.asDoubleBuffer().put( values );
+		out.write( buffer.array() );
+	}
+
+	private static int[] readInts( final DataInputStream in, final int length ) throws IOException
+	{
+		final byte[] bytes = new byte[ length * Integer.BYTES ];
+		in.readFully( bytes );
+		final int[] values = new int[ length ];
+		ByteBuffer.wrap( bytes ).asIntBuffer().get( values );
+		return values;
+	}
+
+	private static float[] readFloats( final DataInputStream in, final int length ) throws IOException
+	{
+		final byte[] bytes = new byte[ length * Float.BYTES ];
+		in.readFully( bytes );
+		final float[] values = new float[ length ];
+		ByteBuffer.wrap( bytes ).asFloatBuffer().get( values );
+		return values;
+	}
+
+	private static double[] readDoubles( final DataInputStream in, final int length ) throws IOException
+	{
+		final byte[] bytes = new byte[ length * Double.BYTES ];
+		in.readFully( bytes );
+		final double[] values = new double[ length ];
+		ByteBuffer.wrap( bytes ).asDoubleBuffer().get( values );
+		return values;
+	}
+}
@@ -0,0 +1,116 @@
+package org.janelia.stitching;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.janelia.dataaccess.DataProvider;
+import org.janelia.dataaccess.PathResolver;
+
+import com.google.gson.JsonParseException;
+
+/**
+ * Stores pairwise stitching results incrementally while they are being computed.
+ *
+ * Every Spark partition saves its results into a separate shard file in the shards folder as soon as it is done,
+ * so if the job fails, the results of the completed partitions are not lost and can be merged on the next run.
+ * A shard is first written under a temporary name and then renamed, so incomplete shards are never picked up.
+ *
+ * @author Igor Pisarev
+ */
+public class PairwiseShiftsShards
+{
+	public static final String SHARDS_FOLDER_NAME = "pairwise-shards";
+
+	private static final String SHARD_EXTENSION = ".json";
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	/**
+	 * Returns the name of the shard for the given partition. The run id makes the name unique across restarts.
+	 */
+	public static String getShardName( final long runId, final int partitionIndex )
+	{
+		return "shard-" + runId + "-" + partitionIndex + SHARD_EXTENSION;
+	}
+
+	/**
+	 * Saves the results of a partition as a shard.
+	 *
+	 * @param dataProvider
+	 * @param shardsPath
+	 * @param shardName
+	 * @param shiftsMulti
+	 * @throws IOException
+	 */
+	public static void saveShard(
+			final DataProvider dataProvider,
+			final String shardsPath,
+			final String shardName,
+			final List< SerializablePairWiseStitchingResult[] > shiftsMulti ) throws IOException
+	{
+		final String shardPath = PathResolver.get( shardsPath, shardName );
+		final String tempShardPath = shardPath + TEMP_SUFFIX;
+		TileInfoJSONProvider.savePairwiseShiftsMulti( shiftsMulti, dataProvider.getJsonWriter( tempShardPath ) );
+
+		// the partition may have been recomputed after a failure
+		if ( dataProvider.exists( shardPath ) )
+			dataProvider.deleteFile( shardPath );
+		dataProvider.moveFile( tempShardPath, shardPath );
+	}
+
+	/**
+	 * Loads the results from all complete shards. Truncated or invalid shards are skipped, so their pairs will be recomputed.
+	 *
+	 * @param dataProvider
+	 * @param shardsPath
+	 * @return
+	 * @throws IOException
+	 */
+	public static List< SerializablePairWiseStitchingResult[] > loadShards( final DataProvider dataProvider, final String shardsPath ) throws IOException
+	{
+		final List< SerializablePairWiseStitchingResult[] > shiftsMulti = new ArrayList<>();
+		if ( !dataProvider.exists( shardsPath ) )
+			return shiftsMulti;
+
+		int shardsLoaded = 0, shardsSkipped = 0;
+		for ( final String fileName : dataProvider.listFiles( shardsPath ) )
+		{
+			if ( !fileName.endsWith( SHARD_EXTENSION ) )
+				continue;
+
+			try
+			{
+				shiftsMulti.addAll( loadShard( dataProvider, PathResolver.get( shardsPath, fileName ) ) );
+				++shardsLoaded;
+			}
+			catch ( final JsonParseException e )
+			{
+				System.out.println( "Pairwise results shard " + fileName + " is malformed (" + e.getMessage() + "), skipping it" );
+				++shardsSkipped;
+			}
+		}
+		System.out.println( "Loaded " + shiftsMulti.size() + " pairwise results from " + shardsLoaded + " shards" + ( shardsSkipped > 0 ? " (" + shardsSkipped + " malformed shards skipped)" : "" ) );
+		return shiftsMulti;
+	}
+
+	/**
+	 * Loads the results from a single shard.
+	 *
+	 * @throws JsonParseException if the shard is truncated or any of its entries is incomplete
+	 */
+	static List< SerializablePairWiseStitchingResult[] > loadShard( final DataProvider dataProvider, final String shardPath ) throws IOException
+	{
+		final List< SerializablePairWiseStitchingResult[] > shardShiftsMulti = TileInfoJSONProvider.loadPairwiseShiftsMulti( dataProvider.getJsonReader( shardPath ) );
+		for ( final SerializablePairWiseStitchingResult[] shiftMulti : shardShiftsMulti )
+			if ( shiftMulti == null || shiftMulti.length == 0 || shiftMulti[ 0 ] == null || shiftMulti[ 0 ].getTilePair() == null ||
+					shiftMulti[ 0 ].getTilePair().getA() == null || shiftMulti[ 0 ].getTilePair().getB() == null )
+				throw new JsonParseException( "incomplete pairwise result entry" );
+		return shardShiftsMulti;
+	}
+
+	public static void deleteShards( final DataProvider dataProvider, final String shardsPath ) throws IOException
+	{
+		if ( dataProvider.exists( shardsPath ) )
+			dataProvider.deleteFolder( shardsPath );
+	}
+}
@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import fiji.stacks.Hyperstack_rearranger;
@@ -45,10 +46,23 @@ import stitching.utils.Log;
 
 public class PairwiseStitchingPerformer
 {
-	static int numThreads;
+	// the settings are per calling thread, so that concurrent tasks within the same JVM do not override each other
+	private static final ThreadLocal< Integer > threadsSetting = ThreadLocal.withInitial( () -> 0 );
+	private static final ThreadLocal< ExecutorService > threadPoolSetting = new ThreadLocal<>();
+
 	public static void setThreads( final int n )
 	{
-		numThreads = n;
+		setThreads( n, null );
+	}
+
+	/**
+	 * @param n number of threads to use (0 to use all available processors)
+	 * @param threadPool shared thread pool that is used for the cross correlation verification instead of spawning new threads, or null
+	 */
+	public static void setThreads( final int n, final ExecutorService threadPool )
+	{
+		threadsSetting.set( n );
+		threadPoolSetting.set( threadPool );
 	}
 
 	public static SerializablePairWiseStitchingResult[] stitchPairwise( final ImagePlus imp1, final ImagePlus imp2,
@@ -238,15 +252,18 @@ public class PairwiseStitchingPerformer
 	{
 		final PhaseCorrelation< T, S > phaseCorr = new PhaseCorrelation<>( img1, img2 );
 		phaseCorr.setInvestigateNumPeaks( numPeaks );
+		phaseCorr.setNumVerifiedPeaksToKeep( numHighestPeaks );
 
 		phaseCorr.setSearchRadiusPointValidator( searchRadiusPointValidator );
 		phaseCorr.setOffsetConverter( offsetConverter );
 
+		final int numThreads = threadsSetting.get();
 		if ( numThreads > 0 )
 		{
 			phaseCorr.setNumThreads( numThreads );
 			phaseCorr.setComputeFFTinParalell( numThreads != 1 );
 		}
+		phaseCorr.setThreadPool( threadPoolSetting.get() );
 
 		if ( subpixelAccuracy )
 			phaseCorr.setKeepPhaseCorrelationMatrix( true );
@@ -632,6 +649,7 @@ public class PairwiseStitchingPerformer
 
 		// run multithreaded
 		final AtomicInteger ai = new AtomicInteger(0);
+		final int numThreads = threadsSetting.get();
 		Thread[] threads;
 		if ( numThreads > 0 )
 			threads = SimpleMultiThreading.newThreads( numThreads );
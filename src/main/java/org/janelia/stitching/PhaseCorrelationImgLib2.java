@@ -0,0 +1,771 @@
+package org.janelia.stitching;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+import org.janelia.util.concurrent.SameThreadExecutorService;
+
+import mpicbg.imglib.algorithm.fft.custom.IntegralCrossCorrelation;
+import mpicbg.imglib.algorithm.fft.custom.PhaseCorrelationPeak;
+import mpicbg.imglib.custom.OffsetConverter;
+import mpicbg.imglib.custom.PointValidator;
+import net.imglib2.Cursor;
+import net.imglib2.FinalDimensions;
+import net.imglib2.FinalInterval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.algorithm.fft2.FFTMethods;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.type.numeric.complex.ComplexFloatType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+/**
+ * Phase correlation between two overlap images that works directly on imglib2 {@link FloatType} images.
+ *
+ * Follows the semantics of the custom imglib1-based {@link mpicbg.imglib.algorithm.fft.custom.PhaseCorrelation}
+ * used by {@link PairwiseStitchingPerformer}: both images are extended by mirroring with a fade-out window
+ * and padded to a fast FFT size, the highest local maxima of the phase correlation matrix are filtered by the
+ * search radius ({@link PointValidator} + {@link OffsetConverter}) and verified with cross correlation,
+ * and the best peaks are optionally refined with subpixel accuracy.
+ *
+ * Unlike the imglib1-based path, the images are not converted back to the input type, copied into an ImagePlus,
+ * and wrapped into imglib1 images again.
+ *
+ * @author Igor Pisarev
+ */
+public class PhaseCorrelationImgLib2
+{
+	private static final double RELATIVE_IMAGE_EXTENSION = 0.1;
+	private static final float NORMALIZATION_THRESHOLD = 1e-5f;
+	private static final int MIN_OVERLAP_PX = 3;
+
+	// total size of the FFT buffers to keep in each thread
+	private static final long MAX_POOLED_BYTES = 256L << 20;
+
+	/**
+	 * FFT sizes and preallocated buffers for a particular size of the extended images.
+	 * Pairs of tiles in a regular grid typically have identical overlap sizes, so the buffers can be reused across pairs.
+	 */
+	static class FFTBuffers
+	{
+		final long[] paddedDimensions, fftDimensions;
+		final ArrayImg< FloatType, FloatArray > padded1, padded2, pcm;
+		final ArrayImg< ComplexFloatType, FloatArray > fft1, fft2;
+
+		FFTBuffers( final long[] extendedDimensions )
+		{
+			paddedDimensions = new long[ extendedDimensions.length ];
+			fftDimensions = new long[ extendedDimensions.length ];
+			FFTMethods.dimensionsRealToComplexFast( new FinalDimensions( extendedDimensions ), paddedDimensions, fftDimensions );
+
+			padded1 = ArrayImgs.floats( paddedDimensions );
+			padded2 = ArrayImgs.floats( paddedDimensions );
+			pcm = ArrayImgs.floats( paddedDimensions );
+			fft1 = ArrayImgs.complexFloats( fftDimensions );
+			fft2 = ArrayImgs.complexFloats( fftDimensions );
+		}
+
+		long getSizeInBytes()
+		{
+			return ( 3 * Intervals.numElements( paddedDimensions ) + 2 * 2 * Intervals.numElements( fftDimensions ) ) * Float.BYTES;
+		}
+	}
+
+	/**
+	 * Per-thread pool of {@link FFTBuffers} keyed by the extended image size, along with allocation stats of the thread.
+	 * The total size of the pooled buffers is limited, the least recently used buffers are evicted first,
+	 * and the buffers that exceed the limit on their own are not pooled.
+	 */
+	static class FFTBuffersPool
+	{
+		final long maxBytes;
+		final Map< String, FFTBuffers > buffers = new LinkedHashMap<>( 16, 0.75f, true );
+		long pooledBytes, allocatedBytes, reusedBytes;
+
+		FFTBuffersPool( final long maxBytes )
+		{
+			this.maxBytes = maxBytes;
+		}
+
+		FFTBuffers get( final long[] extendedDimensions )
+		{
+			final String key = Arrays.toString( extendedDimensions );
+			FFTBuffers fftBuffers = buffers.get( key );
+			if ( fftBuffers == null )
+			{
+				fftBuffers = new FFTBuffers( extendedDimensions );
+				final long bytes = fftBuffers.getSizeInBytes();
+				allocatedBytes += bytes;
+				if ( bytes <= maxBytes )
+				{
+					for ( final Iterator< FFTBuffers > it = buffers.values().iterator(); it.hasNext() && pooledBytes + bytes > maxBytes; )
+					{
+						pooledBytes -= it.next().getSizeInBytes();
+						it.remove();
+					}
+					buffers.put( key, fftBuffers );
+					pooledBytes += bytes;
+				}
+			}
+			else
+			{
+				reusedBytes += fftBuffers.getSizeInBytes();
+			}
+			return fftBuffers;
+		}
+
+		void clear()
+		{
+			buffers.clear();
+			pooledBytes = 0;
+		}
+	}
+
+	private static final ThreadLocal< FFTBuffersPool > fftBuffersPool = ThreadLocal.withInitial( () -> new FFTBuffersPool( MAX_POOLED_BYTES ) );
+
+	/**
+	 * Returns the amount of memory in bytes that has been allocated and reused for FFT buffers by the current thread
+	 * since the last call of this method, and resets the counters.
+	 *
+	 * @return { allocated bytes, reused bytes }
+	 */
+	public static long[] pollBufferStats()
+	{
+		final FFTBuffersPool pool = fftBuffersPool.get();
+		final long[] stats = new long[] { pool.allocatedBytes, pool.reusedBytes };
+		pool.allocatedBytes = pool.reusedBytes = 0;
+		return stats;
+	}
+
+	/**
+	 * @param imageExtension extension in every dimension, or null to use the default relative extension
+	 * @return dimensions of the images extended for the phase correlation (before padding to a fast FFT size)
+	 */
+	static long[] getExtendedDimensions( final long[] dimensions1, final long[] dimensions2, final long[] imageExtension )
+	{
+		final long[] extendedDimensions = new long[ dimensions1.length ];
+		for ( int d = 0; d < extendedDimensions.length; ++d )
+		{
+			final long maxDim = Math.max( dimensions1[ d ], dimensions2[ d ] );
+			extendedDimensions[ d ] = maxDim + Math.max( 2, imageExtension != null ? imageExtension[ d ] : Math.round( maxDim * RELATIVE_IMAGE_EXTENSION ) );
+		}
+		return extendedDimensions;
+	}
+
+	/**
+	 * @return dimensions of the real-valued FFT input that is used for the phase correlation of the images of the given size
+	 */
+	public static long[] getPaddedDimensions( final long[] dimensions1, final long[] dimensions2, final long[] imageExtension )
+	{
+		final long[] extendedDimensions = getExtendedDimensions( dimensions1, dimensions2, imageExtension );
+		final long[] paddedDimensions = new long[ extendedDimensions.length ], fftDimensions = new long[ extendedDimensions.length ];
+		FFTMethods.dimensionsRealToComplexFast( new FinalDimensions( extendedDimensions ), paddedDimensions, fftDimensions );
+		return paddedDimensions;
+	}
+
+	/**
+	 * Releases the FFT buffers pooled by the current thread.
+	 * Should be called when the task is finished, so the memory is not held by the executor thread during the later stages.
+	 */
+	public static void releaseBuffers()
+	{
+		fftBuffersPool.get().clear();
+	}
+
+	/**
+	 * @return total size of the FFT buffers that are currently pooled by the current thread
+	 */
+	static long getPooledBytes()
+	{
+		return fftBuffersPool.get().pooledBytes;
+	}
+
+	/**
+	 * Computes the shifts between two images sorted by cross correlation (the best first).
+	 * The shift is defined such that img1(x + shift) corresponds to img2(x).
+	 *
+	 * @param img1 zero-min image
+	 * @param img2 zero-min image
+	 * @param numPeaks number of phase correlation peaks to investigate
+	 * @param subpixelAccuracy
+	 * @param numHighestPeaks number of results to return
+	 * @param searchRadiusPointValidator used for filtering the peaks if not null
+	 * @param offsetConverter
+	 * @param numThreads number of threads for verifying the peaks
+	 * @return array of size {@code numHighestPeaks}, where entries are null if there are not enough peaks
+	 */
+	public static SerializablePairWiseStitchingResult[] stitchPairwise(
+			final RandomAccessibleInterval< FloatType > img1,
+			final RandomAccessibleInterval< FloatType > img2,
+			final int numPeaks,
+			final boolean subpixelAccuracy,
+			final int numHighestPeaks,
+			final PointValidator searchRadiusPointValidator,
+			final OffsetConverter offsetConverter,
+			final int numThreads )
+	{
+		return stitchPairwise( img1, img2, numPeaks, subpixelAccuracy, numHighestPeaks, searchRadiusPointValidator, offsetConverter, numThreads, null );
+	}
+
+	/**
+	 * Same as above, but computes the FFTs and verifies the peaks with cross correlation using {@code numThreads} threads of the given thread pool.
+	 *
+	 * @param threadPool thread pool for the FFTs and the cross correlation verification (limited to {@code numThreads} concurrent jobs),
+	 * 			or null to run them in the calling thread
+	 */
+	public static SerializablePairWiseStitchingResult[] stitchPairwise(
+			final RandomAccessibleInterval< FloatType > img1,
+			final RandomAccessibleInterval< FloatType > img2,
+			final int numPeaks,
+			final boolean subpixelAccuracy,
+			final int numHighestPeaks,
+			final PointValidator searchRadiusPointValidator,
+			final OffsetConverter offsetConverter,
+			final int numThreads,
+			final ExecutorService threadPool )
+	{
+		return stitchPairwise( img1, img2, numPeaks, subpixelAccuracy, numHighestPeaks, searchRadiusPointValidator, offsetConverter, numThreads, threadPool, null );
+	}
+
+	/**
+	 * Same as above, but extends the images by the given number of pixels instead of the default relative extension.
+	 * A small extension is sufficient if the shift is known to be within a small window (see {@link CoarseToFineRegistration}).
+	 *
+	 * @param imageExtension extension of the larger image in every dimension (at least 2 pixels are used), or null to use the default
+	 */
+	public static SerializablePairWiseStitchingResult[] stitchPairwise(
+			final RandomAccessibleInterval< FloatType > img1,
+			final RandomAccessibleInterval< FloatType > img2,
+			final int numPeaks,
+			final boolean subpixelAccuracy,
+			final int numHighestPeaks,
+			final PointValidator searchRadiusPointValidator,
+			final OffsetConverter offsetConverter,
+			final int numThreads,
+			final ExecutorService threadPool,
+			final long[] imageExtension )
+	{
+		final int n = img1.numDimensions();
+
+		// extend both images to the same fast FFT size
+		final long[] extendedDimensions = getExtendedDimensions( Intervals.dimensionsAsLongArray( img1 ), Intervals.dimensionsAsLongArray( img2 ), imageExtension );
+		final FFTBuffers fftBuffers = fftBuffersPool.get().get( extendedDimensions );
+
+		final long[] offset1 = new long[ n ], offset2 = new long[ n ];
+		final ArrayImg< FloatType, FloatArray > padded1 = extendWithFadeOut( img1, fftBuffers.padded1, offset1 );
+		final ArrayImg< FloatType, FloatArray > padded2 = extendWithFadeOut( img2, fftBuffers.padded2, offset2 );
+
+		// compute the phase correlation matrix (the buffers are entirely overwritten)
+		// the FFTs run on the given thread pool (instead of starting new threads) or in the calling thread
+		final ExecutorService fftExecutorService = threadPool != null ? threadPool : new SameThreadExecutorService();
+		final ArrayImg< ComplexFloatType, FloatArray > fft1 = fftBuffers.fft1;
+		final ArrayImg< ComplexFloatType, FloatArray > fft2 = fftBuffers.fft2;
+		FFTMethods.realToComplex( padded1, fft1, fftExecutorService );
+		FFTMethods.realToComplex( padded2, fft2, fftExecutorService );
+
+		final Cursor< ComplexFloatType > fftCursor1 = fft1.cursor(), fftCursor2 = fft2.cursor();
+		while ( fftCursor1.hasNext() )
+		{
+			final ComplexFloatType val1 = fftCursor1.next(), val2 = fftCursor2.next();
+			normalizeLength( val1 );
+			normalizeLength( val2 );
+			val2.complexConjugate();
+			val1.mul( val2 );
+		}
+
+		final ArrayImg< FloatType, FloatArray > pcm = fftBuffers.pcm;
+		FFTMethods.complexToReal( fft1, pcm, fftExecutorService );
+
+		final int[] offset = new int[ n ];
+		for ( int d = 0; d < n; ++d )
+			offset[ d ] = ( int ) ( offset2[ d ] - offset1[ d ] );
+
+		final List< PhaseCorrelationPeak > peaks = extractPeaks( pcm, numPeaks, offset, searchRadiusPointValidator, offsetConverter );
+		verifyWithCrossCorrelation( peaks, Intervals.dimensionsAsIntArray( pcm ), img1, img2, numHighestPeaks, searchRadiusPointValidator, offsetConverter, threadPool, numThreads );
+
+		final SerializablePairWiseStitchingResult[] result = new SerializablePairWiseStitchingResult[ numHighestPeaks ];
+		for ( int index = 0; index < result.length; ++index )
+		{
+			final int peakSortedDescIndex = peaks.size() - index - 1;
+			if ( peakSortedDescIndex < 0 )
+				continue;
+
+			final PhaseCorrelationPeak peak = peaks.get( peakSortedDescIndex );
+			final int[] position = peak.getPosition();
+			final float[] shift = new float[ n ];
+			if ( subpixelAccuracy )
+			{
+				final double[] subpixelOffset = new double[ n ];
+				final double value = localizeSubpixel( pcm, peak.getOriginalInvPCMPosition(), subpixelOffset );
+				for ( int d = 0; d < n; ++d )
+					shift[ d ] = ( float ) ( position[ d ] + subpixelOffset[ d ] );
+				result[ index ] = new SerializablePairWiseStitchingResult( null, shift, peak.getCrossCorrelationPeak(), ( float ) value );
+			}
+			else
+			{
+				for ( int d = 0; d < n; ++d )
+					shift[ d ] = position[ d ];
+				result[ index ] = new SerializablePairWiseStitchingResult( null, shift, peak.getCrossCorrelationPeak(), peak.getPhaseCorrelationPeak() );
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Places the image at the center of the given larger image and fills the remaining space with mirrored values
+	 * that smoothly fade out towards the border, so the padded image is periodic without sharp edges.
+	 */
+	private static ArrayImg< FloatType, FloatArray > extendWithFadeOut( final RandomAccessibleInterval< FloatType > img, final ArrayImg< FloatType, FloatArray > padded, final long[] offset )
+	{
+		final int n = img.numDimensions();
+		final long[] paddedDimensions = Intervals.dimensionsAsLongArray( padded );
+		for ( int d = 0; d < n; ++d )
+			offset[ d ] = ( paddedDimensions[ d ] - img.dimension( d ) ) / 2;
+
+		final RandomAccess< FloatType > mirroredImgRandomAccess = Views.extendMirrorSingle( img ).randomAccess();
+		final Cursor< FloatType > paddedCursor = padded.localizingCursor();
+		final long[] position = new long[ n ];
+		while ( paddedCursor.hasNext() )
+		{
+			paddedCursor.fwd();
+			paddedCursor.localize( position );
+
+			double weight = 1;
+			for ( int d = 0; d < n; ++d )
+			{
+				position[ d ] -= offset[ d ];
+				if ( position[ d ] < 0 )
+					weight *= fadeOutWeight( -position[ d ], offset[ d ] );
+				else if ( position[ d ] >= img.dimension( d ) )
+					weight *= fadeOutWeight( position[ d ] - img.dimension( d ) + 1, paddedDimensions[ d ] - img.dimension( d ) - offset[ d ] );
+				position[ d ] += img.min( d );
+			}
+
+			mirroredImgRandomAccess.setPosition( position );
+			paddedCursor.get().setReal( mirroredImgRandomAccess.get().getRealDouble() * weight );
+		}
+		return padded;
+	}
+
+	private static double fadeOutWeight( final long distance, final long fadeOutDistance )
+	{
+		return 0.5 * ( 1 + Math.cos( Math.PI * distance / ( fadeOutDistance + 1 ) ) );
+	}
+
+	private static void normalizeLength( final ComplexFloatType value )
+	{
+		final float real = value.getRealFloat(), imaginary = value.getImaginaryFloat();
+		final float length = ( float ) Math.sqrt( real * real + imaginary * imaginary );
+		if ( length < NORMALIZATION_THRESHOLD )
+			value.set( 0, 0 );
+		else
+			value.set( real / length, imaginary / length );
+	}
+
+	/**
+	 * Finds the highest local maxima of the phase correlation matrix (treated as periodic)
+	 * and converts their positions into shifts between the original images.
+	 */
+	private static List< PhaseCorrelationPeak > extractPeaks(
+			final ArrayImg< FloatType, FloatArray > pcm,
+			final int numPeaks,
+			final int[] offset,
+			final PointValidator searchRadiusPointValidator,
+			final OffsetConverter offsetConverter )
+	{
+		final int n = pcm.numDimensions();
+		final int[] size = Intervals.dimensionsAsIntArray( pcm );
+		final float[] data = pcm.update( null ).getCurrentStorageArray();
+
+		final int[] steps = new int[ n ];
+		steps[ 0 ] = 1;
+		for ( int d = 1; d < n; ++d )
+			steps[ d ] = steps[ d - 1 ] * size[ d - 1 ];
+
+		// offsets of the neighboring pixels in each dimension within the 3^n neighborhood (excluding the center)
+		final int numNeighbors = ( int ) Math.pow( 3, n );
+		final int[][] neighborOffsets = new int[ numNeighbors - 1 ][ n ];
+		for ( int i = 0, k = 0; i < numNeighbors; ++i )
+		{
+			if ( i == numNeighbors / 2 )
+				continue;
+			for ( int d = 0, j = i; d < n; ++d, j /= 3 )
+				neighborOffsets[ k ][ d ] = j % 3 - 1;
+			++k;
+		}
+
+		final List< PhaseCorrelationPeak > peakList = new ArrayList<>();
+		for ( int i = 0; i < numPeaks; ++i )
+			peakList.add( new PhaseCorrelationPeak( new int[ n ], -Float.MAX_VALUE ) );
+		if ( numPeaks == 0 )
+			return peakList;
+		int lowestValueIndex = 0;
+
+		final int[] position = new int[ n ];
+		for ( int index = 0; index < data.length; ++index )
+		{
+			final float value = data[ index ];
+			if ( value <= peakList.get( lowestValueIndex ).getPhaseCorrelationPeak() )
+				continue;
+
+			for ( int d = 0, remainder = index; d < n; ++d )
+			{
+				position[ d ] = remainder % size[ d ];
+				remainder /= size[ d ];
+			}
+
+			boolean isMax = true;
+			for ( int k = 0; k < neighborOffsets.length && isMax; ++k )
+			{
+				int neighborIndex = 0;
+				for ( int d = 0; d < n; ++d )
+				{
+					int p = position[ d ] + neighborOffsets[ k ][ d ];
+					if ( p < 0 )
+						p += size[ d ];
+					else if ( p >= size[ d ] )
+						p -= size[ d ];
+					neighborIndex += p * steps[ d ];
+				}
+				isMax = data[ neighborIndex ] <= value;
+			}
+			if ( !isMax )
+				continue;
+
+			final int[] shift = new int[ n ];
+			for ( int d = 0; d < n; ++d )
+			{
+				shift[ d ] = ( position[ d ] + offset[ d ] ) % size[ d ];
+				if ( shift[ d ] > size[ d ] / 2 )
+					shift[ d ] -= size[ d ];
+			}
+
+			if ( searchRadiusPointValidator != null )
+			{
+				boolean peakFallsIntoConfidenceInterval = false;
+				for ( final int[] possibleShift : getPossibleShifts( shift, size ) )
+				{
+					if ( fallsIntoConfidenceInterval( possibleShift, searchRadiusPointValidator, offsetConverter ) )
+					{
+						peakFallsIntoConfidenceInterval = true;
+						break;
+					}
+				}
+				if ( !peakFallsIntoConfidenceInterval )
+					continue;
+			}
+
+			peakList.remove( lowestValueIndex );
+			final PhaseCorrelationPeak peak = new PhaseCorrelationPeak( shift, value );
+			peak.setOriginalInvPCMPosition( position );
+			peakList.add( peak );
+
+			lowestValueIndex = 0;
+			for ( int i = 1; i < numPeaks; ++i )
+				if ( peakList.get( i ).getPhaseCorrelationPeak() < peakList.get( lowestValueIndex ).getPhaseCorrelationPeak() )
+					lowestValueIndex = i;
+		}
+
+		Collections.sort( peakList );
+		return peakList;
+	}
+
+	/**
+	 * Tests all possible shifts that correspond to each peak (the phase correlation matrix is periodic)
+	 * and sorts them by cross correlation.
+	 * If the integral images fit into memory, the candidates that cannot get into {@code numHighestPeaks} best peaks are skipped.
+	 */
+	private static void verifyWithCrossCorrelation(
+			final List< PhaseCorrelationPeak > peakList,
+			final int[] pcmSize,
+			final RandomAccessibleInterval< FloatType > img1,
+			final RandomAccessibleInterval< FloatType > img2,
+			final int numHighestPeaks,
+			final PointValidator searchRadiusPointValidator,
+			final OffsetConverter offsetConverter,
+			final ExecutorService threadPool,
+			final int numThreads )
+	{
+		final List< PhaseCorrelationPeak > newPeakList = new ArrayList<>();
+		for ( final PhaseCorrelationPeak peak : peakList )
+		{
+			if ( !peak.isValid() )
+				continue;
+
+			for ( final int[] possibleShift : getPossibleShifts( peak.getPosition(), pcmSize ) )
+			{
+				if ( searchRadiusPointValidator != null && !fallsIntoConfidenceInterval( possibleShift, searchRadiusPointValidator, offsetConverter ) )
+					continue;
+
+				final PhaseCorrelationPeak newPeak = new PhaseCorrelationPeak( possibleShift, peak.getPhaseCorrelationPeak() );
+				newPeak.setOriginalInvPCMPosition( peak.getOriginalInvPCMPosition() );
+				newPeakList.add( newPeak );
+			}
+		}
+
+		peakList.clear();
+
+		final int[] dims1 = Intervals.dimensionsAsIntArray( img1 ), dims2 = Intervals.dimensionsAsIntArray( img2 );
+		if ( IntegralCrossCorrelation.canAllocate( dims1, dims2 ) )
+		{
+			final int[] minOverlapPx = new int[ dims1.length ];
+			Arrays.fill( minOverlapPx, MIN_OVERLAP_PX );
+			final IntegralCrossCorrelation integralCrossCorrelation = new IntegralCrossCorrelation( toFloatArray( img1 ), dims1, toFloatArray( img2 ), dims2 );
+			peakList.addAll( integralCrossCorrelation.verify( newPeakList, minOverlapPx, numHighestPeaks, threadPool, numThreads ) );
+			return;
+		}
+
+		for ( final PhaseCorrelationPeak newPeak : newPeakList )
+		{
+			final long[] numPixels = new long[ 1 ];
+			newPeak.setCrossCorrelationPeak( ( float ) testCrossCorrelation( newPeak.getPosition(), img1, img2, MIN_OVERLAP_PX, numPixels ) );
+			newPeak.setNumPixels( numPixels[ 0 ] );
+			newPeak.setSortPhaseCorrelation( false );
+			peakList.add( newPeak );
+		}
+		Collections.sort( peakList );
+	}
+
+	/**
+	 * Copies the image into a flat array where the first dimension is the fastest.
+	 */
+	private static float[] toFloatArray( final RandomAccessibleInterval< FloatType > img )
+	{
+		final float[] data = new float[ ( int ) Intervals.numElements( img ) ];
+		final Cursor< FloatType > cursor = Views.flatIterable( img ).cursor();
+		for ( int i = 0; i < data.length; ++i )
+			data[ i ] = cursor.next().get();
+		return data;
+	}
+
+	/**
+	 * Returns all 2^n combinations of the given shift where the shift is moved by the size of the phase correlation matrix in some of the dimensions.
+	 */
+	private static List< int[] > getPossibleShifts( final int[] shift, final int[] size )
+	{
+		final List< int[] > possibleShifts = new ArrayList<>();
+		for ( int i = 0; i < ( 1 << shift.length ); ++i )
+		{
+			final int[] possibleShift = shift.clone();
+			for ( int d = 0; d < shift.length; ++d )
+				if ( ( i & ( 1 << d ) ) != 0 )
+					possibleShift[ d ] += possibleShift[ d ] < 0 ? size[ d ] : -size[ d ];
+			possibleShifts.add( possibleShift );
+		}
+		return possibleShifts;
+	}
+
+	private static boolean fallsIntoConfidenceInterval( final int[] roiOffset, final PointValidator searchRadiusPointValidator, final OffsetConverter offsetConverter )
+	{
+		final long[] tileOffset = offsetConverter.roiOffsetToTileOffset( roiOffset );
+		final double[] globalPosition = offsetConverter.tileOffsetToGlobalPosition( tileOffset );
+		return searchRadiusPointValidator.testPoint( globalPosition );
+	}
+
+	/**
+	 * Computes the normalized cross correlation between the images in their overlapping region given by the shift.
+	 *
+	 * @param shift
+	 * @param img1 zero-min image
+	 * @param img2 zero-min image
+	 * @param minOverlapPx
+	 * @param numPixels if not null, the number of pixels in the overlapping region is written into its first element
+	 * @return
+	 */
+	public static double testCrossCorrelation(
+			final int[] shift,
+			final RandomAccessibleInterval< FloatType > img1,
+			final RandomAccessibleInterval< FloatType > img2,
+			final int minOverlapPx,
+			final long[] numPixels )
+	{
+		final int n = img1.numDimensions();
+		final long[] min1 = new long[ n ], min2 = new long[ n ], overlapSize = new long[ n ];
+		long numPx = 1;
+		for ( int d = 0; d < n; ++d )
+		{
+			if ( shift[ d ] >= 0 )
+			{
+				min1[ d ] = shift[ d ];
+				overlapSize[ d ] = Math.min( img1.dimension( d ) - shift[ d ], img2.dimension( d ) );
+			}
+			else
+			{
+				min2[ d ] = -shift[ d ];
+				overlapSize[ d ] = Math.min( img2.dimension( d ) + shift[ d ], img1.dimension( d ) );
+			}
+
+			if ( overlapSize[ d ] < minOverlapPx )
+			{
+				if ( numPixels != null )
+					numPixels[ 0 ] = 0;
+				return 0;
+			}
+			numPx *= overlapSize[ d ];
+		}
+
+		if ( numPixels != null )
+			numPixels[ 0 ] = numPx;
+
+		final long[] max1 = new long[ n ], max2 = new long[ n ];
+		for ( int d = 0; d < n; ++d )
+		{
+			max1[ d ] = min1[ d ] + overlapSize[ d ] - 1;
+			max2[ d ] = min2[ d ] + overlapSize[ d ] - 1;
+		}
+		final RandomAccessibleInterval< FloatType > overlap1 = Views.interval( img1, new FinalInterval( min1, max1 ) );
+		final RandomAccessibleInterval< FloatType > overlap2 = Views.interval( img2, new FinalInterval( min2, max2 ) );
+
+		double avg1 = 0, avg2 = 0;
+		final Cursor< FloatType > cursor1 = Views.flatIterable( overlap1 ).cursor(), cursor2 = Views.flatIterable( overlap2 ).cursor();
+		while ( cursor1.hasNext() )
+		{
+			avg1 += cursor1.next().get();
+			avg2 += cursor2.next().get();
+		}
+		avg1 /= numPx;
+		avg2 /= numPx;
+
+		double var1 = 0, var2 = 0, coVar = 0;
+		cursor1.reset();
+		cursor2.reset();
+		while ( cursor1.hasNext() )
+		{
+			final double dist1 = cursor1.next().get() - avg1;
+			final double dist2 = cursor2.next().get() - avg2;
+			coVar += dist1 * dist2;
+			var1 += dist1 * dist1;
+			var2 += dist2 * dist2;
+		}
+		var1 /= numPx;
+		var2 /= numPx;
+		coVar /= numPx;
+
+		final double stDev1 = Math.sqrt( var1 ), stDev2 = Math.sqrt( var2 );
+
+		// all pixels have the same value
+		if ( stDev1 == 0 || stDev2 == 0 )
+			return ( stDev1 == stDev2 && avg1 == avg2 ) ? 1 : 0;
+
+		return coVar / ( stDev1 * stDev2 );
+	}
+
+	/**
+	 * Fits a quadratic function into the neighborhood of the given pixel of the phase correlation matrix (treated as periodic).
+	 *
+	 * @param pcm
+	 * @param position
+	 * @param subpixelOffset output offset of the maximum of the fitted function relative to the pixel
+	 * @return value of the fitted function at its maximum
+	 */
+	private static double localizeSubpixel( final RandomAccessibleInterval< FloatType > pcm, final int[] position, final double[] subpixelOffset )
+	{
+		final int n = pcm.numDimensions();
+		final RandomAccess< FloatType > pcmRandomAccess = Views.extendPeriodic( pcm ).randomAccess();
+		pcmRandomAccess.setPosition( position );
+		final double value = pcmRandomAccess.get().getRealDouble();
+
+		final double[] gradient = new double[ n ];
+		final double[][] hessian = new double[ n ][ n ];
+		for ( int d = 0; d < n; ++d )
+		{
+			pcmRandomAccess.fwd( d );
+			final double next = pcmRandomAccess.get().getRealDouble();
+			pcmRandomAccess.move( -2, d );
+			final double prev = pcmRandomAccess.get().getRealDouble();
+			pcmRandomAccess.fwd( d );
+
+			gradient[ d ] = ( next - prev ) / 2;
+			hessian[ d ][ d ] = next - 2 * value + prev;
+
+			for ( int e = d + 1; e < n; ++e )
+			{
+				double mixed = 0;
+				for ( int sd = -1; sd <= 1; sd += 2 )
+				{
+					for ( int se = -1; se <= 1; se += 2 )
+					{
+						pcmRandomAccess.move( sd, d );
+						pcmRandomAccess.move( se, e );
+						mixed += sd * se * pcmRandomAccess.get().getRealDouble();
+						pcmRandomAccess.setPosition( position );
+					}
+				}
+				hessian[ d ][ e ] = hessian[ e ][ d ] = mixed / 4;
+			}
+		}
+
+		// offset = -H^-1 * g
+		if ( !solve( hessian, gradient, subpixelOffset ) )
+		{
+			for ( int d = 0; d < n; ++d )
+				subpixelOffset[ d ] = 0;
+			return value;
+		}
+
+		double fittedValue = value;
+		for ( int d = 0; d < n; ++d )
+		{
+			subpixelOffset[ d ] = -subpixelOffset[ d ];
+			fittedValue += 0.5 * gradient[ d ] * subpixelOffset[ d ];
+		}
+		return fittedValue;
+	}
+
+	/**
+	 * Solves a small linear system using Gaussian elimination with partial pivoting.
+	 *
+	 * @return false if the matrix is singular
+	 */
+	private static boolean solve( final double[][] matrix, final double[] rhs, final double[] solution )
+	{
+		final int n = rhs.length;
+		final double[][] a = new double[ n ][];
+		for ( int i = 0; i < n; ++i )
+		{
+			a[ i ] = new double[ n + 1 ];
+			System.arraycopy( matrix[ i ], 0, a[ i ], 0, n );
+			a[ i ][ n ] = rhs[ i ];
+		}
+
+		for ( int col = 0; col < n; ++col )
+		{
+			int pivot = col;
+			for ( int row = col + 1; row < n; ++row )
+				if ( Math.abs( a[ row ][ col ] ) > Math.abs( a[ pivot ][ col ] ) )
+					pivot = row;
+			if ( Math.abs( a[ pivot ][ col ] ) < 1e-12 )
+				return false;
+
+			final double[] tmp = a[ col ];
+			a[ col ] = a[ pivot ];
+			a[ pivot ] = tmp;
+
+			for ( int row = col + 1; row < n; ++row )
+			{
+				final double factor = a[ row ][ col ] / a[ col ][ col ];
+				for ( int k = col; k <= n; ++k )
+					a[ row ][ k ] -= factor * a[ col ][ k ];
+			}
+		}
+
+		for ( int row = n - 1; row >= 0; --row )
+		{
+			double sum = a[ row ][ n ];
+			for ( int k = row + 1; k < n; ++k )
+				sum -= a[ row ][ k ] * solution[ k ];
+			solution[ row ] = sum / a[ row ][ row ];
+		}
+		return true;
+	}
+}
@@ -9,7 +9,9 @@ import net.imglib2.type.numeric.RealType;
 import net.imglib2.util.Intervals;
 import net.imglib2.view.RandomAccessiblePairNullable;
 import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.api.java.function.VoidFunction;
 import org.apache.spark.broadcast.Broadcast;
+import org.apache.spark.util.LongAccumulator;
 import org.janelia.dataaccess.DataProvider;
 import org.janelia.dataaccess.DataProviderFactory;
 import org.janelia.dataaccess.DataProviderType;
@@ -23,11 +25,14 @@ import org.janelia.saalfeldlab.n5.N5Writer;
 import org.janelia.saalfeldlab.n5.bdv.N5ExportMetadata;
 import org.janelia.saalfeldlab.n5.bdv.N5ExportMetadataWriter;
 import org.janelia.saalfeldlab.n5.imglib2.N5Utils;
+import org.janelia.saalfeldlab.n5.spark.downsample.N5DownsamplerSpark;
 import org.janelia.saalfeldlab.n5.spark.downsample.scalepyramid.N5NonIsotropicScalePyramidSpark;
 import org.janelia.stitching.FusionPerformer.FusionMode;
 import org.janelia.stitching.TileLoader.TileType;
 import org.janelia.util.Conversions;
 
+import scala.Tuple2;
+
 import java.io.IOException;
 import java.util.*;
 
@@ -48,13 +53,16 @@ public class PipelineFusionStepExecutor< T extends NativeType< T > & RealType< T
 
 	private static final int MIN_BLOCK_SIZE = 64;
 
+	private static final int GROUPS_PER_CORE = 4;
+
+	// byte budget for the tile images that each fusion task keeps for its subsequent cells (across all channels)
+	public static final String LOADED_TILE_IMAGES_SIZE_KEY = "spark.stitching.fusionTileImagesSize";
+	private static final String DEFAULT_LOADED_TILE_IMAGES_SIZE = "2g";
+
 	final TreeMap< Integer, long[] > levelToImageDimensions = new TreeMap<>(), levelToCellSize = new TreeMap<>();
 
 	double[] normalizedVoxelDimensions;
 
-	Broadcast< Map< Integer, Set< Integer > > > broadcastedPairwiseConnectionsMap;
-	Broadcast< RandomAccessiblePairNullable< U, U > > broadcastedFlatfieldCorrection;
-
 	private final HistogramSettings stackHistogramSettings = new HistogramSettings( 0., 16383., 4098 );
 
 	public PipelineFusionStepExecutor( final StitchingJob job, final JavaSparkContext sparkContext )
@@ -123,77 +131,114 @@ public class PipelineFusionStepExecutor< T extends NativeType< T > & RealType< T
 		normalizedVoxelDimensions = Utils.normalizeVoxelDimensions( voxelDimensions );
 		System.out.println( "Normalized voxel size = " + Arrays.toString( normalizedVoxelDimensions ) );
 
+		// channels that are fused together by the same tasks (all at once in the multichannel mode, otherwise one by one)
+		final List< List< Integer > > channelBatches = new ArrayList<>();
+		if ( job.getArgs().multichannelFusion() && job.getChannels() > 1 && haveSameTiles( getChannelsTiles() ) )
+		{
+			final List< Integer > allChannels = new ArrayList<>();
+			for ( int channel = 0; channel < job.getChannels(); channel++ )
+				allChannels.add( channel );
+			channelBatches.add( allChannels );
+		}
+		else
+		{
+			if ( job.getArgs().multichannelFusion() && job.getChannels() > 1 )
+				System.out.println( "Tile configurations differ between channels, fusing the channels separately" );
+			for ( int channel = 0; channel < job.getChannels(); channel++ )
+				channelBatches.add( Collections.singletonList( channel ) );
+		}
+
 		// loop over channels
-		for ( int ch = 0; ch < job.getChannels(); ch++ )
+		for ( final List< Integer > channelBatch : channelBatches )
 		{
-			final int channel = ch;
-			System.out.println( "Processing channel #" + channel );
-
-			final String absoluteChannelPath = job.getArgs().inputTileConfigurations().get( channel );
-			final String absoluteChannelPathNoFinal = Utils.removeFilenameSuffix( absoluteChannelPath, "-final" ); // adjust the path in order to use original flatfields
-
-			final String outputChannelGroupPath = N5ExportMetadata.getChannelGroupPath( channel );
-			n5.createGroup( outputChannelGroupPath );
-
-			// special mode which allows to export only overlaps of tile pairs that have been used for final stitching
-			final Map< Integer, Set< Integer > > pairwiseConnectionsMap = getPairwiseConnectionsMap( absoluteChannelPath );
-			if ( pairwiseConnectionsMap != null )
-				System.out.println( "[Export overlaps mode] Broadcasting pairwise connections map" );
-			broadcastedPairwiseConnectionsMap = sparkContext.broadcast( pairwiseConnectionsMap );
-
-			// prepare flatfield correction images
-			// use it as a folder with the input file's name
-			final RandomAccessiblePairNullable< U, U >  flatfieldCorrection = FlatfieldCorrection.loadCorrectionImages(
-					dataProvider,
-					absoluteChannelPathNoFinal,
-					job.getDimensionality()
-				);
-			if ( flatfieldCorrection != null )
-				System.out.println( "[Flatfield correction] Broadcasting flatfield correction images" );
-			broadcastedFlatfieldCorrection = sparkContext.broadcast( flatfieldCorrection );
+			final List< Number > backgroundValues = new ArrayList<>();
+			final List< Broadcast< Map< Integer, Set< Integer > > > > broadcastedPairwiseConnectionsMaps = new ArrayList<>();
+			final List< Broadcast< RandomAccessiblePairNullable< U, U > > > broadcastedFlatfieldCorrections = new ArrayList<>();
 
-			final Number backgroundValue;
-			if ( job.getArgs().fillBackground() )
+			for ( final int channel : channelBatch )
 			{
-				final Double flatfieldBackgroundValue = FlatfieldCorrection.getPivotValue( dataProvider, absoluteChannelPathNoFinal );
-				if ( flatfieldBackgroundValue != null ) {
-					backgroundValue = flatfieldBackgroundValue;
-				} else {
-					// The background value is not available and needs to be estimated.
-					// This is the case for deconvolved data, because in the Flatfield Correction step the background value is estimated only for raw data.
-					backgroundValue = estimateBackgroundValue( job.getTiles( channel ) );
-				}
-				System.out.println( "Using background intensity value of " + backgroundValue + " for filling in channel " + channel );
+				System.out.println( "Processing channel #" + channel );
+
+				final String absoluteChannelPath = job.getArgs().inputTileConfigurations().get( channel );
+				final String absoluteChannelPathNoFinal = Utils.removeFilenameSuffix( absoluteChannelPath, "-final" ); // adjust the path in order to use original flatfields
+
+				final String outputChannelGroupPath = N5ExportMetadata.getChannelGroupPath( channel );
+				n5.createGroup( outputChannelGroupPath );
+
+				// special mode which allows to export only overlaps of tile pairs that have been used for final stitching
+				final Map< Integer, Set< Integer > > pairwiseConnectionsMap = getPairwiseConnectionsMap( absoluteChannelPath );
+				if ( pairwiseConnectionsMap != null )
+					System.out.println( "[Export overlaps mode] Broadcasting pairwise connections map" );
+				broadcastedPairwiseConnectionsMaps.add( sparkContext.broadcast( pairwiseConnectionsMap ) );
+
+				// prepare flatfield correction images
+				// use it as a folder with the input file's name
+				final RandomAccessiblePairNullable< U, U >  flatfieldCorrection = FlatfieldCorrection.loadCorrectionImages(
+						dataProvider,
+						absoluteChannelPathNoFinal,
+						job.getDimensionality()
+					);
+				if ( flatfieldCorrection != null )
+					System.out.println( "[Flatfield correction] Broadcasting flatfield correction images" );
+				broadcastedFlatfieldCorrections.add( sparkContext.broadcast( flatfieldCorrection ) );
 
-				// save the used background value in group attributes so it can be also used when converting to slice TIFF
-				n5.setAttribute( outputChannelGroupPath, BACKGROUND_VALUE_ATTRIBUTE_KEY, backgroundValue.doubleValue() );
-			}
-			else
-			{
-				backgroundValue = null;
-			}
+				final Number backgroundValue;
+				if ( job.getArgs().fillBackground() )
+				{
+					final Double flatfieldBackgroundValue = FlatfieldCorrection.getPivotValue( dataProvider, absoluteChannelPathNoFinal );
+					if ( flatfieldBackgroundValue != null ) {
+						backgroundValue = flatfieldBackgroundValue;
+					} else {
+						// The background value is not available and needs to be estimated.
+						// This is the case for deconvolved data, because in the Flatfield Correction step the background value is estimated only for raw data.
+						backgroundValue = estimateBackgroundValue( job.getTiles( channel ) );
+					}
+					System.out.println( "Using background intensity value of " + backgroundValue + " for filling in channel " + channel );
 
-			final String fullScaleOutputPath = N5ExportMetadata.getScaleLevelDatasetPath( channel, 0 );
+					// save the used background value in group attributes so it can be also used when converting to slice TIFF
+					n5.setAttribute( outputChannelGroupPath, BACKGROUND_VALUE_ATTRIBUTE_KEY, backgroundValue.doubleValue() );
+				}
+				else
+				{
+					backgroundValue = null;
+				}
+				backgroundValues.add( backgroundValue );
+			}
 
-			// Generate export of the first scale level
-			fuse(
+			// Generate export of the first scale level (along with a few lower scale levels if requested)
+			final List< List< String > > channelsDownsampledDatasets = fuse(
 					n5ExportPath,
-					fullScaleOutputPath,
-					job.getTiles( channel ),
-					backgroundValue
+					channelBatch,
+					backgroundValues,
+					broadcastedFlatfieldCorrections,
+					broadcastedPairwiseConnectionsMaps,
+					job.getArgs().fusedPyramidLevels()
 				);
 
-			// Generate lower scale levels
-			downsampledDatasets = N5NonIsotropicScalePyramidSpark.downsampleNonIsotropicScalePyramid(
-					sparkContext,
-					() -> DataProviderFactory.create( dataProviderType ).createN5Writer( n5ExportPath ),
-					fullScaleOutputPath,
-					voxelDimensions,
-					false // not a power of two scale pyramid
-				);
+			for ( int i = 0; i < channelBatch.size(); ++i )
+			{
+				if ( job.getArgs().fusedPyramidLevels() > 0 )
+				{
+					downsampledDatasets = channelsDownsampledDatasets.get( i );
+				}
+				else
+				{
+					// Generate lower scale levels
+					final String fullScaleOutputPath = N5ExportMetadata.getScaleLevelDatasetPath( channelBatch.get( i ), 0 );
+					downsampledDatasets = N5NonIsotropicScalePyramidSpark.downsampleNonIsotropicScalePyramid(
+							sparkContext,
+							() -> DataProviderFactory.create( dataProviderType ).createN5Writer( n5ExportPath ),
+							fullScaleOutputPath,
+							voxelDimensions,
+							false // not a power of two scale pyramid
+						);
+				}
+			}
 
-			broadcastedPairwiseConnectionsMap.destroy();
-			broadcastedFlatfieldCorrection.destroy();
+			for ( final Broadcast< Map< Integer, Set< Integer > > > broadcastedPairwiseConnectionsMap : broadcastedPairwiseConnectionsMaps )
+				broadcastedPairwiseConnectionsMap.destroy();
+			for ( final Broadcast< RandomAccessiblePairNullable< U, U > > broadcastedFlatfieldCorrection : broadcastedFlatfieldCorrections )
+				broadcastedFlatfieldCorrection.destroy();
 		}
 
 		System.out.println( "All channels have been exported" );
@@ -210,6 +255,35 @@ public class PipelineFusionStepExecutor< T extends NativeType< T > & RealType< T
 		exportMetadata.setDefaultPixelResolution( new FinalVoxelDimensions( "um", voxelDimensions ) );
 	}
 
+	private TileInfo[][] getChannelsTiles()
+	{
+		final TileInfo[][] channelsTiles = new TileInfo[ job.getChannels() ][];
+		for ( int channel = 0; channel < channelsTiles.length; channel++ )
+			channelsTiles[ channel ] = job.getTiles( channel );
+		return channelsTiles;
+	}
+
+	/**
+	 * @return true if all channels have the same tiles (by index) with the same positions, sizes, and data types
+	 */
+	static boolean haveSameTiles( final TileInfo[][] channelsTiles )
+	{
+		final TileInfo[] referenceTiles = channelsTiles[ 0 ];
+		for ( int channel = 1; channel < channelsTiles.length; channel++ )
+		{
+			final TileInfo[] channelTiles = channelsTiles[ channel ];
+			if ( channelTiles.length != referenceTiles.length )
+				return false;
+			for ( int i = 0; i < referenceTiles.length; ++i )
+				if ( !Objects.equals( channelTiles[ i ].getIndex(), referenceTiles[ i ].getIndex() ) ||
+						!Arrays.equals( channelTiles[ i ].getPosition(), referenceTiles[ i ].getPosition() ) ||
+						!Arrays.equals( channelTiles[ i ].getSize(), referenceTiles[ i ].getSize() ) ||
+						channelTiles[ i ].getType() != referenceTiles[ i ].getType() )
+					return false;
+		}
+		return true;
+	}
+
 	private boolean isTileConfigurationN5( final TileInfo[] tiles )
 	{
 		return TileLoader.getTileType( tiles[ 0 ], job.getDataProvider() ) == TileType.N5_DATASET;
@@ -242,12 +316,33 @@ public class PipelineFusionStepExecutor< T extends NativeType< T > & RealType< T
 		return processingCellSize;
 	}
 
-	private void fuse(
+	/**
+	 * Fuses the tiles into the full-scale datasets of the given channels.
+	 * The channels are expected to have the same tile configuration, so they are fused together by the same tasks:
+	 * every cell is processed once and the geometry (tiles within the cell, blending weights, or distances) is shared across the channels.
+	 * If requested, the fusion tasks also write the given number of lower scale levels directly,
+	 * and the remaining levels are generated from the last of them.
+	 *
+	 * @return paths to the lower scale level datasets for every channel, or empty lists if no scale levels have been requested
+	 */
+	private List< List< String > > fuse(
 			final String n5ExportPath,
-			final String fullScaleOutputPath,
-			final TileInfo[] tiles,
-			final Number backgroundValue ) throws IOException
+			final List< Integer > channels,
+			final List< Number > backgroundValues,
+			final List< Broadcast< RandomAccessiblePairNullable< U, U > > > broadcastedFlatfieldCorrections,
+			final List< Broadcast< Map< Integer, Set< Integer > > > > broadcastedPairwiseConnectionsMaps,
+			final int fusedPyramidLevels ) throws IOException
 	{
+		final TileInfo[][] channelsTiles = new TileInfo[ channels.size() ][];
+		final List< String > fullScaleOutputPaths = new ArrayList<>();
+		for ( int i = 0; i < channels.size(); ++i )
+		{
+			channelsTiles[ i ] = job.getTiles( channels.get( i ) );
+			fullScaleOutputPaths.add( N5ExportMetadata.getScaleLevelDatasetPath( channels.get( i ), 0 ) );
+		}
+
+		// the channels have the same tile configuration, so the geometry is defined by the first channel
+		final TileInfo[] tiles = channelsTiles[ 0 ];
 		final DataProvider dataProvider = job.getDataProvider();
 		final int[] cellSize = getOptimalCellSize( tiles );
 
@@ -261,50 +356,180 @@ public class PipelineFusionStepExecutor< T extends NativeType< T > & RealType< T
 		final long[] dimensions = Intervals.dimensionsAsLongArray( boundingBox );
 
 		final N5Writer n5 = dataProvider.createN5Writer( n5ExportPath );
-		n5.createDataset(
-				fullScaleOutputPath,
-				Intervals.dimensionsAsLongArray( boundingBox ),
-				cellSize,
-				N5Utils.dataType( ( T ) tiles[ 0 ].getType().getType() ),
-				new GzipCompression()
-			);
-
-		final int[] processingCellSize = getProcessingCellSize( tiles );
+		for ( final String fullScaleOutputPath : fullScaleOutputPaths )
+			n5.createDataset(
+					fullScaleOutputPath,
+					Intervals.dimensionsAsLongArray( boundingBox ),
+					cellSize,
+					N5Utils.dataType( ( T ) tiles[ 0 ].getType().getType() ),
+					new GzipCompression()
+				);
+
+		// create the datasets of the scale levels that are written directly by the fusion tasks, and align the processing cells to their blocks
+		final List< int[] > levelsFactors = fusedPyramidLevels > 0 ? FusedScalePyramid.getDownsamplingFactors( dimensions, cellSize, normalizedVoxelDimensions ) : new ArrayList<>();
+		final List< int[] > fusedLevelsFactors = new ArrayList<>( levelsFactors.subList( 0, Math.min( fusedPyramidLevels, levelsFactors.size() ) ) );
+		final List< List< String > > channelsFusedLevelsDatasetPaths = new ArrayList<>();
+		for ( final int channel : channels )
+		{
+			final List< String > fusedLevelsDatasetPaths = new ArrayList<>();
+			for ( int level = 1; level <= fusedLevelsFactors.size(); ++level )
+			{
+				final int[] factors = fusedLevelsFactors.get( level - 1 );
+				final long[] levelDimensions = new long[ dimensions.length ];
+				for ( int d = 0; d < levelDimensions.length; ++d )
+					levelDimensions[ d ] = dimensions[ d ] / factors[ d ];
+				final String levelDatasetPath = N5ExportMetadata.getScaleLevelDatasetPath( channel, level );
+				n5.createDataset( levelDatasetPath, levelDimensions, cellSize, N5Utils.dataType( ( T ) tiles[ 0 ].getType().getType() ), new GzipCompression() );
+				n5.setAttribute( levelDatasetPath, FusedScalePyramid.DOWNSAMPLING_FACTORS_ATTRIBUTE_KEY, factors );
+				fusedLevelsDatasetPaths.add( levelDatasetPath );
+			}
+			channelsFusedLevelsDatasetPaths.add( fusedLevelsDatasetPaths );
+		}
+
+		final int[] processingCellSize = fusedLevelsFactors.isEmpty() ?
+				getProcessingCellSize( tiles ) :
+				FusedScalePyramid.alignProcessingCellSize( getProcessingCellSize( tiles ), cellSize, fusedLevelsFactors.get( fusedLevelsFactors.size() - 1 ) );
+		if ( !fusedLevelsFactors.isEmpty() )
+			System.out.println( "Scale levels 1-" + fusedLevelsFactors.size() + " will be generated by the fusion tasks, " + ( levelsFactors.size() - fusedLevelsFactors.size() ) + " coarser levels will be generated afterwards" );
+		if ( channels.size() > 1 )
+			System.out.println( "Fusing channels " + channels + " in a single pass" );
 		System.out.println( "Fusing tile configuration into an N5 dataset with block size " + Arrays.toString( cellSize ) + " using processing block size " + Arrays.toString( processingCellSize ) );
 		final List< TileInfo > processingCells = TileOperations.divideSpace( boundingBox, new FinalDimensions( processingCellSize ) );
+		final TileImageCache tileImageCache = TileImageCache.create( sparkContext );
 
-		sparkContext.parallelize( processingCells, Math.min( processingCells.size(), MAX_PARTITIONS ) ).foreach( cell ->
+		// map cells to tiles on the driver using the spatial index, and skip the empty cells right away if they do not need to be filled
+		final boolean fillBackground = backgroundValues.stream().anyMatch( Objects::nonNull );
+		final TilesSpatialIndex tilesSpatialIndex = new TilesSpatialIndex( tiles );
+		final List< Tuple2< TileInfo, int[] > > cellsWithTiles = new ArrayList<>();
+		for ( final TileInfo cell : processingCells )
+		{
+			final List< Integer > tilesWithinCellArrayIndexes = tilesSpatialIndex.findOverlappingTileArrayIndexes( cell );
+			if ( !tilesWithinCellArrayIndexes.isEmpty() || fillBackground )
+				cellsWithTiles.add( new Tuple2<>( cell, tilesWithinCellArrayIndexes.stream().mapToInt( Integer::intValue ).toArray() ) );
+		}
+		System.out.println( "Processing " + cellsWithTiles.size() + " non-empty cells out of " + processingCells.size() );
+
+		// group the cells that share the same tiles, so every tile is loaded only once within a group instead of once per cell
+		final int numGroups = Math.max( Math.min( Math.min( cellsWithTiles.size(), MAX_PARTITIONS ), sparkContext.defaultParallelism() * GROUPS_PER_CORE ), 1 );
+		final List< List< Tuple2< TileInfo, int[] > > > cellGroups = FusionScheduler.groupCells( cellsWithTiles, processingCellSize, numGroups );
+		long cellTileLoads = 0;
+		for ( final Tuple2< TileInfo, int[] > cellWithTiles : cellsWithTiles )
+			cellTileLoads += cellWithTiles._2().length;
+		System.out.println( "Grouped the cells into " + cellGroups.size() + " tasks: " + FusionScheduler.getTileLoadsCount( cellGroups ) + " tile loads instead of " + cellTileLoads + " (" + tiles.length + " tiles)" );
+
+		// the tasks only capture the broadcasts and a few small values, not the tiles arrays or the job (through this)
+		final Broadcast< TileInfo[][] > broadcastedChannelsTiles = sparkContext.broadcast( channelsTiles );
+		final List< Broadcast< RandomAccessiblePairNullable< U, U > > > broadcastedFlatfieldCorrectionsLocal = new ArrayList<>( broadcastedFlatfieldCorrections );
+		final List< Broadcast< Map< Integer, Set< Integer > > > > broadcastedPairwiseConnectionsMapsLocal = new ArrayList<>( broadcastedPairwiseConnectionsMaps );
+		final List< Number > backgroundValuesLocal = new ArrayList<>( backgroundValues );
+		final DataProviderType dataProviderType = dataProvider.getType();
+		final FusionMode fusionMode = job.getArgs().blending() ? FusionMode.BLENDING : FusionMode.MAX_MIN_DISTANCE;
+		final long loadedTileImagesMaxBytes = sparkContext.getConf().getSizeAsBytes( LOADED_TILE_IMAGES_SIZE_KEY, DEFAULT_LOADED_TILE_IMAGES_SIZE );
+		final LongAccumulator loadedTileImagesEvictions = sparkContext.sc().longAccumulator( "loaded tile images evictions" );
+
+		final VoidFunction< List< Tuple2< TileInfo, int[] > > > fusionTask = cellGroup ->
 			{
-				final List< TileInfo > tilesWithinCell = TileOperations.findTilesWithinSubregion( tiles, cell );
-				if ( tilesWithinCell.isEmpty() && backgroundValue == null )
-					return;
+				final TileInfo[][] channelsTilesLocal = broadcastedChannelsTiles.value();
+				final DataProvider dataProviderLocal = DataProviderFactory.create( dataProviderType );
+				final N5Writer n5Local = dataProviderLocal.createN5Writer( n5ExportPath );
+				final T dataType = ( T ) channelsTilesLocal[ 0 ][ 0 ].getType().getType();
+				final CellGrid cellGrid = new CellGrid( dimensions, cellSize );
 
-				final Boundaries cellBox = cell.getBoundaries();
-				final long[] cellOffsetCoordinates = new long[ cellBox.numDimensions() ];
-				for ( int d = 0; d < cellOffsetCoordinates.length; d++ )
-					cellOffsetCoordinates[ d ] = cellBox.min( d ) - offset[ d ];
+				final List< RandomAccessiblePairNullable< U, U > > flatfieldCorrections = new ArrayList<>();
+				for ( final Broadcast< RandomAccessiblePairNullable< U, U > > broadcastedFlatfieldCorrection : broadcastedFlatfieldCorrectionsLocal )
+					flatfieldCorrections.add( broadcastedFlatfieldCorrection.value() );
+				final List< Map< Integer, Set< Integer > > > pairwiseConnectionsMaps = new ArrayList<>();
+				for ( final Broadcast< Map< Integer, Set< Integer > > > broadcastedPairwiseConnectionsMap : broadcastedPairwiseConnectionsMapsLocal )
+					pairwiseConnectionsMaps.add( broadcastedPairwiseConnectionsMap.value() );
+
+				// count how many cells within the group use each tile, so the tile images can be released once they are not needed anymore
+				final Map< Integer, Integer > tileReferences = new HashMap<>();
+				for ( final Tuple2< TileInfo, int[] > cellWithTiles : cellGroup )
+					for ( final int tileArrayIndex : cellWithTiles._2() )
+						tileReferences.put( tileArrayIndex, tileReferences.getOrDefault( tileArrayIndex, 0 ) + 1 );
+				final LoadedTileImages< T > loadedTileImages = new LoadedTileImages<>( loadedTileImagesMaxBytes );
+
+				for ( final Tuple2< TileInfo, int[] > cellWithTiles : cellGroup )
+				{
+					final TileInfo cell = cellWithTiles._1();
+					final List< List< TileInfo > > channelsTilesWithinCell = new ArrayList<>();
+					for ( final TileInfo[] channelTiles : channelsTilesLocal )
+					{
+						final List< TileInfo > tilesWithinCell = new ArrayList<>();
+						for ( final int tileArrayIndex : cellWithTiles._2() )
+							tilesWithinCell.add( channelTiles[ tileArrayIndex ] );
+						channelsTilesWithinCell.add( tilesWithinCell );
+					}
 
-				final long[] cellGridPosition = new long[ cell.numDimensions() ];
-				final CellGrid cellGrid = new CellGrid( dimensions, cellSize );
-				cellGrid.getCellPosition( cellOffsetCoordinates, cellGridPosition );
-
-				final DataProvider dataProviderLocal = job.getDataProvider();
-				final T dataType = ( T ) tiles[ 0 ].getType().getType();
-
-				final ImagePlusImg< T, ? > outImg = FusionPerformer.fuseTilesWithinCell(
-						dataProviderLocal,
-						job.getArgs().blending() ? FusionMode.BLENDING : FusionMode.MAX_MIN_DISTANCE,
-						tilesWithinCell,
-						cellBox,
-						dataType,
-						backgroundValue,
-						broadcastedFlatfieldCorrection.value(),
-						broadcastedPairwiseConnectionsMap.value()
+					final Boundaries cellBox = cell.getBoundaries();
+					final long[] cellOffsetCoordinates = new long[ cellBox.numDimensions() ];
+					for ( int d = 0; d < cellOffsetCoordinates.length; d++ )
+						cellOffsetCoordinates[ d ] = cellBox.min( d ) - offset[ d ];
+
+					final long[] cellGridPosition = new long[ cell.numDimensions() ];
+					cellGrid.getCellPosition( cellOffsetCoordinates, cellGridPosition );
+
+					final List< ImagePlusImg< T, ? > > outImgs = FusionPerformer.fuseTilesWithinCellMultichannel(
+							dataProviderLocal,
+							fusionMode,
+							channelsTilesWithinCell,
+							cellBox,
+							dataType,
+							backgroundValuesLocal,
+							flatfieldCorrections,
+							pairwiseConnectionsMaps,
+							tileImageCache,
+							loadedTileImages
+						);
+					for ( int i = 0; i < outImgs.size(); ++i )
+					{
+						N5Utils.saveBlock( outImgs.get( i ), n5Local, fullScaleOutputPaths.get( i ), cellGridPosition );
+						if ( !fusedLevelsFactors.isEmpty() )
+							FusedScalePyramid.saveDownsampledCell( outImgs.get( i ), cellOffsetCoordinates, cellSize, fusedLevelsFactors, channelsFusedLevelsDatasetPaths.get( i ), n5Local );
+					}
+
+					for ( final int tileArrayIndex : cellWithTiles._2() )
+					{
+						final int references = tileReferences.get( tileArrayIndex ) - 1;
+						tileReferences.put( tileArrayIndex, references );
+						if ( references == 0 )
+							for ( final TileInfo[] channelTiles : channelsTilesLocal )
+								loadedTileImages.remove( channelTiles[ tileArrayIndex ].getFilePath() );
+					}
+				}
+				loadedTileImagesEvictions.add( loadedTileImages.getEvictions() );
+			};
+		TaskSizeReport.report( "fusion", fusionTask, job.getArgs().taskSizeBudgetKB() );
+		sparkContext.parallelize( cellGroups, cellGroups.size() ).foreach( fusionTask );
+
+		broadcastedChannelsTiles.destroy();
+
+		if ( tileImageCache.isEnabled() )
+			System.out.println( tileImageCache );
+		if ( loadedTileImagesEvictions.value() > 0 )
+			System.out.println( loadedTileImagesEvictions.value() + " tile images were released before their last use to stay within " + loadedTileImagesMaxBytes + " bytes per task (" + LOADED_TILE_IMAGES_SIZE_KEY + ")" );
+
+		// generate the remaining coarser scale levels from the last level that has been written directly
+		final List< List< String > > channelsDownsampledDatasets = new ArrayList<>();
+		for ( int i = 0; i < channels.size(); ++i )
+		{
+			final List< String > downsampledDatasets = new ArrayList<>( channelsFusedLevelsDatasetPaths.get( i ) );
+			for ( int level = fusedLevelsFactors.size() + 1; level <= levelsFactors.size(); ++level )
+			{
+				final String levelDatasetPath = N5ExportMetadata.getScaleLevelDatasetPath( channels.get( i ), level );
+				N5DownsamplerSpark.downsample(
+						sparkContext,
+						() -> DataProviderFactory.create( dataProviderType ).createN5Writer( n5ExportPath ),
+						downsampledDatasets.get( downsampledDatasets.size() - 1 ),
+						levelDatasetPath,
+						FusedScalePyramid.getRelativeDownsamplingFactors( levelsFactors, level )
 					);
-				final N5Writer n5Local = dataProviderLocal.createN5Writer( n5ExportPath );
-				N5Utils.saveBlock( outImg, n5Local, fullScaleOutputPath, cellGridPosition );
+				n5.setAttribute( levelDatasetPath, FusedScalePyramid.DOWNSAMPLING_FACTORS_ATTRIBUTE_KEY, levelsFactors.get( level - 1 ) );
+				downsampledDatasets.add( levelDatasetPath );
 			}
-		);
+			channelsDownsampledDatasets.add( downsampledDatasets );
+		}
+		return channelsDownsampledDatasets;
 	}
 
 	private Map< Integer, Set< Integer > > getPairwiseConnectionsMap( final String channelPath ) throws PipelineExecutionException
@@ -316,8 +541,8 @@ public class PipelineFusionStepExecutor< T extends NativeType< T > & RealType< T
 		final Map< Integer, Set< Integer > > pairwiseConnectionsMap = new HashMap<>();
 		try
 		{
-			final String pairwiseShiftsPath = PathResolver.get( PathResolver.getParent( channelPath ), "pairwise-stitched.json" );
-			final List< SerializablePairWiseStitchingResult[] > pairwiseShifts = TileInfoJSONProvider.loadPairwiseShiftsMulti( dataProvider.getJsonReader( pairwiseShiftsPath ) );
+			final String pairwiseShiftsPath = PathResolver.get( PathResolver.getParent( channelPath ), Utils.addFilenameSuffix( TileInfoJSONProvider.getPairwiseFilename( job.getArgs().binaryPairwise() ), "-stitched" ) );
+			final List< SerializablePairWiseStitchingResult[] > pairwiseShifts = TileInfoJSONProvider.loadPairwiseShiftsMulti( dataProvider, pairwiseShiftsPath );
 			for ( final SerializablePairWiseStitchingResult[] pairwiseShiftMulti : pairwiseShifts )
 			{
 				final SerializablePairWiseStitchingResult pairwiseShift = pairwiseShiftMulti[ 0 ];
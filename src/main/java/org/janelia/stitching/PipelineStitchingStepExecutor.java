@@ -2,45 +2,54 @@ package org.janelia.stitching;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 import net.imglib2.converter.RealConverter;
-import net.imglib2.img.array.ArrayImgs;
 import net.imglib2.img.imageplus.ImagePlusImgFactory;
+import org.apache.spark.TaskContext;
 import org.apache.spark.api.java.JavaRDD;
 import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.api.java.function.FlatMapFunction;
 import org.apache.spark.broadcast.Broadcast;
 import org.apache.spark.util.LongAccumulator;
 import org.janelia.dataaccess.DataProvider;
 import org.janelia.dataaccess.PathResolver;
-import org.janelia.flatfield.FlatfieldCorrectedRandomAccessible;
 import org.janelia.flatfield.FlatfieldCorrection;
 import org.janelia.stitching.StitchingArguments.RematchingMode;
 import org.janelia.stitching.analysis.FilterAdjacentShifts;
 import org.janelia.util.Conversions;
+import org.janelia.util.concurrent.AdaptiveThreadPool;
 import org.janelia.util.concurrent.SameThreadExecutorService;
 
+import com.google.gson.JsonParseException;
+
 import ij.ImagePlus;
 import mpicbg.imglib.custom.OffsetConverter;
+import mpicbg.imglib.custom.PointValidator;
 import net.imglib2.Cursor;
 import net.imglib2.FinalDimensions;
+import net.imglib2.FinalInterval;
 import net.imglib2.Interval;
 import net.imglib2.RandomAccessible;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.algorithm.gauss3.Gauss3;
 import net.imglib2.converter.Converters;
 import net.imglib2.converter.RealFloatConverter;
+import net.imglib2.exception.ImgLibException;
 import net.imglib2.exception.IncompatibleTypeException;
 import net.imglib2.img.imageplus.ImagePlusImg;
 import net.imglib2.img.imageplus.ImagePlusImgs;
@@ -67,6 +76,43 @@ public class PipelineStitchingStepExecutor extends PipelineStepExecutor
 {
 	private static final long serialVersionUID = -7152174064553332061L;
 
+	private static final int PARTITIONS_PER_CORE = 4;
+
+	/**
+	 * Counters that are collected from the pairwise stitching tasks.
+	 */
+	private static final class PairwiseStitchingStats implements Serializable
+	{
+		private static final long serialVersionUID = 4317282453186129218L;
+
+		public final LongAccumulator notEnoughNeighborsWithinConfidenceIntervalPairsCount;
+		public final LongAccumulator noOverlapWithinConfidenceIntervalPairsCount;
+		public final LongAccumulator noPeaksWithinConfidenceIntervalPairsCount;
+		public final LongAccumulator tileImagesLoaded;
+		public final LongAccumulator tileBytesRead;
+		public final LongAccumulator phaseCorrelationTimeMsec;
+		public final LongAccumulator fftBuffersAllocatedBytes;
+		public final LongAccumulator fftBuffersReusedBytes;
+		public final LongAccumulator multithreadedPairsCount;
+		public final LongAccumulator pyramidRefinedPairsCount;
+		public final LongAccumulator pyramidFallbackPairsCount;
+
+		public PairwiseStitchingStats( final JavaSparkContext sparkContext )
+		{
+			notEnoughNeighborsWithinConfidenceIntervalPairsCount = sparkContext.sc().longAccumulator();
+			noOverlapWithinConfidenceIntervalPairsCount = sparkContext.sc().longAccumulator();
+			noPeaksWithinConfidenceIntervalPairsCount = sparkContext.sc().longAccumulator();
+			tileImagesLoaded = sparkContext.sc().longAccumulator();
+			tileBytesRead = sparkContext.sc().longAccumulator();
+			phaseCorrelationTimeMsec = sparkContext.sc().longAccumulator();
+			fftBuffersAllocatedBytes = sparkContext.sc().longAccumulator();
+			fftBuffersReusedBytes = sparkContext.sc().longAccumulator();
+			multithreadedPairsCount = sparkContext.sc().longAccumulator();
+			pyramidRefinedPairsCount = sparkContext.sc().longAccumulator();
+			pyramidFallbackPairsCount = sparkContext.sc().longAccumulator();
+		}
+	}
+
 	public PipelineStitchingStepExecutor( final StitchingJob job, final JavaSparkContext sparkContext )
 	{
 		super( job, sparkContext );
@@ -140,10 +186,11 @@ public class PipelineStitchingStepExecutor extends PipelineStepExecutor
 					final String previousStitchedTilesFilepath = PathResolver.get( basePath, previousIterationDirname, Utils.addFilenameSuffix( filename, "-stitched" ) );
 					final TileInfo[] previousStitchedTiles = dataProvider.loadTiles( previousStitchedTilesFilepath );
 
-					final String usedPairsFilepath = PathResolver.get( basePath, iterationDirname, "pairwise-used.json" );
-					final String previousUsedPairsFilepath = PathResolver.get( basePath, previousIterationDirname, "pairwise-used.json" );
-					final List< SerializablePairWiseStitchingResult[] > usedPairs = TileInfoJSONProvider.loadPairwiseShiftsMulti( dataProvider.getJsonReader( usedPairsFilepath ) );
-					final List< SerializablePairWiseStitchingResult[] > previousUsedPairs = TileInfoJSONProvider.loadPairwiseShiftsMulti( dataProvider.getJsonReader( previousUsedPairsFilepath ) );
+					final String usedPairsFilename = Utils.addFilenameSuffix( TileInfoJSONProvider.getPairwiseFilename( job.getArgs().binaryPairwise() ), "-used" );
+					final String usedPairsFilepath = PathResolver.get( basePath, iterationDirname, usedPairsFilename );
+					final String previousUsedPairsFilepath = PathResolver.get( basePath, previousIterationDirname, usedPairsFilename );
+					final List< SerializablePairWiseStitchingResult[] > usedPairs = TileInfoJSONProvider.loadPairwiseShiftsMulti( dataProvider, usedPairsFilepath );
+					final List< SerializablePairWiseStitchingResult[] > previousUsedPairs = TileInfoJSONProvider.loadPairwiseShiftsMulti( dataProvider, previousUsedPairsFilepath );
 
 					if ( stitchedTiles.length < previousStitchedTiles.length || ( stitchedTiles.length == previousStitchedTiles.length && usedPairs.size() <= previousUsedPairs.size() ) )
 					{
@@ -167,6 +214,13 @@ public class PipelineStitchingStepExecutor extends PipelineStepExecutor
 		}
 	}
 
+	static String getPairKey( final TilePair pair )
+	{
+		final int ind1 = Math.min( pair.getA().getIndex(), pair.getB().getIndex() );
+		final int ind2 = Math.max( pair.getA().getIndex(), pair.getB().getIndex() );
+		return ind1 + "," + ind2;
+	}
+
 	private String getIterationFolderName( final int iteration )
 	{
 		String iterationDirname = "iter" + iteration;
@@ -205,9 +259,10 @@ public class PipelineStitchingStepExecutor extends PipelineStepExecutor
 		final String basePath = PathResolver.getParent( job.getArgs().inputTileConfigurations().get( job.getMainChannelIndex() ) );
 		final String iterationDirname = getIterationFolderName( iteration );
 		final String previousIterationDirname = iteration == 0 ? null : getIterationFolderName( iteration - 1 );
-		final String pairwiseFilename = "pairwise.json";
+		final String pairwiseFilename = TileInfoJSONProvider.getPairwiseFilename( job.getArgs().binaryPairwise() );
 		dataProvider.createFolder( PathResolver.get( basePath, iterationDirname ) );
 		final String pairwisePath = PathResolver.get( basePath, iterationDirname, pairwiseFilename );
+		final String pairwiseShardsPath = PathResolver.get( basePath, iterationDirname, PairwiseShiftsShards.SHARDS_FOLDER_NAME );
 
 		if ( iteration == 0 )
 		{
@@ -234,6 +289,20 @@ public class PipelineStitchingStepExecutor extends PipelineStepExecutor
 			}
 		}
 
+		// in the incremental mode, the previous results of the excluded pairs can be reused if they are still within the new search radius
+		final Map< String, SerializablePairWiseStitchingResult[] > previousPairwiseShiftsMulti;
+		final String previousPairwisePath = iteration == 0 ? null : PathResolver.get( basePath, previousIterationDirname, pairwiseFilename );
+		if ( job.getArgs().rematchingMode() == RematchingMode.INCREMENTAL && previousPairwisePath != null && dataProvider.exists( previousPairwisePath ) )
+		{
+			previousPairwiseShiftsMulti = new HashMap<>();
+			for ( final SerializablePairWiseStitchingResult[] resultMulti : TileInfoJSONProvider.loadPairwiseShiftsMulti( dataProvider, previousPairwisePath ) )
+				previousPairwiseShiftsMulti.put( getPairKey( resultMulti[ 0 ].getTilePair() ), resultMulti );
+		}
+		else
+		{
+			previousPairwiseShiftsMulti = null;
+		}
+
 		// Try to load precalculated shifts for some pairs of tiles
 		final List< SerializablePairWiseStitchingResult[] > pairwiseShiftsMulti = new ArrayList<>();
 
@@ -242,13 +311,13 @@ public class PipelineStitchingStepExecutor extends PipelineStepExecutor
 			try
 			{
 				System.out.println( "try to load pairwise results from disk" );
-				pairwiseShiftsMulti.addAll( TileInfoJSONProvider.loadPairwiseShiftsMulti( dataProvider.getJsonReader( pairwisePath ) ) );
+				pairwiseShiftsMulti.addAll( TileInfoJSONProvider.loadPairwiseShiftsMulti( dataProvider, pairwisePath ) );
 			}
 			catch ( final FileNotFoundException e )
 			{
 				System.out.println( "Pairwise results file not found" );
 			}
-			catch ( final NullPointerException e )
+			catch ( final JsonParseException e )
 			{
 				System.out.println( "Pairwise results file is malformed" );
 				e.printStackTrace();
@@ -260,6 +329,32 @@ public class PipelineStitchingStepExecutor extends PipelineStepExecutor
 			}
 		}
 
+		// merge the partial results that were saved by the previous run if it did not complete
+		{
+			final List< SerializablePairWiseStitchingResult[] > shardsShiftsMulti = PairwiseShiftsShards.loadShards( dataProvider, pairwiseShardsPath );
+			if ( !shardsShiftsMulti.isEmpty() )
+			{
+				final Set< String > loadedPairs = new HashSet<>();
+				for ( final SerializablePairWiseStitchingResult[] resultMulti : pairwiseShiftsMulti )
+					loadedPairs.add( getPairKey( resultMulti[ 0 ].getTilePair() ) );
+
+				int pairsMerged = 0;
+				for ( final SerializablePairWiseStitchingResult[] resultMulti : shardsShiftsMulti )
+				{
+					if ( loadedPairs.add( getPairKey( resultMulti[ 0 ].getTilePair() ) ) )
+					{
+						pairwiseShiftsMulti.add( resultMulti );
+						++pairsMerged;
+					}
+				}
+				System.out.println( "Merged " + pairsMerged + " pairwise results from the shards of the previous run" );
+
+				// save the merged results before removing the shards
+				TileInfoJSONProvider.savePairwiseShiftsMulti( pairwiseShiftsMulti, dataProvider, pairwisePath );
+			}
+			PairwiseShiftsShards.deleteShards( dataProvider, pairwiseShardsPath );
+		}
+
 		// remove redundant pairs (that are not contained in the given overlappingTiles list)
 		{
 			final Map< Integer, Set< Integer > > overlappingPairsCache = new TreeMap<>();
@@ -295,7 +390,7 @@ public class PipelineStitchingStepExecutor extends PipelineStepExecutor
 
 			// resave the new file if something has changed
 			if ( pairsRemoved != 0 )
-				TileInfoJSONProvider.savePairwiseShiftsMulti( pairwiseShiftsMulti, dataProvider.getJsonWriter( pairwisePath ) );
+				TileInfoJSONProvider.savePairwiseShiftsMulti( pairwiseShiftsMulti, dataProvider, pairwisePath );
 		}
 
 		// find only pairs that need to be computed
@@ -342,13 +437,20 @@ public class PipelineStitchingStepExecutor extends PipelineStepExecutor
 					Utils.addFilenameSuffix( PathResolver.getFileName( job.getArgs().inputTileConfigurations().get( job.getMainChannelIndex() ) ), "-stitched" )
 				);
 
+			// the pending pairs are revalidated against the previous results in computePairwiseShifts(), which reports how many of them are actually reused
+			if ( previousPairwiseShiftsMulti != null )
+				System.out.println( "Incremental rematching: " + pairwiseShiftsMulti.size() + " pairs are loaded from disk, " + pendingOverlappingTiles.size() + " pairs are pending" );
+
 			// Initiate the computation
-			final List< SerializablePairWiseStitchingResult[] > adjacentShiftsMulti = computePairwiseShifts( pendingOverlappingTiles, statsTileConfigurationPath );
+			final List< SerializablePairWiseStitchingResult[] > adjacentShiftsMulti = computePairwiseShifts( pendingOverlappingTiles, statsTileConfigurationPath, pairwiseShardsPath, previousPairwiseShiftsMulti );
 			pairwiseShiftsMulti.addAll( adjacentShiftsMulti );
 
 			try {
 				System.out.println( "Stitched all tiles pairwise, store this information on disk.." );
-				TileInfoJSONProvider.savePairwiseShiftsMulti( pairwiseShiftsMulti, dataProvider.getJsonWriter( pairwisePath ) );
+				TileInfoJSONProvider.savePairwiseShiftsMulti( pairwiseShiftsMulti, dataProvider, pairwisePath );
+
+				// the shards are not needed anymore once all results are saved
+				PairwiseShiftsShards.deleteShards( dataProvider, pairwiseShardsPath );
 			} catch ( final IOException e ) {
 				e.printStackTrace();
 			}
@@ -358,9 +460,16 @@ public class PipelineStitchingStepExecutor extends PipelineStepExecutor
 	/**
 	 * Computes the best possible pairwise shifts between every pair of tiles on a Spark cluster.
 	 * It uses phase correlation for measuring similarity between two images.
+	 * Each partition saves its results into a shard in {@code shardsPath} as soon as it is done (see {@link PairwiseShiftsShards}).
+	 * If the results of the previous iteration are provided, the pairs whose previous peaks are still within the new search radius
+	 * are not recomputed (see {@link #isWithinSearchRadius(TilePair, SerializablePairWiseStitchingResult[], TileSearchRadiusTable, int)}).
 	 * @throws IOException
 	 */
-	private < T extends NativeType< T > & RealType< T >, U extends NativeType< U > & RealType< U > > List< SerializablePairWiseStitchingResult[] > computePairwiseShifts( final List< TilePair > overlappingTiles, final String statsTileConfigurationPath ) throws PipelineExecutionException, IOException
+	private < T extends NativeType< T > & RealType< T >, U extends NativeType< U > & RealType< U > > List< SerializablePairWiseStitchingResult[] > computePairwiseShifts(
+			final List< TilePair > overlappingTiles,
+			final String statsTileConfigurationPath,
+			final String shardsPath,
+			final Map< String, SerializablePairWiseStitchingResult[] > previousShiftsMulti ) throws PipelineExecutionException, IOException
 	{
 		final DataProvider dataProvider = job.getDataProvider();
 
@@ -386,10 +495,37 @@ public class PipelineStitchingStepExecutor extends PipelineStepExecutor
 		{
 			searchRadiusEstimator = null;
 		}
-		final Broadcast< TileSearchRadiusEstimator > broadcastedSearchRadiusEstimator = sparkContext.broadcast( searchRadiusEstimator );
 
-		// for dividing the overlap area into 1x1 or 2x2, etc. which leads to 1 or 4 matches per pair of tiles
-		final int dividedParts = 1;
+		// compute the offset statistics for every tile once, so the pairwise tasks only need to combine them
+		final TileSearchRadiusTable searchRadiusTable;
+		if ( searchRadiusEstimator != null )
+		{
+			final Map< Integer, TileInfo > pairTiles = new TreeMap<>();
+			for ( final TilePair pair : overlappingTiles )
+				for ( final TileInfo tile : pair.toArray() )
+					pairTiles.put( tile.getIndex(), tile );
+			searchRadiusTable = TileSearchRadiusTable.create( searchRadiusEstimator, pairTiles.values(), job.getArgs().minStatsNeighborhood(), sparkContext );
+			System.out.println( "-- Computed search radius statistics for " + searchRadiusTable.size() + " tiles --" );
+		}
+		else
+		{
+			searchRadiusTable = null;
+		}
+
+		// only the pairs whose search region has changed need to be recomputed
+		final List< SerializablePairWiseStitchingResult[] > revalidatedShiftsMulti = new ArrayList<>();
+		final List< TilePair > pendingPairs;
+		if ( previousShiftsMulti != null && searchRadiusTable != null )
+		{
+			pendingPairs = revalidatePreviousShifts( overlappingTiles, previousShiftsMulti, searchRadiusTable, job.getArgs().minStatsNeighborhood(), revalidatedShiftsMulti );
+			System.out.println( "-- " + revalidatedShiftsMulti.size() + " pairs from the previous iteration are still within the new search radius, " + pendingPairs.size() + " pairs need to be recomputed --" );
+		}
+		else
+		{
+			pendingPairs = overlappingTiles;
+		}
+
+		final Broadcast< TileSearchRadiusTable > broadcastedSearchRadiusTable = sparkContext.broadcast( searchRadiusTable );
 
 		System.out.println( "Broadcasting flatfield correction images" );
 		final List< RandomAccessiblePairNullable< U, U > > flatfieldCorrectionForChannels = new ArrayList<>();
@@ -402,156 +538,301 @@ public class PipelineStitchingStepExecutor extends PipelineStepExecutor
 			tileChannelMappingByIndex.add( Utils.createTilesMap( job.getTiles( channel ) ) );
 		final Broadcast< List< Map< Integer, TileInfo > > > broadcastedTileChannelMappingByIndex = sparkContext.broadcast( tileChannelMappingByIndex );
 
-		System.out.println( "Processing " + overlappingTiles.size() + " pairs..." );
-
-		final LongAccumulator notEnoughNeighborsWithinConfidenceIntervalPairsCount = sparkContext.sc().longAccumulator();
-		final LongAccumulator noOverlapWithinConfidenceIntervalPairsCount = sparkContext.sc().longAccumulator();
-		final LongAccumulator noPeaksWithinConfidenceIntervalPairsCount = sparkContext.sc().longAccumulator();
-
-		final JavaRDD< TilePair > rdd = sparkContext.parallelize( overlappingTiles, overlappingTiles.size() );
-		final JavaRDD< SerializablePairWiseStitchingResult[] > pairwiseStitching = rdd.map( pairOfTiles ->
-			{
-				final DataProvider dataProviderLocal = job.getDataProvider();
+		System.out.println( "Processing " + pendingPairs.size() + " pairs..." );
 
-				// stats
-				final TileSearchRadiusEstimator localSearchRadiusEstimator = broadcastedSearchRadiusEstimator.value();
-				final SearchRadius searchRadius;
+		final PairwiseStitchingStats stats = new PairwiseStitchingStats( sparkContext );
+		final TileImageCache tileImageCache = TileImageCache.create( sparkContext );
+		final long shardsRunId = System.currentTimeMillis();
 
-				final TileInfo[] pair = pairOfTiles.toArray();
-				final Interval[] overlaps = new Boundaries[ pair.length ];
-				final ImagePlus[] imps = new ImagePlus[ pair.length ];
+		// number of cores that the tasks running on the same executor share between them (0 means all available processors)
+		final boolean adaptiveThreads = job.getArgs().adaptiveThreads();
+		final int executorCores = sparkContext.getConf().getInt( "spark.executor.cores", 0 );
+		if ( adaptiveThreads )
+			System.out.println( "Using adaptive intra-task threading with " + ( executorCores > 0 ? executorCores + " cores" : "all available cores" ) + " per executor" );
 
-				final TileInfo fixedTile = pair[ 0 ], movingTile = pair[ 1 ];
+		// the tasks only capture the lightweight context and the broadcasts, not the job with all tiles
+		final StitchingTaskContext taskContext = new StitchingTaskContext( job );
+		final long taskSizeBudgetKB = job.getArgs().taskSizeBudgetKB();
 
-				System.out.println( "Processing tile pair " + pairOfTiles );
-
-				final double[] voxelDimensions = fixedTile.getPixelResolution();
-				final double[] normalizedVoxelDimensions = Utils.normalizeVoxelDimensions( voxelDimensions );
-				System.out.println( "Normalized voxel size = " + Arrays.toString( normalizedVoxelDimensions ) );
-				final double blurSigma = job.getArgs().blurSigma();
-				final double[] blurSigmas = new  double[ normalizedVoxelDimensions.length ];
-				for ( int d = 0; d < blurSigmas.length; d++ )
-					blurSigmas[ d ] = blurSigma / normalizedVoxelDimensions[ d ];
-
-				if ( localSearchRadiusEstimator != null )
+		final int[] pairwiseBlockSize = job.getArgs().pairwiseBlockSize();
+		final List< SerializablePairWiseStitchingResult[] > stitchingResults = new ArrayList<>( revalidatedShiftsMulti );
+		if ( pendingPairs.isEmpty() )
+		{
+			System.out.println( "No pairs to compute" );
+		}
+		else if ( pairwiseBlockSize == null )
+		{
+			// several partitions per core for load balancing, every partition saves its results as a single shard
+			final int numPartitions = Math.max( Math.min( pendingPairs.size(), sparkContext.defaultParallelism() * PARTITIONS_PER_CORE ), 1 );
+			final JavaRDD< TilePair > rdd = sparkContext.parallelize( pendingPairs, numPartitions );
+			final FlatMapFunction< Iterator< TilePair >, SerializablePairWiseStitchingResult[] > pairwiseStitchingTask = pairsIterator ->
 				{
-					final int minNumNearestNeighbors = job.getArgs().minStatsNeighborhood();
-					final SearchRadius[] tilesSearchRadius = new SearchRadius[ pair.length ];
-					for ( int j = 0; j < pair.length; j++ )
+					final List< SerializablePairWiseStitchingResult[] > partitionResults = new ArrayList<>();
+					try ( final AdaptiveThreadPool.TaskThreads taskThreads = adaptiveThreads ? AdaptiveThreadPool.startTask( executorCores ) : null )
 					{
-						tilesSearchRadius[ j ] = localSearchRadiusEstimator.getSearchRadiusTreeWithinEstimationWindow( pair[ j ] );
-						if ( tilesSearchRadius[ j ].getUsedPointsIndexes().size() < minNumNearestNeighbors )
+						while ( pairsIterator.hasNext() )
 						{
-							notEnoughNeighborsWithinConfidenceIntervalPairsCount.add( 1 );
-
-//							System.out.println( "Found " + searchRadiusEstimationWindow.getUsedPointsIndexes().size() + " neighbors within the search window but we require " + numNearestNeighbors + " nearest neighbors, perform a K-nearest neighbor search instead..." );
-							System.out.println();
-							System.out.println( pairOfTiles + ": found " + tilesSearchRadius[ j ].getUsedPointsIndexes().size() + " neighbors within the search window of the " + ( j == 0 ? "fixed" : "moving" ) + " tile but we require at least " + minNumNearestNeighbors + " nearest neighbors, so ignore this tile pair for now" );
-							System.out.println();
+							partitionResults.add( PipelineStitchingStepExecutor.< T, U >computePairwiseShift(
+									taskContext,
+									pairsIterator.next(),
+									broadcastedSearchRadiusTable.value(),
+									broadcastedFlatfieldCorrectionForChannels.value(),
+									broadcastedTileChannelMappingByIndex.value(),
+									null,
+									tileImageCache,
+									taskThreads,
+									stats
+								) );
+						}
+					}
+					finally
+					{
+						// do not hold the FFT buffers in the executor thread after the task is finished
+						PhaseCorrelationImgLib2.releaseBuffers();
+					}
+					PairwiseShiftsShards.saveShard(
+							taskContext.getDataProvider(),
+							shardsPath,
+							PairwiseShiftsShards.getShardName( shardsRunId, TaskContext.getPartitionId() ),
+							partitionResults
+						);
+					return partitionResults.iterator();
+				};
+			TaskSizeReport.report( "pairwise stitching", pairwiseStitchingTask, taskSizeBudgetKB );
+			stitchingResults.addAll( rdd.mapPartitions( pairwiseStitchingTask ).collect() );
+		}
+		else
+		{
+			// group the pairs by spatial blocks of tiles, so every tile is loaded only once within a block instead of once per pair
+			final List< List< TilePair > > pairGroups = TileOperations.groupPairsBySpatialBlocks( pendingPairs, pairwiseBlockSize );
+			System.out.println( "Grouped " + pendingPairs.size() + " pairs into " + pairGroups.size() + " blocks of " + Arrays.toString( pairwiseBlockSize ) + " tiles" );
 
-							final SerializablePairWiseStitchingResult[] invalidResult = new SerializablePairWiseStitchingResult[ dividedParts ];
-							for ( int i = 0; i < invalidResult.length; ++i )
+			final JavaRDD< List< TilePair > > rdd = sparkContext.parallelize( pairGroups, pairGroups.size() );
+			final FlatMapFunction< List< TilePair >, SerializablePairWiseStitchingResult[] > pairwiseStitchingTask = pairGroup ->
+				{
+					// count how many pairs within the group use each tile, so the tile image can be released once it is not needed anymore
+					final Map< Integer, Integer > tileReferences = new HashMap<>();
+					for ( final TilePair pair : pairGroup )
+						for ( final TileInfo tile : pair.toArray() )
+							tileReferences.put( tile.getIndex(), tileReferences.getOrDefault( tile.getIndex(), 0 ) + 1 );
+
+					final List< Map< Integer, TileInfo > > localTileChannelMappingByIndex = broadcastedTileChannelMappingByIndex.value();
+					final Map< String, RandomAccessibleInterval< T > > loadedTileImages = new HashMap<>();
+					final List< SerializablePairWiseStitchingResult[] > groupResults = new ArrayList<>();
+					try ( final AdaptiveThreadPool.TaskThreads taskThreads = adaptiveThreads ? AdaptiveThreadPool.startTask( executorCores ) : null )
+					{
+						for ( final TilePair pairOfTiles : pairGroup )
+						{
+							groupResults.add( PipelineStitchingStepExecutor.< T, U >computePairwiseShift(
+									taskContext,
+									pairOfTiles,
+									broadcastedSearchRadiusTable.value(),
+									broadcastedFlatfieldCorrectionForChannels.value(),
+									localTileChannelMappingByIndex,
+									loadedTileImages,
+									tileImageCache,
+									taskThreads,
+									stats
+								) );
+
+							for ( final TileInfo tile : pairOfTiles.toArray() )
 							{
-								invalidResult[ i ] = new SerializablePairWiseStitchingResult( pairOfTiles, null, 0 );
-								invalidResult[ i ].setIsValidOverlap( false );
+								final int references = tileReferences.get( tile.getIndex() ) - 1;
+								tileReferences.put( tile.getIndex(), references );
+								if ( references == 0 )
+									for ( final Map< Integer, TileInfo > channelTiles : localTileChannelMappingByIndex )
+										if ( channelTiles.containsKey( tile.getIndex() ) )
+											loadedTileImages.remove( channelTiles.get( tile.getIndex() ).getFilePath() );
 							}
-							return invalidResult;
-
-//								final SearchRadius searchRadiusNearestNeighbors = localSearchRadiusEstimator.getSearchRadiusTreeUsingKNearestNeighbors( movingTile, numNearestNeighbors );
-//								if ( searchRadiusNearestNeighbors.getUsedPointsIndexes().size() != numNearestNeighbors )
-//								{
-//									if ( localSearchRadiusEstimator.getNumPoints() >= numNearestNeighbors )
-//										throw new PipelineExecutionException( "Required " + numNearestNeighbors + " nearest neighbors, found only " + searchRadiusNearestNeighbors.getUsedPointsIndexes().size() );
-//									else if ( searchRadiusNearestNeighbors.getUsedPointsIndexes().size() != localSearchRadiusEstimator.getNumPoints() )
-//										throw new PipelineExecutionException( "Number of tiles in the stitched solution = " + localSearchRadiusEstimator.getNumPoints() + ", found " + searchRadiusNearestNeighbors.getUsedPointsIndexes().size() + " neighbors" );
-//									else
-//										System.out.println( "Got only " + localSearchRadiusEstimator.getNumPoints() + " neighbors as it is the size of the stitched solution" );
-//								}
-//								searchRadius = searchRadiusNearestNeighbors;
-						}
-						else
-						{
-							System.out.println( pairOfTiles + ": found " + tilesSearchRadius[ j ].getUsedPointsIndexes().size() + " neighbors within the search window for the " + ( j == 0 ? "fixed" : "moving" ) + " tile, estimate search radius based on that" );
 						}
 					}
+					finally
+					{
+						// do not hold the FFT buffers in the executor thread after the task is finished
+						PhaseCorrelationImgLib2.releaseBuffers();
+					}
+					PairwiseShiftsShards.saveShard(
+							taskContext.getDataProvider(),
+							shardsPath,
+							PairwiseShiftsShards.getShardName( shardsRunId, TaskContext.getPartitionId() ),
+							groupResults
+						);
+					return groupResults.iterator();
+				};
+			TaskSizeReport.report( "pairwise stitching (spatial blocks)", pairwiseStitchingTask, taskSizeBudgetKB );
+			stitchingResults.addAll( rdd.flatMap( pairwiseStitchingTask ).collect() );
+		}
 
-					System.out.println();
-					System.out.println( pairOfTiles + ": found search radiuses for both tiles in the pair, get a combined search radius for the moving tile" );
-					System.out.println();
+		broadcastedFlatfieldCorrectionForChannels.destroy();
+		broadcastedSearchRadiusTable.destroy();
+		broadcastedTileChannelMappingByIndex.destroy();
+
+		int validPairs = 0;
+		for ( final SerializablePairWiseStitchingResult[] shiftMulti : stitchingResults )
+		{
+			final SerializablePairWiseStitchingResult shift = shiftMulti[ 0 ];
+			if ( shift.getIsValidOverlap() )
+				++validPairs;
+		}
 
-					searchRadius = localSearchRadiusEstimator.getCombinedCovariancesSearchRadius( tilesSearchRadius[ 0 ], tilesSearchRadius[ 1 ] );
+		final Set< Integer > distinctTiles = new TreeSet<>();
+		for ( final TilePair pair : pendingPairs )
+			for ( final TileInfo tile : pair.toArray() )
+				distinctTiles.add( tile.getIndex() );
+		final int tilesPerPair = job.getArgs().registrationChannelIndex() != null ? 1 : job.getChannels();
+		final double tilesCount = Math.max( distinctTiles.size() * tilesPerPair, 1 );
 
-					final Interval boundingBox = Intervals.smallestContainingInterval( searchRadius.getBoundingBox() );
-					System.out.println( String.format( pairOfTiles + ": estimated combined search radius for the moving tile. Bounding box: min=%s, max=%s, size=%s",
-							Arrays.toString( Intervals.minAsIntArray( boundingBox ) ),
-							Arrays.toString( Intervals.maxAsIntArray( boundingBox ) ),
-							Arrays.toString( Intervals.dimensionsAsIntArray( boundingBox ) ) ) );
-				}
-				else
-				{
-					searchRadius = null;
-				}
+		System.out.println();
+		System.out.println( "======== Pairwise stitching completed ========" );
+		System.out.println( "Total pairs: " + stitchingResults.size() );
+		System.out.println( "Valid pairs: " + validPairs );
+		if ( previousShiftsMulti != null )
+			System.out.println( "Revalidated pairs (previous peak within the new search radius): " + revalidatedShiftsMulti.size() + ", recomputed pairs: " + pendingPairs.size() );
+		System.out.println( "Invalid pairs:" );
+		System.out.println( "    not enough neighbors within estimation window: " + stats.notEnoughNeighborsWithinConfidenceIntervalPairsCount.value() );
+		System.out.println( "    <= 1px overlap within search radius: " + stats.noOverlapWithinConfidenceIntervalPairsCount.value() );
+		System.out.println( "    no peaks found within search radius: " + stats.noPeaksWithinConfidenceIntervalPairsCount.value() );
+		System.out.println( "Tile images loaded: " + stats.tileImagesLoaded.value() + " (" + String.format( "%.2f", stats.tileImagesLoaded.value() / tilesCount ) + " per tile)" );
+		System.out.println( "Bytes read: " + stats.tileBytesRead.value() + " (" + String.format( "%.2f", stats.tileBytesRead.value() / tilesCount / ( 1 << 20 ) ) + " MB per tile)" );
+		if ( tileImageCache.isEnabled() )
+			System.out.println( tileImageCache );
+		System.out.println( "Phase correlation time (" + ( job.getArgs().nativePhaseCorrelation() ? "imglib2" : "imglib1" ) + "): " + String.format( "%.2f", stats.phaseCorrelationTimeMsec.value() / 1000. ) + "s total, " + String.format( "%.2f", stats.phaseCorrelationTimeMsec.value() / Math.max( pendingPairs.size(), 1. ) ) + "ms per pair" );
+		if ( job.getArgs().nativePhaseCorrelation() )
+			System.out.println( "FFT buffers: allocated " + String.format( "%.2f", stats.fftBuffersAllocatedBytes.value() / ( double ) ( 1 << 20 ) ) + " MB, reused " + String.format( "%.2f", stats.fftBuffersReusedBytes.value() / ( double ) ( 1 << 20 ) ) + " MB" );
+		if ( adaptiveThreads )
+			System.out.println( "Pairs processed with multiple threads: " + stats.multithreadedPairsCount.value() );
+		if ( job.getArgs().pyramidFactor() > 1 )
+			System.out.println( "Coarse-to-fine registration: " + stats.pyramidRefinedPairsCount.value() + " pairs refined around the coarse estimate, " + stats.pyramidFallbackPairsCount.value() + " pairs fell back to the full overlap" );
+		System.out.println();
 
-				// detect dimension with short edge
-				int shortEdgeDimension = -1;
-				{
-					final Boundaries testOverlap = TileOperations.getOverlappingRegion( pair[ 0 ], pair[ 1 ] );
-					if ( testOverlap != null )
-					{
-						if ( shortEdgeDimension == -1 )
-							for ( int d = 0; d < testOverlap.numDimensions(); ++d )
-								if ( shortEdgeDimension == -1 || testOverlap.dimension( d ) < testOverlap.dimension( shortEdgeDimension ) )
-									shortEdgeDimension = d;
-					}
-				}
+		return stitchingResults;
+	}
 
-				// find overlapping regions
-				if ( searchRadius == null )
-				{
-					for ( int j = 0; j < pair.length; j++ )
-					{
-						System.out.println( "Prepairing #" + (j+1) + " of a pair,  padding ROI by " + Arrays.toString( job.getArgs().padding() ) + "(padding arg)" );
-						final Boundaries overlap = TileOperations.getOverlappingRegion( pair[ j ], pair[ ( j + 1 ) % pair.length ] );
-						overlaps[ j ] = TileOperations.padInterval(
-								overlap,
-								new FinalDimensions( pair[ j ].getSize() ),
-								job.getArgs().padding()
-							);
-					}
-				}
-				else
-				{
-					final Pair< Interval, Interval > overlapsAdjustedToSearchRadius = adjustOverlappingRegion( pairOfTiles, searchRadius );
-					if ( overlapsAdjustedToSearchRadius == null )
-					{
-						noOverlapWithinConfidenceIntervalPairsCount.add( 1 );
-						System.out.println( pairOfTiles + ": cannot find a non-empty overlap that covers the confidence range (The confidence range says there is no overlap?)" );
+	/**
+	 * Splits the given pairs into the ones whose previous results are still valid with respect to the new search radius
+	 * (see {@link #isWithinSearchRadius(TilePair, SerializablePairWiseStitchingResult[], TileSearchRadiusTable, int)}),
+	 * and the ones that need to be recomputed.
+	 *
+	 * @param revalidatedShiftsMulti
+	 * 			the revalidated previous results are added to this list (updated with the current tile pairs)
+	 * @return pairs that need to be recomputed
+	 */
+	static List< TilePair > revalidatePreviousShifts(
+			final List< TilePair > pairs,
+			final Map< String, SerializablePairWiseStitchingResult[] > previousShiftsMulti,
+			final TileSearchRadiusTable searchRadiusTable,
+			final int minNumNeighbors,
+			final List< SerializablePairWiseStitchingResult[] > revalidatedShiftsMulti ) throws PipelineExecutionException
+	{
+		final List< TilePair > pendingPairs = new ArrayList<>();
+		for ( final TilePair pair : pairs )
+		{
+			final SerializablePairWiseStitchingResult[] previousResultMulti = previousShiftsMulti.get( getPairKey( pair ) );
+			if ( previousResultMulti != null && isWithinSearchRadius( pair, previousResultMulti, searchRadiusTable, minNumNeighbors ) )
+			{
+				for ( final SerializablePairWiseStitchingResult result : previousResultMulti )
+					result.setTilePair( pair );
+				revalidatedShiftsMulti.add( previousResultMulti );
+			}
+			else
+			{
+				pendingPairs.add( pair );
+			}
+		}
+		return pendingPairs;
+	}
 
-						final SerializablePairWiseStitchingResult[] invalidResult = new SerializablePairWiseStitchingResult[ dividedParts ];
-						for ( int i = 0; i < invalidResult.length; ++i )
-						{
-							invalidResult[ i ] = new SerializablePairWiseStitchingResult( pairOfTiles, null, 0 );
-							invalidResult[ i ].setIsValidOverlap( false );
-						}
-						return invalidResult;
-					}
+	/**
+	 * Checks if the previous result for the given pair is still valid with respect to the new search radius,
+	 * i.e. all its peaks are valid and fall into the new confidence ellipse of the moving tile.
+	 */
+	private static boolean isWithinSearchRadius(
+			final TilePair pair,
+			final SerializablePairWiseStitchingResult[] previousResultMulti,
+			final TileSearchRadiusTable searchRadiusTable,
+			final int minNumNeighbors ) throws PipelineExecutionException
+	{
+		for ( final TileInfo tile : pair.toArray() )
+			if ( !searchRadiusTable.contains( tile.getIndex() ) || searchRadiusTable.getNumNeighbors( tile.getIndex() ) < minNumNeighbors )
+				return false;
 
-					overlaps[ 0 ] = overlapsAdjustedToSearchRadius.getA();
-					overlaps[ 1 ] = overlapsAdjustedToSearchRadius.getB();
+		final SearchRadius searchRadius = searchRadiusTable.getCombinedCovariancesSearchRadius( pair.getA().getIndex(), pair.getB().getIndex() );
+		for ( final SerializablePairWiseStitchingResult result : previousResultMulti )
+		{
+			// the offset is stored relative to the fixed tile, so the orientation of the pair has to be the same
+			if ( result == null || !result.getIsValidOverlap() || result.getOffset() == null || result.getTilePair().getA().getIndex().intValue() != pair.getA().getIndex().intValue() )
+				return false;
+
+			final double[] movingTilePosition = new double[ pair.getA().numDimensions() ];
+			for ( int d = 0; d < movingTilePosition.length; ++d )
+				movingTilePosition[ d ] = pair.getA().getPosition( d ) + result.getOffset( d );
+			if ( !searchRadius.testPoint( movingTilePosition ) )
+				return false;
+		}
+		return true;
+	}
 
-					// find the shortest edge if the initial overlap was null (shortEdgeDimension is still -1)
-					if ( shortEdgeDimension == -1 )
-						for ( int d = 0; d < overlaps[ 0 ].numDimensions(); ++d )
-							if ( shortEdgeDimension == -1 || overlaps[ 0 ].dimension( d ) < overlaps[ 0 ].dimension( shortEdgeDimension ) )
-								shortEdgeDimension = d;
-				}
+	/**
+	 * Computes the best possible shift between the given pair of tiles.
+	 *
+	 * @param loadedTileImages
+	 * 			tile images that have already been loaded by the same task and can be reused (keyed by the file path), or null if the images should not be kept
+	 * @param tileImageCache
+	 * 			executor-wide tile image cache
+	 * @param taskThreads
+	 * 			share of the executor cores for this task, or null to process the pair in a single thread
+	 */
+	private static < T extends NativeType< T > & RealType< T >, U extends NativeType< U > & RealType< U > > SerializablePairWiseStitchingResult[] computePairwiseShift(
+			final StitchingTaskContext taskContext,
+			final TilePair pairOfTiles,
+			final TileSearchRadiusTable localSearchRadiusTable,
+			final List< RandomAccessiblePairNullable< U, U > > flatfieldCorrectionForChannels,
+			final List< Map< Integer, TileInfo > > tileChannelMappingByIndex,
+			final Map< String, RandomAccessibleInterval< T > > loadedTileImages,
+			final TileImageCache tileImageCache,
+			final AdaptiveThreadPool.TaskThreads taskThreads,
+			final PairwiseStitchingStats stats ) throws PipelineExecutionException, IOException, ImgLibException, IncompatibleTypeException
+	{
+		final DataProvider dataProviderLocal = taskContext.getDataProvider();
+		boolean usedMultipleThreads = false;
+
+		// for dividing the overlap area into 1x1 or 2x2, etc. which leads to 1 or 4 matches per pair of tiles
+		final int dividedParts = 1;
 
-				// when the overlap is 1px thick in Z, it breaks the code below because corresponding cropped images are 2D in this case, so just ignore this pair
-				// gaussian blur and phase correlation also require at least 2px in every dimension
-				if ( Arrays.stream( Intervals.dimensionsAsIntArray( overlaps[ 0 ] ) ).min().getAsInt() <= 1 )
+		// stats
+		final SearchRadius searchRadius;
+
+		final TileInfo[] pair = pairOfTiles.toArray();
+		final Interval[] overlaps = new Boundaries[ pair.length ];
+		final ImagePlus[] imps = new ImagePlus[ pair.length ];
+		final RandomAccessibleInterval< FloatType >[] overlapImgs = new RandomAccessibleInterval[ pair.length ];
+		final OverlapImageAccumulator[] overlapAccumulators = new OverlapImageAccumulator[ pair.length ];
+
+		final TileInfo fixedTile = pair[ 0 ], movingTile = pair[ 1 ];
+
+		System.out.println( "Processing tile pair " + pairOfTiles );
+
+		final double[] voxelDimensions = fixedTile.getPixelResolution();
+		final double[] normalizedVoxelDimensions = Utils.normalizeVoxelDimensions( voxelDimensions );
+		System.out.println( "Normalized voxel size = " + Arrays.toString( normalizedVoxelDimensions ) );
+		final double blurSigma = taskContext.getArgs().blurSigma();
+		final double[] blurSigmas = new  double[ normalizedVoxelDimensions.length ];
+		for ( int d = 0; d < blurSigmas.length; d++ )
+			blurSigmas[ d ] = blurSigma / normalizedVoxelDimensions[ d ];
+
+		if ( localSearchRadiusTable != null )
+		{
+			final int minNumNearestNeighbors = taskContext.getArgs().minStatsNeighborhood();
+			for ( int j = 0; j < pair.length; j++ )
+			{
+				final int numNeighbors = localSearchRadiusTable.getNumNeighbors( pair[ j ].getIndex() );
+				if ( numNeighbors < minNumNearestNeighbors )
 				{
-					noOverlapWithinConfidenceIntervalPairsCount.add( 1 );
-					System.out.println( pairOfTiles + ": overlap is <= 1px" );
+					stats.notEnoughNeighborsWithinConfidenceIntervalPairsCount.add( 1 );
+
+					System.out.println();
+					System.out.println( pairOfTiles + ": found " + numNeighbors + " neighbors within the search window of the " + ( j == 0 ? "fixed" : "moving" ) + " tile but we require at least " + minNumNearestNeighbors + " nearest neighbors, so ignore this tile pair for now" );
+					System.out.println();
 
 					final SerializablePairWiseStitchingResult[] invalidResult = new SerializablePairWiseStitchingResult[ dividedParts ];
 					for ( int i = 0; i < invalidResult.length; ++i )
@@ -561,31 +842,123 @@ public class PipelineStitchingStepExecutor extends PipelineStepExecutor
 					}
 					return invalidResult;
 				}
+				else
+				{
+					System.out.println( pairOfTiles + ": found " + numNeighbors + " neighbors within the search window for the " + ( j == 0 ? "fixed" : "moving" ) + " tile, estimate search radius based on that" );
+				}
+			}
+
+			System.out.println();
+			System.out.println( pairOfTiles + ": found search radiuses for both tiles in the pair, get a combined search radius for the moving tile" );
+			System.out.println();
 
-				// prepare images
-				for ( int j = 0; j < pair.length; j++ )
+			searchRadius = localSearchRadiusTable.getCombinedCovariancesSearchRadius( fixedTile.getIndex(), movingTile.getIndex() );
+
+			final Interval boundingBox = Intervals.smallestContainingInterval( searchRadius.getBoundingBox() );
+			System.out.println( String.format( pairOfTiles + ": estimated combined search radius for the moving tile. Bounding box: min=%s, max=%s, size=%s",
+					Arrays.toString( Intervals.minAsIntArray( boundingBox ) ),
+					Arrays.toString( Intervals.maxAsIntArray( boundingBox ) ),
+					Arrays.toString( Intervals.dimensionsAsIntArray( boundingBox ) ) ) );
+		}
+		else
+		{
+			searchRadius = null;
+		}
+
+		// detect dimension with short edge
+		int shortEdgeDimension = -1;
+		{
+			final Boundaries testOverlap = TileOperations.getOverlappingRegion( pair[ 0 ], pair[ 1 ] );
+			if ( testOverlap != null )
+			{
+				if ( shortEdgeDimension == -1 )
+					for ( int d = 0; d < testOverlap.numDimensions(); ++d )
+						if ( shortEdgeDimension == -1 || testOverlap.dimension( d ) < testOverlap.dimension( shortEdgeDimension ) )
+							shortEdgeDimension = d;
+			}
+		}
+
+		// find overlapping regions
+		if ( searchRadius == null )
+		{
+			for ( int j = 0; j < pair.length; j++ )
+			{
+				System.out.println( "Prepairing #" + (j+1) + " of a pair,  padding ROI by " + Arrays.toString( taskContext.getArgs().padding() ) + "(padding arg)" );
+				final Boundaries overlap = TileOperations.getOverlappingRegion( pair[ j ], pair[ ( j + 1 ) % pair.length ] );
+				overlaps[ j ] = TileOperations.padInterval(
+						overlap,
+						new FinalDimensions( pair[ j ].getSize() ),
+						taskContext.getArgs().padding()
+					);
+			}
+		}
+		else
+		{
+			final Pair< Interval, Interval > overlapsAdjustedToSearchRadius = adjustOverlappingRegion( pairOfTiles, searchRadius );
+			if ( overlapsAdjustedToSearchRadius == null )
+			{
+				stats.noOverlapWithinConfidenceIntervalPairsCount.add( 1 );
+				System.out.println( pairOfTiles + ": cannot find a non-empty overlap that covers the confidence range (The confidence range says there is no overlap?)" );
+
+				final SerializablePairWiseStitchingResult[] invalidResult = new SerializablePairWiseStitchingResult[ dividedParts ];
+				for ( int i = 0; i < invalidResult.length; ++i )
 				{
-					if ( job.getArgs().registrationChannelIndex() != null )
-						System.out.println( "Using the channel " + PathResolver.getFileName( job.getArgs().inputTileConfigurations().get( job.getArgs().registrationChannelIndex() ) ) + " for stitching" );
-					else
-						System.out.println( "Averaging corresponding tile images for " + job.getChannels() + " channels" );
+					invalidResult[ i ] = new SerializablePairWiseStitchingResult( pairOfTiles, null, 0 );
+					invalidResult[ i ].setIsValidOverlap( false );
+				}
+				return invalidResult;
+			}
+
+			overlaps[ 0 ] = overlapsAdjustedToSearchRadius.getA();
+			overlaps[ 1 ] = overlapsAdjustedToSearchRadius.getB();
+
+			// find the shortest edge if the initial overlap was null (shortEdgeDimension is still -1)
+			if ( shortEdgeDimension == -1 )
+				for ( int d = 0; d < overlaps[ 0 ].numDimensions(); ++d )
+					if ( shortEdgeDimension == -1 || overlaps[ 0 ].dimension( d ) < overlaps[ 0 ].dimension( shortEdgeDimension ) )
+						shortEdgeDimension = d;
+		}
+
+		// when the overlap is 1px thick in Z, it breaks the code below because corresponding cropped images are 2D in this case, so just ignore this pair
+		// gaussian blur and phase correlation also require at least 2px in every dimension
+		if ( Arrays.stream( Intervals.dimensionsAsIntArray( overlaps[ 0 ] ) ).min().getAsInt() <= 1 )
+		{
+			stats.noOverlapWithinConfidenceIntervalPairsCount.add( 1 );
+			System.out.println( pairOfTiles + ": overlap is <= 1px" );
+
+			final SerializablePairWiseStitchingResult[] invalidResult = new SerializablePairWiseStitchingResult[ dividedParts ];
+			for ( int i = 0; i < invalidResult.length; ++i )
+			{
+				invalidResult[ i ] = new SerializablePairWiseStitchingResult( pairOfTiles, null, 0 );
+				invalidResult[ i ].setIsValidOverlap( false );
+			}
+			return invalidResult;
+		}
+
+		// prepare images
+		for ( int j = 0; j < pair.length; j++ )
+		{
+			if ( taskContext.getArgs().registrationChannelIndex() != null )
+				System.out.println( "Using the channel " + PathResolver.getFileName( taskContext.getArgs().inputTileConfigurations().get( taskContext.getArgs().registrationChannelIndex() ) ) + " for stitching" );
+			else
+				System.out.println( "Averaging corresponding tile images for " + taskContext.getChannels() + " channels" );
 
 //					final ComparableTuple< Integer > coordinates = new ComparableTuple<>( Conversions.toBoxedArray( Utils.getTileCoordinates( pair[ j ] ) ) );
-					final Integer tileIndex = pair[ j ].getIndex();
-					int channelsUsed = 0;
+			final Integer tileIndex = pair[ j ].getIndex();
+			int channelsUsed = 0;
 
-					final List< Integer > channelIndices;
-					if ( job.getArgs().registrationChannelIndex() != null )
-						channelIndices = Collections.singletonList( job.getArgs().registrationChannelIndex() ); // only the specified channel
-					else
-						channelIndices = IntStream.range( 0, job.getChannels() ).boxed().collect( Collectors.toList() ); // all channels
+			final List< Integer > channelIndices;
+			if ( taskContext.getArgs().registrationChannelIndex() != null )
+				channelIndices = Collections.singletonList( taskContext.getArgs().registrationChannelIndex() ); // only the specified channel
+			else
+				channelIndices = IntStream.range( 0, taskContext.getChannels() ).boxed().collect( Collectors.toList() ); // all channels
 
-					T inputType = null;
-					final RandomAccessibleInterval< FloatType > avgChannelImg = ArrayImgs.floats( Intervals.dimensionsAsLongArray( overlaps[ j ] ) );
+			T inputType = null;
+			overlapAccumulators[ j ] = new OverlapImageAccumulator( overlaps[ j ] );
 
-					for ( final int channel : channelIndices )
-					{
-						final TileInfo tileInfo = broadcastedTileChannelMappingByIndex.value().get( channel ).get( tileIndex );
+			for ( final int channel : channelIndices )
+			{
+				final TileInfo tileInfo = tileChannelMappingByIndex.get( channel ).get( tileIndex );
 //						for ( final TileInfo tile : job.getTiles( channel ) )
 //						{
 //							if ( coordinates.compareTo( new ComparableTuple<>( Conversions.toBoxedArray( Utils.getTileCoordinates( tile ) ) ) ) == 0 )
@@ -595,219 +968,361 @@ public class PipelineStitchingStepExecutor extends PipelineStepExecutor
 //							}
 //						}
 
-						// skip if no tile exists for this channel at this particular stage position
-						if ( tileInfo == null )
-							throw new PipelineExecutionException( pairOfTiles + ": cannot find corresponding tile for this channel" );
+				// skip if no tile exists for this channel at this particular stage position
+				if ( tileInfo == null )
+					throw new PipelineExecutionException( pairOfTiles + ": cannot find corresponding tile for this channel" );
 
-						// FIXME: throw exception in case some image files are missing (or, check for missing files beforehand)
-						final RandomAccessibleInterval< T > img = TileLoader.loadTile( tileInfo, dataProviderLocal );
-						if ( img == null )
-							throw new PipelineExecutionException( "Cannot load tile image: " + tileInfo.getFilePath() );
+				// FIXME: throw exception in case some image files are missing (or, check for missing files beforehand)
+				final RandomAccessibleInterval< T > imgCrop = loadTileImageCrop( tileInfo, overlaps[ j ], dataProviderLocal, loadedTileImages, tileImageCache, stats );
+				if ( imgCrop == null )
+					throw new PipelineExecutionException( "Cannot load tile image: " + tileInfo.getFilePath() );
 
-						final T type = Util.getTypeFromInterval( img );
+				final T type = Util.getTypeFromInterval( imgCrop );
 
-						// store input type
-						if ( inputType == null )
-							inputType = type;
+				// store input type
+				if ( inputType == null )
+					inputType = type;
 
 //						if ( imp != null )
-						{
-							// warn if image type and/or size do not match metadata
-							if ( !type.getClass().equals( tileInfo.getType().getType().getClass() ) )
-								throw new PipelineExecutionException( String.format( "Image type %s does not match the value from metadata %s", type.getClass().getName(), tileInfo.getType() ) );
-							if ( !Arrays.equals( Intervals.dimensionsAsLongArray( img ), tileInfo.getSize() ) )
-								throw new PipelineExecutionException( String.format( "Image size %s does not match the value from metadata %s", Arrays.toString( Intervals.dimensionsAsLongArray( img ) ), Arrays.toString( tileInfo.getSize() ) ) );
+				{
+					// warn if image type does not match metadata
+					if ( !type.getClass().equals( tileInfo.getType().getType().getClass() ) )
+						throw new PipelineExecutionException( String.format( "Image type %s does not match the value from metadata %s", type.getClass().getName(), tileInfo.getType() ) );
 
-							final RandomAccessibleInterval< T > imgCrop = Views.interval( img, overlaps[ j ] );
+					// flatfield correction is applied while accumulating the channel average
+					final RandomAccessiblePairNullable< U, U > flatfield = flatfieldCorrectionForChannels.get( channel );
+					if ( flatfield != null )
+						System.out.println( "Flat-fielding image.." );
+					overlapAccumulators[ j ].add( imgCrop, flatfield );
 
-							final RandomAccessibleInterval< FloatType > sourceInterval;
-							final RandomAccessiblePairNullable< U, U > flatfield = broadcastedFlatfieldCorrectionForChannels.value().get( channel );
-							if ( flatfield != null )
-							{
-								System.out.println( "Flat-fielding image.." );
-								final FlatfieldCorrectedRandomAccessible< T, U > flatfieldCorrected = new FlatfieldCorrectedRandomAccessible<>( imgCrop, flatfield.toRandomAccessiblePair() );
-								final RandomAccessibleInterval< U > correctedImg = Views.interval( flatfieldCorrected, imgCrop );
-								sourceInterval = Converters.convert( correctedImg, new RealFloatConverter<>(), new FloatType() );
-							}
-							else
-							{
-								sourceInterval = Converters.convert( imgCrop, new RealFloatConverter<>(), new FloatType() );
-							}
+					++channelsUsed;
+				}
+			}
 
-							final Cursor< FloatType > srcCursor = Views.flatIterable( sourceInterval ).cursor();
-							final Cursor< FloatType > dstCursor = Views.flatIterable( avgChannelImg ).cursor();
-							while ( dstCursor.hasNext() || srcCursor.hasNext() )
-								dstCursor.next().add( srcCursor.next() );
+			if ( channelsUsed == 0 )
+				throw new PipelineExecutionException( pairOfTiles + ": images are missing in all channels" );
 
-							++channelsUsed;
-						}
-					}
+			// normalize if needed (the array is wrapped, so the blurred image can be passed to the phase correlation directly)
+			final RandomAccessibleInterval< FloatType > avgChannelImg = overlapAccumulators[ j ].getAverage();
 
-					if ( channelsUsed == 0 )
-						throw new PipelineExecutionException( pairOfTiles + ": images are missing in all channels" );
+			if ( blurSigma > 0 )
+			{
+				System.out.println( String.format( "Blurring the overlap area of size %s with sigmas=%s (s=%f)", Arrays.toString( Intervals.dimensionsAsLongArray( avgChannelImg ) ), Arrays.toString( blurSigmas ), blurSigma ) );
+				// limited to the current share of the task, so the blur is split into as many parts as the task is allowed to run concurrently
+				final ExecutorService blurExecutorService = taskThreads != null ? taskThreads.getExecutorService() : new SameThreadExecutorService();
+				usedMultipleThreads |= !( blurExecutorService instanceof SameThreadExecutorService );
+				blur( avgChannelImg, blurSigmas, blurExecutorService );
+			}
 
-					// normalize if needed
-					if ( channelsUsed > 1 )
+			if ( taskContext.getArgs().nativePhaseCorrelation() )
+			{
+				// use the float image directly
+				overlapImgs[ j ] = avgChannelImg;
+			}
+			else
+			{
+				// convert the output image to the input datatype
+				final RandomAccessibleInterval< T > convertedResultingImgToInputType = Converters.convert( avgChannelImg, new RealConverter<>(), inputType );
+				imps[ j ] = Utils.copyToImagePlus( convertedResultingImgToInputType );
+			}
+		}
+
+		// divide hyperplane with long edges into subintervals
+		final Boundaries fullRoi = new Boundaries( Intervals.dimensionsAsLongArray( overlaps[ 0 ] ) );
+		final int[] roiPartsCount = new int[ fullRoi.numDimensions() ];
+		Arrays.fill( roiPartsCount, dividedParts );
+		roiPartsCount[ shortEdgeDimension ] = 1;
+		final List< TileInfo > roiParts = TileOperations.divideSpaceByCount( fullRoi, roiPartsCount );
+
+		System.out.println( String.format( "Stitching (%d subintervals with grid of %s)..", roiParts.size(), Arrays.toString( roiPartsCount ) ) );
+
+		final SerializablePairWiseStitchingResult[] roiPartsResults = new SerializablePairWiseStitchingResult[ roiParts.size() ];
+		for ( int roiPartIndex = 0; roiPartIndex < roiParts.size(); ++roiPartIndex )
+		{
+			final Boundaries roiPartInterval = roiParts.get( roiPartIndex ).getBoundaries();
+
+			// 'global offset' is the position of the fixed tile so the relative shift can be transformed to the global coordinate space
+			final double[] globalOffset = new double[ fixedTile.numDimensions() ];
+			for ( int d = 0; d < globalOffset.length; ++d )
+				globalOffset[ d ] = fixedTile.getPosition( d );
+
+			// threads for the FFT and the cross correlation verification
+			final int numThreads = taskThreads != null ? taskThreads.getNumThreads() : 1;
+			final ExecutorService threadPool = numThreads > 1 ? taskThreads.getExecutorService( numThreads ) : null;
+			usedMultipleThreads |= numThreads > 1;
+
+			// regions of the overlap images that are used for the (full-resolution) phase correlation
+			final Interval[] roiPartImgIntervals = new Interval[] { roiPartInterval, roiPartInterval };
+			PointValidator pointValidator = searchRadius;
+			long[] imageExtension = null;
+			boolean refined = false;
+
+			final int[] downsamplingFactors = CoarseToFineRegistration.getDownsamplingFactors( taskContext.getArgs().pyramidFactor(), normalizedVoxelDimensions, Intervals.dimensionsAsLongArray( roiPartInterval ) );
+			if ( Arrays.stream( downsamplingFactors ).anyMatch( factor -> factor > 1 ) )
+			{
+				final List< RandomAccessibleInterval< FloatType > > roiPartFloatImgs = new ArrayList<>();
+				for ( int i = 0; i < 2; ++i )
+				{
+					if ( taskContext.getArgs().nativePhaseCorrelation() )
 					{
-						final FloatType denom = new FloatType( channelsUsed );
-						final Cursor< FloatType > dstCursor = Views.iterable( avgChannelImg ).cursor();
-						while ( dstCursor.hasNext() )
-							dstCursor.next().div( denom );
+						roiPartFloatImgs.add( Views.offsetInterval( overlapImgs[ i ], roiPartInterval ) );
 					}
-
-					if ( blurSigma > 0 )
+					else
 					{
-						System.out.println( String.format( "Blurring the overlap area of size %s with sigmas=%s (s=%f)", Arrays.toString( Intervals.dimensionsAsLongArray( avgChannelImg ) ), Arrays.toString( blurSigmas ), blurSigma ) );
-						blur( avgChannelImg, blurSigmas );
+						final RandomAccessibleInterval< T > roiImg = ImagePlusImgs.from( imps[ i ] );
+						roiPartFloatImgs.add( Views.offsetInterval( Converters.convert( roiImg, new RealFloatConverter<>(), new FloatType() ), roiPartInterval ) );
 					}
-
-					// convert the output image to the input datatype
-					final RandomAccessibleInterval< T > convertedResultingImgToInputType = Converters.convert( avgChannelImg, new RealConverter<>(), inputType );
-					imps[ j ] = Utils.copyToImagePlus( convertedResultingImgToInputType );
 				}
 
-				// divide hyperplane with long edges into subintervals
-				final Boundaries fullRoi = new Boundaries( Conversions.toLongArray( Utils.getImagePlusDimensions( imps[ 0 ] ) ) );
-				final int[] roiPartsCount = new int[ fullRoi.numDimensions() ];
-				Arrays.fill( roiPartsCount, dividedParts );
-				roiPartsCount[ shortEdgeDimension ] = 1;
-				final List< TileInfo > roiParts = TileOperations.divideSpaceByCount( fullRoi, roiPartsCount );
-
-				System.out.println( String.format( "Stitching (%d subintervals with grid of %s)..", roiParts.size(), Arrays.toString( roiPartsCount ) ) );
+				final long coarseStartTime = System.currentTimeMillis();
+				final CoarseToFineRegistration.Refinement refinement = CoarseToFineRegistration.estimateCoarseShift(
+						roiPartFloatImgs.get( 0 ), roiPartFloatImgs.get( 1 ),
+						downsamplingFactors,
+						taskContext.getParams().checkPeaks,
+						searchRadius,
+						new FinalOffsetConverter( getRoiToTileOffset( overlaps, roiPartImgIntervals ), globalOffset ),
+						numThreads, threadPool
+					);
+				stats.phaseCorrelationTimeMsec.add( System.currentTimeMillis() - coarseStartTime );
 
-				final SerializablePairWiseStitchingResult[] roiPartsResults = new SerializablePairWiseStitchingResult[ roiParts.size() ];
-				for ( int roiPartIndex = 0; roiPartIndex < roiParts.size(); ++roiPartIndex )
+				if ( refinement != null )
 				{
-					final Boundaries roiPartInterval = roiParts.get( roiPartIndex ).getBoundaries();
-					final ImagePlus[] roiPartImps = new ImagePlus[ 2 ];
-					for ( int i = 0; i < 2; ++i )
-					{
-						if ( roiParts.size() > 1 )
-						{
-							final RandomAccessibleInterval< T > roiImg = ImagePlusImgs.from( imps[ i ] );
-							final RandomAccessibleInterval< T > roiPartImg = Views.offsetInterval( roiImg, roiPartInterval );
-							final ImagePlusImg< T, ? > roiPartDst = new ImagePlusImgFactory<>( Util.getTypeFromInterval( roiImg ) ).create( Intervals.dimensionsAsLongArray( roiPartInterval ) );
-							final Cursor< T > srcCursor = Views.flatIterable( roiPartImg ).cursor();
-							final Cursor< T > dstCursor = Views.flatIterable( roiPartDst ).cursor();
-							while ( dstCursor.hasNext() || srcCursor.hasNext() )
-								dstCursor.next().set( srcCursor.next() );
-							roiPartImps[ i ] = roiPartDst.getImagePlus();
-							Utils.workaroundImagePlusNSlices( roiPartImps[ i ] );
-						}
-						else
-						{
-							roiPartImps[ i ] = imps[ i ];
-						}
-					}
+					stats.pyramidRefinedPairsCount.add( 1 );
+					System.out.println( pairOfTiles + ": coarse shift " + Arrays.toString( refinement.coarseShift ) + " estimated with downsampling factors " + Arrays.toString( downsamplingFactors ) + ", refining at full resolution" );
 
-					// compute variance within this ROI for both images
-					double pixelSum = 0, pixelSumSquares = 0;
-					long pixelCount = 0;
+					// the crops are relative to the ROI part
 					for ( int i = 0; i < 2; ++i )
 					{
-						final ImagePlusImg< T, ? > roiImg = ImagePlusImgs.from( roiPartImps[ i ] );
-						final Cursor< T > roiImgCursor = Views.iterable( roiImg ).cursor();
-						while ( roiImgCursor.hasNext() )
+						final long[] cropMin = Intervals.minAsLongArray( refinement.crops[ i ] ), cropMax = Intervals.maxAsLongArray( refinement.crops[ i ] );
+						for ( int d = 0; d < cropMin.length; ++d )
 						{
-							final double val = roiImgCursor.next().getRealDouble();
-							pixelSum += val;
-							pixelSumSquares += Math.pow( val, 2 );
+							cropMin[ d ] += roiPartInterval.min( d );
+							cropMax[ d ] += roiPartInterval.min( d );
 						}
-						pixelCount += roiImg.size();
+						roiPartImgIntervals[ i ] = new FinalInterval( cropMin, cropMax );
 					}
-					final double variance = pixelSumSquares / pixelCount - Math.pow( pixelSum / pixelCount, 2 );
+					pointValidator = refinement.pointValidator;
+					imageExtension = refinement.imageExtension;
+					refined = true;
+				}
+				else
+				{
+					stats.pyramidFallbackPairsCount.add( 1 );
+					System.out.println( pairOfTiles + ": could not estimate coarse shift with downsampling factors " + Arrays.toString( downsamplingFactors ) + ", using the full overlap" );
+				}
+			}
 
-					final int timepoint = 1;
-					PairwiseStitchingPerformer.setThreads( 1 ); // TODO: determine automatically based on parallelism / smth else. Or, use different values for local/cluster configurations
+			// for transforming 'overlap offset' to 'global offset'
+			final OffsetConverter offsetConverter = new FinalOffsetConverter( getRoiToTileOffset( overlaps, roiPartImgIntervals ), globalOffset );
 
-					// for transforming 'overlap offset' to 'global offset'
-					final long[][] roiToTileOffset = new long[ 2 ][];
-					for ( int i = 0; i < 2; ++i )
+			final double variance;
+			final SerializablePairWiseStitchingResult[] results;
+			final ImagePlus[] roiPartImps = new ImagePlus[ 2 ];
+			if ( taskContext.getArgs().nativePhaseCorrelation() )
+			{
+				final List< RandomAccessibleInterval< FloatType > > roiPartImgs = new ArrayList<>();
+				for ( int i = 0; i < 2; ++i )
+					roiPartImgs.add( Views.offsetInterval( overlapImgs[ i ], roiPartImgIntervals[ i ] ) );
+
+				// compute variance within this ROI for both images (available from the accumulation pass if the images were used as is)
+				if ( blurSigma <= 0 && roiParts.size() == 1 && !refined )
+					variance = OverlapImageAccumulator.getVariance( overlapAccumulators );
+				else
+					variance = computeVariance( roiPartImgs );
+
+				final long phaseCorrelationStartTime = System.currentTimeMillis();
+				results = PhaseCorrelationImgLib2.stitchPairwise(
+						roiPartImgs.get( 0 ), roiPartImgs.get( 1 ),
+						taskContext.getParams().checkPeaks, taskContext.getParams().subpixelAccuracy, 1,
+						pointValidator, offsetConverter, numThreads, threadPool, imageExtension
+					);
+				stats.phaseCorrelationTimeMsec.add( System.currentTimeMillis() - phaseCorrelationStartTime );
+
+				final long[] fftBufferStats = PhaseCorrelationImgLib2.pollBufferStats();
+				stats.fftBuffersAllocatedBytes.add( fftBufferStats[ 0 ] );
+				stats.fftBuffersReusedBytes.add( fftBufferStats[ 1 ] );
+			}
+			else
+			{
+				for ( int i = 0; i < 2; ++i )
+				{
+					if ( roiParts.size() > 1 || refined )
 					{
-						roiToTileOffset[ i ] = new long[ roiPartInterval.numDimensions() ];
-						for ( int d = 0; d < roiToTileOffset[ i ].length; ++d )
-							roiToTileOffset[ i ][ d ] = overlaps[ i ].min( d ) + roiPartInterval.min( d );
+						final RandomAccessibleInterval< T > roiImg = ImagePlusImgs.from( imps[ i ] );
+						final RandomAccessibleInterval< T > roiPartImg = Views.offsetInterval( roiImg, roiPartImgIntervals[ i ] );
+						final ImagePlusImg< T, ? > roiPartDst = new ImagePlusImgFactory<>( Util.getTypeFromInterval( roiImg ) ).create( Intervals.dimensionsAsLongArray( roiPartImgIntervals[ i ] ) );
+						final Cursor< T > srcCursor = Views.flatIterable( roiPartImg ).cursor();
+						final Cursor< T > dstCursor = Views.flatIterable( roiPartDst ).cursor();
+						while ( dstCursor.hasNext() || srcCursor.hasNext() )
+							dstCursor.next().set( srcCursor.next() );
+						roiPartImps[ i ] = roiPartDst.getImagePlus();
+						Utils.workaroundImagePlusNSlices( roiPartImps[ i ] );
 					}
+					else
+					{
+						roiPartImps[ i ] = imps[ i ];
+					}
+				}
 
-					// 'global offset' is the position of the fixed tile so the relative shift can be transformed to the global coordinate space
-					final double[] globalOffset = new double[ fixedTile.numDimensions() ];
-					for ( int d = 0; d < globalOffset.length; ++d )
-						globalOffset[ d ] = fixedTile.getPosition( d );
+				// compute variance within this ROI for both images
+				final List< RandomAccessibleInterval< T > > roiPartImgs = new ArrayList<>();
+				for ( int i = 0; i < 2; ++i )
+					roiPartImgs.add( ImagePlusImgs.from( roiPartImps[ i ] ) );
+				variance = computeVariance( roiPartImgs );
 
-					final OffsetConverter offsetConverter = new FinalOffsetConverter( roiToTileOffset, globalOffset );
+				final int timepoint = 1;
+				PairwiseStitchingPerformer.setThreads( numThreads, threadPool );
 
-					final SerializablePairWiseStitchingResult[] results = PairwiseStitchingPerformer.stitchPairwise(
-							roiPartImps[0], roiPartImps[1], null, null, null, null, timepoint, timepoint, job.getParams(), 1,
-							searchRadius, offsetConverter
-						);
+				final long phaseCorrelationStartTime = System.currentTimeMillis();
+				results = PairwiseStitchingPerformer.stitchPairwise(
+						roiPartImps[0], roiPartImps[1], null, null, null, null, timepoint, timepoint, taskContext.getParams(), 1,
+						pointValidator, offsetConverter
+					);
+				stats.phaseCorrelationTimeMsec.add( System.currentTimeMillis() - phaseCorrelationStartTime );
+			}
 
-					final SerializablePairWiseStitchingResult result = results[ 0 ];
+			final SerializablePairWiseStitchingResult result = results[ 0 ];
 
-					if ( result == null )
-					{
-						noPeaksWithinConfidenceIntervalPairsCount.add( 1 );
-						System.out.println( pairOfTiles + ": no peaks found within the confidence interval" );
+			if ( result == null )
+			{
+				stats.noPeaksWithinConfidenceIntervalPairsCount.add( 1 );
+				System.out.println( pairOfTiles + ": no peaks found within the confidence interval" );
 
-						final SerializablePairWiseStitchingResult invalidResult = new SerializablePairWiseStitchingResult( pairOfTiles, null, 0 );
-						invalidResult.setIsValidOverlap( false );
-						roiPartsResults[ roiPartIndex ] = invalidResult;
-					}
-					else
-					{
-						result.setTilePair( pairOfTiles );
-						result.setVariance( variance );
+				final SerializablePairWiseStitchingResult invalidResult = new SerializablePairWiseStitchingResult( pairOfTiles, null, 0 );
+				invalidResult.setIsValidOverlap( false );
+				roiPartsResults[ roiPartIndex ] = invalidResult;
+			}
+			else
+			{
+				result.setTilePair( pairOfTiles );
+				result.setVariance( variance );
 
-						// compute new offset between original tiles
-						final double[] originalTileOffset = offsetConverter.roiOffsetToTileOffset( Conversions.toDoubleArray( result.getOffset() ) );
-						for ( int d = 0; d < originalTileOffset.length; ++d )
-							result.getOffset()[ d ] = ( float ) originalTileOffset[ d ];
+				// compute new offset between original tiles
+				final double[] originalTileOffset = offsetConverter.roiOffsetToTileOffset( Conversions.toDoubleArray( result.getOffset() ) );
+				for ( int d = 0; d < originalTileOffset.length; ++d )
+					result.getOffset()[ d ] = ( float ) originalTileOffset[ d ];
 
-						roiPartsResults[ roiPartIndex ] = result;
-					}
+				roiPartsResults[ roiPartIndex ] = result;
+			}
 
-					for ( int i = 0; i < 2; i++ )
-						roiPartImps[ i ].close();
-				}
+			for ( int i = 0; i < 2; i++ )
+				if ( roiPartImps[ i ] != null )
+					roiPartImps[ i ].close();
+		}
 
-				for ( int i = 0; i < 2; i++ )
-					imps[ i ].close();
+		for ( int i = 0; i < 2; i++ )
+			if ( imps[ i ] != null )
+				imps[ i ].close();
 
-				System.out.println( "Stitched tile pair " + pairOfTiles + ", got " + roiPartsResults.length + " matches" );
-				return roiPartsResults;
-			} );
+		if ( usedMultipleThreads )
+			stats.multithreadedPairsCount.add( 1 );
 
-		final List< SerializablePairWiseStitchingResult[] > stitchingResults = pairwiseStitching.collect();
+		System.out.println( "Stitched tile pair " + pairOfTiles + ", got " + roiPartsResults.length + " matches" );
+		return roiPartsResults;
+	}
 
-		broadcastedFlatfieldCorrectionForChannels.destroy();
-		broadcastedSearchRadiusEstimator.destroy();
-		broadcastedTileChannelMappingByIndex.destroy();
+	/**
+	 * @return offsets of the given regions of the overlap images with respect to their tiles
+	 */
+	private static long[][] getRoiToTileOffset( final Interval[] overlaps, final Interval[] roiIntervals )
+	{
+		final long[][] roiToTileOffset = new long[ overlaps.length ][];
+		for ( int i = 0; i < overlaps.length; ++i )
+		{
+			roiToTileOffset[ i ] = new long[ roiIntervals[ i ].numDimensions() ];
+			for ( int d = 0; d < roiToTileOffset[ i ].length; ++d )
+				roiToTileOffset[ i ][ d ] = overlaps[ i ].min( d ) + roiIntervals[ i ].min( d );
+		}
+		return roiToTileOffset;
+	}
 
-		int validPairs = 0;
-		for ( final SerializablePairWiseStitchingResult[] shiftMulti : stitchingResults )
+	/**
+	 * Loads the requested crop of the tile image. If the loaded tile images are kept for reuse by the same task or by the executor-wide cache,
+	 * the entire tile is loaded, otherwise only the requested region is read.
+	 * Images served by the executor-wide cache are not counted as loaded (see the cache stats instead).
+	 */
+	private static < T extends NativeType< T > & RealType< T > > RandomAccessibleInterval< T > loadTileImageCrop(
+			final TileInfo tileInfo,
+			final Interval crop,
+			final DataProvider dataProvider,
+			final Map< String, RandomAccessibleInterval< T > > loadedTileImages,
+			final TileImageCache tileImageCache,
+			final PairwiseStitchingStats stats ) throws IOException, PipelineExecutionException
+	{
+		if ( loadedTileImages == null && !tileImageCache.isEnabled() )
 		{
-			final SerializablePairWiseStitchingResult shift = shiftMulti[ 0 ];
-			if ( shift.getIsValidOverlap() )
-				++validPairs;
+			final RandomAccessibleInterval< T > imgCrop = TileLoader.loadTileRegion( tileInfo, crop, dataProvider );
+			stats.tileImagesLoaded.add( 1 );
+			stats.tileBytesRead.add( Intervals.numElements( crop ) * tileInfo.getType().getBytesPerPixel() );
+			return imgCrop;
 		}
-		System.out.println();
-		System.out.println( "======== Pairwise stitching completed ========" );
-		System.out.println( "Total pairs: " + stitchingResults.size() );
-		System.out.println( "Valid pairs: " + validPairs );
-		System.out.println( "Invalid pairs:" );
-		System.out.println( "    not enough neighbors within estimation window: " + notEnoughNeighborsWithinConfidenceIntervalPairsCount.value() );
-		System.out.println( "    <= 1px overlap within search radius: " + noOverlapWithinConfidenceIntervalPairsCount.value() );
-		System.out.println( "    no peaks found within search radius: " + noPeaksWithinConfidenceIntervalPairsCount.value() );
-		System.out.println();
 
-		return stitchingResults;
+		RandomAccessibleInterval< T > img = loadedTileImages != null ? loadedTileImages.get( tileInfo.getFilePath() ) : null;
+		if ( img == null )
+		{
+			if ( tileImageCache.isEnabled() )
+			{
+				img = tileImageCache.loadTile( tileInfo, dataProvider );
+			}
+			else
+			{
+				img = TileLoader.loadTile( tileInfo, dataProvider );
+				stats.tileImagesLoaded.add( 1 );
+				if ( !isOpenedLazily( img ) )
+					stats.tileBytesRead.add( Intervals.numElements( tileInfo.getSize() ) * tileInfo.getType().getBytesPerPixel() );
+			}
+			if ( img == null )
+				return null;
+
+			// warn if image size does not match metadata
+			if ( !Arrays.equals( Intervals.dimensionsAsLongArray( img ), tileInfo.getSize() ) )
+				throw new PipelineExecutionException( String.format( "Image size %s does not match the value from metadata %s", Arrays.toString( Intervals.dimensionsAsLongArray( img ) ), Arrays.toString( tileInfo.getSize() ) ) );
+
+			if ( loadedTileImages != null )
+				loadedTileImages.put( tileInfo.getFilePath(), img );
+		}
+
+		// only the blocks of the lazily opened N5 tiles that intersect with the requested crop are read
+		if ( !tileImageCache.isEnabled() && isOpenedLazily( img ) )
+			stats.tileBytesRead.add( Intervals.numElements( crop ) * tileInfo.getType().getBytesPerPixel() );
+
+		return Views.interval( img, crop );
+	}
+
+	/**
+	 * @return true if the tile image is backed by the storage and is read on demand (N5 tiles), false if it has been loaded into memory
+	 */
+	private static boolean isOpenedLazily( final RandomAccessibleInterval< ? > img )
+	{
+		return !( img instanceof ImagePlusImg );
+	}
+
+	private static < T extends RealType< T > > double computeVariance( final List< RandomAccessibleInterval< T > > imgs )
+	{
+		double pixelSum = 0, pixelSumSquares = 0;
+		long pixelCount = 0;
+		for ( final RandomAccessibleInterval< T > img : imgs )
+		{
+			final Cursor< T > imgCursor = Views.iterable( img ).cursor();
+			while ( imgCursor.hasNext() )
+			{
+				final double val = imgCursor.next().getRealDouble();
+				pixelSum += val;
+				pixelSumSquares += val * val;
+			}
+			pixelCount += Intervals.numElements( img );
+		}
+		final double mean = pixelSum / pixelCount;
+		return pixelSumSquares / pixelCount - mean * mean;
 	}
 
 	private static < T extends NumericType< T > > void blur(
 			final RandomAccessibleInterval< T > image,
-			final double[] sigmas ) throws IncompatibleTypeException
+			final double[] sigmas,
+			final ExecutorService executorService ) throws IncompatibleTypeException
 	{
 		final RandomAccessible< T > extendedImage = Views.extendMirrorSingle( image );
-		Gauss3.gauss( sigmas, extendedImage, image, new SameThreadExecutorService() );
+		Gauss3.gauss( sigmas, extendedImage, image, executorService );
 	}
 
 	public static Pair< Interval, Interval > adjustOverlappingRegion( final TilePair tilePair, final SearchRadius combinedSearchRadius )
@@ -180,29 +180,30 @@ public class ResaveAsSmallerTilesSpark implements Serializable, AutoCloseable
 			final RandomAccessiblePairNullable< U, U > flatfield ) throws IOException, ImgLibException
 	{
 		final DataProvider sourceDataProvider = DataProviderFactory.create( DataProviderFactory.detectType( tile.getFilePath() ) );
-		final RandomAccessibleInterval< T > tileImg = TileLoader.loadTile( tile, sourceDataProvider );
-		final T tileImageType = Util.getTypeFromInterval( tileImg );
-
-		final RandomAccessibleInterval< T > sourceImg;
-		if ( flatfield != null )
-		{
-			System.out.println( "Flat-fielding image.." );
-			final FlatfieldCorrectedRandomAccessible< T, U > flatfieldCorrected = new FlatfieldCorrectedRandomAccessible<>( tileImg, flatfield.toRandomAccessiblePair() );
-			final RandomAccessibleInterval< U > correctedImg = Views.interval( flatfieldCorrected, tileImg );
-			sourceImg = Converters.convert( correctedImg, new RealConverter<>(), tileImageType.createVariable() );
-		}
-		else
-		{
-			sourceImg = tileImg;
-		}
-
 		final DataProvider targetDataProvider = DataProviderFactory.create( DataProviderFactory.detectType( args.targetLocation ) );
 		final List< TileInfo > newTilesInSingleTile = new ArrayList<>();
 		for ( final Interval newTileInterval : newTilesIntervalsInSingleTile )
 		{
+			// read only the part of the tile image that corresponds to the new tile
+			final RandomAccessibleInterval< T > tileImgInterval = TileLoader.loadTileRegion( tile, newTileInterval, sourceDataProvider );
+			final T tileImageType = Util.getTypeFromInterval( tileImgInterval );
+
+			final RandomAccessibleInterval< T > sourceImgInterval;
+			if ( flatfield != null )
+			{
+				System.out.println( "Flat-fielding image.." );
+				final FlatfieldCorrectedRandomAccessible< T, U > flatfieldCorrected = new FlatfieldCorrectedRandomAccessible<>( tileImgInterval, flatfield.toRandomAccessiblePair() );
+				final RandomAccessibleInterval< U > correctedImg = Views.interval( flatfieldCorrected, tileImgInterval );
+				sourceImgInterval = Converters.convert( correctedImg, new RealConverter<>(), tileImageType.createVariable() );
+			}
+			else
+			{
+				sourceImgInterval = tileImgInterval;
+			}
+
 			final ImagePlusImg< T, ? > newTileImg = new ImagePlusImgFactory<>( tileImageType ).create( newTileInterval );
 			final Cursor< T > newTileImgCursor = Views.flatIterable( newTileImg ).cursor();
-			final Cursor< T > tileImgIntervalCursor = Views.flatIterable( Views.interval( sourceImg, newTileInterval ) ).cursor();
+			final Cursor< T > tileImgIntervalCursor = Views.flatIterable( sourceImgInterval ).cursor();
 			while ( newTileImgCursor.hasNext() || tileImgIntervalCursor.hasNext() )
 				newTileImgCursor.next().set( tileImgIntervalCursor.next() );
 			final ImagePlus newTileImagePlus = newTileImg.getImagePlus();
@@ -128,7 +128,23 @@ public class SearchRadiusEstimator implements Serializable
 		return getSearchRadius( pointIndexes, stagePosition );
 	}
 
+	/*
+	 * Uses optimized KD-tree within the estimation window, and returns only the indexes of the neighboring points
+	 */
+	public List< Integer > getNeighborsTreeWithinEstimationWindow( final double[] stagePosition )
+	{
+		final IntervalNeighborSearchOnKDTree< Integer > intervalSearch = new IntervalNeighborSearchOnKDTree<>( tree );
+		return intervalSearch.search( getEstimationWindow( stagePosition ) );
+	}
+
 	private SearchRadius getSearchRadius( final List< Integer > pointIndexes, final double[] stagePosition ) throws PipelineExecutionException
+	{
+		final double[] meanValues = getOffsetsMeanValues( pointIndexes );
+		final double[][] covarianceMatrix = getOffsetsCovarianceMatrix( pointIndexes, meanValues );
+		return new SearchRadius( meanValues, covarianceMatrix, pointIndexes, stagePosition );
+	}
+
+	public double[] getOffsetsMeanValues( final List< Integer > pointIndexes )
 	{
 		final double[] meanValues = new double[ numDimensions() ];
 		for ( int d = 0; d < meanValues.length; ++d )
@@ -139,7 +155,11 @@ public class SearchRadiusEstimator implements Serializable
 
 			meanValues[ d ] = dOffsetSum / pointIndexes.size();
 		}
+		return meanValues;
+	}
 
+	public double[][] getOffsetsCovarianceMatrix( final List< Integer > pointIndexes, final double[] meanValues )
+	{
 		final double[][] covarianceMatrix = new double[ numDimensions() ][ numDimensions() ];
 		for ( int dRow = 0; dRow < covarianceMatrix.length; ++dRow )
 		{
@@ -156,8 +176,7 @@ public class SearchRadiusEstimator implements Serializable
 				covarianceMatrix[ dRow ][ dCol ] = covarianceMatrix[ dCol ][ dRow ]  = covariance;
 			}
 		}
-
-		return new SearchRadius( meanValues, covarianceMatrix, pointIndexes, stagePosition );
+		return covarianceMatrix;
 	}
 
 	private Interval getEstimationWindow( final double[] stagePosition )
@@ -196,20 +215,42 @@ public class SearchRadiusEstimator implements Serializable
 
 	public SearchRadius getCombinedCovariancesSearchRadius( final SearchRadius fixedSearchRadius, final SearchRadius movingSearchRadius ) throws PipelineExecutionException
 	{
-		final double[][] combinedOffsetsCovarianceMatrix = new double[ numDimensions() ][ numDimensions() ];
-		for ( int dRow = 0; dRow < numDimensions(); ++dRow )
-			for ( int dCol = 0; dCol < numDimensions(); ++dCol )
-				combinedOffsetsCovarianceMatrix[ dRow ][ dCol ] = fixedSearchRadius.getOffsetsCovarianceMatrix()[ dRow ][ dCol ] + movingSearchRadius.getOffsetsCovarianceMatrix()[ dRow ][ dCol ];
-
-		final double[] combinedOffsetsMeanValues = new double[ numDimensions() ];
-		for ( int d = 0; d < numDimensions(); ++d )
-			combinedOffsetsMeanValues[ d ] = movingSearchRadius.getOffsetsMeanValues()[ d ] - fixedSearchRadius.getOffsetsMeanValues()[ d ];
-
 		final Set< Integer > combinedPointIndexesSet = new HashSet<>();
 		combinedPointIndexesSet.addAll( fixedSearchRadius.getUsedPointsIndexes() );
 		combinedPointIndexesSet.addAll( movingSearchRadius.getUsedPointsIndexes() );
 		final List< Integer > combinedPointIndexes = new ArrayList<>( combinedPointIndexesSet );
 
-		return new SearchRadius( combinedOffsetsMeanValues, combinedOffsetsCovarianceMatrix, combinedPointIndexes, movingSearchRadius.getStagePosition() );
+		return getCombinedCovariancesSearchRadius(
+				fixedSearchRadius.getOffsetsMeanValues(),
+				fixedSearchRadius.getOffsetsCovarianceMatrix(),
+				movingSearchRadius.getOffsetsMeanValues(),
+				movingSearchRadius.getOffsetsCovarianceMatrix(),
+				combinedPointIndexes,
+				movingSearchRadius.getStagePosition()
+			);
+	}
+
+	/*
+	 * Combines the offset statistics of two tiles without requiring their individual search radiuses to be constructed
+	 */
+	public static SearchRadius getCombinedCovariancesSearchRadius(
+			final double[] fixedOffsetsMeanValues,
+			final double[][] fixedOffsetsCovarianceMatrix,
+			final double[] movingOffsetsMeanValues,
+			final double[][] movingOffsetsCovarianceMatrix,
+			final List< Integer > combinedPointIndexes,
+			final double[] movingStagePosition ) throws PipelineExecutionException
+	{
+		final int numDimensions = fixedOffsetsMeanValues.length;
+		final double[][] combinedOffsetsCovarianceMatrix = new double[ numDimensions ][ numDimensions ];
+		for ( int dRow = 0; dRow < numDimensions; ++dRow )
+			for ( int dCol = 0; dCol < numDimensions; ++dCol )
+				combinedOffsetsCovarianceMatrix[ dRow ][ dCol ] = fixedOffsetsCovarianceMatrix[ dRow ][ dCol ] + movingOffsetsCovarianceMatrix[ dRow ][ dCol ];
+
+		final double[] combinedOffsetsMeanValues = new double[ numDimensions ];
+		for ( int d = 0; d < numDimensions; ++d )
+			combinedOffsetsMeanValues[ d ] = movingOffsetsMeanValues[ d ] - fixedOffsetsMeanValues[ d ];
+
+		return new SearchRadius( combinedOffsetsMeanValues, combinedOffsetsCovarianceMatrix, combinedPointIndexes, movingStagePosition );
 	}
 }
@@ -5,6 +5,7 @@ import java.nio.file.Paths;
 import java.util.List;
 
 import org.janelia.dataaccess.CloudURI;
+import org.janelia.util.Conversions;
 import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
 import org.kohsuke.args4j.Option;
@@ -61,6 +62,30 @@ public class StitchingArguments implements Serializable {
 			usage = "Max coordinate for exporting")
 	private String maxCoord = null;
 
+	@Option(name = "--pairwiseBlockSize", required = false,
+			usage = "Group pairwise stitching tasks by spatial blocks of the given size in terms of number of tiles (e.g. 2,2,2), so every tile image is loaded once per block rather than once per pair")
+	private String pairwiseBlockSize = null;
+
+	@Option(name = "--nativePhaseCorrelation", required = false,
+			usage = "Compute pairwise shifts using the imglib2-based phase correlation directly on the float overlap images instead of the imglib1-based implementation that works on ImagePlus copies")
+	private boolean nativePhaseCorrelation = false;
+
+	@Option(name = "--adaptiveThreads", required = false,
+			usage = "Use multiple threads within each pairwise stitching task depending on how many tasks are running on the executor (by default every task is single-threaded)")
+	private boolean adaptiveThreads = false;
+
+	@Option(name = "--binaryPairwise", required = false,
+			usage = "Store pairwise shifts in the compact binary format instead of JSON (use PairwiseShiftsFormatConverter to convert between the formats)")
+	private boolean binaryPairwise = false;
+
+	@Option(name = "--pyramid", required = false,
+			usage = "Estimate pairwise shifts coarse-to-fine: first on the overlap images downsampled by the given factor (e.g. 2, 4, 8), then refine at full resolution around the coarse estimate")
+	private int pyramidFactor = 1;
+
+	@Option(name = "--taskSizeBudget", required = false,
+			usage = "Max expected size of a serialized Spark task closure in KB (a warning is printed if some closure is larger, 0 disables the check)")
+	private long taskSizeBudgetKB = 1024;
+
 	@Option(name = "--allPairs", required = false,
 			usage = "Compute pairwise shifts between all pairs (by default only adjacent pairs are used)")
 	private boolean allPairs = false;
@@ -75,6 +100,14 @@ public class StitchingArguments implements Serializable {
 			usage = "Optimize tile configurations that don't contain any leaves (thus all edges are properly constrained)")
 	private boolean noLeaves = false;
 
+	@Option(name = "--directSolver", required = false,
+			usage = "Solve the global optimization directly as a sparse least-squares system (conjugate gradients) instead of the iterative relaxation")
+	private boolean directSolver = false;
+
+	@Option(name = "--allGraphs", required = false,
+			usage = "Keep all connected tile graphs and optimize them concurrently instead of keeping only the largest graph")
+	private boolean allGraphs = false;
+
 	@Option(name = "--overlaps", required = false,
 			usage = "Export overlaps channel based on which connections between tiles have been used for final stitching")
 	private boolean exportOverlaps = false;
@@ -83,6 +116,14 @@ public class StitchingArguments implements Serializable {
 			usage = "Export the dataset using blending strategy instead of hardcut (max.min.distance)")
 	private boolean blending = false;
 
+	@Option(name = "--fusedPyramidLevels", required = false,
+			usage = "Number of scale levels to be generated directly by the fusion tasks (the coarser levels are generated from the last of them), 0 generates the scale pyramid from the full-scale export after fusion")
+	private int fusedPyramidLevels = 0;
+
+	@Option(name = "--multichannelFusion", required = false,
+			usage = "Fuse all channels in a single pass if they have the same tile configuration (the tiles are processed once for all channels instead of once per channel)")
+	private boolean multichannelFusion = false;
+
 	@Option(name = "--fillBackground", aliases = { "--fill" }, required = false,
 			usage = "Fill the outer space in N5 export with the background value of the data instead of zero")
 	private boolean fillBackground = false;
@@ -153,6 +194,12 @@ public class StitchingArguments implements Serializable {
 		return parseArray( padding );
 	}
 
+	public int[] pairwiseBlockSize()
+	{
+		final long[] blockSize = parseArray( pairwiseBlockSize );
+		return blockSize != null ? Conversions.toIntArray( blockSize ) : null;
+	}
+
 	public long[] minCoord()
 	{
 		return parseArray( minCoord );
@@ -168,9 +215,18 @@ public class StitchingArguments implements Serializable {
 	public int fusionCellSize() { return fusionCellSize; }
 	public double blurSigma() { return blurSigma; }
 	public boolean useAllPairs() { return allPairs; }
+	public boolean nativePhaseCorrelation() { return nativePhaseCorrelation; }
+	public boolean adaptiveThreads() { return adaptiveThreads; }
+	public boolean binaryPairwise() { return binaryPairwise; }
+	public int pyramidFactor() { return pyramidFactor; }
+	public long taskSizeBudgetKB() { return taskSizeBudgetKB; }
 	public boolean noLeaves() { return noLeaves; }
+	public boolean directSolver() { return directSolver; }
+	public boolean allGraphs() { return allGraphs; }
 	public boolean exportOverlaps() { return exportOverlaps; }
 	public boolean blending() { return blending; }
+	public int fusedPyramidLevels() { return fusedPyramidLevels; }
+	public boolean multichannelFusion() { return multichannelFusion; }
 	public boolean fillBackground() { return fillBackground; }
 	public boolean allowFusingStage() { return allowFusingStage; }
 
@@ -5,25 +5,23 @@ import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.TreeMap;
-import java.util.TreeSet;
+import java.util.Map.Entry;
 import java.util.Vector;
 
 import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.api.java.function.Function;
 import org.apache.spark.broadcast.Broadcast;
 import org.janelia.dataaccess.DataProvider;
 import org.janelia.dataaccess.PathResolver;
 
-import ij.ImagePlus;
-import mpicbg.models.Tile;
 import mpicbg.stitching.ComparePair;
-import mpicbg.stitching.ImageCollectionElement;
 import mpicbg.stitching.ImagePlusTimePoint;
-import mpicbg.stitching.StitchingParameters;
 
 public class StitchingOptimizer implements Serializable
 {
@@ -122,6 +120,34 @@ public class StitchingOptimizer implements Serializable
 		}
 	}
 
+	/**
+	 * Set of valid pairs that is produced by the given (first in the scanning order) combination of parameters,
+	 * along with the properties of the tile graph that can be determined without running the optimization.
+	 */
+	private static final class ValidPairsCandidate
+	{
+		public final OptimizationParameters optimizationParameters;
+		public final int scanningIndex;
+		public final int largestComponentSize;
+		public final int validPairs;
+
+		public ValidPairsCandidate( final OptimizationParameters optimizationParameters, final int scanningIndex, final int largestComponentSize, final int validPairs )
+		{
+			this.optimizationParameters = optimizationParameters;
+			this.scanningIndex = scanningIndex;
+			this.largestComponentSize = largestComponentSize;
+			this.validPairs = validPairs;
+		}
+
+		/**
+		 * @return upper bound on the score of the optimization result, consistent with {@link OptimizationResult#compareTo(OptimizationResult)}
+		 */
+		public long getRank( final boolean considerRemainingPairs )
+		{
+			return ( ( long ) largestComponentSize << 32 ) | ( considerRemainingPairs ? validPairs : 0 );
+		}
+	}
+
 	private final StitchingJob job;
 	private transient final JavaSparkContext sparkContext;
 
@@ -136,13 +162,13 @@ public class StitchingOptimizer implements Serializable
 		final DataProvider dataProvider = job.getDataProvider();
 
 		final String basePath = PathResolver.getParent( job.getArgs().inputTileConfigurations().get( job.getMainChannelIndex() ) );
-		final String pairwiseShiftsPath = PathResolver.get( basePath, iterationDirname, "pairwise.json" );
+		final String pairwiseShiftsPath = PathResolver.get( basePath, iterationDirname, TileInfoJSONProvider.getPairwiseFilename( job.getArgs().binaryPairwise() ) );
 
 		// FIXME: skip if solution already exists?
 //		if ( Files.exists( Paths.get( Utils.addFilenameSuffix( pairwiseShiftsPath, "-used" ) ) ) )
 //			return;
 
-		final List< SerializablePairWiseStitchingResult[] > shifts = TileInfoJSONProvider.loadPairwiseShiftsMulti( dataProvider.getJsonReader( pairwiseShiftsPath ) );
+		final List< SerializablePairWiseStitchingResult[] > shifts = TileInfoJSONProvider.loadPairwiseShiftsMulti( dataProvider, pairwiseShiftsPath );
 
 		try ( final OutputStream logOut = dataProvider.getOutputStream( PathResolver.get( basePath, iterationDirname, "optimizer.txt" ) ) )
 		{
@@ -160,8 +186,9 @@ public class StitchingOptimizer implements Serializable
 				logWriter.println( "Determined optimization parameters:  min.cross.correlation=" + bestOptimizationParameters.minCrossCorrelation + ", min.variance=" + bestOptimizationParameters.minVariance );
 				System.out.println( "Stitching iteration " + iteration + ": Determined optimization parameters:  min.cross.correlation=" + bestOptimizationParameters.minCrossCorrelation + ", min.variance=" + bestOptimizationParameters.minVariance );
 
-				final Vector< ComparePair > comparePairs = createComparePairs( shifts, bestOptimizationParameters );
-				final GlobalOptimizationPerformer optimizationPerformer = new GlobalOptimizationPerformer();
+				final TileGraph tileGraph = new TileGraph( shifts );
+				final Vector< ComparePair > comparePairs = tileGraph.toComparePairs( getValidEdges( tileGraph, bestOptimizationParameters ) );
+				final GlobalOptimizationPerformer optimizationPerformer = new GlobalOptimizationPerformer( job.getArgs().directSolver(), job.getArgs().allGraphs(), Runtime.getRuntime().availableProcessors() );
 				final List< ImagePlusTimePoint > optimized = optimizationPerformer.optimize( comparePairs, job.getParams(), null, logWriter );
 
 				// Update tile positions
@@ -226,13 +253,21 @@ public class StitchingOptimizer implements Serializable
 					}
 				}
 
-				final String pairwiseInputFile = PathResolver.get( basePath, iterationDirname, "pairwise.json" );
-				TileInfoJSONProvider.savePairwiseShiftsMulti( finalPairwiseShifts, dataProvider.getJsonWriter( Utils.addFilenameSuffix( pairwiseInputFile, "-stitched" ) ) );
-				TileInfoJSONProvider.savePairwiseShiftsMulti( usedPairwiseShifts, dataProvider.getJsonWriter( Utils.addFilenameSuffix( pairwiseInputFile, "-used" ) ) );
+				TileInfoJSONProvider.savePairwiseShiftsMulti( finalPairwiseShifts, dataProvider, Utils.addFilenameSuffix( pairwiseShiftsPath, "-stitched" ) );
+				TileInfoJSONProvider.savePairwiseShiftsMulti( usedPairwiseShifts, dataProvider, Utils.addFilenameSuffix( pairwiseShiftsPath, "-used" ) );
 			}
 		}
 	}
 
+	/**
+	 * Scans the parameter space of the min.cross.correlation and min.variance thresholds and finds the parameters that yield the best solution.
+	 *
+	 * The optimization result only depends on the set of pairs that pass the thresholds, so the combinations that result in
+	 * the same set of valid pairs are evaluated only once (using the first such combination in the scanning order).
+	 * The size of the resulting graph (the largest connected component) and the number of valid pairs are known before running the optimization,
+	 * so the sets of valid pairs are evaluated in the order of their potential score, and the scan stops as soon as a solution within
+	 * the accepted error range is found, because all remaining candidates are dominated by it.
+	 */
 	private OptimizationParameters findBestOptimizationParameters( final List< SerializablePairWiseStitchingResult[] > shifts, final double maxAllowedError, final PrintWriter logWriter )
 	{
 		final List< OptimizationParameters > optimizationParametersList = new ArrayList<>();
@@ -240,62 +275,107 @@ public class StitchingOptimizer implements Serializable
 			for ( double testMinVariance = 0; testMinVariance <= 300; testMinVariance += 1 + ( int ) testMinVariance / 10 )
 				optimizationParametersList.add( new OptimizationParameters( testMinCrossCorrelation, testMinVariance ) );
 
-		final Broadcast< StitchingParameters > broadcastedStitchingParameters = sparkContext.broadcast( job.getParams() );
-
 		final boolean noLeaves = job.getArgs().noLeaves();
+		final boolean considerRemainingPairs = Math.round( maxAllowedError ) <= 10;
 
-		GlobalOptimizationPerformer.suppressOutput();
-
-		final List< OptimizationResult > optimizationResultList = new ArrayList<>( sparkContext.parallelize( optimizationParametersList, optimizationParametersList.size() ).map( optimizationParameters ->
-			{
-				final Vector< ComparePair > comparePairs = createComparePairs( shifts, optimizationParameters );
+		// group the parameter combinations by the resulting set of valid pairs
+		final TileGraph tileGraph = new TileGraph( shifts );
+		final Map< BitSet, ValidPairsCandidate > candidatesMap = new LinkedHashMap<>();
+		for ( int i = 0; i < optimizationParametersList.size(); ++i )
+		{
+			final BitSet validPairs = getValidEdges( tileGraph, optimizationParametersList.get( i ) );
+			if ( !candidatesMap.containsKey( validPairs ) )
+				candidatesMap.put( validPairs, new ValidPairsCandidate( optimizationParametersList.get( i ), i, tileGraph.getLargestComponentSize( validPairs ), validPairs.cardinality() ) );
+		}
 
-				if ( noLeaves && hasLeaves( comparePairs ) )
-					return null;
+		final List< ValidPairsCandidate > candidates = new ArrayList<>();
+		int candidatesWithLeaves = 0;
+		for ( final Entry< BitSet, ValidPairsCandidate > entry : candidatesMap.entrySet() )
+		{
+			if ( noLeaves && tileGraph.hasLeaves( entry.getKey() ) )
+				++candidatesWithLeaves;
+			else
+				candidates.add( entry.getValue() );
+		}
 
-				int validPairs = 0;
-				for ( final ComparePair pair : comparePairs )
-					if ( pair.getIsValidOverlap() )
-						++validPairs;
+		// sort by the potential score (larger graph first, then more pairs if they are considered), keeping the scanning order for equal scores
+		candidates.sort( ( a, b ) -> -Long.compare( a.getRank( considerRemainingPairs ), b.getRank( considerRemainingPairs ) ) );
 
-				final GlobalOptimizationPerformer optimizationPerformer = new GlobalOptimizationPerformer();
-				optimizationPerformer.optimize( comparePairs, broadcastedStitchingParameters.value() );
+		// the tasks only capture the broadcasts and a few small values, not the shifts or the job (through this)
+		final Broadcast< TileGraph > broadcastedTileGraph = sparkContext.broadcast( tileGraph );
+		final int fullGraphSize = job.getTiles( job.getMainChannelIndex() ).length;
+		final boolean directSolver = job.getArgs().directSolver();
+		final boolean allGraphs = job.getArgs().allGraphs();
+		final Function< OptimizationParameters, OptimizationResult > optimizationTask = optimizationParameters ->
+			{
+				final TileGraph tileGraphLocal = broadcastedTileGraph.value();
+				final BitSet validEdges = getValidEdges( tileGraphLocal, optimizationParameters );
+				final GlobalOptimizationPerformer optimizationPerformer = new GlobalOptimizationPerformer( directSolver, allGraphs, 1 ); // single-threaded because run with different configurations in parallel
+				optimizationPerformer.optimize( tileGraphLocal, validEdges );
 				final OptimizationResult optimizationResult = new OptimizationResult(
 						optimizationParameters,
 						maxAllowedError,
-						job.getTiles( job.getMainChannelIndex() ).length,
+						fullGraphSize,
 						optimizationPerformer.remainingGraphSize,
-						validPairs,
+						validEdges.cardinality(),
 						optimizationPerformer.avgDisplacement,
 						optimizationPerformer.maxDisplacement );
 				return optimizationResult;
-			}
-		).collect() );
+			};
+		TaskSizeReport.report( "optimization parameters scan", optimizationTask, job.getArgs().taskSizeBudgetKB() );
 
-		GlobalOptimizationPerformer.restoreOutput();
-		broadcastedStitchingParameters.destroy();
+		final int batchSize = Math.max( sparkContext.defaultParallelism(), 1 );
 
-		if ( noLeaves )
+		GlobalOptimizationPerformer.suppressOutput();
+
+		final Map< OptimizationResult, Integer > resultScanningIndexes = new IdentityHashMap<>();
+		final List< OptimizationResult > optimizationResultList = new ArrayList<>();
+		boolean foundAcceptedSolution = false;
+		for ( int batchStart = 0; batchStart < candidates.size() && !foundAcceptedSolution; )
 		{
-			final int sizeBefore = optimizationResultList.size();
-			optimizationResultList.removeAll( Collections.singleton( null ) );
-			final int sizeAfter = optimizationResultList.size();
-			System.out.println( "" );
-			System.out.println( "-----------" );
-			System.out.println( "no leaves mode ON" );
-			System.out.println( "" );
-			System.out.println( "pairs before: " + sizeBefore );
-			System.out.println( "pairs after: " + sizeAfter );
-			System.out.println( "-----------" );
-			System.out.println( "" );
+			// the candidates with the same rank are always evaluated within the same batch
+			int batchEnd = Math.min( batchStart + batchSize, candidates.size() );
+			while ( batchEnd < candidates.size() && candidates.get( batchEnd ).getRank( considerRemainingPairs ) == candidates.get( batchEnd - 1 ).getRank( considerRemainingPairs ) )
+				++batchEnd;
+
+			final List< ValidPairsCandidate > batch = candidates.subList( batchStart, batchEnd );
+			final List< OptimizationParameters > batchParameters = new ArrayList<>();
+			for ( final ValidPairsCandidate candidate : batch )
+				batchParameters.add( candidate.optimizationParameters );
+
+			final List< OptimizationResult > batchResults = sparkContext.parallelize( batchParameters, batchParameters.size() ).map( optimizationTask ).collect();
+
+			for ( int i = 0; i < batchResults.size(); ++i )
+			{
+				final OptimizationResult optimizationResult = batchResults.get( i );
+				resultScanningIndexes.put( optimizationResult, batch.get( i ).scanningIndex );
+				optimizationResultList.add( optimizationResult );
+				foundAcceptedSolution |= optimizationResult.maxDisplacement <= optimizationResult.maxAllowedError;
+			}
+
+			batchStart = batchEnd;
 		}
 
+		GlobalOptimizationPerformer.restoreOutput();
+		broadcastedTileGraph.destroy();
+
+		final String scanSummary = String.format(
+				"Scanned %d parameter combinations: %d distinct sets of valid pairs%s, evaluated %d",
+				optimizationParametersList.size(),
+				candidatesMap.size(),
+				noLeaves ? " (" + candidatesWithLeaves + " with leaves were skipped)" : "",
+				optimizationResultList.size() );
+		System.out.println( scanSummary );
+
+		// restore the scanning order so the ties are resolved in the same way as if all combinations were evaluated
+		optimizationResultList.sort( ( a, b ) -> Integer.compare( resultScanningIndexes.get( a ), resultScanningIndexes.get( b ) ) );
 		Collections.sort( optimizationResultList );
 
 		if ( logWriter != null )
 		{
 			logWriter.println();
 			logWriter.println( "Scanning parameter space for the optimizer: min.cross.correlation and min.variance:" );
+			logWriter.println( scanSummary );
 			logWriter.println();
 			for ( final OptimizationResult optimizationResult : optimizationResultList )
 				logWriter.println(
@@ -312,70 +392,8 @@ public class StitchingOptimizer implements Serializable
 		return optimizationResultList.get( 0 ).optimizationParameters;
 	}
 
-	private Vector< ComparePair > createComparePairs( final List< SerializablePairWiseStitchingResult[] > shifts, final OptimizationParameters optimizationParameters )
-	{
-		// Create fake tile objects so that they don't hold any image data
-		// required by the GlobalOptimization
-		final TreeMap< Integer, Tile< ? > > fakeTileImagesMap = new TreeMap<>();
-		for ( final SerializablePairWiseStitchingResult[] pairMulti : shifts ) {
-			final SerializablePairWiseStitchingResult pair = pairMulti[ 0 ];
-			for ( final TileInfo tileInfo : pair.getTilePair().toArray() ) {
-				if ( !fakeTileImagesMap.containsKey( tileInfo.getIndex() ) ) {
-					try {
-						final ImageCollectionElement el = Utils.createElement( job, tileInfo );
-						final ImagePlus fakeImage = new ImagePlus( tileInfo.getIndex().toString(), (java.awt.Image)null );
-						final Tile< ? > fakeTile = new ImagePlusTimePoint( fakeImage, el.getIndex(), 1, el.getModel(), el );
-						fakeTileImagesMap.put( tileInfo.getIndex(), fakeTile );
-					} catch ( final Exception e ) {
-						e.printStackTrace();
-					}
-				}
-			}
-		}
-
-		final Vector< ComparePair > comparePairs = new Vector<>();
-		for ( final SerializablePairWiseStitchingResult[] pairMulti : shifts )
-		{
-			for ( final SerializablePairWiseStitchingResult pair : pairMulti )
-			{
-				final ComparePair comparePair = new ComparePair(
-						(ImagePlusTimePoint)fakeTileImagesMap.get( pair.getTilePair().getA().getIndex() ),
-						(ImagePlusTimePoint)fakeTileImagesMap.get( pair.getTilePair().getB().getIndex() ) );
-
-				comparePair.setRelativeShift( pair.getOffset() == null ? null : pair.getOffset().clone() );
-				comparePair.setCrossCorrelation( pair.getCrossCorrelation() );
-				comparePair.setIsValidOverlap(
-						pair.getIsValidOverlap()
-						&& pair.getCrossCorrelation() > optimizationParameters.minCrossCorrelation
-						&& pair.getVariance() != null && pair.getVariance().doubleValue() > optimizationParameters.minVariance
-					);
-
-				comparePairs.addElement( comparePair );
-			}
-		}
-
-		return comparePairs;
-	}
-
-	private boolean hasLeaves( final Vector< ComparePair > comparePairs )
+	private static BitSet getValidEdges( final TileGraph tileGraph, final OptimizationParameters optimizationParameters )
 	{
-		final Map< Integer, Set< Integer > > connections = new TreeMap<>();
-		for ( final ComparePair comparePair : comparePairs )
-		{
-			if ( !comparePair.getIsValidOverlap() )
-				continue;
-
-			final int[] ind = new int[] { comparePair.getTile1().getImpId(), comparePair.getTile2().getImpId() };
-			for ( int i = 0; i < 2; ++i )
-			{
-				if ( !connections.containsKey( ind[ i ] ) )
-					connections.put( ind[ i ], new TreeSet<>() );
-				connections.get( ind[ i ] ).add( ind[ ( i + 1 ) % 2 ] );
-			}
-		}
-		for ( final Set< Integer > value : connections.values() )
-			if ( value.size() <= 1 )
-				return true;
-		return false;
+		return tileGraph.getValidEdges( optimizationParameters.minCrossCorrelation, optimizationParameters.minVariance );
 	}
 }
@@ -0,0 +1,70 @@
+package org.janelia.stitching;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+import org.apache.commons.io.IOUtils;
+import org.janelia.dataaccess.DataProvider;
+import org.janelia.dataaccess.DataProviderFactory;
+import org.janelia.dataaccess.DataProviderType;
+
+import com.google.gson.Gson;
+
+import mpicbg.stitching.StitchingParameters;
+
+/**
+ * Lightweight part of the {@link StitchingJob} that is required by the Spark tasks.
+ *
+ * Unlike the job, it does not hold the tile configurations, so it can be captured by the task closures without
+ * serializing all tiles into every task. The tiles that the tasks need should be broadcasted separately.
+ *
+ * @author Igor Pisarev
+ */
+public class StitchingTaskContext implements Serializable
+{
+	private static final long serialVersionUID = -4709870271630218637L;
+
+	private transient DataProvider dataProvider;
+	private final DataProviderType dataProviderType;
+
+	private final StitchingArguments args;
+	private transient StitchingParameters params;
+
+	public StitchingTaskContext( final StitchingJob job )
+	{
+		dataProviderType = job.getDataProvider().getType();
+		args = job.getArgs();
+		params = job.getParams();
+	}
+
+	public synchronized DataProvider getDataProvider()
+	{
+		if ( dataProvider == null )
+			dataProvider = DataProviderFactory.create( dataProviderType );
+		return dataProvider;
+	}
+
+	public StitchingArguments getArgs() { return args; }
+
+	public StitchingParameters getParams() { return params; }
+
+	public int getChannels() {
+		return args.inputTileConfigurations().size();
+	}
+
+	public int getMainChannelIndex() {
+		return args.registrationChannelIndex() != null ? args.registrationChannelIndex() : 0;
+	}
+
+	// StitchingParameters is not serializable (same as in StitchingJob)
+	private void writeObject( final ObjectOutputStream stream ) throws IOException {
+		stream.defaultWriteObject();
+		stream.write( new Gson().toJson( params ).getBytes() );
+	}
+	private void readObject( final ObjectInputStream stream ) throws IOException, ClassNotFoundException {
+		stream.defaultReadObject();
+		params = new Gson().fromJson( IOUtils.toString( stream ), StitchingParameters.class );
+	}
+}
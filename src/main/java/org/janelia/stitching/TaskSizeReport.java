@@ -0,0 +1,73 @@
+package org.janelia.stitching;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+/**
+ * Measures the serialized size of Spark task closures, so it can be verified that the tasks do not carry
+ * large objects (tile configurations, pairwise shifts, etc.) that should be broadcasted instead.
+ *
+ * @author Igor Pisarev
+ */
+public class TaskSizeReport
+{
+	private static class CountingOutputStream extends OutputStream
+	{
+		private long count;
+
+		@Override
+		public void write( final int b )
+		{
+			++count;
+		}
+
+		@Override
+		public void write( final byte[] b, final int off, final int len )
+		{
+			count += len;
+		}
+	}
+
+	/**
+	 * @return size of the given object when serialized with the Java serialization (used by Spark for closures)
+	 */
+	public static long getSerializedSize( final Object obj ) throws IOException
+	{
+		final CountingOutputStream countingStream = new CountingOutputStream();
+		try ( final ObjectOutputStream objectStream = new ObjectOutputStream( countingStream ) )
+		{
+			objectStream.writeObject( obj );
+		}
+		return countingStream.count;
+	}
+
+	/**
+	 * Prints the serialized size of the task closure, and a warning if it exceeds the given budget.
+	 *
+	 * @param taskName
+	 * @param closure
+	 * @param budgetKB
+	 * 			max allowed size in kilobytes, or non-positive value to disable the check
+	 * @return true if the closure fits into the budget
+	 */
+	public static boolean report( final String taskName, final Object closure, final long budgetKB )
+	{
+		final long size;
+		try
+		{
+			size = getSerializedSize( closure );
+		}
+		catch ( final IOException e )
+		{
+			System.out.println( "Task size report: cannot serialize the closure of '" + taskName + "': " + e );
+			return false;
+		}
+
+		final boolean withinBudget = budgetKB <= 0 || size <= budgetKB * 1024;
+		System.out.println( String.format( "Task size report: '%s' closure is %.2f KB%s", taskName, size / 1024., budgetKB > 0 ? " (budget " + budgetKB + " KB)" : "" ) );
+		if ( !withinBudget )
+			System.out.println( "WARNING: the closure of '" + taskName + "' exceeds the task size budget, consider broadcasting the captured data" );
+		return withinBudget;
+	}
+}
@@ -0,0 +1,239 @@
+package org.janelia.stitching;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.Vector;
+
+import org.janelia.util.Conversions;
+import org.janelia.util.UnionFind;
+
+import ij.ImagePlus;
+import mpicbg.stitching.ComparePair;
+import mpicbg.stitching.ImageCollectionElement;
+import mpicbg.stitching.ImagePlusTimePoint;
+
+/**
+ * Compact representation of the pairwise shifts for the global optimization.
+ *
+ * Tiles are referred to by dense indices (sorted by the tile index), and the edges are stored in primitive arrays
+ * (endpoints, shift vectors, weights, and the values used for filtering the pairs), so the optimizer can evaluate
+ * different sets of valid pairs without creating any Fiji objects. The graph can be converted to {@link ComparePair}s
+ * if the Fiji API is required.
+ *
+ * @author Igor Pisarev
+ */
+public class TileGraph implements Serializable
+{
+	private static final long serialVersionUID = 2270862404658286917L;
+
+	private final int numDimensions;
+
+	private final int[] tileIds;
+	private final double[][] tilePositions;
+
+	private final int[] edgeTileA, edgeTileB;
+	private final float[][] edgeShifts;
+	private final float[] edgeCrossCorrelations;
+	private final double[] edgeVariances;
+	private final BitSet edgeValidOverlaps;
+
+	public TileGraph( final List< SerializablePairWiseStitchingResult[] > shifts )
+	{
+		final List< SerializablePairWiseStitchingResult > pairs = new ArrayList<>();
+		for ( final SerializablePairWiseStitchingResult[] pairMulti : shifts )
+			for ( final SerializablePairWiseStitchingResult pair : pairMulti )
+				pairs.add( pair );
+
+		final TreeMap< Integer, TileInfo > tiles = new TreeMap<>();
+		for ( final SerializablePairWiseStitchingResult pair : pairs )
+			for ( final TileInfo tile : pair.getTilePair().toArray() )
+				tiles.putIfAbsent( tile.getIndex(), tile );
+
+		numDimensions = tiles.isEmpty() ? 0 : tiles.firstEntry().getValue().numDimensions();
+		tileIds = new int[ tiles.size() ];
+		tilePositions = new double[ tiles.size() ][];
+		final Map< Integer, Integer > tileIdToIndex = new LinkedHashMap<>();
+		for ( final TileInfo tile : tiles.values() )
+		{
+			final int index = tileIdToIndex.size();
+			tileIds[ index ] = tile.getIndex();
+			tilePositions[ index ] = tile.getPosition().clone();
+			tileIdToIndex.put( tile.getIndex(), index );
+		}
+
+		edgeTileA = new int[ pairs.size() ];
+		edgeTileB = new int[ pairs.size() ];
+		edgeShifts = new float[ pairs.size() ][];
+		edgeCrossCorrelations = new float[ pairs.size() ];
+		edgeVariances = new double[ pairs.size() ];
+		edgeValidOverlaps = new BitSet( pairs.size() );
+		for ( int i = 0; i < pairs.size(); ++i )
+		{
+			final SerializablePairWiseStitchingResult pair = pairs.get( i );
+			edgeTileA[ i ] = tileIdToIndex.get( pair.getTilePair().getA().getIndex() );
+			edgeTileB[ i ] = tileIdToIndex.get( pair.getTilePair().getB().getIndex() );
+			edgeShifts[ i ] = pair.getOffset() == null ? null : Arrays.copyOf( pair.getOffset(), numDimensions );
+			edgeCrossCorrelations[ i ] = pair.getCrossCorrelation();
+			edgeVariances[ i ] = pair.getVariance() == null ? Double.NaN : pair.getVariance().doubleValue();
+			edgeValidOverlaps.set( i, pair.getIsValidOverlap() );
+		}
+	}
+
+	public int numDimensions() { return numDimensions; }
+
+	public int numTiles() { return tileIds.length; }
+
+	public int numEdges() { return edgeTileA.length; }
+
+	public int getTileId( final int tile ) { return tileIds[ tile ]; }
+
+	/**
+	 * @return stage position of the tile
+	 */
+	public double[] getTilePosition( final int tile ) { return tilePositions[ tile ]; }
+
+	public int getEdgeTileA( final int edge ) { return edgeTileA[ edge ]; }
+
+	public int getEdgeTileB( final int edge ) { return edgeTileB[ edge ]; }
+
+	/**
+	 * @return shift of the tile B relative to the tile A, or null if the pair does not have it
+	 */
+	public float[] getEdgeShift( final int edge ) { return edgeShifts[ edge ]; }
+
+	/**
+	 * @return weight of the edge for the optimization (its cross correlation)
+	 */
+	public float getEdgeWeight( final int edge ) { return edgeCrossCorrelations[ edge ]; }
+
+	/**
+	 * @return edges that have valid overlaps and satisfy the given thresholds (the pair is used only if the variance is known)
+	 */
+	public BitSet getValidEdges( final double minCrossCorrelation, final double minVariance )
+	{
+		final BitSet validEdges = new BitSet( numEdges() );
+		for ( int i = edgeValidOverlaps.nextSetBit( 0 ); i >= 0; i = edgeValidOverlaps.nextSetBit( i + 1 ) )
+			if ( edgeCrossCorrelations[ i ] > minCrossCorrelation && edgeVariances[ i ] > minVariance )
+				validEdges.set( i );
+		return validEdges;
+	}
+
+	/**
+	 * @return union-find structure where the tiles connected by the given edges belong to the same set
+	 */
+	public UnionFind getUnionFind( final BitSet validEdges )
+	{
+		final UnionFind unionFind = new UnionFind( numTiles() );
+		for ( int i = validEdges.nextSetBit( 0 ); i >= 0; i = validEdges.nextSetBit( i + 1 ) )
+			unionFind.union( edgeTileA[ i ], edgeTileB[ i ] );
+		return unionFind;
+	}
+
+	/**
+	 * @return number of tiles in the largest connected component formed by the given edges (the tiles without any edges are not counted)
+	 */
+	public int getLargestComponentSize( final BitSet validEdges )
+	{
+		final UnionFind unionFind = getUnionFind( validEdges );
+		int largestComponentSize = 0;
+		for ( int i = validEdges.nextSetBit( 0 ); i >= 0; i = validEdges.nextSetBit( i + 1 ) )
+			largestComponentSize = Math.max( unionFind.size( edgeTileA[ i ] ), largestComponentSize );
+		return largestComponentSize;
+	}
+
+	/**
+	 * @return connected components formed by the given edges as sorted arrays of tiles (the tiles without any edges are not included),
+	 * 			sorted by size in descending order, components of the same size are sorted by their smallest tile
+	 */
+	public List< int[] > getConnectedComponents( final BitSet validEdges )
+	{
+		final UnionFind unionFind = getUnionFind( validEdges );
+		final boolean[] connected = new boolean[ numTiles() ];
+		for ( int i = validEdges.nextSetBit( 0 ); i >= 0; i = validEdges.nextSetBit( i + 1 ) )
+			connected[ edgeTileA[ i ] ] = connected[ edgeTileB[ i ] ] = true;
+
+		final Map< Integer, int[] > rootToComponent = new LinkedHashMap<>();
+		final Map< Integer, Integer > rootToCount = new LinkedHashMap<>();
+		for ( int tile = 0; tile < numTiles(); ++tile )
+		{
+			if ( !connected[ tile ] )
+				continue;
+			final int root = unionFind.find( tile );
+			final int[] component = rootToComponent.computeIfAbsent( root, key -> new int[ unionFind.size( key ) ] );
+			final int count = rootToCount.getOrDefault( root, 0 );
+			component[ count ] = tile;
+			rootToCount.put( root, count + 1 );
+		}
+
+		final List< int[] > components = new ArrayList<>( rootToComponent.values() );
+		components.sort( ( a, b ) -> -Integer.compare( a.length, b.length ) );
+		return components;
+	}
+
+	/**
+	 * @return true if some tile is connected to only one other tile by the given edges
+	 */
+	public boolean hasLeaves( final BitSet validEdges )
+	{
+		final int[] firstNeighbor = new int[ numTiles() ];
+		final boolean[] multipleNeighbors = new boolean[ numTiles() ];
+		Arrays.fill( firstNeighbor, -1 );
+		for ( int i = validEdges.nextSetBit( 0 ); i >= 0; i = validEdges.nextSetBit( i + 1 ) )
+		{
+			final int[] ind = new int[] { edgeTileA[ i ], edgeTileB[ i ] };
+			for ( int j = 0; j < 2; ++j )
+			{
+				final int tile = ind[ j ], neighbor = ind[ ( j + 1 ) % 2 ];
+				if ( firstNeighbor[ tile ] == -1 )
+					firstNeighbor[ tile ] = neighbor;
+				else if ( firstNeighbor[ tile ] != neighbor )
+					multipleNeighbors[ tile ] = true;
+			}
+		}
+		for ( int tile = 0; tile < numTiles(); ++tile )
+			if ( firstNeighbor[ tile ] != -1 && !multipleNeighbors[ tile ] )
+				return true;
+		return false;
+	}
+
+	/**
+	 * Converts the graph to the Fiji representation with fake tile objects that don't hold any image data.
+	 */
+	public Vector< ComparePair > toComparePairs( final BitSet validEdges )
+	{
+		final ImagePlusTimePoint[] fakeTiles = new ImagePlusTimePoint[ numTiles() ];
+		for ( int tile = 0; tile < numTiles(); ++tile )
+		{
+			final ImageCollectionElement el = new ImageCollectionElement( null, tileIds[ tile ] );
+			el.setOffset( Conversions.toFloatArray( tilePositions[ tile ] ) );
+			el.setDimensionality( numDimensions );
+			try
+			{
+				el.setModel( TileModelFactory.createOffsetModel( tilePositions[ tile ] ) );
+			}
+			catch ( final Exception e )
+			{
+				throw new IllegalArgumentException( "Cannot create the model for " + numDimensions + "D tiles", e );
+			}
+			final ImagePlus fakeImage = new ImagePlus( Integer.toString( tileIds[ tile ] ), (java.awt.Image)null );
+			fakeTiles[ tile ] = new ImagePlusTimePoint( fakeImage, el.getIndex(), 1, el.getModel(), el );
+		}
+
+		final Vector< ComparePair > comparePairs = new Vector<>();
+		for ( int i = 0; i < numEdges(); ++i )
+		{
+			final ComparePair comparePair = new ComparePair( fakeTiles[ edgeTileA[ i ] ], fakeTiles[ edgeTileB[ i ] ] );
+			comparePair.setRelativeShift( edgeShifts[ i ] == null ? null : edgeShifts[ i ].clone() );
+			comparePair.setCrossCorrelation( edgeCrossCorrelations[ i ] );
+			comparePair.setIsValidOverlap( validEdges.get( i ) );
+			comparePairs.addElement( comparePair );
+		}
+		return comparePairs;
+	}
+}
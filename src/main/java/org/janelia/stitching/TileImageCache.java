@@ -0,0 +1,313 @@
+package org.janelia.stitching;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.util.LongAccumulator;
+import org.janelia.dataaccess.DataProvider;
+import org.janelia.stitching.TileLoader.TileType;
+
+import net.imglib2.Cursor;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Intervals;
+import net.imglib2.util.Util;
+import net.imglib2.view.Views;
+
+/**
+ * Caches tile images within an executor JVM so that the tasks running on the same executor
+ * do not decode the same tile image repeatedly.
+ *
+ * The instance of this class is a lightweight serializable handle that is created on the driver and captured by the Spark closures.
+ * It refers to a single shared per-JVM storage with LRU eviction that is limited by the total size of the cached images in bytes.
+ * If several tasks request the same tile image at the same time, it is loaded only once and the other tasks wait for it.
+ *
+ * N5 tiles are opened lazily by {@link TileLoader}, so they are copied into memory before caching, otherwise the budget
+ * would be charged for the images that are still read from the storage on every access.
+ *
+ * The byte budget is configured via {@link #CACHE_SIZE_KEY} in the Spark conf (e.g. --conf spark.stitching.tileCacheSize=8g).
+ * The cache is disabled by default, in which case the images are loaded directly through {@link TileLoader}.
+ *
+ * @author Igor Pisarev
+ */
+public class TileImageCache implements Serializable
+{
+	private static final long serialVersionUID = -3512946207785312164L;
+
+	public static final String CACHE_SIZE_KEY = "spark.stitching.tileCacheSize";
+
+	private static Storage storage;
+
+	private final long maxBytes;
+	private final LongAccumulator hits, misses, evictions;
+
+	private TileImageCache( final long maxBytes, final LongAccumulator hits, final LongAccumulator misses, final LongAccumulator evictions )
+	{
+		this.maxBytes = maxBytes;
+		this.hits = hits;
+		this.misses = misses;
+		this.evictions = evictions;
+	}
+
+	/**
+	 * Creates a cache handle using the byte budget from the Spark conf and registers hit/miss/eviction accumulators.
+	 *
+	 * @param sparkContext
+	 * @return
+	 */
+	public static TileImageCache create( final JavaSparkContext sparkContext )
+	{
+		return new TileImageCache(
+				sparkContext.getConf().getSizeAsBytes( CACHE_SIZE_KEY, "0" ),
+				sparkContext.sc().longAccumulator( "tile cache hits" ),
+				sparkContext.sc().longAccumulator( "tile cache misses" ),
+				sparkContext.sc().longAccumulator( "tile cache evictions" )
+			);
+	}
+
+	public boolean isEnabled() { return maxBytes > 0; }
+
+	public long getHits() { return hits.value(); }
+	public long getMisses() { return misses.value(); }
+	public long getEvictions() { return evictions.value(); }
+
+	@Override
+	public String toString()
+	{
+		return String.format( "Tile cache: %d hits, %d misses, %d evictions", getHits(), getMisses(), getEvictions() );
+	}
+
+	/**
+	 * Returns the entire tile image, loading it if it is not in the cache.
+	 *
+	 * @param tile
+	 * @param dataProvider
+	 * @return
+	 * @throws IOException
+	 */
+	public < T extends NativeType< T > & RealType< T > > RandomAccessibleInterval< T > loadTile( final TileInfo tile, final DataProvider dataProvider ) throws IOException
+	{
+		if ( !isEnabled() )
+			return TileLoader.loadTile( tile, dataProvider );
+		return get( getKey( tile, null ), () -> loadIntoMemory( tile, dataProvider, TileLoader.< T >loadTile( tile, dataProvider ) ) );
+	}
+
+	/**
+	 * Returns the requested region of the tile image.
+	 * If the entire tile image is already in the cache, the region is served from it, otherwise only the region is loaded and cached.
+	 *
+	 * @param tile
+	 * @param interval
+	 * @param dataProvider
+	 * @return
+	 * @throws IOException
+	 */
+	public < T extends NativeType< T > & RealType< T > > RandomAccessibleInterval< T > loadTileRegion( final TileInfo tile, final Interval interval, final DataProvider dataProvider ) throws IOException
+	{
+		if ( !isEnabled() )
+			return TileLoader.loadTileRegion( tile, interval, dataProvider );
+
+		final RandomAccessibleInterval< T > cachedTileImg = getStorage( maxBytes ).peek( getKey( tile, null ) );
+		if ( cachedTileImg != null )
+		{
+			hits.add( 1 );
+			return Views.interval( cachedTileImg, interval );
+		}
+
+		return get( getKey( tile, interval ), () -> loadIntoMemory( tile, dataProvider, TileLoader.< T >loadTileRegion( tile, interval, dataProvider ) ) );
+	}
+
+	private static < T extends NativeType< T > & RealType< T > > RandomAccessibleInterval< T > loadIntoMemory( final TileInfo tile, final DataProvider dataProvider, final RandomAccessibleInterval< T > img )
+	{
+		if ( TileLoader.getTileType( tile, dataProvider ) == TileType.N5_DATASET )
+			return copyToMemory( img );
+		return img;
+	}
+
+	/**
+	 * @return a copy of the image stored in an {@link ArrayImg} that is defined on the same interval as the given image
+	 */
+	static < T extends NativeType< T > & RealType< T > > RandomAccessibleInterval< T > copyToMemory( final RandomAccessibleInterval< T > img )
+	{
+		final T type = Util.getTypeFromInterval( img );
+		final RandomAccessibleInterval< T > imgCopy = new ArrayImgFactory<>( type ).create( img );
+		final Cursor< T > srcCursor = Views.flatIterable( img ).cursor();
+		final Cursor< T > dstCursor = Views.flatIterable( imgCopy ).cursor();
+		while ( dstCursor.hasNext() || srcCursor.hasNext() )
+			dstCursor.next().set( srcCursor.next() );
+		return Views.translate( imgCopy, Intervals.minAsLongArray( img ) );
+	}
+
+	private < T extends NativeType< T > & RealType< T > > RandomAccessibleInterval< T > get( final String key, final Callable< RandomAccessibleInterval< T > > loader ) throws IOException
+	{
+		final long[] stats = new long[ 3 ];
+		try
+		{
+			return getStorage( maxBytes ).get( key, loader, stats );
+		}
+		finally
+		{
+			hits.add( stats[ 0 ] );
+			misses.add( stats[ 1 ] );
+			evictions.add( stats[ 2 ] );
+		}
+	}
+
+	private static String getKey( final TileInfo tile, final Interval interval )
+	{
+		if ( interval == null )
+			return tile.getFilePath();
+		return tile.getFilePath() + "@" + Arrays.toString( Intervals.minAsLongArray( interval ) ) + "-" + Arrays.toString( Intervals.maxAsLongArray( interval ) );
+	}
+
+	private static synchronized Storage getStorage( final long maxBytes )
+	{
+		if ( storage == null || storage.maxBytes != maxBytes )
+			storage = new Storage( maxBytes );
+		return storage;
+	}
+
+	/**
+	 * Per-JVM storage of the cached images with LRU eviction policy.
+	 */
+	static class Storage
+	{
+		final long maxBytes;
+
+		private final LinkedHashMap< String, Entry > entries = new LinkedHashMap<>( 16, 0.75f, true );
+		private final Map< String, FutureTask< RandomAccessibleInterval< ? > > > pendingLoads = new HashMap<>();
+		private long currentBytes;
+
+		private static class Entry
+		{
+			final RandomAccessibleInterval< ? > img;
+			final long bytes;
+
+			Entry( final RandomAccessibleInterval< ? > img, final long bytes )
+			{
+				this.img = img;
+				this.bytes = bytes;
+			}
+		}
+
+		Storage( final long maxBytes )
+		{
+			this.maxBytes = maxBytes;
+		}
+
+		synchronized long getCurrentBytes()
+		{
+			return currentBytes;
+		}
+
+		@SuppressWarnings( "unchecked" )
+		synchronized < T > RandomAccessibleInterval< T > peek( final String key )
+		{
+			final Entry entry = entries.get( key );
+			return entry != null ? ( RandomAccessibleInterval< T > ) entry.img : null;
+		}
+
+		/**
+		 * Returns the cached image for the given key, or loads it if it is not present.
+		 * Concurrent requests for the same key share a single load.
+		 *
+		 * @param key
+		 * @param loader
+		 * @param stats array of { hits, misses, evictions } that is incremented by this request
+		 * @return
+		 * @throws IOException
+		 */
+		@SuppressWarnings( "unchecked" )
+		< T extends RealType< T > > RandomAccessibleInterval< T > get( final String key, final Callable< RandomAccessibleInterval< T > > loader, final long[] stats ) throws IOException
+		{
+			final FutureTask< RandomAccessibleInterval< ? > > loadTask;
+			final boolean isLoadingThread;
+			synchronized ( this )
+			{
+				final Entry entry = entries.get( key );
+				if ( entry != null )
+				{
+					++stats[ 0 ];
+					return ( RandomAccessibleInterval< T > ) entry.img;
+				}
+
+				if ( pendingLoads.containsKey( key ) )
+				{
+					loadTask = pendingLoads.get( key );
+					isLoadingThread = false;
+					++stats[ 0 ];
+				}
+				else
+				{
+					loadTask = new FutureTask<>( ( Callable< RandomAccessibleInterval< ? > > ) ( Callable< ? > ) loader );
+					pendingLoads.put( key, loadTask );
+					isLoadingThread = true;
+					++stats[ 1 ];
+				}
+			}
+
+			if ( isLoadingThread )
+			{
+				loadTask.run();
+				synchronized ( this )
+				{
+					pendingLoads.remove( key );
+					try
+					{
+						put( key, ( RandomAccessibleInterval< T > ) loadTask.get(), stats );
+					}
+					catch ( final InterruptedException | ExecutionException e )
+					{
+						// the exception is rethrown below
+					}
+				}
+			}
+
+			try
+			{
+				return ( RandomAccessibleInterval< T > ) loadTask.get();
+			}
+			catch ( final InterruptedException e )
+			{
+				Thread.currentThread().interrupt();
+				throw new IOException( e );
+			}
+			catch ( final ExecutionException e )
+			{
+				if ( e.getCause() instanceof IOException )
+					throw ( IOException ) e.getCause();
+				throw new IOException( e.getCause() );
+			}
+		}
+
+		private < T extends RealType< T > > void put( final String key, final RandomAccessibleInterval< T > img, final long[] stats )
+		{
+			final long bytes = Intervals.numElements( img ) * Math.max( Util.getTypeFromInterval( img ).getBitsPerPixel() / 8, 1 );
+			if ( bytes > maxBytes )
+				return;
+
+			for ( final Iterator< Entry > it = entries.values().iterator(); it.hasNext() && currentBytes + bytes > maxBytes; )
+			{
+				currentBytes -= it.next().bytes;
+				it.remove();
+				++stats[ 2 ];
+			}
+
+			entries.put( key, new Entry( img, bytes ) );
+			currentBytes += bytes;
+		}
+	}
+}
@@ -1,13 +1,21 @@
 package org.janelia.stitching;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.Reader;
 import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
+import org.janelia.dataaccess.DataProvider;
+
 import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
 
 /**
  * Provides convenience methods for loading tiles configuration and storing it on a disk in JSON format.
@@ -16,6 +24,9 @@ import com.google.gson.Gson;
  * 1. A set of {@link TileInfo} objects which form a tile configuration.
  * 2. A set of {@link SerializablePairWiseStitchingResult} objects that represent pairwise similarity and best possible shift between two tiles.
  *
+ * Pairwise results can also be stored in the compact binary format (see {@link PairwiseShiftsBinaryFormat}),
+ * which is detected automatically when the results are loaded by a link.
+ *
  * @author Igor Pisarev
  */
 
@@ -69,7 +80,10 @@ public class TileInfoJSONProvider
 	{
 		try ( final Reader closeableReader = reader )
 		{
-			return new ArrayList<>( Arrays.asList( new Gson().fromJson( closeableReader, SerializablePairWiseStitchingResult[][].class ) ) );
+			final SerializablePairWiseStitchingResult[][] shiftsMulti = new Gson().fromJson( closeableReader, SerializablePairWiseStitchingResult[][].class );
+			if ( shiftsMulti == null )
+				throw new JsonParseException( "Pairwise results are empty" );
+			return new ArrayList<>( Arrays.asList( shiftsMulti ) );
 		}
 	}
 
@@ -80,4 +94,46 @@ public class TileInfoJSONProvider
 			closeableWriter.write( new Gson().toJson( shiftsMulti ) );
 		}
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Loads pairwise results from the given link. The format (JSON or binary) is detected automatically.
+	 */
+	public static ArrayList< SerializablePairWiseStitchingResult[] > loadPairwiseShiftsMulti( final DataProvider dataProvider, final String link ) throws IOException
+	{
+		try ( final InputStream in = new BufferedInputStream( dataProvider.getInputStream( link ) ) )
+		{
+			if ( PairwiseShiftsBinaryFormat.isBinary( in ) )
+				return PairwiseShiftsBinaryFormat.load( in ).toList();
+			else
+				return loadPairwiseShiftsMulti( new InputStreamReader( in ) );
+		}
+	}
+
+	/**
+	 * Saves pairwise results to the given link. Uses the binary format if the link has the {@link PairwiseShiftsBinaryFormat#FILE_EXTENSION} extension, and JSON otherwise.
+	 */
+	public static void savePairwiseShiftsMulti( final List< SerializablePairWiseStitchingResult[] > shiftsMulti, final DataProvider dataProvider, final String link ) throws IOException
+	{
+		if ( isPairwiseBinaryLink( link ) )
+		{
+			try ( final OutputStream out = new BufferedOutputStream( dataProvider.getOutputStream( link ) ) )
+			{
+				PairwiseShiftsBinaryFormat.save( shiftsMulti, out );
+			}
+		}
+		else
+		{
+			savePairwiseShiftsMulti( shiftsMulti, dataProvider.getJsonWriter( link ) );
+		}
+	}
+
+	public static boolean isPairwiseBinaryLink( final String link )
+	{
+		return link.endsWith( PairwiseShiftsBinaryFormat.FILE_EXTENSION );
+	}
+
+	public static String getPairwiseFilename( final boolean binary )
+	{
+		return "pairwise" + ( binary ? PairwiseShiftsBinaryFormat.FILE_EXTENSION : ".json" );
+	}
+}
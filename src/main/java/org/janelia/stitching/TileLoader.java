@@ -1,18 +1,26 @@
 package org.janelia.stitching;
 
 import ij.ImagePlus;
+import ij.io.FileInfo;
+import net.imglib2.Interval;
 import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImgs;
 import net.imglib2.img.imageplus.ImagePlusImgs;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
 import org.janelia.dataaccess.DataProvider;
 import org.janelia.dataaccess.PathResolver;
 import org.janelia.saalfeldlab.n5.DatasetAttributes;
 import org.janelia.saalfeldlab.n5.N5Reader;
 import org.janelia.saalfeldlab.n5.imglib2.N5Utils;
+import org.janelia.util.TiffSliceReader;
+import org.janelia.util.TiffSliceReader.TiffInputStreamSupplier;
 
 import java.io.IOException;
 import java.nio.file.Paths;
+import java.util.Arrays;
 
 public class TileLoader
 {
@@ -76,4 +84,105 @@ public class TileLoader
 
 		throw new IOException( "Tile image does not exist: " + tile.getFilePath() );
 	}
+
+	/**
+	 * Loads the requested region of the tile image. The returned image is defined on the given {@code interval} in the tile coordinate space,
+	 * so it is equivalent to {@code Views.interval( loadTile( tile, dataProvider ), interval )}.
+	 *
+	 * For N5 tiles only the blocks that intersect with the requested region are read.
+	 * For TIFF tiles only the requested z-slices are decoded, and if the image is uncompressed only the requested rows are read from the file.
+	 * Other image files are loaded entirely.
+	 *
+	 * @throws IOException if the size of the stored image does not match the tile size from metadata
+	 */
+	@SuppressWarnings( "unchecked" )
+	public static < T extends NativeType< T > & RealType< T > > RandomAccessibleInterval< T > loadTileRegion( final TileInfo tile, final Interval interval, final DataProvider dataProvider ) throws IOException
+	{
+		for ( int d = 0; d < interval.numDimensions(); ++d )
+			if ( interval.min( d ) < 0 || interval.max( d ) >= tile.getSize( d ) )
+				throw new IllegalArgumentException( "Requested region " + Arrays.toString( Intervals.minAsLongArray( interval ) ) + "-" + Arrays.toString( Intervals.maxAsLongArray( interval ) ) + " is outside of the tile of size " + Arrays.toString( tile.getSize() ) );
+
+		// check if a given tile path is an N5 dataset
+		final String n5Path  = PathResolver.getParent( PathResolver.getParent( tile.getFilePath() ) );
+		final String tileDatasetPath = Paths.get( n5Path ).relativize( Paths.get( tile.getFilePath() ) ).toString();
+		final N5Reader n5 = dataProvider.createN5Reader( n5Path );
+		if ( n5.datasetExists( tileDatasetPath ) )
+		{
+			final RandomAccessibleInterval< T > img = N5Utils.< T >open( n5, tileDatasetPath );
+			validateImageSize( tile, Intervals.dimensionsAsLongArray( img ) );
+			return Views.interval( img, interval );
+		}
+
+		if ( !dataProvider.exists( tile.getFilePath() ) )
+			throw new IOException( "Tile image does not exist: " + tile.getFilePath() );
+
+		final String lowerCaseFilePath = tile.getFilePath().toLowerCase();
+		if ( ( !lowerCaseFilePath.endsWith( ".tif" ) && !lowerCaseFilePath.endsWith( ".tiff" ) ) || interval.numDimensions() > 3 )
+			return Views.interval( loadTileOfValidSize( tile, dataProvider ), interval );
+
+		final TiffInputStreamSupplier inSupplier = () -> dataProvider.getInputStream( tile.getFilePath() );
+		final FileInfo[] fileInfos = TiffSliceReader.readFileInfos( inSupplier );
+		if ( fileInfos == null || fileInfos.length == 0 )
+			throw new IOException( "Cannot read tiff metadata: " + tile.getFilePath() );
+
+		final int fileType = fileInfos[ 0 ].fileType;
+		if ( fileType != FileInfo.GRAY8 && fileType != FileInfo.GRAY16_UNSIGNED && fileType != FileInfo.GRAY32_FLOAT )
+			return Views.interval( loadTileOfValidSize( tile, dataProvider ), interval );
+
+		// the rows are copied assuming the tile size from metadata, so a mismatching file would silently produce a corrupted image
+		final int numSlices = fileInfos.length == 1 ? Math.max( fileInfos[ 0 ].nImages, 1 ) : fileInfos.length;
+		final long[] fileDimensions = tile.numDimensions() > 2 || numSlices > 1 ?
+				new long[] { fileInfos[ 0 ].width, fileInfos[ 0 ].height, numSlices } :
+				new long[] { fileInfos[ 0 ].width, fileInfos[ 0 ].height };
+		validateImageSize( tile, fileDimensions );
+
+		final long[] min = Intervals.minAsLongArray( interval );
+		final long[] dimensions = Intervals.dimensionsAsLongArray( interval );
+		final int width = ( int ) dimensions[ 0 ], height = ( int ) dimensions[ 1 ];
+		final int depth = dimensions.length > 2 ? ( int ) dimensions[ 2 ] : 1;
+		final int minSlice = dimensions.length > 2 ? ( int ) min[ 2 ] : 0;
+		final int sliceSize = width * height;
+		final int tileWidth = ( int ) tile.getSize( 0 );
+
+		final Object regionPixels;
+		if ( fileType == FileInfo.GRAY8 )
+			regionPixels = new byte[ sliceSize * depth ];
+		else if ( fileType == FileInfo.GRAY16_UNSIGNED )
+			regionPixels = new short[ sliceSize * depth ];
+		else
+			regionPixels = new float[ sliceSize * depth ];
+
+		for ( int z = 0; z < depth; ++z )
+		{
+			final Object rowsPixels = TiffSliceReader.readSliceRows( inSupplier, fileInfos, minSlice + z + 1, ( int ) min[ 1 ], height );
+			if ( rowsPixels == null )
+				throw new IOException( "Cannot read slice " + ( minSlice + z + 1 ) + " of the tile image: " + tile.getFilePath() );
+
+			for ( int y = 0; y < height; ++y )
+				System.arraycopy( rowsPixels, y * tileWidth + ( int ) min[ 0 ], regionPixels, z * sliceSize + y * width, width );
+		}
+
+		final RandomAccessibleInterval< ? > regionImg;
+		if ( fileType == FileInfo.GRAY8 )
+			regionImg = ArrayImgs.unsignedBytes( ( byte[] ) regionPixels, dimensions );
+		else if ( fileType == FileInfo.GRAY16_UNSIGNED )
+			regionImg = ArrayImgs.unsignedShorts( ( short[] ) regionPixels, dimensions );
+		else
+			regionImg = ArrayImgs.floats( ( float[] ) regionPixels, dimensions );
+
+		return Views.translate( ( RandomAccessibleInterval< T > ) regionImg, min );
+	}
+
+	private static < T extends NativeType< T > & RealType< T > > RandomAccessibleInterval< T > loadTileOfValidSize( final TileInfo tile, final DataProvider dataProvider ) throws IOException
+	{
+		final RandomAccessibleInterval< T > img = loadTile( tile, dataProvider );
+		validateImageSize( tile, Intervals.dimensionsAsLongArray( img ) );
+		return img;
+	}
+
+	private static void validateImageSize( final TileInfo tile, final long[] imageDimensions ) throws IOException
+	{
+		if ( !Arrays.equals( imageDimensions, tile.getSize() ) )
+			throw new IOException( String.format( "Image size %s does not match the value from metadata %s", Arrays.toString( imageDimensions ), Arrays.toString( tile.getSize() ) ) );
+	}
 }
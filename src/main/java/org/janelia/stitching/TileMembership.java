@@ -0,0 +1,96 @@
+package org.janelia.stitching;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Tracks which tiles cover every pixel of the output cell when exporting only the overlaps.
+ *
+ * The tiles within the cell are assigned local slots, and every pixel stores a bitmask over these slots
+ * (one long per pixel if there are up to 64 tiles in the cell). The pairwise connections are converted to a bitmask
+ * of connected slots for every slot, so testing whether a pixel is covered by at least one connected pair of tiles
+ * takes a few bitwise operations.
+ *
+ * @author Igor Pisarev
+ */
+public class TileMembership
+{
+	private final int numWords;
+	private final long[] pixelMasks;
+	private final long[] connectedMasks;
+
+	/**
+	 * @param tilesWithinCell
+	 * 			tiles that intersect with the cell, the slots are assigned in the same order
+	 * @param numPixels
+	 * 			number of pixels in the cell
+	 * @param pairwiseConnectionsMap
+	 * 			tile index -> indexes of the connected tiles
+	 */
+	public TileMembership( final List< TileInfo > tilesWithinCell, final long numPixels, final Map< Integer, Set< Integer > > pairwiseConnectionsMap )
+	{
+		numWords = Math.max( ( tilesWithinCell.size() + 63 ) / 64, 1 );
+		if ( numPixels * numWords > Integer.MAX_VALUE )
+			throw new IllegalArgumentException( "The cell is too large to track the tile membership: " + numPixels + " pixels, " + tilesWithinCell.size() + " tiles" );
+		pixelMasks = new long[ ( int ) ( numPixels * numWords ) ];
+
+		final Map< Integer, Integer > tileIndexToSlot = new HashMap<>();
+		for ( int slot = 0; slot < tilesWithinCell.size(); ++slot )
+			tileIndexToSlot.put( tilesWithinCell.get( slot ).getIndex(), slot );
+
+		connectedMasks = new long[ tilesWithinCell.size() * numWords ];
+		for ( int slot = 0; slot < tilesWithinCell.size(); ++slot )
+		{
+			final Set< Integer > connectedTileIndexes = pairwiseConnectionsMap.get( tilesWithinCell.get( slot ).getIndex() );
+			if ( connectedTileIndexes == null )
+				continue;
+			for ( final Integer connectedTileIndex : connectedTileIndexes )
+			{
+				final Integer connectedSlot = tileIndexToSlot.get( connectedTileIndex );
+				if ( connectedSlot != null )
+					connectedMasks[ slot * numWords + connectedSlot / 64 ] |= 1L << ( connectedSlot % 64 );
+			}
+		}
+	}
+
+	/**
+	 * Marks the consecutive pixels as covered by the tile.
+	 *
+	 * @param slot
+	 * 			position of the tile in the list of tiles within the cell
+	 * @param pixelIndex
+	 * 			flat index of the first pixel
+	 * @param length
+	 * 			number of pixels
+	 */
+	public void add( final int slot, final int pixelIndex, final int length )
+	{
+		final int word = slot / 64;
+		final long bit = 1L << ( slot % 64 );
+		for ( int i = 0; i < length; ++i )
+			pixelMasks[ ( pixelIndex + i ) * numWords + word ] |= bit;
+	}
+
+	/**
+	 * @return true if the pixel is covered by at least one pair of tiles that are connected
+	 */
+	public boolean isConnected( final int pixelIndex )
+	{
+		final int offset = pixelIndex * numWords;
+		for ( int word = 0; word < numWords; ++word )
+		{
+			long mask = pixelMasks[ offset + word ];
+			while ( mask != 0 )
+			{
+				final int slot = word * 64 + Long.numberOfTrailingZeros( mask );
+				mask &= mask - 1;
+				for ( int w = 0; w < numWords; ++w )
+					if ( ( pixelMasks[ offset + w ] & connectedMasks[ slot * numWords + w ] ) != 0 )
+						return true;
+			}
+		}
+		return false;
+	}
+}
@@ -37,6 +37,18 @@ public class TileModelFactory {
 		return createModel( dim, tile );
 	}
 
+	/**
+	 * Sets the translation of the model created by this factory
+	 */
+	public static void setTranslation( final Model< ? > model, final double[] translation ) throws Exception {
+		if ( model instanceof TranslationModel2D && translation.length == 2 )
+			( ( TranslationModel2D ) model ).set( translation[ 0 ], translation[ 1 ] );
+		else if ( model instanceof TranslationModel3D && translation.length == 3 )
+			( ( TranslationModel3D ) model ).set( translation[ 0 ], translation[ 1 ], translation[ 2 ] );
+		else
+			throw new Exception( "Not supported" );
+	}
+
 	private static < M extends Model< M > > M createModel( final int dim, final TileInfo tile ) throws Exception {
 		switch ( dim ) {
 		case 2:
@@ -2,9 +2,13 @@ package org.janelia.stitching;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.TreeMap;
 import java.util.function.LongConsumer;
 
+import org.janelia.util.ComparableTuple;
+
 import net.imglib2.Dimensions;
 import net.imglib2.FinalDimensions;
 import net.imglib2.FinalInterval;
@@ -77,12 +81,96 @@ public class TileOperations
 	 */
 	public static ArrayList< TilePair > findOverlappingTiles( final TileInfo[] tiles )
 	{
-		final ArrayList< TilePair > overlappingTiles = new ArrayList<>();
-		for ( int i = 0; i < tiles.length; i++ )
-			for ( int j = i + 1; j < tiles.length; j++ )
-				if ( overlap( tiles[ i ], tiles[ j ] ) )
-					overlappingTiles.add( new TilePair( tiles[ i ], tiles[ j ] ) );
-		return overlappingTiles;
+		return new TilesSpatialIndex( tiles ).findOverlappingTiles();
+	}
+
+	/**
+	 * Groups the given pairs by spatial blocks of tiles, so that pairs sharing the same tiles end up in the same group.
+	 * Each pair is assigned to the block that contains the position of its first tile. The block size is specified in terms of number of tiles
+	 * and is converted to pixels using the tile grid stride in every dimension (see {@link #getGridStride(List)}).
+	 * @return a list of groups of pairs, ordered by block position
+	 */
+	public static List< List< TilePair > > groupPairsBySpatialBlocks( final List< TilePair > pairs, final int[] blockSizeInTiles )
+	{
+		final TreeMap< ComparableTuple< Long >, List< TilePair > > groups = new TreeMap<>();
+		if ( pairs.isEmpty() )
+			return new ArrayList<>();
+
+		final int dim = pairs.get( 0 ).getA().numDimensions();
+		if ( blockSizeInTiles.length != dim )
+			throw new IllegalArgumentException( "Block size dimensionality does not match: " + blockSizeInTiles.length + ", tiles are " + dim + "D" );
+
+		final double[] stride = getGridStride( pairs );
+		final double[] minPosition = new double[ dim ];
+		Arrays.fill( minPosition, Double.POSITIVE_INFINITY );
+		for ( final TilePair pair : pairs )
+			for ( final TileInfo tile : pair.toArray() )
+				for ( int d = 0; d < dim; ++d )
+					minPosition[ d ] = Math.min( tile.getPosition( d ), minPosition[ d ] );
+
+		for ( final TilePair pair : pairs )
+		{
+			final Long[] blockPosition = new Long[ dim ];
+			for ( int d = 0; d < dim; ++d )
+			{
+				// the grid position is rounded, so small deviations of the stage positions do not move the tile to the neighboring block
+				final long gridPosition = Math.round( ( pair.getA().getPosition( d ) - minPosition[ d ] ) / stride[ d ] );
+				blockPosition[ d ] = Math.floorDiv( gridPosition, blockSizeInTiles[ d ] );
+			}
+
+			final ComparableTuple< Long > key = new ComparableTuple<>( blockPosition );
+			if ( !groups.containsKey( key ) )
+				groups.put( key, new ArrayList<>() );
+			groups.get( key ).add( pair );
+		}
+
+		return new ArrayList<>( groups.values() );
+	}
+
+	/**
+	 * Estimates the distance between the neighboring tiles of the grid in every dimension.
+	 * A pair is considered to be adjacent along a dimension if the tiles are shifted mostly along this dimension
+	 * (the relative offset along any other dimension is less than half of it), and the stride is the median offset of such pairs.
+	 * If there are no such pairs for some dimension, the largest tile size is used.
+	 */
+	static double[] getGridStride( final List< TilePair > pairs )
+	{
+		final int dim = pairs.get( 0 ).getA().numDimensions();
+		final List< List< Double > > adjacentOffsets = new ArrayList<>();
+		final double[] stride = new double[ dim ];
+		for ( int d = 0; d < dim; ++d )
+			adjacentOffsets.add( new ArrayList<>() );
+
+		for ( final TilePair pair : pairs )
+		{
+			final double[] relativeOffset = new double[ dim ];
+			for ( int d = 0; d < dim; ++d )
+			{
+				relativeOffset[ d ] = Math.abs( pair.getB().getPosition( d ) - pair.getA().getPosition( d ) ) / Math.max( pair.getA().getSize( d ), 1 );
+				stride[ d ] = Math.max( Math.max( pair.getA().getSize( d ), pair.getB().getSize( d ) ), stride[ d ] );
+			}
+
+			for ( int d = 0; d < dim; ++d )
+			{
+				boolean adjacent = relativeOffset[ d ] > 0;
+				for ( int k = 0; k < dim; ++k )
+					if ( k != d && relativeOffset[ k ] >= relativeOffset[ d ] / 2 )
+						adjacent = false;
+				if ( adjacent )
+					adjacentOffsets.get( d ).add( Math.abs( pair.getB().getPosition( d ) - pair.getA().getPosition( d ) ) );
+			}
+		}
+
+		for ( int d = 0; d < dim; ++d )
+		{
+			final List< Double > offsets = adjacentOffsets.get( d );
+			if ( !offsets.isEmpty() )
+			{
+				Collections.sort( offsets );
+				stride[ d ] = offsets.get( offsets.size() / 2 );
+			}
+		}
+		return stride;
 	}
 
 	/**
@@ -184,7 +272,8 @@ public class TileOperations
 	}
 
 	/**
-	 * @return a list of tiles lying within specified subregion (overlapping with it)
+	 * @return a list of tiles lying within specified subregion (overlapping with it).
+	 * Use {@link TilesSpatialIndex} instead when querying the same set of tiles many times.
 	 */
 	public static ArrayList< TileInfo > findTilesWithinSubregion( final TileInfo[] tiles, final TileInfo subregion )
 	{
@@ -0,0 +1,206 @@
+package org.janelia.stitching;
+
+import java.util.Arrays;
+
+import net.imglib2.Interval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.RealType;
+
+/**
+ * Samples a translated tile image row by row (along the X axis) within the target interval.
+ *
+ * The result is equivalent to rasterizing the border-extended tile image with N-linear interpolation
+ * that is translated by the given offset, but it avoids the generic view stack and per-pixel localization:
+ * <ul>
+ * <li>the source indices and the interpolation weights are precomputed once for every axis;</li>
+ * <li>if the offset is integral, the source rows are copied directly into the output row;</li>
+ * <li>otherwise, the contributing source rows are read once, kept while the neighboring target rows need them,
+ * and combined with the separable weights.</li>
+ * </ul>
+ * No objects are allocated per pixel or per row.
+ *
+ * @author Igor Pisarev
+ */
+public class TileRowSampler< T extends RealType< T > >
+{
+	private final RandomAccess< T > sourceRandomAccess;
+	private final int numDimensions;
+
+	// source index of the lower and upper interpolation neighbor (clamped to the source interval) for every position of the target interval
+	private final long[][] lowerIndex, upperIndex;
+	// weight of the upper neighbor for every axis (the same for all positions since the offset is constant)
+	private final double[] upperWeight;
+
+	private final int rowLength;
+	private final long rowSourceMin;
+	private final int rowSourceLength;
+	private final boolean contiguousRow;
+
+	// non-X axes that need interpolation
+	private final int[] interpolatedAxes;
+	private final int numCorners;
+
+	// cached source rows
+	private final float[][] rowBuffers;
+	private final long[][] rowKeys;
+	private final long[] rowStamps;
+	private long stamp;
+
+	private final long[] sourcePosition;
+	private final double[] cornerWeights;
+	private final int[] cornerRows;
+
+	/**
+	 * @param source
+	 * 			tile image
+	 * @param offset
+	 * 			position of the tile in the coordinate space of the target interval
+	 * @param targetInterval
+	 * 			interval to be sampled, defined relative to the same origin as the offset
+	 */
+	public TileRowSampler( final RandomAccessibleInterval< T > source, final double[] offset, final Interval targetInterval )
+	{
+		numDimensions = targetInterval.numDimensions();
+		sourceRandomAccess = source.randomAccess();
+
+		lowerIndex = new long[ numDimensions ][];
+		upperIndex = new long[ numDimensions ][];
+		upperWeight = new double[ numDimensions ];
+		for ( int d = 0; d < numDimensions; ++d )
+		{
+			final double firstSourcePosition = targetInterval.min( d ) - offset[ d ];
+			final long firstLowerIndex = ( long ) Math.floor( firstSourcePosition );
+			upperWeight[ d ] = firstSourcePosition - firstLowerIndex;
+
+			lowerIndex[ d ] = new long[ ( int ) targetInterval.dimension( d ) ];
+			upperIndex[ d ] = new long[ lowerIndex[ d ].length ];
+			for ( int i = 0; i < lowerIndex[ d ].length; ++i )
+			{
+				lowerIndex[ d ][ i ] = clamp( firstLowerIndex + i, source.min( d ), source.max( d ) );
+				upperIndex[ d ][ i ] = clamp( firstLowerIndex + i + 1, source.min( d ), source.max( d ) );
+			}
+		}
+
+		rowLength = lowerIndex[ 0 ].length;
+		rowSourceMin = lowerIndex[ 0 ][ 0 ];
+		rowSourceLength = ( int ) ( ( upperWeight[ 0 ] == 0 ? lowerIndex[ 0 ][ rowLength - 1 ] : upperIndex[ 0 ][ rowLength - 1 ] ) - rowSourceMin + 1 );
+		contiguousRow = upperWeight[ 0 ] == 0 && rowSourceLength == rowLength;
+
+		int numInterpolatedAxes = 0;
+		final int[] axes = new int[ numDimensions ];
+		for ( int d = 1; d < numDimensions; ++d )
+			if ( upperWeight[ d ] != 0 )
+				axes[ numInterpolatedAxes++ ] = d;
+		interpolatedAxes = Arrays.copyOf( axes, numInterpolatedAxes );
+		numCorners = 1 << numInterpolatedAxes;
+
+		// two sets of rows are enough to keep the rows shared by the neighboring target rows
+		rowBuffers = new float[ numCorners * 2 ][ rowSourceLength ];
+		rowKeys = new long[ numCorners * 2 ][ numDimensions ];
+		rowStamps = new long[ numCorners * 2 ];
+		Arrays.fill( rowStamps, -1 );
+
+		sourcePosition = new long[ numDimensions ];
+		cornerWeights = new double[ numCorners ];
+		cornerRows = new int[ numCorners ];
+	}
+
+	/**
+	 * Samples the row of the target interval.
+	 *
+	 * @param rowPosition
+	 * 			position of the row within the target interval (the first coordinate is ignored)
+	 * @param out
+	 * 			output values, the length should be at least the size of the target interval along X
+	 */
+	public void sampleRow( final int[] rowPosition, final float[] out )
+	{
+		++stamp;
+
+		if ( numCorners == 1 && contiguousRow )
+		{
+			sourcePosition[ 0 ] = rowSourceMin;
+			for ( int d = 1; d < numDimensions; ++d )
+				sourcePosition[ d ] = lowerIndex[ d ][ rowPosition[ d ] ];
+			readRow( sourcePosition, out, rowLength );
+			return;
+		}
+
+		for ( int corner = 0; corner < numCorners; ++corner )
+		{
+			double weight = 1;
+			sourcePosition[ 0 ] = rowSourceMin;
+			for ( int d = 1; d < numDimensions; ++d )
+				sourcePosition[ d ] = lowerIndex[ d ][ rowPosition[ d ] ];
+			for ( int i = 0; i < interpolatedAxes.length; ++i )
+			{
+				final int d = interpolatedAxes[ i ];
+				if ( ( corner & ( 1 << i ) ) != 0 )
+				{
+					sourcePosition[ d ] = upperIndex[ d ][ rowPosition[ d ] ];
+					weight *= upperWeight[ d ];
+				}
+				else
+				{
+					weight *= 1 - upperWeight[ d ];
+				}
+			}
+			cornerWeights[ corner ] = weight;
+			cornerRows[ corner ] = getRow( sourcePosition );
+		}
+
+		final long[] lowerX = lowerIndex[ 0 ], upperX = upperIndex[ 0 ];
+		final double weightX = upperWeight[ 0 ];
+		for ( int x = 0; x < rowLength; ++x )
+		{
+			final int lower = ( int ) ( lowerX[ x ] - rowSourceMin ), upper = ( int ) ( upperX[ x ] - rowSourceMin );
+			double value = 0;
+			for ( int corner = 0; corner < numCorners; ++corner )
+			{
+				final float[] row = rowBuffers[ cornerRows[ corner ] ];
+				final double rowValue = weightX == 0 ? row[ lower ] : row[ lower ] * ( 1 - weightX ) + row[ upper ] * weightX;
+				value += cornerWeights[ corner ] * rowValue;
+			}
+			out[ x ] = ( float ) value;
+		}
+	}
+
+	/**
+	 * @return index of the buffer that holds the source row starting at the given position
+	 */
+	private int getRow( final long[] position )
+	{
+		int oldest = -1;
+		for ( int i = 0; i < rowBuffers.length; ++i )
+		{
+			if ( rowStamps[ i ] != -1 && Arrays.equals( rowKeys[ i ], position ) )
+			{
+				rowStamps[ i ] = stamp;
+				return i;
+			}
+			if ( rowStamps[ i ] != stamp && ( oldest == -1 || rowStamps[ i ] < rowStamps[ oldest ] ) )
+				oldest = i;
+		}
+
+		System.arraycopy( position, 0, rowKeys[ oldest ], 0, numDimensions );
+		rowStamps[ oldest ] = stamp;
+		readRow( position, rowBuffers[ oldest ], rowSourceLength );
+		return oldest;
+	}
+
+	private void readRow( final long[] position, final float[] row, final int length )
+	{
+		sourceRandomAccess.setPosition( position );
+		for ( int x = 0; x < length; ++x )
+		{
+			row[ x ] = sourceRandomAccess.get().getRealFloat();
+			sourceRandomAccess.fwd( 0 );
+		}
+	}
+
+	private static long clamp( final long value, final long min, final long max )
+	{
+		return Math.max( min, Math.min( value, max ) );
+	}
+}
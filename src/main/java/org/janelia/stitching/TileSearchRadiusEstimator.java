@@ -94,6 +94,19 @@ public class TileSearchRadiusEstimator implements Serializable
 		return estimator.getSearchRadiusTreeUsingKNearestNeighbors( getStagePosition( tile ), numNearestNeighbors );
 	}
 
+	public List< Integer > getNeighborsTreeWithinEstimationWindow( final TileInfo tile )
+	{
+		return estimator.getNeighborsTreeWithinEstimationWindow( getStagePosition( tile ) );
+	}
+	public double[] getOffsetsMeanValues( final List< Integer > pointIndexes )
+	{
+		return estimator.getOffsetsMeanValues( pointIndexes );
+	}
+	public double[][] getOffsetsCovarianceMatrix( final List< Integer > pointIndexes, final double[] meanValues )
+	{
+		return estimator.getOffsetsCovarianceMatrix( pointIndexes, meanValues );
+	}
+
 	@Deprecated
 	public ErrorEllipse getCombinedErrorEllipse( final SearchRadius fixedSearchRadius, final SearchRadius movingSearchRadius )
 	{
@@ -0,0 +1,211 @@
+package org.janelia.stitching;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.broadcast.Broadcast;
+
+/**
+ * Compact per-tile table of the offset statistics (mean offset, covariance, number of neighbors) that are used for estimating search radiuses.
+ *
+ * The statistics of each tile are computed only once by a pre-pass over all tiles instead of being recomputed for every pair that the tile is part of.
+ * Only this table needs to be broadcasted to the pairwise stitching tasks, which then combine the statistics of the two tiles in a pair
+ * with {@link #getCombinedCovariancesSearchRadius(int, int)}.
+ *
+ * @author Igor Pisarev
+ */
+public class TileSearchRadiusTable implements Serializable
+{
+	private static final long serialVersionUID = 7302385170946683421L;
+
+	// compute on the driver if the number of tiles is below this value, otherwise distribute the computation
+	private static final int DISTRIBUTED_MIN_TILES = 10000;
+	private static final int TILES_PER_PARTITION = 1000;
+
+	private final int numDimensions;
+
+	// sorted tile indexes, and the corresponding statistics stored in flat arrays
+	private final int[] tileIndexes;
+	private final int[] numNeighbors;
+	private final double[] stagePositions;
+	private final double[] offsetsMeanValues;
+	private final double[] offsetsCovariances;
+
+	private static class TileEntry implements Serializable
+	{
+		private static final long serialVersionUID = -2264517356470155106L;
+
+		final int tileIndex;
+		final int numNeighbors;
+		final double[] stagePosition;
+		final double[] offsetsMeanValues;
+		final double[][] offsetsCovarianceMatrix;
+
+		TileEntry( final int tileIndex, final int numNeighbors, final double[] stagePosition, final double[] offsetsMeanValues, final double[][] offsetsCovarianceMatrix )
+		{
+			this.tileIndex = tileIndex;
+			this.numNeighbors = numNeighbors;
+			this.stagePosition = stagePosition;
+			this.offsetsMeanValues = offsetsMeanValues;
+			this.offsetsCovarianceMatrix = offsetsCovarianceMatrix;
+		}
+	}
+
+	private TileSearchRadiusTable( final List< TileEntry > entries, final int numDimensions )
+	{
+		this.numDimensions = numDimensions;
+		entries.sort( ( a, b ) -> Integer.compare( a.tileIndex, b.tileIndex ) );
+
+		tileIndexes = new int[ entries.size() ];
+		numNeighbors = new int[ entries.size() ];
+		stagePositions = new double[ entries.size() * numDimensions ];
+		offsetsMeanValues = new double[ entries.size() * numDimensions ];
+		offsetsCovariances = new double[ entries.size() * numDimensions * numDimensions ];
+
+		for ( int i = 0; i < entries.size(); ++i )
+		{
+			final TileEntry entry = entries.get( i );
+			tileIndexes[ i ] = entry.tileIndex;
+			numNeighbors[ i ] = entry.numNeighbors;
+			System.arraycopy( entry.stagePosition, 0, stagePositions, i * numDimensions, numDimensions );
+			System.arraycopy( entry.offsetsMeanValues, 0, offsetsMeanValues, i * numDimensions, numDimensions );
+			for ( int dRow = 0; dRow < numDimensions; ++dRow )
+				System.arraycopy( entry.offsetsCovarianceMatrix[ dRow ], 0, offsetsCovariances, ( i * numDimensions + dRow ) * numDimensions, numDimensions );
+		}
+	}
+
+	/**
+	 * Computes the offset statistics for the given tiles. The computation is distributed if there are many tiles and the spark context is provided.
+	 *
+	 * @param searchRadiusEstimator
+	 * @param tiles
+	 * @param minNumNeighbors
+	 * 			statistics are not computed for the tiles that have fewer neighbors than this value (only the number of neighbors is stored)
+	 * @param sparkContext
+	 * 			spark context for distributing the computation, or null to compute on the driver
+	 * @return
+	 */
+	public static TileSearchRadiusTable create(
+			final TileSearchRadiusEstimator searchRadiusEstimator,
+			final Collection< TileInfo > tiles,
+			final int minNumNeighbors,
+			final JavaSparkContext sparkContext )
+	{
+		final Map< Integer, TileInfo > tilesMap = Utils.createTilesMap( tiles.toArray( new TileInfo[ 0 ] ) );
+		final List< Integer > tileIndexes = new ArrayList<>( tilesMap.keySet() );
+		final int numDimensions = tiles.isEmpty() ? 0 : tiles.iterator().next().numDimensions();
+
+		final List< TileEntry > entries;
+		if ( sparkContext == null || tileIndexes.size() < DISTRIBUTED_MIN_TILES )
+		{
+			entries = new ArrayList<>();
+			for ( final Integer tileIndex : tileIndexes )
+				entries.add( createEntry( searchRadiusEstimator, tilesMap.get( tileIndex ), minNumNeighbors ) );
+		}
+		else
+		{
+			final Broadcast< TileSearchRadiusEstimator > broadcastedSearchRadiusEstimator = sparkContext.broadcast( searchRadiusEstimator );
+			final List< TileInfo > sortedTiles = new ArrayList<>();
+			for ( final Integer tileIndex : tileIndexes )
+				sortedTiles.add( tilesMap.get( tileIndex ) );
+
+			entries = new ArrayList<>( sparkContext
+					.parallelize( sortedTiles, ( sortedTiles.size() + TILES_PER_PARTITION - 1 ) / TILES_PER_PARTITION )
+					.map( tile -> createEntry( broadcastedSearchRadiusEstimator.value(), tile, minNumNeighbors ) )
+					.collect()
+				);
+
+			broadcastedSearchRadiusEstimator.destroy();
+		}
+
+		return new TileSearchRadiusTable( entries, numDimensions );
+	}
+
+	private static TileEntry createEntry( final TileSearchRadiusEstimator searchRadiusEstimator, final TileInfo tile, final int minNumNeighbors )
+	{
+		final List< Integer > neighbors = searchRadiusEstimator.getNeighborsTreeWithinEstimationWindow( tile );
+		final int numDimensions = tile.numDimensions();
+		final double[] offsetsMeanValues;
+		final double[][] offsetsCovarianceMatrix;
+		if ( neighbors.size() >= minNumNeighbors && !neighbors.isEmpty() )
+		{
+			offsetsMeanValues = searchRadiusEstimator.getOffsetsMeanValues( neighbors );
+			offsetsCovarianceMatrix = searchRadiusEstimator.getOffsetsCovarianceMatrix( neighbors, offsetsMeanValues );
+		}
+		else
+		{
+			offsetsMeanValues = new double[ numDimensions ];
+			offsetsCovarianceMatrix = new double[ numDimensions ][ numDimensions ];
+		}
+		return new TileEntry( tile.getIndex(), neighbors.size(), searchRadiusEstimator.getStagePosition( tile ).clone(), offsetsMeanValues, offsetsCovarianceMatrix );
+	}
+
+	public int size()
+	{
+		return tileIndexes.length;
+	}
+
+	public boolean contains( final int tileIndex )
+	{
+		return Arrays.binarySearch( tileIndexes, tileIndex ) >= 0;
+	}
+
+	/**
+	 * @return number of the neighboring tiles within the estimation window of the given tile
+	 */
+	public int getNumNeighbors( final int tileIndex )
+	{
+		return numNeighbors[ getPosition( tileIndex ) ];
+	}
+
+	public double[] getOffsetsMeanValues( final int tileIndex )
+	{
+		final int position = getPosition( tileIndex );
+		return Arrays.copyOfRange( offsetsMeanValues, position * numDimensions, ( position + 1 ) * numDimensions );
+	}
+
+	public double[][] getOffsetsCovarianceMatrix( final int tileIndex )
+	{
+		final int position = getPosition( tileIndex );
+		final double[][] covarianceMatrix = new double[ numDimensions ][];
+		for ( int dRow = 0; dRow < numDimensions; ++dRow )
+			covarianceMatrix[ dRow ] = Arrays.copyOfRange( offsetsCovariances, ( position * numDimensions + dRow ) * numDimensions, ( position * numDimensions + dRow + 1 ) * numDimensions );
+		return covarianceMatrix;
+	}
+
+	public double[] getStagePosition( final int tileIndex )
+	{
+		final int position = getPosition( tileIndex );
+		return Arrays.copyOfRange( stagePositions, position * numDimensions, ( position + 1 ) * numDimensions );
+	}
+
+	/**
+	 * Estimates a combined search radius for the moving tile with respect to the fixed tile.
+	 * Equivalent to {@link TileSearchRadiusEstimator#getCombinedCovariancesSearchRadius(SearchRadius, SearchRadius)},
+	 * except that the indexes of the used neighboring points are not available in the resulting search radius.
+	 */
+	public SearchRadius getCombinedCovariancesSearchRadius( final int fixedTileIndex, final int movingTileIndex ) throws PipelineExecutionException
+	{
+		return SearchRadiusEstimator.getCombinedCovariancesSearchRadius(
+				getOffsetsMeanValues( fixedTileIndex ),
+				getOffsetsCovarianceMatrix( fixedTileIndex ),
+				getOffsetsMeanValues( movingTileIndex ),
+				getOffsetsCovarianceMatrix( movingTileIndex ),
+				null,
+				getStagePosition( movingTileIndex )
+			);
+	}
+
+	private int getPosition( final int tileIndex )
+	{
+		final int position = Arrays.binarySearch( tileIndexes, tileIndex );
+		if ( position < 0 )
+			throw new IllegalArgumentException( "Tile " + tileIndex + " is not in the search radius table" );
+		return position;
+	}
+}
@@ -0,0 +1,108 @@
+package org.janelia.stitching;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import net.imglib2.FinalRealInterval;
+import net.imglib2.KDTree;
+import net.imglib2.RealInterval;
+import net.imglib2.RealLocalizable;
+import net.imglib2.RealPoint;
+import net.imglib2.neighborsearch.IntervalNeighborSearchOnKDTree;
+
+/**
+ * Spatial index for finding tiles that overlap with a given interval without scanning the whole collection.
+ *
+ * Tile min corners are stored in a {@link KDTree}. A tile can only overlap with the query interval if its min corner
+ * lies within the query interval expanded towards the min side by the largest tile size, so this region is searched first,
+ * and then the exact overlap test is applied to the found candidates.
+ *
+ * The results are always returned in the order of the input array, so they are identical to the results of the exhaustive search.
+ *
+ * @author Igor Pisarev
+ */
+public class TilesSpatialIndex
+{
+	private final TileInfo[] tiles;
+	private final IntervalNeighborSearchOnKDTree< Integer > intervalSearch;
+	private final double[] maxTileSize;
+
+	public TilesSpatialIndex( final TileInfo[] tiles )
+	{
+		this.tiles = tiles;
+
+		if ( tiles.length == 0 )
+		{
+			intervalSearch = null;
+			maxTileSize = null;
+			return;
+		}
+
+		final int dim = tiles[ 0 ].numDimensions();
+		maxTileSize = new double[ dim ];
+		final List< Integer > tileArrayIndexes = new ArrayList<>( tiles.length );
+		final List< RealLocalizable > tilePositions = new ArrayList<>( tiles.length );
+		for ( int i = 0; i < tiles.length; ++i )
+		{
+			for ( int d = 0; d < dim; ++d )
+				maxTileSize[ d ] = Math.max( tiles[ i ].getSize( d ), maxTileSize[ d ] );
+			tileArrayIndexes.add( i );
+			tilePositions.add( new RealPoint( tiles[ i ].getPosition() ) );
+		}
+		intervalSearch = new IntervalNeighborSearchOnKDTree<>( new KDTree<>( tileArrayIndexes, tilePositions ) );
+	}
+
+	/**
+	 * @return positions of the tiles in the input array that overlap with the given interval, in ascending order
+	 */
+	public List< Integer > findOverlappingTileArrayIndexes( final RealInterval interval )
+	{
+		if ( intervalSearch == null )
+			return new ArrayList<>();
+
+		final double[] searchMin = new double[ interval.numDimensions() ], searchMax = new double[ interval.numDimensions() ];
+		for ( int d = 0; d < interval.numDimensions(); ++d )
+		{
+			// the candidates are filtered afterwards, so the search region can be conservative
+			searchMin[ d ] = interval.realMin( d ) - maxTileSize[ d ];
+			searchMax[ d ] = interval.realMax( d );
+		}
+
+		final List< Integer > found = new ArrayList<>();
+		for ( final Integer i : intervalSearch.search( new FinalRealInterval( searchMin, searchMax ) ) )
+			if ( TileOperations.overlap( tiles[ i ], interval ) )
+				found.add( i );
+		Collections.sort( found );
+		return found;
+	}
+
+	/**
+	 * @return a list of tiles lying within specified subregion (overlapping with it)
+	 */
+	public ArrayList< TileInfo > findTilesWithinSubregion( final RealInterval subregion )
+	{
+		final ArrayList< TileInfo > tilesWithinSubregion = new ArrayList<>();
+		for ( final Integer i : findOverlappingTileArrayIndexes( subregion ) )
+			tilesWithinSubregion.add( tiles[ i ] );
+		return tilesWithinSubregion;
+	}
+
+	/**
+	 * @return a list of overlapping pairs, in the same order as the exhaustive search would produce
+	 */
+	public ArrayList< TilePair > findOverlappingTiles()
+	{
+		final ArrayList< TilePair > overlappingTiles = new ArrayList<>();
+		for ( int i = 0; i < tiles.length; ++i )
+			for ( final Integer j : findOverlappingTileArrayIndexes( tiles[ i ] ) )
+				if ( j > i )
+					overlappingTiles.add( new TilePair( tiles[ i ], tiles[ j ] ) );
+		return overlappingTiles;
+	}
+
+	public TileInfo[] getTiles()
+	{
+		return tiles;
+	}
+}
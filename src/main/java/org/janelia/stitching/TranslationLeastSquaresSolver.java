@@ -0,0 +1,286 @@
+package org.janelia.stitching;
+
+import java.util.Arrays;
+
+/**
+ * Direct weighted least-squares solver for the translation-only global optimization.
+ *
+ * For translation models the optimal tile positions minimize sum( w * | x_b - x_a - s |^2 ) over all pairwise edges,
+ * which is a sparse linear system with the weighted Laplacian of the tile graph (one for each dimension).
+ * The system is solved with the Jacobi-preconditioned conjugate gradient method, where the matrix is never assembled
+ * explicitly and is applied directly from the edge list.
+ *
+ * Edges can be removed after solving, and the next solve is warm-started from the previous solution,
+ * so rejecting a few bad pairs does not require solving the whole system from scratch.
+ *
+ * @author Igor Pisarev
+ */
+public class TranslationLeastSquaresSolver
+{
+	private static final double DEFAULT_TOLERANCE = 1e-6;
+	private static final double MIN_DIAGONAL = 1e-12;
+
+	private final int numTiles;
+	private final int numDimensions;
+
+	private int numEdges;
+	private int[] edgeTileA, edgeTileB;
+	private double[][] edgeShift;
+	private double[] edgeWeight;
+
+	private final boolean[] fixed;
+	private final double[] diagonal;
+
+	private double[][] positions;
+	private double tolerance = DEFAULT_TOLERANCE;
+	private int lastIterations;
+
+	public TranslationLeastSquaresSolver( final int numTiles, final int numDimensions )
+	{
+		this.numTiles = numTiles;
+		this.numDimensions = numDimensions;
+
+		final int initialCapacity = Math.max( numTiles * numDimensions, 16 );
+		edgeTileA = new int[ initialCapacity ];
+		edgeTileB = new int[ initialCapacity ];
+		edgeShift = new double[ initialCapacity ][];
+		edgeWeight = new double[ initialCapacity ];
+
+		fixed = new boolean[ numTiles ];
+		diagonal = new double[ numTiles ];
+	}
+
+	/**
+	 * Adds a pairwise constraint x_b - x_a = shift.
+	 *
+	 * @return index of the edge that can be used to remove it later
+	 */
+	public int addEdge( final int tileA, final int tileB, final double[] shift, final double weight )
+	{
+		if ( shift.length != numDimensions )
+			throw new IllegalArgumentException( "Expected " + numDimensions + "D shift, got " + shift.length + "D" );
+		if ( weight < 0 )
+			throw new IllegalArgumentException( "Weight cannot be negative: " + weight );
+
+		if ( numEdges == edgeWeight.length )
+		{
+			final int capacity = numEdges * 2;
+			edgeTileA = Arrays.copyOf( edgeTileA, capacity );
+			edgeTileB = Arrays.copyOf( edgeTileB, capacity );
+			edgeShift = Arrays.copyOf( edgeShift, capacity );
+			edgeWeight = Arrays.copyOf( edgeWeight, capacity );
+		}
+
+		edgeTileA[ numEdges ] = tileA;
+		edgeTileB[ numEdges ] = tileB;
+		edgeShift[ numEdges ] = shift.clone();
+		edgeWeight[ numEdges ] = weight;
+		diagonal[ tileA ] += weight;
+		diagonal[ tileB ] += weight;
+		return numEdges++;
+	}
+
+	/**
+	 * Removes the edge from the system. The next {@link #solve()} call is warm-started from the current solution.
+	 */
+	public void removeEdge( final int edge )
+	{
+		final double weight = edgeWeight[ edge ];
+		for ( final int tile : new int[] { edgeTileA[ edge ], edgeTileB[ edge ] } )
+		{
+			diagonal[ tile ] -= weight;
+			if ( diagonal[ tile ] < MIN_DIAGONAL )
+				diagonal[ tile ] = 0; // accumulated rounding errors if all edges of the tile have been removed
+		}
+		edgeWeight[ edge ] = 0;
+	}
+
+	/**
+	 * Keeps the tile at its initial position.
+	 */
+	public void fixTile( final int tile )
+	{
+		fixed[ tile ] = true;
+	}
+
+	/**
+	 * @param tolerance
+	 * 			max allowed norm of the residual (the norm of the gradient of the objective function) for each dimension
+	 */
+	public void setTolerance( final double tolerance )
+	{
+		this.tolerance = tolerance;
+	}
+
+	public int numEdges()
+	{
+		return numEdges;
+	}
+
+	/**
+	 * @return number of the conjugate gradient iterations (summed over the dimensions) made by the last solve
+	 */
+	public int getLastIterations()
+	{
+		return lastIterations;
+	}
+
+	/**
+	 * Solves the system starting from the given positions. The fixed tiles keep their initial positions.
+	 *
+	 * @param initialPositions
+	 * 			initial position for every tile as [tile][dimension]
+	 * @return optimal tile positions as [tile][dimension]
+	 */
+	public double[][] solve( final double[][] initialPositions )
+	{
+		positions = new double[ numDimensions ][ numTiles ];
+		for ( int i = 0; i < numTiles; ++i )
+			for ( int d = 0; d < numDimensions; ++d )
+				positions[ d ][ i ] = initialPositions[ i ][ d ];
+		return solve();
+	}
+
+	/**
+	 * Solves the system starting from the previous solution.
+	 *
+	 * @return optimal tile positions as [tile][dimension]
+	 */
+	public double[][] solve()
+	{
+		if ( positions == null )
+			throw new IllegalStateException( "Initial positions have not been provided" );
+
+		lastIterations = 0;
+		for ( int d = 0; d < numDimensions; ++d )
+			lastIterations += solveDimension( d );
+
+		final double[][] solution = new double[ numTiles ][ numDimensions ];
+		for ( int i = 0; i < numTiles; ++i )
+			for ( int d = 0; d < numDimensions; ++d )
+				solution[ i ][ d ] = positions[ d ][ i ];
+		return solution;
+	}
+
+	/**
+	 * @return distance between the positions of the tiles connected by the edge and its shift
+	 */
+	public double getResidual( final int edge, final double[][] solution )
+	{
+		double distanceSquared = 0;
+		for ( int d = 0; d < numDimensions; ++d )
+		{
+			final double diff = solution[ edgeTileB[ edge ] ][ d ] - solution[ edgeTileA[ edge ] ][ d ] - edgeShift[ edge ][ d ];
+			distanceSquared += diff * diff;
+		}
+		return Math.sqrt( distanceSquared );
+	}
+
+	private int solveDimension( final int d )
+	{
+		final double[] x = positions[ d ];
+
+		// residual r = b - Lx, it is kept at zero for the fixed tiles and the tiles without any edges
+		final double[] r = new double[ numTiles ];
+		for ( int e = 0; e < numEdges; ++e )
+		{
+			final double weight = edgeWeight[ e ];
+			if ( weight == 0 )
+				continue;
+			final int a = edgeTileA[ e ], b = edgeTileB[ e ];
+			final double residual = weight * ( edgeShift[ e ][ d ] - ( x[ b ] - x[ a ] ) );
+			r[ b ] += residual;
+			r[ a ] -= residual;
+		}
+		for ( int i = 0; i < numTiles; ++i )
+			if ( !isFree( i ) )
+				r[ i ] = 0;
+
+		final double[] z = new double[ numTiles ];
+		final double[] p = new double[ numTiles ];
+		final double[] q = new double[ numTiles ];
+
+		double rz = precondition( r, z );
+		System.arraycopy( z, 0, p, 0, numTiles );
+
+		final int maxIterations = Math.max( 10 * numTiles, 100 );
+		int iteration = 0;
+		while ( norm( r ) > tolerance && iteration < maxIterations )
+		{
+			multiply( p, q );
+			final double pq = dot( p, q );
+			if ( pq <= 0 )
+				break;
+
+			final double alpha = rz / pq;
+			for ( int i = 0; i < numTiles; ++i )
+			{
+				x[ i ] += alpha * p[ i ];
+				r[ i ] -= alpha * q[ i ];
+			}
+
+			final double rzNext = precondition( r, z );
+			final double beta = rzNext / rz;
+			for ( int i = 0; i < numTiles; ++i )
+				p[ i ] = z[ i ] + beta * p[ i ];
+			rz = rzNext;
+			++iteration;
+		}
+		return iteration;
+	}
+
+	private boolean isFree( final int tile )
+	{
+		return !fixed[ tile ] && diagonal[ tile ] > 0;
+	}
+
+	/**
+	 * Applies the Laplacian to the vector that is zero for all fixed tiles, and discards the rows of the fixed tiles.
+	 */
+	private void multiply( final double[] v, final double[] result )
+	{
+		Arrays.fill( result, 0 );
+		for ( int e = 0; e < numEdges; ++e )
+		{
+			final double weight = edgeWeight[ e ];
+			if ( weight == 0 )
+				continue;
+			final int a = edgeTileA[ e ], b = edgeTileB[ e ];
+			final double diff = weight * ( v[ b ] - v[ a ] );
+			result[ b ] += diff;
+			result[ a ] -= diff;
+		}
+		for ( int i = 0; i < numTiles; ++i )
+			if ( !isFree( i ) )
+				result[ i ] = 0;
+	}
+
+	/**
+	 * Jacobi preconditioner: z = D^-1 * r
+	 *
+	 * @return dot product of r and z
+	 */
+	private double precondition( final double[] r, final double[] z )
+	{
+		double rz = 0;
+		for ( int i = 0; i < numTiles; ++i )
+		{
+			z[ i ] = isFree( i ) ? r[ i ] / diagonal[ i ] : 0;
+			rz += r[ i ] * z[ i ];
+		}
+		return rz;
+	}
+
+	private static double dot( final double[] a, final double[] b )
+	{
+		double sum = 0;
+		for ( int i = 0; i < a.length; ++i )
+			sum += a[ i ] * b[ i ];
+		return sum;
+	}
+
+	private static double norm( final double[] v )
+	{
+		return Math.sqrt( dot( v, v ) );
+	}
+}
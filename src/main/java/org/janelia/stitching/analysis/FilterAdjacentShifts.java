@@ -13,6 +13,7 @@ import org.janelia.dataaccess.DataProvider;
 import org.janelia.dataaccess.DataProviderFactory;
 import org.janelia.stitching.Boundaries;
 import org.janelia.stitching.SerializablePairWiseStitchingResult;
+import org.janelia.stitching.TileInfo;
 import org.janelia.stitching.TileInfoJSONProvider;
 import org.janelia.stitching.TileOperations;
 import org.janelia.stitching.TilePair;
@@ -184,6 +185,14 @@ public class FilterAdjacentShifts
 		return filterAdjacentPairs( overlappingPairs, null );
 	}
 
+	/**
+	 * Finds overlapping pairs of tiles using the spatial index and filters adjacent pairs among them.
+	 */
+	public static List< TilePair > filterAdjacentPairs( final TileInfo[] tiles )
+	{
+		return filterAdjacentPairs( TileOperations.findOverlappingTiles( tiles ) );
+	}
+
 	/**
 	 * Filters adjacent pairs of tiles, possibly in particular dimension if specified.
 	 * A pair of tiles is considered adjacent in the grid if the overlap is larger than half of the tile size in at least two dimensions.
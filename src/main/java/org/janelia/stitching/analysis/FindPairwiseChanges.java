@@ -26,7 +26,7 @@ public class FindPairwiseChanges
 		final TileInfo[] stageTiles = TileInfoJSONProvider.loadTilesConfiguration( dataProvider.getJsonReader( args[ 0 ] ) );
 		final TileInfo[] stitchedTiles = TileInfoJSONProvider.loadTilesConfiguration( dataProvider.getJsonReader( args[ 1 ] ) );
 
-		final List< TilePair > adjacentPairs = FilterAdjacentShifts.filterAdjacentPairs( TileOperations.findOverlappingTiles( stageTiles ) );
+		final List< TilePair > adjacentPairs = FilterAdjacentShifts.filterAdjacentPairs( stageTiles );
 		final List< TilePair > newAdjacentPairs = getPairsWithPrediction( stageTiles, stitchedTiles, 5, true );
 
 		// find adjacent pairs that are formed between a tile from the stitched set and a tile from the missing set
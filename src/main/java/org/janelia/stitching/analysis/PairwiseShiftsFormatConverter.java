@@ -0,0 +1,33 @@
+package org.janelia.stitching.analysis;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.janelia.dataaccess.DataProvider;
+import org.janelia.dataaccess.DataProviderFactory;
+import org.janelia.stitching.PairwiseShiftsBinaryFormat;
+import org.janelia.stitching.SerializablePairWiseStitchingResult;
+import org.janelia.stitching.TileInfoJSONProvider;
+
+/**
+ * Converts pairwise shifts between the JSON and the binary formats.
+ * The input format is detected automatically, and the output format is determined by the extension of the output file
+ * ({@link PairwiseShiftsBinaryFormat#FILE_EXTENSION} for binary, JSON otherwise).
+ *
+ * @author Igor Pisarev
+ */
+public class PairwiseShiftsFormatConverter
+{
+	public static void main( final String[] args ) throws IOException
+	{
+		final String inputPath = args[ 0 ], outputPath = args[ 1 ];
+
+		final DataProvider inputDataProvider = DataProviderFactory.create( DataProviderFactory.detectType( inputPath ) );
+		final DataProvider outputDataProvider = DataProviderFactory.create( DataProviderFactory.detectType( outputPath ) );
+
+		final List< SerializablePairWiseStitchingResult[] > shiftsMulti = TileInfoJSONProvider.loadPairwiseShiftsMulti( inputDataProvider, inputPath );
+		TileInfoJSONProvider.savePairwiseShiftsMulti( shiftsMulti, outputDataProvider, outputPath );
+
+		System.out.println( "Converted " + shiftsMulti.size() + " pairs to " + ( TileInfoJSONProvider.isPairwiseBinaryLink( outputPath ) ? "binary" : "JSON" ) + " format" );
+	}
+}
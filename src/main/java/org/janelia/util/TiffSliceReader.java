@@ -149,6 +149,108 @@ public class TiffSliceReader
 	}
 
 
+	/**
+	 * Reads the metadata of all slices of a .tif image.
+	 * @param inSupplier
+	 * 			an input stream supplier for the desired tiff file
+	 * @return
+	 * 			metadata of the image slices that can be passed to {@link #readSliceRows(TiffInputStreamSupplier, FileInfo[], int, int, int)}
+	 * @throws IOException
+	 */
+	public static FileInfo[] readFileInfos( final TiffInputStreamSupplier inSupplier ) throws IOException
+	{
+		try ( final InputStream in = inSupplier.get() )
+		{
+			final FileInfo[] fileInfos = new TiffDecoder( in, "" ).getTiffInfo();
+			if ( in instanceof S3ObjectInputStream )
+				( ( S3ObjectInputStream ) in ).abort();
+			return fileInfos;
+		}
+	}
+
+	/**
+	 * Reads a range of rows of the requested slice of a .tif image.
+	 * For uncompressed images only the requested rows are read from the file using the offset of the image data,
+	 * otherwise the entire slice has to be decoded and the requested rows are copied from it.
+	 * @param inSupplier
+	 * 			an input stream supplier for the desired tiff file
+	 * @param fileInfos
+	 * 			metadata of the image slices obtained by {@link #readFileInfos(TiffInputStreamSupplier)}
+	 * @param slice
+	 * 			an index of the desired slice in IJ's notation (1-indexed)
+	 * @param minRow
+	 * 			an index of the first row to read (0-indexed)
+	 * @param numRows
+	 * 			number of rows to read
+	 * @return
+	 * 			a pixel array (byte[], short[], or float[]) containing the requested rows, or null if it cannot be read
+	 * @throws IOException
+	 */
+	public static Object readSliceRows( final TiffInputStreamSupplier inSupplier, final FileInfo[] fileInfos, final int slice, final int minRow, final int numRows ) throws IOException
+	{
+		final FileInfo fileInfo = getSliceFileInfo( fileInfos, slice );
+		if ( minRow < 0 || numRows <= 0 || minRow + numRows > fileInfo.height )
+			throw new IllegalArgumentException( "Requested rows [" + minRow + "," + ( minRow + numRows - 1 ) + "] are out of bounds of the image with height=" + fileInfo.height );
+
+		final Integer bytesPerPixel = bytesPerPixel( fileInfo );
+		if ( fileInfo.compression == FileInfo.COMPRESSION_NONE && bytesPerPixel != null )
+		{
+			final FileInfo rowsFileInfo = ( FileInfo ) fileInfo.clone();
+			rowsFileInfo.longOffset = fileInfo.getOffset() + ( long ) minRow * fileInfo.width * bytesPerPixel;
+			rowsFileInfo.height = numRows;
+			rowsFileInfo.nImages = 1;
+
+			try ( final InputStream in = inSupplier.get() )
+			{
+				final Object pixels = new ImageReader( rowsFileInfo ).readPixels( in, rowsFileInfo.getOffset() );
+				if ( in instanceof S3ObjectInputStream )
+					( ( S3ObjectInputStream ) in ).abort();
+				return pixels;
+			}
+		}
+
+		final Object slicePixels;
+		try ( final InputStream in = inSupplier.get() )
+		{
+			slicePixels = new ImageReader( fileInfo ).readPixels( in, fileInfo.getOffset() );
+			if ( in instanceof S3ObjectInputStream )
+				( ( S3ObjectInputStream ) in ).abort();
+		}
+		if ( slicePixels == null || ( minRow == 0 && numRows == fileInfo.height ) )
+			return slicePixels;
+
+		final int rowsLength = numRows * fileInfo.width;
+		final Object rowsPixels;
+		if ( slicePixels instanceof byte[] )
+			rowsPixels = new byte[ rowsLength ];
+		else if ( slicePixels instanceof short[] )
+			rowsPixels = new short[ rowsLength ];
+		else if ( slicePixels instanceof float[] )
+			rowsPixels = new float[ rowsLength ];
+		else if ( slicePixels instanceof int[] )
+			rowsPixels = new int[ rowsLength ];
+		else
+			return null;
+
+		System.arraycopy( slicePixels, minRow * fileInfo.width, rowsPixels, 0, rowsLength );
+		return rowsPixels;
+	}
+
+	private static FileInfo getSliceFileInfo( final FileInfo[] fileInfos, final int slice )
+	{
+		// Same hack as in readSlice() for uncompressed images that are detected as a single slice with nImages>1
+		if ( fileInfos.length == 1 && fileInfos[ 0 ].nImages > 1 && fileInfos[ 0 ].compression == FileInfo.COMPRESSION_NONE )
+		{
+			final FileInfo fileInfo = ( FileInfo ) fileInfos[ 0 ].clone();
+			final long numPixels = ( long ) fileInfo.width * fileInfo.height;
+			fileInfo.longOffset = fileInfo.getOffset() + ( numPixels * bytesPerPixel( fileInfo ) + fileInfo.gapBetweenImages ) * ( slice - 1 );
+			fileInfo.nImages = 1;
+			return fileInfo;
+		}
+		return fileInfos[ slice - 1 ];
+	}
+
+
 	/**
 	 * Opens the requested slice of a .tif image.
 	 * @param path
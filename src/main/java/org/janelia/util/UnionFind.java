@@ -0,0 +1,86 @@
+package org.janelia.util;
+
+import java.util.Arrays;
+
+/**
+ * Disjoint set forest over the elements 0..n-1 with path compression and union by size.
+ * Used for finding connected components of the tile graph without building the graph explicitly.
+ *
+ * @author Igor Pisarev
+ */
+public class UnionFind
+{
+	private final int[] parent;
+	private final int[] size;
+	private int numSets;
+
+	public UnionFind( final int n )
+	{
+		parent = new int[ n ];
+		size = new int[ n ];
+		for ( int i = 0; i < n; ++i )
+			parent[ i ] = i;
+		Arrays.fill( size, 1 );
+		numSets = n;
+	}
+
+	/**
+	 * @return representative element of the set that contains the given element
+	 */
+	public int find( final int element )
+	{
+		int root = element;
+		while ( parent[ root ] != root )
+			root = parent[ root ];
+
+		// path compression
+		for ( int i = element; parent[ i ] != root; )
+		{
+			final int next = parent[ i ];
+			parent[ i ] = root;
+			i = next;
+		}
+		return root;
+	}
+
+	/**
+	 * Merges the sets that contain the given elements.
+	 *
+	 * @return representative element of the merged set
+	 */
+	public int union( final int a, final int b )
+	{
+		int rootA = find( a ), rootB = find( b );
+		if ( rootA == rootB )
+			return rootA;
+
+		if ( size[ rootA ] < size[ rootB ] )
+		{
+			final int tmp = rootA;
+			rootA = rootB;
+			rootB = tmp;
+		}
+		parent[ rootB ] = rootA;
+		size[ rootA ] += size[ rootB ];
+		--numSets;
+		return rootA;
+	}
+
+	/**
+	 * @return size of the set that contains the given element
+	 */
+	public int size( final int element )
+	{
+		return size[ find( element ) ];
+	}
+
+	public int numSets()
+	{
+		return numSets;
+	}
+
+	public int numElements()
+	{
+		return parent.length;
+	}
+}
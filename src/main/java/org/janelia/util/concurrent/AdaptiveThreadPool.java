@@ -0,0 +1,183 @@
+package org.janelia.util.concurrent;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shared per-JVM thread pool for intra-task parallelism.
+ *
+ * Every task that wants to use it registers itself via {@link #startTask(int)}, and gets a share of the available cores
+ * that depends on how many tasks are currently running within the same JVM. When many tasks run concurrently,
+ * each of them is single-threaded. When only a few tasks remain (e.g. at the end of a stage), they are given more threads.
+ * The number of threads is re-evaluated every time {@link TaskThreads#getNumThreads()} is called,
+ * so long-running tasks can pick up the cores freed by the tasks that have finished.
+ *
+ * All the work is submitted to a single pool of daemon threads, so the total number of threads stays bounded
+ * regardless of how the cores are shared between the tasks.
+ *
+ * @author Igor Pisarev
+ */
+public class AdaptiveThreadPool
+{
+	private static final AdaptiveThreadPool sharedInstance = new AdaptiveThreadPool();
+
+	private final AtomicInteger activeTasks = new AtomicInteger();
+	private ExecutorService threadPool;
+
+	/**
+	 * Handle of a running task. Should be closed when the task is finished.
+	 */
+	public static class TaskThreads implements AutoCloseable
+	{
+		private final AdaptiveThreadPool pool;
+		private final int numCores;
+		private boolean closed;
+
+		private TaskThreads( final AdaptiveThreadPool pool, final int numCores )
+		{
+			this.pool = pool;
+			this.numCores = numCores;
+		}
+
+		/**
+		 * @return number of threads that the task should use at this point
+		 */
+		public int getNumThreads()
+		{
+			return Math.max( Math.min( numCores / Math.max( pool.activeTasks.get(), 1 ), numCores ), 1 );
+		}
+
+		/**
+		 * @return executor for the current share of the task (see {@link #getExecutorService(int)})
+		 */
+		public ExecutorService getExecutorService()
+		{
+			return getExecutorService( getNumThreads() );
+		}
+
+		/**
+		 * @return executor that runs at most {@code numThreads} jobs at the same time on the shared thread pool,
+		 * or a same-thread executor if {@code numThreads} is 1
+		 */
+		public ExecutorService getExecutorService( final int numThreads )
+		{
+			return numThreads > 1 ? new BoundedExecutorService( pool.getThreadPool(), numThreads ) : new SameThreadExecutorService();
+		}
+
+		@Override
+		public synchronized void close()
+		{
+			if ( !closed )
+			{
+				closed = true;
+				pool.activeTasks.decrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Runs the submitted jobs on the shared thread pool, but not more than the given number of them at the same time.
+	 *
+	 * It is exposed as a {@link ThreadPoolExecutor} with the maximum pool size equal to the number of threads,
+	 * because this is how the imglib2 algorithms (e.g. Gauss3) determine how many parts the work should be split into.
+	 * The executor does not start any threads on its own.
+	 */
+	static class BoundedExecutorService extends ThreadPoolExecutor
+	{
+		private final ExecutorService threadPool;
+		private final Queue< Runnable > pendingJobs = new ArrayDeque<>();
+		private int runningJobs;
+
+		BoundedExecutorService( final ExecutorService threadPool, final int numThreads )
+		{
+			super( numThreads, numThreads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>() );
+			this.threadPool = threadPool;
+		}
+
+		@Override
+		public void execute( final Runnable job )
+		{
+			synchronized ( this )
+			{
+				if ( runningJobs >= getMaximumPoolSize() )
+				{
+					pendingJobs.add( job );
+					return;
+				}
+				++runningJobs;
+			}
+			threadPool.execute( () -> run( job ) );
+		}
+
+		private void run( final Runnable job )
+		{
+			try
+			{
+				job.run();
+			}
+			finally
+			{
+				final Runnable nextJob;
+				synchronized ( this )
+				{
+					nextJob = pendingJobs.poll();
+					if ( nextJob == null )
+						--runningJobs;
+				}
+				if ( nextJob != null )
+					threadPool.execute( () -> run( nextJob ) );
+			}
+		}
+	}
+
+	/**
+	 * Registers a new running task in the shared per-JVM pool.
+	 *
+	 * @param numCores
+	 * 			number of cores available to the tasks within this JVM, or 0 to use all available processors
+	 * @return
+	 */
+	public static TaskThreads startTask( final int numCores )
+	{
+		return sharedInstance.start( numCores );
+	}
+
+	public static int getActiveTasks()
+	{
+		return sharedInstance.getActiveTasksCount();
+	}
+
+	/**
+	 * Registers a new running task in this pool.
+	 */
+	TaskThreads start( final int numCores )
+	{
+		activeTasks.incrementAndGet();
+		return new TaskThreads( this, numCores > 0 ? numCores : Runtime.getRuntime().availableProcessors() );
+	}
+
+	int getActiveTasksCount()
+	{
+		return activeTasks.get();
+	}
+
+	private synchronized ExecutorService getThreadPool()
+	{
+		if ( threadPool == null )
+		{
+			threadPool = Executors.newFixedThreadPool( Runtime.getRuntime().availableProcessors(), runnable ->
+				{
+					final Thread thread = new Thread( runnable, "adaptive-thread-pool" );
+					thread.setDaemon( true );
+					return thread;
+				} );
+		}
+		return threadPool;
+	}
+}
@@ -0,0 +1,164 @@
+package org.janelia.stitching;
+
+import java.util.Random;
+
+import org.janelia.util.Conversions;
+import org.junit.Assert;
+import org.junit.Test;
+
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.algorithm.gauss3.Gauss3;
+import net.imglib2.exception.IncompatibleTypeException;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+public class CoarseToFineRegistrationTest {
+
+	private static RandomAccessibleInterval< FloatType > createImage( final long... dimensions ) throws IncompatibleTypeException
+	{
+		final Random rnd = new Random( 42 );
+		final RandomAccessibleInterval< FloatType > noise = ArrayImgs.floats( dimensions );
+		final Cursor< FloatType > cursor = Views.iterable( noise ).cursor();
+		while ( cursor.hasNext() )
+			cursor.next().set( rnd.nextInt( 1 << 16 ) );
+
+		final RandomAccessibleInterval< FloatType > img = ArrayImgs.floats( dimensions );
+		Gauss3.gauss( new double[] { 3, 3, 1 }, Views.extendMirrorSingle( noise ), img );
+		return img;
+	}
+
+	private static RandomAccessibleInterval< FloatType > crop( final RandomAccessibleInterval< FloatType > img, final long[] min, final long[] size )
+	{
+		final long[] max = new long[ min.length ];
+		for ( int d = 0; d < min.length; ++d )
+			max[ d ] = min[ d ] + size[ d ] - 1;
+		return Views.zeroMin( Views.interval( img, new FinalInterval( min, max ) ) );
+	}
+
+	@Test
+	public void testDownsamplingFactors()
+	{
+		// z has 3x lower resolution, so it is downsampled less
+		Assert.assertArrayEquals( new int[] { 4, 4, 1 }, CoarseToFineRegistration.getDownsamplingFactors( 4, new double[] { 1, 1, 3 }, new long[] { 100, 100, 100 } ) );
+		Assert.assertArrayEquals( new int[] { 8, 8, 3 }, CoarseToFineRegistration.getDownsamplingFactors( 8, new double[] { 1, 1, 3 }, new long[] { 100, 100, 100 } ) );
+
+		// the image is too small to be downsampled by the requested factor
+		Assert.assertArrayEquals( new int[] { 2, 8, 1 }, CoarseToFineRegistration.getDownsamplingFactors( 8, new double[] { 1, 1, 1 }, new long[] { 20, 100, 5 } ) );
+
+		// no downsampling
+		Assert.assertArrayEquals( new int[] { 1, 1, 1 }, CoarseToFineRegistration.getDownsamplingFactors( 1, new double[] { 1, 1, 3 }, new long[] { 100, 100, 100 } ) );
+	}
+
+	@Test
+	public void testDownsample()
+	{
+		final RandomAccessibleInterval< FloatType > img = ArrayImgs.floats( new float[] {
+				1, 2, 3, 4, 5,
+				5, 6, 7, 8, 9,
+				0, 0, 0, 0, 0
+			}, 5, 3 );
+
+		final RandomAccessibleInterval< FloatType > downsampled = CoarseToFineRegistration.downsample( img, new int[] { 2, 2 } );
+		Assert.assertArrayEquals( new long[] { 2, 1 }, Intervals.dimensionsAsLongArray( downsampled ) );
+
+		final Cursor< FloatType > cursor = Views.flatIterable( downsampled ).cursor();
+		Assert.assertEquals( 3.5, cursor.next().get(), 1e-6 );
+		Assert.assertEquals( 5.5, cursor.next().get(), 1e-6 );
+	}
+
+	@Test
+	public void testKnownShift() throws IncompatibleTypeException
+	{
+		final RandomAccessibleInterval< FloatType > img = createImage( 160, 160, 32 );
+		final long[] size = new long[] { 96, 96, 16 };
+		final long[] min1 = new long[] { 30, 20, 6 };
+		final int[] expectedShift = new int[] { 13, -7, 3 };
+		final long[] min2 = new long[ min1.length ];
+		for ( int d = 0; d < min1.length; ++d )
+			min2[ d ] = min1[ d ] + expectedShift[ d ];
+
+		final RandomAccessibleInterval< FloatType > img1 = crop( img, min1, size );
+		final RandomAccessibleInterval< FloatType > img2 = crop( img, min2, size );
+
+		// global position is equal to the shift between the images
+		final double[] globalOffset = new double[ size.length ];
+		final CoarseToFineRegistration.Refinement refinement = CoarseToFineRegistration.estimateCoarseShift(
+				img1, img2,
+				CoarseToFineRegistration.getDownsamplingFactors( 4, new double[] { 1, 1, 1 }, size ),
+				5,
+				null,
+				new FinalOffsetConverter( new long[ 2 ][ size.length ], globalOffset ),
+				1, null
+			);
+		Assert.assertNotNull( refinement );
+		for ( int d = 0; d < expectedShift.length; ++d )
+			Assert.assertEquals( expectedShift[ d ], refinement.coarseShift[ d ], 8 );
+
+		// the refinement window excludes shifts that are far from the coarse estimate
+		Assert.assertTrue( refinement.pointValidator.testPoint( Conversions.toDoubleArray( expectedShift ) ) );
+		Assert.assertFalse( refinement.pointValidator.testPoint( new double[] { expectedShift[ 0 ] + 40, expectedShift[ 1 ], expectedShift[ 2 ] } ) );
+
+		final Interval[] crops = refinement.crops;
+		final long[][] roiToTileOffset = new long[ 2 ][];
+		for ( int i = 0; i < 2; ++i )
+		{
+			roiToTileOffset[ i ] = Intervals.minAsLongArray( crops[ i ] );
+			Assert.assertTrue( Intervals.numElements( crops[ i ] ) < Intervals.numElements( img1 ) );
+		}
+		final FinalOffsetConverter offsetConverter = new FinalOffsetConverter( roiToTileOffset, globalOffset );
+
+		final SerializablePairWiseStitchingResult[] results = PhaseCorrelationImgLib2.stitchPairwise(
+				Views.zeroMin( Views.interval( img1, crops[ 0 ] ) ),
+				Views.zeroMin( Views.interval( img2, crops[ 1 ] ) ),
+				5, false, 1,
+				refinement.pointValidator, offsetConverter, 1, null, refinement.imageExtension
+			);
+		Assert.assertNotNull( results[ 0 ] );
+
+		final double[] refinedShift = offsetConverter.roiOffsetToTileOffset( Conversions.toDoubleArray( results[ 0 ].getOffset() ) );
+		for ( int d = 0; d < expectedShift.length; ++d )
+			Assert.assertEquals( expectedShift[ d ], refinedShift[ d ], 0 );
+	}
+
+	@Test
+	public void testRefinementFFTSize()
+	{
+		// realistic overlap of two large tiles, and the coarse shift is a few pixels away from the stage position
+		final long[] overlapSize = new long[] { 100, 1024, 300 };
+		final float[] coarseShift = new float[] { 3, -5, 2 };
+		final int[] downsamplingFactors = CoarseToFineRegistration.getDownsamplingFactors( 4, new double[] { 1, 1, 1 }, overlapSize );
+		Assert.assertArrayEquals( new int[] { 4, 4, 4 }, downsamplingFactors );
+
+		final long[] refinementWindow = new long[ overlapSize.length ];
+		for ( int d = 0; d < refinementWindow.length; ++d )
+			refinementWindow[ d ] = 2 * downsamplingFactors[ d ];
+
+		final Interval[] crops = CoarseToFineRegistration.getRefinementCrops( overlapSize, overlapSize, coarseShift, refinementWindow );
+		Assert.assertNotNull( crops );
+
+		// the template is taken from the overlap, and the search region includes the template under every shift within the window
+		Assert.assertArrayEquals( new long[] { 64, 64, 64 }, Intervals.dimensionsAsLongArray( crops[ 1 ] ) );
+		Assert.assertArrayEquals( new long[] { 80, 80, 80 }, Intervals.dimensionsAsLongArray( crops[ 0 ] ) );
+		for ( int d = 0; d < overlapSize.length; ++d )
+		{
+			Assert.assertEquals( crops[ 1 ].min( d ) + ( long ) coarseShift[ d ] - refinementWindow[ d ], crops[ 0 ].min( d ) );
+			Assert.assertTrue( crops[ 1 ].min( d ) >= 0 && crops[ 1 ].max( d ) < overlapSize[ d ] );
+		}
+
+		// the fine-pass FFT is padded only by the window, so it is much smaller than the FFT of the full overlap
+		final long[] fullPaddedSize = PhaseCorrelationImgLib2.getPaddedDimensions( overlapSize, overlapSize, null );
+		final long[] finePaddedSize = PhaseCorrelationImgLib2.getPaddedDimensions(
+				Intervals.dimensionsAsLongArray( crops[ 0 ] ),
+				Intervals.dimensionsAsLongArray( crops[ 1 ] ),
+				new long[ overlapSize.length ]
+			);
+		for ( int d = 0; d < overlapSize.length; ++d )
+			Assert.assertTrue( finePaddedSize[ d ] < crops[ 0 ].dimension( d ) + 2 * refinementWindow[ d ] );
+		Assert.assertTrue( Intervals.numElements( finePaddedSize ) * 10 < Intervals.numElements( fullPaddedSize ) );
+	}
+}
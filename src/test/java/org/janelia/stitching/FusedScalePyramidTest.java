@@ -0,0 +1,150 @@
+package org.janelia.stitching;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.janelia.saalfeldlab.n5.GzipCompression;
+import org.janelia.saalfeldlab.n5.N5FSWriter;
+import org.janelia.saalfeldlab.n5.N5Writer;
+import org.janelia.saalfeldlab.n5.imglib2.N5Utils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import bdv.export.Downsample;
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.ShortArray;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.util.IntervalIndexer;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+public class FusedScalePyramidTest
+{
+	@Test
+	public void testDownsamplingFactors()
+	{
+		final int[] blockSize = new int[] { 64, 64, 64 };
+		final List< int[] > levelsFactors = FusedScalePyramid.getDownsamplingFactors( new long[] { 1000, 1000, 200 }, blockSize, new double[] { 1, 1, 4 } );
+		Assert.assertEquals( 4, levelsFactors.size() );
+		Assert.assertArrayEquals( new int[] { 2, 2, 1 }, levelsFactors.get( 0 ) );
+		Assert.assertArrayEquals( new int[] { 4, 4, 1 }, levelsFactors.get( 1 ) );
+		Assert.assertArrayEquals( new int[] { 8, 8, 2 }, levelsFactors.get( 2 ) );
+		Assert.assertArrayEquals( new int[] { 16, 16, 4 }, levelsFactors.get( 3 ) );
+
+		Assert.assertArrayEquals( new int[] { 2, 2, 1 }, FusedScalePyramid.getRelativeDownsamplingFactors( levelsFactors, 1 ) );
+		Assert.assertArrayEquals( new int[] { 2, 2, 1 }, FusedScalePyramid.getRelativeDownsamplingFactors( levelsFactors, 2 ) );
+		Assert.assertArrayEquals( new int[] { 2, 2, 2 }, FusedScalePyramid.getRelativeDownsamplingFactors( levelsFactors, 3 ) );
+	}
+
+	@Test
+	public void testThinDimension()
+	{
+		// the thin dimension should not be downsampled below a single pixel
+		final List< int[] > levelsFactors = FusedScalePyramid.getDownsamplingFactors( new long[] { 1000, 5 }, new int[] { 64, 64 }, new double[] { 1, 1 } );
+		Assert.assertEquals( 4, levelsFactors.size() );
+		Assert.assertArrayEquals( new int[] { 16, 4 }, levelsFactors.get( 3 ) );
+	}
+
+	@Test
+	public void testSmallImage()
+	{
+		Assert.assertTrue( FusedScalePyramid.getDownsamplingFactors( new long[] { 64, 50 }, new int[] { 64, 64 }, new double[] { 1, 1 } ).isEmpty() );
+	}
+
+	@Test
+	public void testProcessingCellAlignment()
+	{
+		final int[] blockSize = new int[] { 64, 64, 64 };
+		Assert.assertArrayEquals( new int[] { 256, 256, 128 }, FusedScalePyramid.alignProcessingCellSize( new int[] { 256, 256, 128 }, blockSize, new int[] { 4, 4, 1 } ) );
+		Assert.assertArrayEquals( new int[] { 512, 512, 128 }, FusedScalePyramid.alignProcessingCellSize( new int[] { 256, 256, 128 }, blockSize, new int[] { 8, 8, 2 } ) );
+	}
+
+	@Test
+	public void testSaveDownsampledCells() throws IOException
+	{
+		// the image size is not a multiple of the processing cell size and of the downsampling factors, so the edge cells are partial
+		final long[] dimensions = new long[] { 150, 101, 21 };
+		final int[] blockSize = new int[] { 16, 16, 8 };
+		final List< int[] > levelsFactors = Arrays.asList( new int[] { 2, 2, 1 }, new int[] { 4, 4, 2 } );
+		final int[] processingCellSize = FusedScalePyramid.alignProcessingCellSize( new int[] { 32, 32, 8 }, blockSize, levelsFactors.get( levelsFactors.size() - 1 ) );
+		Assert.assertArrayEquals( new int[] { 64, 64, 16 }, processingCellSize );
+
+		final Random rnd = new Random( 42 );
+		final ArrayImg< UnsignedShortType, ShortArray > fullScaleImg = ArrayImgs.unsignedShorts( dimensions );
+		for ( final UnsignedShortType val : fullScaleImg )
+			val.set( rnd.nextInt( 4096 ) );
+
+		final String n5Path = Files.createTempDirectory( "FusedScalePyramidTest-" ).toString();
+		final N5Writer n5 = new N5FSWriter( n5Path );
+		final List< String > levelsDatasetPaths = new ArrayList<>();
+		for ( int level = 1; level <= levelsFactors.size(); ++level )
+		{
+			final long[] levelDimensions = new long[ dimensions.length ];
+			for ( int d = 0; d < levelDimensions.length; ++d )
+				levelDimensions[ d ] = dimensions[ d ] / levelsFactors.get( level - 1 )[ d ];
+			final String levelDatasetPath = "s" + level;
+			n5.createDataset( levelDatasetPath, levelDimensions, blockSize, N5Utils.dataType( new UnsignedShortType() ), new GzipCompression() );
+			levelsDatasetPaths.add( levelDatasetPath );
+		}
+
+		// fuse every processing cell (here it is just a copy of the full-scale image) and write the downsampled levels as the fusion tasks do
+		final long[] cellGridDimensions = new long[ dimensions.length ];
+		for ( int d = 0; d < cellGridDimensions.length; ++d )
+			cellGridDimensions[ d ] = ( dimensions[ d ] + processingCellSize[ d ] - 1 ) / processingCellSize[ d ];
+		final long[] cellGridPosition = new long[ dimensions.length ], cellMin = new long[ dimensions.length ], cellMax = new long[ dimensions.length ];
+		for ( long i = 0; i < Intervals.numElements( cellGridDimensions ); ++i )
+		{
+			IntervalIndexer.indexToPosition( i, cellGridDimensions, cellGridPosition );
+			for ( int d = 0; d < dimensions.length; ++d )
+			{
+				cellMin[ d ] = cellGridPosition[ d ] * processingCellSize[ d ];
+				cellMax[ d ] = Math.min( cellMin[ d ] + processingCellSize[ d ], dimensions[ d ] ) - 1;
+			}
+			final RandomAccessibleInterval< UnsignedShortType > fusedCell = ArrayImgs.unsignedShorts( Intervals.dimensionsAsLongArray( new FinalInterval( cellMin, cellMax ) ) );
+			copy( Views.interval( fullScaleImg, new FinalInterval( cellMin, cellMax ) ), fusedCell );
+			FusedScalePyramid.saveDownsampledCell( fusedCell, cellMin, blockSize, levelsFactors, levelsDatasetPaths, n5 );
+		}
+
+		// every level should be the same as if it was downsampled from the entire full-scale image
+		for ( int level = 1; level <= levelsFactors.size(); ++level )
+		{
+			final RandomAccessibleInterval< UnsignedShortType > levelImg = N5Utils.open( n5, levelsDatasetPaths.get( level - 1 ) );
+			final long[] expectedDimensions = n5.getDatasetAttributes( levelsDatasetPaths.get( level - 1 ) ).getDimensions();
+			Assert.assertArrayEquals( expectedDimensions, Intervals.dimensionsAsLongArray( levelImg ) );
+
+			final ArrayImg< UnsignedShortType, ShortArray > expectedImg = ArrayImgs.unsignedShorts( expectedDimensions );
+			Downsample.downsample( fullScaleImg, expectedImg, levelsFactors.get( level - 1 ) );
+
+			final Cursor< UnsignedShortType > expectedCursor = Views.flatIterable( expectedImg ).cursor();
+			final Cursor< UnsignedShortType > actualCursor = Views.flatIterable( levelImg ).localizingCursor();
+			while ( expectedCursor.hasNext() || actualCursor.hasNext() )
+			{
+				final int expectedValue = expectedCursor.next().get(), actualValue = actualCursor.next().get();
+				if ( expectedValue != actualValue )
+				{
+					final long[] position = new long[ actualCursor.numDimensions() ];
+					actualCursor.localize( position );
+					Assert.fail( "level " + level + ": pixel value differs at " + Arrays.toString( position ) );
+				}
+			}
+		}
+
+		Assert.assertTrue( n5.remove() );
+	}
+
+	private static void copy( final RandomAccessibleInterval< UnsignedShortType > src, final RandomAccessibleInterval< UnsignedShortType > dst )
+	{
+		final Cursor< UnsignedShortType > srcCursor = Views.flatIterable( src ).cursor();
+		final Cursor< UnsignedShortType > dstCursor = Views.flatIterable( dst ).cursor();
+		while ( dstCursor.hasNext() )
+			dstCursor.next().set( srcCursor.next() );
+	}
+}
@@ -0,0 +1,57 @@
+package org.janelia.stitching;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import net.imglib2.FinalDimensions;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+
+public class FusionBlendingWeightTest
+{
+	private static final double FRACTION_BLENDED = 0.2;
+
+	@Test
+	public void testPrecomputedWeightsMatchReference()
+	{
+		final Random rnd = new Random( 42 );
+		final FinalDimensions tileDimensions = new FinalDimensions( 500, 400, 120 );
+		final Interval cell = new FinalInterval( new long[] { 0, 0, 0 }, new long[] { 63, 47, 31 } );
+
+		for ( int test = 0; test < 20; ++test )
+		{
+			// place the tile so that the cell is close to its borders and corners
+			final double[] offset = new double[ cell.numDimensions() ];
+			for ( int d = 0; d < offset.length; ++d )
+				offset[ d ] = rnd.nextBoolean() ? -rnd.nextInt( 80 ) - rnd.nextDouble() : cell.dimension( d ) - tileDimensions.dimension( d ) + rnd.nextInt( 80 ) + rnd.nextDouble();
+
+			final double[][] axisWeights = FusionPerformer.getBlendingAxisWeights( cell, offset, tileDimensions, FRACTION_BLENDED );
+			final double[] location = new double[ cell.numDimensions() ];
+			for ( int z = 0; z < cell.dimension( 2 ); ++z )
+			{
+				for ( int y = 0; y < cell.dimension( 1 ); ++y )
+				{
+					for ( int x = 0; x < cell.dimension( 0 ); ++x )
+					{
+						location[ 0 ] = x - offset[ 0 ];
+						location[ 1 ] = y - offset[ 1 ];
+						location[ 2 ] = z - offset[ 2 ];
+						final double expected = FusionPerformer.getBlendingWeight( location, tileDimensions, FRACTION_BLENDED );
+						final double actual = FusionPerformer.getBlendingWeight( axisWeights[ 0 ][ x ] * axisWeights[ 1 ][ y ] * axisWeights[ 2 ][ z ] );
+						Assert.assertEquals( expected, actual, 1e-7 );
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testRampEnds()
+	{
+		Assert.assertEquals( 1, FusionPerformer.getBlendingWeight( 1 ), 0 );
+		Assert.assertEquals( 0.5, FusionPerformer.getBlendingWeight( 0.5 ), 1e-7 );
+		Assert.assertEquals( 0, FusionPerformer.getBlendingWeight( 1e-9 ), 1e-7 );
+	}
+}
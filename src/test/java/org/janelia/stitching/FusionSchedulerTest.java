@@ -0,0 +1,74 @@
+package org.janelia.stitching;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import scala.Tuple2;
+
+public class FusionSchedulerTest
+{
+	@Test
+	public void testZOrder()
+	{
+		Assert.assertEquals( 0, FusionScheduler.getZOrderIndex( new long[] { 0, 0 } ) );
+		Assert.assertEquals( 1, FusionScheduler.getZOrderIndex( new long[] { 1, 0 } ) );
+		Assert.assertEquals( 2, FusionScheduler.getZOrderIndex( new long[] { 0, 1 } ) );
+		Assert.assertEquals( 3, FusionScheduler.getZOrderIndex( new long[] { 1, 1 } ) );
+		Assert.assertEquals( 4, FusionScheduler.getZOrderIndex( new long[] { 2, 0 } ) );
+		Assert.assertEquals( 7, FusionScheduler.getZOrderIndex( new long[] { 1, 1, 1 } ) );
+	}
+
+	@Test
+	public void testGrouping()
+	{
+		// 8x8 grid of 10x10 cells, each 40x40 tile covers a 4x4 block of cells (in row-major order the blocks are interleaved)
+		final int[] cellSize = new int[] { 10, 10 };
+		final List< Tuple2< TileInfo, int[] > > cellsWithTiles = new ArrayList<>();
+		for ( int y = 0; y < 8; ++y )
+		{
+			for ( int x = 0; x < 8; ++x )
+			{
+				final TileInfo cell = new TileInfo( 2 );
+				cell.setIndex( cellsWithTiles.size() );
+				cell.setPosition( new double[] { x * cellSize[ 0 ], y * cellSize[ 1 ] } );
+				cell.setSize( new long[] { cellSize[ 0 ], cellSize[ 1 ] } );
+				cellsWithTiles.add( new Tuple2<>( cell, new int[] { ( y / 4 ) * 2 + x / 4 } ) );
+			}
+		}
+
+		final List< List< Tuple2< TileInfo, int[] > > > groups = FusionScheduler.groupCells( cellsWithTiles, cellSize, 4 );
+		Assert.assertEquals( 4, groups.size() );
+
+		final Set< Integer > groupedCells = new HashSet<>();
+		for ( final List< Tuple2< TileInfo, int[] > > group : groups )
+		{
+			Assert.assertEquals( 16, group.size() );
+			final Set< Integer > groupTiles = new HashSet<>();
+			for ( final Tuple2< TileInfo, int[] > cellWithTiles : group )
+			{
+				groupedCells.add( cellWithTiles._1().getIndex() );
+				groupTiles.add( cellWithTiles._2()[ 0 ] );
+			}
+			Assert.assertEquals( 1, groupTiles.size() );
+		}
+		Assert.assertEquals( cellsWithTiles.size(), groupedCells.size() );
+		Assert.assertEquals( 4, FusionScheduler.getTileLoadsCount( groups ) );
+
+		// splitting the cells in the row-major order would load every tile by multiple tasks
+		final List< List< Tuple2< TileInfo, int[] > > > rowMajorGroups = new ArrayList<>();
+		for ( int i = 0; i < cellsWithTiles.size(); i += 16 )
+			rowMajorGroups.add( cellsWithTiles.subList( i, i + 16 ) );
+		Assert.assertEquals( 8, FusionScheduler.getTileLoadsCount( rowMajorGroups ) );
+	}
+
+	@Test
+	public void testEmpty()
+	{
+		Assert.assertTrue( FusionScheduler.groupCells( new ArrayList<>(), new int[] { 10, 10 }, 4 ).isEmpty() );
+	}
+}
@@ -0,0 +1,98 @@
+package org.janelia.stitching;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class GroupPairsBySpatialBlocksTest {
+
+	private static TileInfo[] createGrid( final int countX, final int countY, final long tileSize, final long overlap )
+	{
+		return createGrid( countX, countY, tileSize, overlap, 0 );
+	}
+
+	private static TileInfo[] createGrid( final int countX, final int countY, final long tileSize, final long overlap, final double jitter )
+	{
+		final Random rnd = new Random( 42 );
+		final TileInfo[] tiles = new TileInfo[ countX * countY ];
+		for ( int y = 0; y < countY; ++y )
+		{
+			for ( int x = 0; x < countX; ++x )
+			{
+				final TileInfo tile = new TileInfo( 2 );
+				tile.setIndex( y * countX + x );
+				tile.setPosition( new double[] {
+						x * ( tileSize - overlap ) + ( rnd.nextDouble() * 2 - 1 ) * jitter,
+						y * ( tileSize - overlap ) + ( rnd.nextDouble() * 2 - 1 ) * jitter } );
+				tile.setSize( new long[] { tileSize, tileSize } );
+				tiles[ tile.getIndex() ] = tile;
+			}
+		}
+		return tiles;
+	}
+
+	@Test
+	public void testAllPairsAreGrouped()
+	{
+		final List< TilePair > pairs = TileOperations.findOverlappingTiles( createGrid( 6, 4, 100, 10 ) );
+		final List< List< TilePair > > groups = TileOperations.groupPairsBySpatialBlocks( pairs, new int[] { 2, 2 } );
+
+		final List< TilePair > groupedPairs = new ArrayList<>();
+		for ( final List< TilePair > group : groups )
+			groupedPairs.addAll( group );
+
+		Assert.assertEquals( pairs.size(), groupedPairs.size() );
+		Assert.assertTrue( groupedPairs.containsAll( pairs ) );
+	}
+
+	@Test
+	public void testBlocks()
+	{
+		// 6x4 grid of overlapping tiles with 2x2 blocks yields 3x2 blocks of exactly 2x2 tiles each
+		final TileInfo[] tiles = createGrid( 6, 4, 100, 10 );
+		final List< TilePair > pairs = TileOperations.findOverlappingTiles( tiles );
+		Assert.assertArrayEquals( new double[] { 90, 90 }, TileOperations.getGridStride( pairs ), 1e-9 );
+
+		final List< List< TilePair > > groups = TileOperations.groupPairsBySpatialBlocks( pairs, new int[] { 2, 2 } );
+		Assert.assertEquals( 6, groups.size() );
+		assertBlocksOfTiles( groups, 6, 2, 2 );
+
+		// a block of the size of the entire grid yields a single group
+		Assert.assertEquals( 1, TileOperations.groupPairsBySpatialBlocks( pairs, new int[] { 6, 4 } ).size() );
+	}
+
+	@Test
+	public void testBlocksWithStageJitter()
+	{
+		final List< TilePair > pairs = TileOperations.findOverlappingTiles( createGrid( 6, 4, 100, 10, 5 ) );
+		final double[] stride = TileOperations.getGridStride( pairs );
+		for ( int d = 0; d < 2; ++d )
+			Assert.assertEquals( 90, stride[ d ], 10 );
+
+		final List< List< TilePair > > groups = TileOperations.groupPairsBySpatialBlocks( pairs, new int[] { 2, 2 } );
+		Assert.assertEquals( 6, groups.size() );
+		assertBlocksOfTiles( groups, 6, 2, 2 );
+	}
+
+	/**
+	 * Checks that the first tiles of the pairs within every group belong to the same block of the given size in the tile grid.
+	 */
+	private static void assertBlocksOfTiles( final List< List< TilePair > > groups, final int countX, final int blockX, final int blockY )
+	{
+		for ( final List< TilePair > group : groups )
+		{
+			final Set< Integer > blockIndexes = new HashSet<>();
+			for ( final TilePair pair : group )
+			{
+				final int x = pair.getA().getIndex() % countX, y = pair.getA().getIndex() / countX;
+				blockIndexes.add( ( y / blockY ) * countX + x / blockX );
+			}
+			Assert.assertEquals( 1, blockIndexes.size() );
+		}
+	}
+}
@@ -0,0 +1,92 @@
+package org.janelia.stitching;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class IncrementalRematchingTest
+{
+	private static SerializablePairWiseStitchingResult[] createResult( final TilePair pair, final double[] movingTilePosition )
+	{
+		final float[] offset = new float[ movingTilePosition.length ];
+		for ( int d = 0; d < offset.length; ++d )
+			offset[ d ] = ( float ) ( movingTilePosition[ d ] - pair.getA().getPosition( d ) );
+		return new SerializablePairWiseStitchingResult[] { new SerializablePairWiseStitchingResult( pair, offset, 0.9f ) };
+	}
+
+	@Test
+	public void testRevalidation() throws PipelineExecutionException
+	{
+		final Random rnd = new Random( 42 );
+		final int gridSize = 6;
+		final TileInfo[] stageTiles = new TileInfo[ gridSize * gridSize * gridSize ], stitchedTiles = new TileInfo[ stageTiles.length ];
+		for ( int i = 0; i < stageTiles.length; ++i )
+		{
+			final int[] gridPosition = new int[] { i % gridSize, ( i / gridSize ) % gridSize, i / ( gridSize * gridSize ) };
+			stageTiles[ i ] = new TileInfo( 3 );
+			stageTiles[ i ].setIndex( i );
+			stageTiles[ i ].setSize( new long[] { 100, 100, 50 } );
+			for ( int d = 0; d < 3; ++d )
+				stageTiles[ i ].setPosition( d, gridPosition[ d ] * stageTiles[ i ].getSize( d ) * 0.9 );
+
+			stitchedTiles[ i ] = stageTiles[ i ].clone();
+			for ( int d = 0; d < 3; ++d )
+				stitchedTiles[ i ].setPosition( d, stageTiles[ i ].getPosition( d ) + rnd.nextGaussian() * 5 + d );
+		}
+
+		final int minNumNeighbors = 5;
+		final TileSearchRadiusEstimator estimator = new TileSearchRadiusEstimator( stageTiles, stitchedTiles );
+		final TileSearchRadiusTable table = TileSearchRadiusTable.create( estimator, Arrays.asList( stageTiles ), minNumNeighbors, null );
+
+		final List< TilePair > pairs = TileOperations.findOverlappingTiles( stageTiles );
+		final TilePair keptPair = pairs.get( 0 ), outsidePair = pairs.get( 1 ), invalidPair = pairs.get( 2 ), newPair = pairs.get( 3 );
+
+		// the previous result of the first pair is at the center of the new search radius, and the second one is far outside of it
+		final Map< String, SerializablePairWiseStitchingResult[] > previousShiftsMulti = new HashMap<>();
+		final double[] keptPosition = table.getCombinedCovariancesSearchRadius( keptPair.getA().getIndex(), keptPair.getB().getIndex() ).getEllipseCenter();
+		previousShiftsMulti.put( PipelineStitchingStepExecutor.getPairKey( keptPair ), createResult( keptPair, keptPosition ) );
+
+		final double[] outsidePosition = table.getCombinedCovariancesSearchRadius( outsidePair.getA().getIndex(), outsidePair.getB().getIndex() ).getEllipseCenter().clone();
+		outsidePosition[ 0 ] += 1000;
+		previousShiftsMulti.put( PipelineStitchingStepExecutor.getPairKey( outsidePair ), createResult( outsidePair, outsidePosition ) );
+
+		// the previous result was within the search radius, but was marked as invalid
+		final SerializablePairWiseStitchingResult[] invalidResult = createResult( invalidPair,
+				table.getCombinedCovariancesSearchRadius( invalidPair.getA().getIndex(), invalidPair.getB().getIndex() ).getEllipseCenter() );
+		invalidResult[ 0 ].setIsValidOverlap( false );
+		previousShiftsMulti.put( PipelineStitchingStepExecutor.getPairKey( invalidPair ), invalidResult );
+
+		final List< SerializablePairWiseStitchingResult[] > revalidatedShiftsMulti = new ArrayList<>();
+		final List< TilePair > pendingPairs = PipelineStitchingStepExecutor.revalidatePreviousShifts(
+				Arrays.asList( keptPair, outsidePair, invalidPair, newPair ),
+				previousShiftsMulti,
+				table,
+				minNumNeighbors,
+				revalidatedShiftsMulti
+			);
+
+		// only the pair that is still within the new search radius is reused, and it refers to the current tiles
+		Assert.assertEquals( 1, revalidatedShiftsMulti.size() );
+		Assert.assertSame( previousShiftsMulti.get( PipelineStitchingStepExecutor.getPairKey( keptPair ) ), revalidatedShiftsMulti.get( 0 ) );
+		Assert.assertSame( keptPair, revalidatedShiftsMulti.get( 0 )[ 0 ].getTilePair() );
+		Assert.assertEquals( Arrays.asList( outsidePair, invalidPair, newPair ), pendingPairs );
+
+		// the previous results are not reused if the tiles do not have enough neighbors for estimating the new search radius
+		revalidatedShiftsMulti.clear();
+		final List< TilePair > pendingPairsWithoutStats = PipelineStitchingStepExecutor.revalidatePreviousShifts(
+				Arrays.asList( keptPair ),
+				previousShiftsMulti,
+				table,
+				Integer.MAX_VALUE,
+				revalidatedShiftsMulti
+			);
+		Assert.assertTrue( revalidatedShiftsMulti.isEmpty() );
+		Assert.assertEquals( Arrays.asList( keptPair ), pendingPairsWithoutStats );
+	}
+}
@@ -0,0 +1,41 @@
+package org.janelia.stitching;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+
+public class LoadedTileImagesTest {
+
+	@Test
+	public void testBudget()
+	{
+		// 2 bytes per pixel
+		final LoadedTileImages< UnsignedShortType > loadedTileImages = new LoadedTileImages<>( 500 );
+		final RandomAccessibleInterval< UnsignedShortType > a = ArrayImgs.unsignedShorts( 100 );
+		loadedTileImages.put( "a", a );
+		loadedTileImages.put( "b", ArrayImgs.unsignedShorts( 100 ) );
+		Assert.assertEquals( 400, loadedTileImages.getCurrentBytes() );
+
+		// 'a' becomes the most recently used image, so 'b' is released when the budget is exceeded
+		Assert.assertSame( a, loadedTileImages.get( "a" ) );
+		loadedTileImages.put( "c", ArrayImgs.unsignedShorts( 100 ) );
+		Assert.assertEquals( 400, loadedTileImages.getCurrentBytes() );
+		Assert.assertEquals( 1, loadedTileImages.getEvictions() );
+		Assert.assertTrue( loadedTileImages.containsKey( "a" ) );
+		Assert.assertFalse( loadedTileImages.containsKey( "b" ) );
+
+		// the image that exceeds the budget on its own is kept until it is released, but nothing else is kept along with it
+		loadedTileImages.put( "d", ArrayImgs.unsignedShorts( 300 ) );
+		Assert.assertEquals( 1, loadedTileImages.size() );
+		Assert.assertEquals( 600, loadedTileImages.getCurrentBytes() );
+		Assert.assertEquals( 3, loadedTileImages.getEvictions() );
+
+		// released images are not counted anymore
+		loadedTileImages.remove( "d" );
+		Assert.assertEquals( 0, loadedTileImages.getCurrentBytes() );
+		Assert.assertTrue( loadedTileImages.isEmpty() );
+	}
+}
@@ -0,0 +1,165 @@
+package org.janelia.stitching;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.janelia.stitching.FusionPerformer.FusionMode;
+import org.junit.Assert;
+import org.junit.Test;
+
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.img.basictypeaccess.array.ShortArray;
+import net.imglib2.img.imageplus.ImagePlusImg;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.RandomAccessiblePairNullable;
+import net.imglib2.view.Views;
+
+public class MultichannelFusionTest
+{
+	private static final long[] TILE_SIZE = new long[] { 40, 30, 6 };
+
+	// the tiles overlap with fractional offsets, and leave some parts of the cell empty
+	private static final double[][] TILE_POSITIONS = new double[][] {
+		{ 0, 0, 0 },
+		{ 32.5, 3.25, 0.5 },
+		{ 10, 24, -1.75 }
+	};
+
+	private static TileInfo[] createTiles( final int channel )
+	{
+		final TileInfo[] tiles = new TileInfo[ TILE_POSITIONS.length ];
+		for ( int i = 0; i < tiles.length; ++i )
+		{
+			tiles[ i ] = new TileInfo( TILE_SIZE.length );
+			tiles[ i ].setIndex( i );
+			tiles[ i ].setFilePath( "ch" + channel + "-tile" + i + ".tif" );
+			tiles[ i ].setPosition( TILE_POSITIONS[ i ].clone() );
+			tiles[ i ].setSize( TILE_SIZE.clone() );
+			tiles[ i ].setType( ImageType.GRAY16 );
+		}
+		return tiles;
+	}
+
+	private static RandomAccessiblePairNullable< FloatType, FloatType > createFlatfield( final Random rnd, final double scale, final double translation )
+	{
+		final ArrayImg< FloatType, FloatArray > scaling = ArrayImgs.floats( TILE_SIZE );
+		final ArrayImg< FloatType, FloatArray > offset = ArrayImgs.floats( TILE_SIZE );
+		for ( final FloatType val : scaling )
+			val.set( ( float ) ( scale + rnd.nextDouble() * 0.2 ) );
+		for ( final FloatType val : offset )
+			val.set( ( float ) ( translation + rnd.nextDouble() * 10 ) );
+		return new RandomAccessiblePairNullable<>( scaling, offset );
+	}
+
+	@Test
+	public void testSameAsSingleChannel() throws Exception
+	{
+		final Random rnd = new Random( 42 );
+		final int numChannels = 2;
+
+		// the tile images are provided as if they have already been loaded by the task, so no files are accessed
+		final Map< String, RandomAccessibleInterval< UnsignedShortType > > loadedTileImages = new HashMap<>();
+		final List< List< TileInfo > > channelsTiles = new ArrayList<>();
+		for ( int channel = 0; channel < numChannels; ++channel )
+		{
+			final TileInfo[] tiles = createTiles( channel );
+			for ( final TileInfo tile : tiles )
+			{
+				final ArrayImg< UnsignedShortType, ShortArray > img = ArrayImgs.unsignedShorts( TILE_SIZE );
+				for ( final UnsignedShortType val : img )
+					val.set( rnd.nextInt( 4096 ) * ( channel + 1 ) );
+				loadedTileImages.put( tile.getFilePath(), img );
+			}
+			channelsTiles.add( Arrays.asList( tiles ) );
+		}
+
+		final List< Number > backgroundValues = Arrays.asList( 100, 250 );
+		final List< RandomAccessiblePairNullable< FloatType, FloatType > > flatfields = Arrays.asList( createFlatfield( rnd, 0.9, 5 ), createFlatfield( rnd, 1.3, -20 ) );
+		final List< Map< Integer, Set< Integer > > > pairwiseConnectionsMaps = Arrays.asList( null, null );
+		final Interval cell = new FinalInterval( new long[] { -2, -1, -2 }, new long[] { 75, 56, 7 } );
+
+		for ( final FusionMode mode : FusionMode.values() )
+		{
+			final List< ImagePlusImg< UnsignedShortType, ? > > multichannelImgs = FusionPerformer.fuseTilesWithinCellMultichannel(
+					null,
+					mode,
+					channelsTiles,
+					cell,
+					new UnsignedShortType(),
+					backgroundValues,
+					flatfields,
+					pairwiseConnectionsMaps,
+					null,
+					new HashMap<>( loadedTileImages )
+				);
+			Assert.assertEquals( numChannels, multichannelImgs.size() );
+
+			for ( int channel = 0; channel < numChannels; ++channel )
+			{
+				final ImagePlusImg< UnsignedShortType, ? > singleChannelImg = FusionPerformer.fuseTilesWithinCell(
+						null,
+						mode,
+						channelsTiles.get( channel ),
+						cell,
+						new UnsignedShortType(),
+						backgroundValues.get( channel ),
+						flatfields.get( channel ),
+						null,
+						null,
+						new HashMap<>( loadedTileImages )
+					);
+
+				int backgroundPixels = 0;
+				final Cursor< UnsignedShortType > expectedCursor = Views.flatIterable( singleChannelImg ).localizingCursor();
+				final Cursor< UnsignedShortType > actualCursor = Views.flatIterable( multichannelImgs.get( channel ) ).cursor();
+				while ( expectedCursor.hasNext() || actualCursor.hasNext() )
+				{
+					final int expected = expectedCursor.next().get(), actual = actualCursor.next().get();
+					if ( expected != actual )
+					{
+						final long[] position = new long[ expectedCursor.numDimensions() ];
+						expectedCursor.localize( position );
+						Assert.fail( mode + ", channel " + channel + ": pixel value differs at " + Arrays.toString( position ) + ": expected " + expected + ", got " + actual );
+					}
+					if ( actual == backgroundValues.get( channel ).intValue() )
+						++backgroundPixels;
+				}
+
+				// the empty parts of the cell are filled with the background value of the channel
+				Assert.assertTrue( backgroundPixels > 0 );
+			}
+		}
+	}
+
+	@Test
+	public void testFallbackToSingleChannel()
+	{
+		Assert.assertTrue( PipelineFusionStepExecutor.haveSameTiles( new TileInfo[][] { createTiles( 0 ), createTiles( 1 ) } ) );
+
+		// the tiles have been stitched separately, so their positions differ between the channels
+		final TileInfo[] shiftedTiles = createTiles( 1 );
+		shiftedTiles[ 1 ].setPosition( 0, shiftedTiles[ 1 ].getPosition( 0 ) + 0.5 );
+		Assert.assertFalse( PipelineFusionStepExecutor.haveSameTiles( new TileInfo[][] { createTiles( 0 ), shiftedTiles } ) );
+
+		// some tiles are missing in one of the channels
+		Assert.assertFalse( PipelineFusionStepExecutor.haveSameTiles( new TileInfo[][] { createTiles( 0 ), Arrays.copyOf( createTiles( 1 ), 2 ) } ) );
+
+		// the data types differ
+		final TileInfo[] otherTypeTiles = createTiles( 1 );
+		for ( final TileInfo tile : otherTypeTiles )
+			tile.setType( ImageType.GRAY8 );
+		Assert.assertFalse( PipelineFusionStepExecutor.haveSameTiles( new TileInfo[][] { createTiles( 0 ), otherTypeTiles } ) );
+	}
+}
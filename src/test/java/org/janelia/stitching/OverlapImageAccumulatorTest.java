@@ -0,0 +1,77 @@
+package org.janelia.stitching;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import net.imglib2.FinalInterval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.RandomAccessiblePairNullable;
+import net.imglib2.view.Views;
+
+public class OverlapImageAccumulatorTest {
+
+	@Test
+	public void testAverageWithFlatfield()
+	{
+		// 4x2 tile, the overlap is the right half
+		final RandomAccessibleInterval< UnsignedShortType > channel1 = ArrayImgs.unsignedShorts( new short[] { 1, 2, 3, 4, 5, 6, 7, 8 }, 4, 2 );
+		final RandomAccessibleInterval< UnsignedShortType > channel2 = ArrayImgs.unsignedShorts( new short[] { 9, 9, 9, 9, 1, 1, 1, 1 }, 4, 2 );
+		final FinalInterval overlap = new FinalInterval( new long[] { 2, 0 }, new long[] { 3, 1 } );
+
+		final RandomAccessibleInterval< FloatType > scaling = ArrayImgs.floats( new float[] { 1, 1, 2, 2, 1, 1, 2, 2 }, 4, 2 );
+		final RandomAccessibleInterval< FloatType > translation = ArrayImgs.floats( new float[] { 0, 0, 1, 1, 0, 0, -1, -1 }, 4, 2 );
+		final RandomAccessiblePairNullable< FloatType, FloatType > flatfield = new RandomAccessiblePairNullable<>( scaling, translation );
+
+		final OverlapImageAccumulator accumulator = new OverlapImageAccumulator( overlap );
+		accumulator.add( Views.interval( channel1, overlap ), flatfield );
+		accumulator.add( Views.interval( channel2, overlap ), null );
+		Assert.assertEquals( 2, accumulator.numChannels() );
+
+		// channel1 corrected: 7, 9, 13, 15; channel2: 9, 9, 1, 1
+		final ArrayImg< FloatType, FloatArray > average = accumulator.getAverage();
+		final float[] expected = new float[] { 8, 9, 7, 8 };
+		Assert.assertArrayEquals( expected, average.update( null ).getCurrentStorageArray(), 0 );
+
+		Assert.assertEquals( computeVariance( expected ), accumulator.getVariance(), 1e-9 );
+	}
+
+	@Test
+	public void testCombinedVariance()
+	{
+		final List< OverlapImageAccumulator > accumulators = new ArrayList<>();
+		final float[][] values = new float[][] { { 1, 2, 3 }, { 10, 20, 30 } };
+		for ( final float[] arr : values )
+		{
+			final OverlapImageAccumulator accumulator = new OverlapImageAccumulator( new FinalInterval( arr.length ) );
+			accumulator.add( ArrayImgs.floats( arr, arr.length ), null );
+			accumulator.getAverage();
+			accumulators.add( accumulator );
+		}
+
+		Assert.assertEquals(
+				computeVariance( new float[] { 1, 2, 3, 10, 20, 30 } ),
+				OverlapImageAccumulator.getVariance( accumulators.toArray( new OverlapImageAccumulator[ 0 ] ) ),
+				1e-9 );
+	}
+
+	private static double computeVariance( final float[] values )
+	{
+		double mean = 0;
+		for ( final float val : values )
+			mean += val;
+		mean /= values.length;
+
+		double variance = 0;
+		for ( final float val : values )
+			variance += ( val - mean ) * ( val - mean );
+		return variance / values.length;
+	}
+}
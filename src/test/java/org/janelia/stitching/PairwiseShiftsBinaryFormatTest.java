@@ -0,0 +1,118 @@
+package org.janelia.stitching;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.janelia.dataaccess.DataProvider;
+import org.janelia.dataaccess.DataProviderFactory;
+import org.janelia.dataaccess.PathResolver;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PairwiseShiftsBinaryFormatTest {
+
+	private static TileInfo createTile( final int index )
+	{
+		final TileInfo tile = new TileInfo( 3 );
+		tile.setIndex( index );
+		tile.setFilePath( "tile" + index + ".tif" );
+		tile.setPosition( 0, index * 100.5 );
+		tile.setSize( new long[] { 64, 64, 32 } );
+		tile.setPixelResolution( new double[] { 0.1, 0.1, 0.2 } );
+		return tile;
+	}
+
+	private static List< SerializablePairWiseStitchingResult[] > createShifts()
+	{
+		final TileInfo[] tiles = new TileInfo[] { createTile( 0 ), createTile( 1 ), createTile( 2 ) };
+		final List< SerializablePairWiseStitchingResult[] > shiftsMulti = new ArrayList<>();
+
+		final SerializablePairWiseStitchingResult best = new SerializablePairWiseStitchingResult( new TilePair( tiles[ 1 ], tiles[ 0 ] ), new float[] { 1, 2, 3 }, 0.9f, 0.5f, 12.5 );
+		best.setDisplacement( new double[] { 0.5, -0.5, 0 } );
+		final SerializablePairWiseStitchingResult second = new SerializablePairWiseStitchingResult( new TilePair( tiles[ 1 ], tiles[ 0 ] ), new float[] { 4, 5, 6 }, 0.3f );
+		shiftsMulti.add( new SerializablePairWiseStitchingResult[] { best, second } );
+
+		final SerializablePairWiseStitchingResult invalid = new SerializablePairWiseStitchingResult( new TilePair( tiles[ 1 ], tiles[ 2 ] ), null, 0 );
+		invalid.setIsValidOverlap( false );
+		shiftsMulti.add( new SerializablePairWiseStitchingResult[] { invalid } );
+
+		return shiftsMulti;
+	}
+
+	private static void assertEquals( final SerializablePairWiseStitchingResult expected, final SerializablePairWiseStitchingResult actual )
+	{
+		Assert.assertEquals( expected.getTilePair().getA().getIndex(), actual.getTilePair().getA().getIndex() );
+		Assert.assertEquals( expected.getTilePair().getB().getIndex(), actual.getTilePair().getB().getIndex() );
+		Assert.assertEquals( expected.getTilePair().getA().getFilePath(), actual.getTilePair().getA().getFilePath() );
+		Assert.assertArrayEquals( expected.getTilePair().getA().getPosition(), actual.getTilePair().getA().getPosition(), 0 );
+		Assert.assertArrayEquals( expected.getOffset(), actual.getOffset(), 0 );
+		Assert.assertArrayEquals( expected.getDisplacement(), actual.getDisplacement(), 0 );
+		Assert.assertEquals( expected.getCrossCorrelation(), actual.getCrossCorrelation(), 0 );
+		Assert.assertEquals( expected.getPhaseCorrelation(), actual.getPhaseCorrelation() );
+		Assert.assertEquals( expected.getVariance(), actual.getVariance() );
+		Assert.assertEquals( expected.getIsValidOverlap(), actual.getIsValidOverlap() );
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException
+	{
+		final List< SerializablePairWiseStitchingResult[] > shiftsMulti = createShifts();
+
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		PairwiseShiftsBinaryFormat.save( shiftsMulti, out );
+
+		final InputStream in = new ByteArrayInputStream( out.toByteArray() );
+		Assert.assertTrue( PairwiseShiftsBinaryFormat.isBinary( in ) );
+		final PairwiseShiftsBinaryFormat.Columns columns = PairwiseShiftsBinaryFormat.load( in );
+
+		Assert.assertEquals( 2, columns.numPairs() );
+		Assert.assertEquals( 3, columns.numResults() );
+		Assert.assertEquals( 3, columns.getTiles().length );
+
+		final List< SerializablePairWiseStitchingResult[] > loaded = columns.toList();
+		Assert.assertEquals( shiftsMulti.size(), loaded.size() );
+		for ( int pair = 0; pair < shiftsMulti.size(); ++pair )
+		{
+			Assert.assertEquals( shiftsMulti.get( pair ).length, loaded.get( pair ).length );
+			for ( int i = 0; i < shiftsMulti.get( pair ).length; ++i )
+				assertEquals( shiftsMulti.get( pair )[ i ], loaded.get( pair )[ i ] );
+		}
+
+		Assert.assertEquals( 0, columns.findPair( 0, 1 ) );
+		Assert.assertEquals( 0, columns.findPair( 1, 0 ) );
+		Assert.assertEquals( 1, columns.findPair( 2, 1 ) );
+		Assert.assertEquals( -1, columns.findPair( 0, 2 ) );
+		Assert.assertFalse( columns.getIsValidOverlap( columns.getFirstResult( 1 ) ) );
+	}
+
+	@Test
+	public void testFormatDetection() throws IOException
+	{
+		final DataProvider dataProvider = DataProviderFactory.createFSDataProvider();
+		final String folder = Files.createTempDirectory( "pairwise" ).toString();
+		final String jsonPath = PathResolver.get( folder, "pairwise.json" );
+		final String binaryPath = PathResolver.get( folder, "pairwise" + PairwiseShiftsBinaryFormat.FILE_EXTENSION );
+
+		final List< SerializablePairWiseStitchingResult[] > shiftsMulti = createShifts();
+		TileInfoJSONProvider.savePairwiseShiftsMulti( shiftsMulti, dataProvider, jsonPath );
+		TileInfoJSONProvider.savePairwiseShiftsMulti( TileInfoJSONProvider.loadPairwiseShiftsMulti( dataProvider, jsonPath ), dataProvider, binaryPath );
+
+		try ( final InputStream in = new BufferedInputStream( dataProvider.getInputStream( jsonPath ) ) )
+		{
+			Assert.assertFalse( PairwiseShiftsBinaryFormat.isBinary( in ) );
+		}
+
+		final List< SerializablePairWiseStitchingResult[] > loaded = TileInfoJSONProvider.loadPairwiseShiftsMulti( dataProvider, binaryPath );
+		Assert.assertEquals( Arrays.asList( 2, 1 ), Arrays.asList( loaded.get( 0 ).length, loaded.get( 1 ).length ) );
+		for ( int pair = 0; pair < shiftsMulti.size(); ++pair )
+			for ( int i = 0; i < shiftsMulti.get( pair ).length; ++i )
+				assertEquals( shiftsMulti.get( pair )[ i ], loaded.get( pair )[ i ] );
+	}
+}
@@ -0,0 +1,100 @@
+package org.janelia.stitching;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.janelia.dataaccess.DataProvider;
+import org.janelia.dataaccess.DataProviderFactory;
+import org.janelia.dataaccess.PathResolver;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.gson.JsonParseException;
+
+public class PairwiseShiftsShardsTest {
+
+	private static SerializablePairWiseStitchingResult[] createResult( final int index1, final int index2 )
+	{
+		final TileInfo tile1 = new TileInfo( 3 ), tile2 = new TileInfo( 3 );
+		tile1.setIndex( index1 );
+		tile2.setIndex( index2 );
+		final SerializablePairWiseStitchingResult result = new SerializablePairWiseStitchingResult( new TilePair( tile1, tile2 ), new float[] { 1, 2, 3 }, 0.9f );
+		return new SerializablePairWiseStitchingResult[] { result };
+	}
+
+	@Test
+	public void testSaveAndLoad() throws IOException
+	{
+		final DataProvider dataProvider = DataProviderFactory.createFSDataProvider();
+		final String shardsPath = PathResolver.get( Files.createTempDirectory( "pairwise" ).toString(), PairwiseShiftsShards.SHARDS_FOLDER_NAME );
+
+		Assert.assertTrue( PairwiseShiftsShards.loadShards( dataProvider, shardsPath ).isEmpty() );
+
+		PairwiseShiftsShards.saveShard( dataProvider, shardsPath, PairwiseShiftsShards.getShardName( 1, 0 ), Arrays.asList( createResult( 0, 1 ), createResult( 1, 2 ) ) );
+		PairwiseShiftsShards.saveShard( dataProvider, shardsPath, PairwiseShiftsShards.getShardName( 1, 1 ), Arrays.asList( createResult( 2, 3 ) ) );
+
+		// the partition is recomputed and saved again
+		PairwiseShiftsShards.saveShard( dataProvider, shardsPath, PairwiseShiftsShards.getShardName( 1, 1 ), Arrays.asList( createResult( 2, 3 ) ) );
+
+		// incomplete shard that was being written when the job failed
+		try ( final Writer writer = dataProvider.getJsonWriter( PathResolver.get( shardsPath, PairwiseShiftsShards.getShardName( 1, 2 ) ) ) )
+		{
+			writer.write( "[[{\"tilePair\":" );
+		}
+
+		final List< SerializablePairWiseStitchingResult[] > loaded = PairwiseShiftsShards.loadShards( dataProvider, shardsPath );
+		Assert.assertEquals( 3, loaded.size() );
+
+		final Set< Integer > tileIndexes = new HashSet<>();
+		for ( final SerializablePairWiseStitchingResult[] resultMulti : loaded )
+		{
+			Assert.assertArrayEquals( new float[] { 1, 2, 3 }, resultMulti[ 0 ].getOffset(), 0 );
+			for ( final TileInfo tile : resultMulti[ 0 ].getTilePair().toArray() )
+				tileIndexes.add( tile.getIndex() );
+		}
+		Assert.assertEquals( new HashSet<>( Arrays.asList( 0, 1, 2, 3 ) ), tileIndexes );
+
+		PairwiseShiftsShards.deleteShards( dataProvider, shardsPath );
+		Assert.assertFalse( dataProvider.exists( shardsPath ) );
+	}
+
+	@Test
+	public void testMalformedShards() throws IOException
+	{
+		final DataProvider dataProvider = DataProviderFactory.createFSDataProvider();
+		final String shardsPath = PathResolver.get( Files.createTempDirectory( "pairwise" ).toString(), PairwiseShiftsShards.SHARDS_FOLDER_NAME );
+		PairwiseShiftsShards.saveShard( dataProvider, shardsPath, PairwiseShiftsShards.getShardName( 1, 0 ), Arrays.asList( createResult( 0, 1 ) ) );
+
+		// empty, truncated, and structurally invalid shards
+		final String[] malformedShards = new String[] { "", "[[{\"tilePair\":", "[[{}]]", "[null]", "[[]]" };
+		for ( int i = 0; i < malformedShards.length; ++i )
+		{
+			final String shardPath = PathResolver.get( shardsPath, PairwiseShiftsShards.getShardName( 1, i + 1 ) );
+			try ( final Writer writer = dataProvider.getJsonWriter( shardPath ) )
+			{
+				writer.write( malformedShards[ i ] );
+			}
+
+			try
+			{
+				PairwiseShiftsShards.loadShard( dataProvider, shardPath );
+				Assert.fail( "Shard '" + malformedShards[ i ] + "' should be detected as malformed" );
+			}
+			catch ( final JsonParseException e )
+			{
+			}
+		}
+
+		// only the valid shard is loaded
+		final List< SerializablePairWiseStitchingResult[] > loaded = PairwiseShiftsShards.loadShards( dataProvider, shardsPath );
+		Assert.assertEquals( 1, loaded.size() );
+		Assert.assertEquals( 0, loaded.get( 0 )[ 0 ].getTilePair().getA().getIndex().intValue() );
+
+		PairwiseShiftsShards.deleteShards( dataProvider, shardsPath );
+	}
+}
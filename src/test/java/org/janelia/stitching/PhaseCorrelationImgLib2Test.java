@@ -0,0 +1,180 @@
+package org.janelia.stitching;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import mpicbg.imglib.algorithm.fft.custom.IntegralCrossCorrelation;
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.algorithm.gauss3.Gauss3;
+import net.imglib2.exception.IncompatibleTypeException;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+public class PhaseCorrelationImgLib2Test {
+
+	private static RandomAccessibleInterval< FloatType > createImage( final long... dimensions ) throws IncompatibleTypeException
+	{
+		final Random rnd = new Random( 42 );
+		final RandomAccessibleInterval< FloatType > noise = ArrayImgs.floats( dimensions );
+		final Cursor< FloatType > cursor = Views.iterable( noise ).cursor();
+		while ( cursor.hasNext() )
+			cursor.next().set( rnd.nextInt( 1 << 16 ) );
+
+		final RandomAccessibleInterval< FloatType > img = ArrayImgs.floats( dimensions );
+		Gauss3.gauss( new double[] { 2, 2, 1 }, Views.extendMirrorSingle( noise ), img );
+		return img;
+	}
+
+	private static RandomAccessibleInterval< FloatType > crop( final RandomAccessibleInterval< FloatType > img, final long[] min, final long[] size )
+	{
+		final long[] max = new long[ min.length ];
+		for ( int d = 0; d < min.length; ++d )
+			max[ d ] = min[ d ] + size[ d ] - 1;
+		return Views.zeroMin( Views.interval( img, new FinalInterval( min, max ) ) );
+	}
+
+	@Test
+	public void testKnownShift() throws IncompatibleTypeException
+	{
+		final RandomAccessibleInterval< FloatType > img = createImage( 96, 96, 32 );
+		final long[] size = new long[] { 64, 64, 16 };
+		final long[] min1 = new long[] { 10, 12, 6 };
+		final int[] expectedShift = new int[] { 5, -3, 2 };
+		final long[] min2 = new long[ min1.length ];
+		for ( int d = 0; d < min1.length; ++d )
+			min2[ d ] = min1[ d ] + expectedShift[ d ];
+
+		final RandomAccessibleInterval< FloatType > img1 = crop( img, min1, size );
+		final RandomAccessibleInterval< FloatType > img2 = crop( img, min2, size );
+
+		final SerializablePairWiseStitchingResult[] results = PhaseCorrelationImgLib2.stitchPairwise( img1, img2, 5, false, 1, null, null, 1 );
+		Assert.assertNotNull( results[ 0 ] );
+		for ( int d = 0; d < expectedShift.length; ++d )
+			Assert.assertEquals( expectedShift[ d ], results[ 0 ].getOffset( d ), 0 );
+		Assert.assertEquals( 1.0, results[ 0 ].getCrossCorrelation(), 1e-4 );
+
+		final SerializablePairWiseStitchingResult[] subpixelResults = PhaseCorrelationImgLib2.stitchPairwise( img1, img2, 5, true, 1, null, null, 1 );
+		Assert.assertNotNull( subpixelResults[ 0 ] );
+		for ( int d = 0; d < expectedShift.length; ++d )
+			Assert.assertEquals( expectedShift[ d ], subpixelResults[ 0 ].getOffset( d ), 0.5 );
+	}
+
+	@Test
+	public void testBufferReuse() throws IncompatibleTypeException
+	{
+		final RandomAccessibleInterval< FloatType > img = createImage( 64, 64, 16 );
+		final long[] size = new long[] { 40, 40, 8 };
+		final RandomAccessibleInterval< FloatType > img1 = crop( img, new long[] { 0, 0, 0 }, size );
+		final RandomAccessibleInterval< FloatType > img2 = crop( img, new long[] { 7, 4, 3 }, size );
+
+		PhaseCorrelationImgLib2.pollBufferStats();
+		final SerializablePairWiseStitchingResult[] results = PhaseCorrelationImgLib2.stitchPairwise( img1, img2, 5, true, 1, null, null, 1 );
+		final long[] firstRunStats = PhaseCorrelationImgLib2.pollBufferStats();
+		Assert.assertTrue( firstRunStats[ 0 ] > 0 );
+		Assert.assertEquals( 0, firstRunStats[ 1 ] );
+
+		// same overlap size reuses the buffers and yields the same result
+		final SerializablePairWiseStitchingResult[] resultsWithReusedBuffers = PhaseCorrelationImgLib2.stitchPairwise( img1, img2, 5, true, 1, null, null, 1 );
+		final long[] secondRunStats = PhaseCorrelationImgLib2.pollBufferStats();
+		Assert.assertEquals( 0, secondRunStats[ 0 ] );
+		Assert.assertEquals( firstRunStats[ 0 ], secondRunStats[ 1 ] );
+
+		Assert.assertArrayEquals( results[ 0 ].getOffset(), resultsWithReusedBuffers[ 0 ].getOffset(), 0 );
+		Assert.assertEquals( results[ 0 ].getCrossCorrelation(), resultsWithReusedBuffers[ 0 ].getCrossCorrelation(), 0 );
+	}
+
+	@Test
+	public void testBufferPoolLimit()
+	{
+		final long[] smallDimensions = new long[] { 30, 30, 10 }, largeDimensions = new long[] { 50, 50, 10 };
+		final long smallBytes = new PhaseCorrelationImgLib2.FFTBuffers( smallDimensions ).getSizeInBytes();
+		final long largeBytes = new PhaseCorrelationImgLib2.FFTBuffers( largeDimensions ).getSizeInBytes();
+
+		// only one of the buffers fits into the pool, the least recently used is evicted
+		final PhaseCorrelationImgLib2.FFTBuffersPool pool = new PhaseCorrelationImgLib2.FFTBuffersPool( largeBytes );
+		final PhaseCorrelationImgLib2.FFTBuffers smallBuffers = pool.get( smallDimensions );
+		Assert.assertSame( smallBuffers, pool.get( smallDimensions ) );
+		Assert.assertEquals( smallBytes, pool.pooledBytes );
+
+		pool.get( largeDimensions );
+		Assert.assertEquals( largeBytes, pool.pooledBytes );
+		Assert.assertNotSame( smallBuffers, pool.get( smallDimensions ) );
+		Assert.assertEquals( smallBytes, pool.pooledBytes );
+
+		// buffers exceeding the limit are not pooled
+		final PhaseCorrelationImgLib2.FFTBuffersPool smallPool = new PhaseCorrelationImgLib2.FFTBuffersPool( smallBytes );
+		smallPool.get( largeDimensions );
+		Assert.assertEquals( 0, smallPool.pooledBytes );
+
+		pool.clear();
+		Assert.assertEquals( 0, pool.pooledBytes );
+		Assert.assertTrue( pool.buffers.isEmpty() );
+	}
+
+	@Test
+	public void testReleaseBuffers() throws IncompatibleTypeException
+	{
+		final RandomAccessibleInterval< FloatType > img = createImage( 48, 48, 8 );
+		final long[] size = new long[] { 32, 32, 8 };
+		PhaseCorrelationImgLib2.stitchPairwise( crop( img, new long[] { 0, 0, 0 }, size ), crop( img, new long[] { 3, 5, 0 }, size ), 5, false, 1, null, null, 1 );
+		Assert.assertTrue( PhaseCorrelationImgLib2.getPooledBytes() > 0 );
+
+		PhaseCorrelationImgLib2.releaseBuffers();
+		Assert.assertEquals( 0, PhaseCorrelationImgLib2.getPooledBytes() );
+	}
+
+	@Test
+	public void testCrossCorrelation() throws IncompatibleTypeException
+	{
+		final RandomAccessibleInterval< FloatType > img = createImage( 48, 48, 8 );
+		final long[] size = new long[] { 32, 32, 8 };
+		final RandomAccessibleInterval< FloatType > img1 = crop( img, new long[] { 4, 0, 0 }, size );
+		final RandomAccessibleInterval< FloatType > img2 = crop( img, new long[] { 0, 6, 0 }, size );
+
+		final long[] numPixels = new long[ 1 ];
+		Assert.assertEquals( 1.0, PhaseCorrelationImgLib2.testCrossCorrelation( new int[] { -4, 6, 0 }, img1, img2, 3, numPixels ), 1e-6 );
+		Assert.assertEquals( 28 * 26 * 8, numPixels[ 0 ] );
+
+		// overlap is too small
+		Assert.assertEquals( 0, PhaseCorrelationImgLib2.testCrossCorrelation( new int[] { 30, 0, 0 }, img1, img2, 3, numPixels ), 0 );
+		Assert.assertEquals( 0, numPixels[ 0 ] );
+	}
+
+	@Test
+	public void testIntegralCrossCorrelation() throws IncompatibleTypeException
+	{
+		final RandomAccessibleInterval< FloatType > img = createImage( 48, 48, 8 );
+		final RandomAccessibleInterval< FloatType > img1 = crop( img, new long[] { 4, 0, 0 }, new long[] { 32, 30, 8 } );
+		final RandomAccessibleInterval< FloatType > img2 = crop( img, new long[] { 0, 6, 1 }, new long[] { 30, 32, 7 } );
+
+		final IntegralCrossCorrelation integralCrossCorrelation = new IntegralCrossCorrelation(
+				toFloatArray( img1 ), Intervals.dimensionsAsIntArray( img1 ),
+				toFloatArray( img2 ), Intervals.dimensionsAsIntArray( img2 ) );
+
+		final int[] minOverlapPx = new int[] { 3, 3, 3 };
+		for ( final int[] shift : new int[][] { { -4, 6, 1 }, { 0, 0, 0 }, { 10, -7, 2 }, { -20, 15, -3 }, { 30, 0, 0 } } )
+		{
+			final long[] expectedNumPixels = new long[ 1 ], numPixels = new long[ 1 ];
+			final double expected = PhaseCorrelationImgLib2.testCrossCorrelation( shift, img1, img2, 3, expectedNumPixels );
+			final double actual = integralCrossCorrelation.testCrossCorrelation( shift, minOverlapPx, numPixels );
+			Assert.assertEquals( expected, actual, 1e-5 );
+			Assert.assertEquals( expectedNumPixels[ 0 ], numPixels[ 0 ] );
+			Assert.assertTrue( integralCrossCorrelation.getUpperBound( shift, minOverlapPx ) >= actual - 1e-9 );
+		}
+	}
+
+	private static float[] toFloatArray( final RandomAccessibleInterval< FloatType > img )
+	{
+		final float[] data = new float[ ( int ) Intervals.numElements( img ) ];
+		final Cursor< FloatType > cursor = Views.flatIterable( img ).cursor();
+		for ( int i = 0; i < data.length; ++i )
+			data[ i ] = cursor.next().get();
+		return data;
+	}
+}
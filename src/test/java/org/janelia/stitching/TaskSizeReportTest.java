@@ -0,0 +1,24 @@
+package org.janelia.stitching;
+
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TaskSizeReportTest
+{
+	@Test
+	public void testBudget() throws IOException
+	{
+		final long[] data = new long[ 64 * 1024 ];
+		final long size = TaskSizeReport.getSerializedSize( data );
+		Assert.assertTrue( size >= data.length * Long.BYTES );
+
+		Assert.assertTrue( TaskSizeReport.report( "small", new long[ 1 ], 1 ) );
+		Assert.assertFalse( TaskSizeReport.report( "large", data, 1 ) );
+		Assert.assertTrue( TaskSizeReport.report( "unlimited", data, 0 ) );
+
+		// not serializable
+		Assert.assertFalse( TaskSizeReport.report( "thread", new Thread(), 0 ) );
+	}
+}
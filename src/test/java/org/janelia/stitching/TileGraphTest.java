@@ -0,0 +1,61 @@
+package org.janelia.stitching;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TileGraphTest
+{
+	@Test
+	public void testComponentsAndLeaves()
+	{
+		// tiles 10-11-12 form a triangle, tiles 20-21 are connected by a single pair, tile 30 has only a filtered out pair
+		final TileInfo[] tiles = new TileInfo[ 31 ];
+		for ( final int index : new int[] { 10, 11, 12, 20, 21, 30 } )
+		{
+			tiles[ index ] = new TileInfo( 2 );
+			tiles[ index ].setIndex( index );
+			tiles[ index ].setPosition( new double[] { index * 100, 0 } );
+		}
+
+		final List< SerializablePairWiseStitchingResult[] > shifts = new ArrayList<>();
+		shifts.add( createPair( tiles[ 11 ], tiles[ 10 ], 0.9f, 50. ) );
+		shifts.add( createPair( tiles[ 11 ], tiles[ 12 ], 0.8f, 50. ) );
+		shifts.add( createPair( tiles[ 10 ], tiles[ 12 ], 0.7f, 50. ) );
+		shifts.add( createPair( tiles[ 20 ], tiles[ 21 ], 0.9f, 50. ) );
+		shifts.add( createPair( tiles[ 21 ], tiles[ 30 ], 0.9f, null ) );
+
+		final TileGraph graph = new TileGraph( shifts );
+		Assert.assertEquals( 6, graph.numTiles() );
+		Assert.assertEquals( 5, graph.numEdges() );
+		for ( int tile = 1; tile < graph.numTiles(); ++tile )
+			Assert.assertTrue( graph.getTileId( tile - 1 ) < graph.getTileId( tile ) );
+
+		final BitSet validEdges = graph.getValidEdges( 0.5, 10 );
+		Assert.assertEquals( 4, validEdges.cardinality() );
+		Assert.assertFalse( validEdges.get( 4 ) );
+		Assert.assertEquals( 3, graph.getLargestComponentSize( validEdges ) );
+		Assert.assertTrue( graph.hasLeaves( validEdges ) );
+
+		final List< int[] > components = graph.getConnectedComponents( validEdges );
+		Assert.assertEquals( 2, components.size() );
+		Assert.assertArrayEquals( new int[] { 0, 1, 2 }, components.get( 0 ) );
+		Assert.assertArrayEquals( new int[] { 3, 4 }, components.get( 1 ) );
+
+		// only the triangle remains
+		final BitSet strictValidEdges = graph.getValidEdges( 0.6, 10 );
+		strictValidEdges.clear( 3 );
+		Assert.assertEquals( 1, graph.getConnectedComponents( strictValidEdges ).size() );
+		Assert.assertFalse( graph.hasLeaves( strictValidEdges ) );
+	}
+
+	private static SerializablePairWiseStitchingResult[] createPair( final TileInfo tileA, final TileInfo tileB, final float crossCorrelation, final Double variance )
+	{
+		final SerializablePairWiseStitchingResult pair = new SerializablePairWiseStitchingResult( new TilePair( tileA, tileB ), new float[] { 90, 0 }, crossCorrelation );
+		pair.setVariance( variance );
+		return new SerializablePairWiseStitchingResult[] { pair };
+	}
+}
@@ -0,0 +1,99 @@
+package org.janelia.stitching;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+public class TileImageCacheTest {
+
+	@Test
+	public void testEviction() throws Exception
+	{
+		final TileImageCache.Storage storage = new TileImageCache.Storage( 250 );
+		final long[] stats = new long[ 3 ];
+
+		final RandomAccessibleInterval< UnsignedByteType > a = storage.get( "a", () -> ArrayImgs.unsignedBytes( 100 ), stats );
+		storage.get( "b", () -> ArrayImgs.unsignedBytes( 100 ), stats );
+		Assert.assertArrayEquals( new long[] { 0, 2, 0 }, stats );
+
+		// 'a' becomes the most recently used entry
+		Assert.assertSame( a, storage.get( "a", () -> ArrayImgs.unsignedBytes( 100 ), stats ) );
+		Assert.assertArrayEquals( new long[] { 1, 2, 0 }, stats );
+
+		// 'b' is evicted as the least recently used entry
+		storage.get( "c", () -> ArrayImgs.unsignedBytes( 100 ), stats );
+		Assert.assertArrayEquals( new long[] { 1, 3, 1 }, stats );
+		Assert.assertEquals( 200, storage.getCurrentBytes() );
+		Assert.assertNotNull( storage.peek( "a" ) );
+		Assert.assertNull( storage.peek( "b" ) );
+
+		// images exceeding the budget are not cached
+		storage.get( "d", () -> ArrayImgs.unsignedBytes( 300 ), stats );
+		Assert.assertNull( storage.peek( "d" ) );
+		Assert.assertEquals( 200, storage.getCurrentBytes() );
+	}
+
+	@Test
+	public void testSingleLoad() throws Exception
+	{
+		final TileImageCache.Storage storage = new TileImageCache.Storage( 1000 );
+		final AtomicInteger loads = new AtomicInteger();
+		final CountDownLatch loadStarted = new CountDownLatch( 1 ), releaseLoad = new CountDownLatch( 1 );
+
+		final ExecutorService threadPool = Executors.newFixedThreadPool( 4 );
+		final List< Future< RandomAccessibleInterval< UnsignedByteType > > > futures = new ArrayList<>();
+		for ( int i = 0; i < 4; ++i )
+		{
+			futures.add( threadPool.submit( () -> storage.get( "a", () ->
+				{
+					loads.incrementAndGet();
+					loadStarted.countDown();
+					releaseLoad.await();
+					return ArrayImgs.unsignedBytes( 100 );
+				},
+				new long[ 3 ] ) ) );
+		}
+
+		Assert.assertTrue( loadStarted.await( 10, TimeUnit.SECONDS ) );
+		Thread.sleep( 100 );
+		releaseLoad.countDown();
+
+		final RandomAccessibleInterval< UnsignedByteType > img = futures.get( 0 ).get();
+		for ( final Future< RandomAccessibleInterval< UnsignedByteType > > future : futures )
+			Assert.assertSame( img, future.get() );
+		threadPool.shutdown();
+
+		Assert.assertEquals( 1, loads.get() );
+	}
+
+	@Test
+	public void testCopyToMemory()
+	{
+		final RandomAccessibleInterval< UnsignedByteType > img = Views.translate( ArrayImgs.unsignedBytes( new byte[] { 1, 2, 3, 4, 5, 6 }, 3, 2 ), 10, 20 );
+		final RandomAccessibleInterval< UnsignedByteType > imgCopy = TileImageCache.copyToMemory( img );
+
+		Assert.assertArrayEquals( Intervals.minAsLongArray( img ), Intervals.minAsLongArray( imgCopy ) );
+		Assert.assertArrayEquals( Intervals.maxAsLongArray( img ), Intervals.maxAsLongArray( imgCopy ) );
+
+		final Cursor< UnsignedByteType > imgCursor = Views.flatIterable( img ).cursor();
+		final Cursor< UnsignedByteType > imgCopyCursor = Views.flatIterable( imgCopy ).cursor();
+		while ( imgCursor.hasNext() )
+			Assert.assertEquals( imgCursor.next().get(), imgCopyCursor.next().get() );
+		Assert.assertFalse( imgCopyCursor.hasNext() );
+	}
+}
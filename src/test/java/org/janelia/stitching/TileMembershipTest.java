@@ -0,0 +1,66 @@
+package org.janelia.stitching;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TileMembershipTest
+{
+	@Test
+	public void testConnectedPixels()
+	{
+		// tiles 5 and 7 are connected, tile 9 is not connected to any of them
+		final List< TileInfo > tiles = new ArrayList<>();
+		for ( final int index : new int[] { 5, 7, 9 } )
+		{
+			final TileInfo tile = new TileInfo( 2 );
+			tile.setIndex( index );
+			tiles.add( tile );
+		}
+		final Map< Integer, Set< Integer > > pairwiseConnectionsMap = new HashMap<>();
+		pairwiseConnectionsMap.put( 5, new HashSet<>( Arrays.asList( 7 ) ) );
+		pairwiseConnectionsMap.put( 7, new HashSet<>( Arrays.asList( 5, 100 ) ) );
+
+		final TileMembership membership = new TileMembership( tiles, 10, pairwiseConnectionsMap );
+		membership.add( 0, 0, 6 );
+		membership.add( 1, 4, 4 );
+		membership.add( 2, 2, 8 );
+
+		final boolean[] expected = new boolean[] { false, false, false, false, true, true, false, false, false, false };
+		for ( int i = 0; i < expected.length; ++i )
+			Assert.assertEquals( "pixel " + i, expected[ i ], membership.isConnected( i ) );
+	}
+
+	@Test
+	public void testManyTiles()
+	{
+		// more than 64 tiles in the cell, connect the first and the last one
+		final List< TileInfo > tiles = new ArrayList<>();
+		for ( int index = 0; index < 100; ++index )
+		{
+			final TileInfo tile = new TileInfo( 2 );
+			tile.setIndex( index );
+			tiles.add( tile );
+		}
+		final Map< Integer, Set< Integer > > pairwiseConnectionsMap = new HashMap<>();
+		pairwiseConnectionsMap.put( 0, new HashSet<>( Arrays.asList( 99 ) ) );
+		pairwiseConnectionsMap.put( 99, new HashSet<>( Arrays.asList( 0 ) ) );
+
+		final TileMembership membership = new TileMembership( tiles, 4, pairwiseConnectionsMap );
+		for ( int slot = 0; slot < 99; ++slot )
+			membership.add( slot, 0, 2 );
+		membership.add( 99, 1, 3 );
+
+		Assert.assertFalse( membership.isConnected( 0 ) );
+		Assert.assertTrue( membership.isConnected( 1 ) );
+		Assert.assertFalse( membership.isConnected( 2 ) );
+		Assert.assertFalse( membership.isConnected( 3 ) );
+	}
+}
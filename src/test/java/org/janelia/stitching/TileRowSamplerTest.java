@@ -0,0 +1,80 @@
+package org.janelia.stitching;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.converter.Converters;
+import net.imglib2.converter.RealFloatConverter;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.ShortArray;
+import net.imglib2.interpolation.randomaccess.NLinearInterpolatorFactory;
+import net.imglib2.realtransform.RealViews;
+import net.imglib2.realtransform.Translation;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+
+public class TileRowSamplerTest
+{
+	private static final double EPSILON = 1e-4;
+
+	@Test
+	public void testIntegerOffset()
+	{
+		test( new double[] { -5, 3, 0 } );
+	}
+
+	@Test
+	public void testFractionalOffset()
+	{
+		test( new double[] { -5.3, 2.75, 0.5 } );
+	}
+
+	@Test
+	public void testMixedOffset()
+	{
+		test( new double[] { 4, -7.4, -1 } );
+	}
+
+	private void test( final double[] offset )
+	{
+		final Random rnd = new Random( 1 );
+		final ArrayImg< UnsignedShortType, ShortArray > tile = ArrayImgs.unsignedShorts( 37, 23, 11 );
+		for ( final UnsignedShortType val : tile )
+			val.set( rnd.nextInt( 4096 ) );
+
+		// the interval goes beyond the tile borders to check the border extension
+		final Interval interval = new FinalInterval( new long[] { 0, 0, 0 }, new long[] { 40, 30, 12 } );
+
+		// interpolate the reference in floating point, otherwise the interpolated values would be rounded to the integer type
+		final RandomAccessibleInterval< FloatType > tileFloat = Converters.convert( ( RandomAccessibleInterval< UnsignedShortType > ) tile, new RealFloatConverter<>(), new FloatType() );
+		final RandomAccessibleInterval< FloatType > expected = Views.interval(
+				Views.raster( RealViews.affine( Views.interpolate( Views.extendBorder( tileFloat ), new NLinearInterpolatorFactory<>() ), new Translation( offset ) ) ),
+				interval );
+		final Cursor< FloatType > expectedCursor = Views.flatIterable( expected ).cursor();
+
+		final TileRowSampler< UnsignedShortType > sampler = new TileRowSampler<>( tile, offset, interval );
+		final float[] row = new float[ ( int ) interval.dimension( 0 ) ];
+		final int[] rowPosition = new int[ interval.numDimensions() ];
+		for ( rowPosition[ 2 ] = 0; rowPosition[ 2 ] < interval.dimension( 2 ); ++rowPosition[ 2 ] )
+		{
+			for ( rowPosition[ 1 ] = 0; rowPosition[ 1 ] < interval.dimension( 1 ); ++rowPosition[ 1 ] )
+			{
+				sampler.sampleRow( rowPosition, row );
+				for ( int x = 0; x < row.length; ++x )
+				{
+					// allow for the float rounding of the reference (a few ulps of the value)
+					final float expectedValue = expectedCursor.next().get();
+					Assert.assertEquals( expectedValue, row[ x ], Math.max( EPSILON, 8 * Math.ulp( expectedValue ) ) );
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,56 @@
+package org.janelia.stitching;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TileSearchRadiusTableTest
+{
+	private static final double EPSILON = 1e-9;
+
+	@Test
+	public void testSameAsEstimator() throws PipelineExecutionException
+	{
+		final Random rnd = new Random( 42 );
+		final int gridSize = 6;
+		final TileInfo[] stageTiles = new TileInfo[ gridSize * gridSize * gridSize ], stitchedTiles = new TileInfo[ stageTiles.length ];
+		for ( int i = 0; i < stageTiles.length; ++i )
+		{
+			final int[] gridPosition = new int[] { i % gridSize, ( i / gridSize ) % gridSize, i / ( gridSize * gridSize ) };
+			stageTiles[ i ] = new TileInfo( 3 );
+			stageTiles[ i ].setIndex( i );
+			stageTiles[ i ].setSize( new long[] { 100, 100, 50 } );
+			for ( int d = 0; d < 3; ++d )
+				stageTiles[ i ].setPosition( d, gridPosition[ d ] * stageTiles[ i ].getSize( d ) * 0.9 );
+
+			stitchedTiles[ i ] = stageTiles[ i ].clone();
+			for ( int d = 0; d < 3; ++d )
+				stitchedTiles[ i ].setPosition( d, stageTiles[ i ].getPosition( d ) + rnd.nextGaussian() * 5 + d );
+		}
+
+		final int minNumNeighbors = 5;
+		final TileSearchRadiusEstimator estimator = new TileSearchRadiusEstimator( stageTiles, stitchedTiles );
+		final TileSearchRadiusTable table = TileSearchRadiusTable.create( estimator, Arrays.asList( stageTiles ), minNumNeighbors, null );
+		Assert.assertEquals( stageTiles.length, table.size() );
+
+		for ( final TilePair pair : TileOperations.findOverlappingTiles( stageTiles ) )
+		{
+			final SearchRadius fixedSearchRadius = estimator.getSearchRadiusTreeWithinEstimationWindow( pair.getA() );
+			final SearchRadius movingSearchRadius = estimator.getSearchRadiusTreeWithinEstimationWindow( pair.getB() );
+			Assert.assertEquals( fixedSearchRadius.getUsedPointsIndexes().size(), table.getNumNeighbors( pair.getA().getIndex() ) );
+			Assert.assertEquals( movingSearchRadius.getUsedPointsIndexes().size(), table.getNumNeighbors( pair.getB().getIndex() ) );
+			Assert.assertTrue( table.getNumNeighbors( pair.getA().getIndex() ) >= minNumNeighbors );
+
+			final SearchRadius expected = estimator.getCombinedCovariancesSearchRadius( fixedSearchRadius, movingSearchRadius );
+			final SearchRadius actual = table.getCombinedCovariancesSearchRadius( pair.getA().getIndex(), pair.getB().getIndex() );
+
+			Assert.assertArrayEquals( expected.getOffsetsMeanValues(), actual.getOffsetsMeanValues(), EPSILON );
+			for ( int d = 0; d < 3; ++d )
+				Assert.assertArrayEquals( expected.getOffsetsCovarianceMatrix()[ d ], actual.getOffsetsCovarianceMatrix()[ d ], EPSILON );
+			Assert.assertArrayEquals( expected.getEllipseCenter(), actual.getEllipseCenter(), EPSILON );
+			Assert.assertArrayEquals( expected.getEllipseRadius(), actual.getEllipseRadius(), EPSILON );
+		}
+	}
+}
@@ -0,0 +1,65 @@
+package org.janelia.stitching;
+
+import java.util.Random;
+
+/**
+ * Compares the time it takes to find overlapping pairs using the spatial index and using the exhaustive search
+ * on grids of tiles of increasing size (from 1k to 100k tiles).
+ * The exhaustive search is skipped for the largest grids as it takes too long.
+ */
+public class TilesSpatialIndexBenchmark
+{
+	private static final int[] NUM_TILES = new int[] { 1000, 5000, 10000, 40000, 100000 };
+	private static final int MAX_TILES_FOR_EXHAUSTIVE_SEARCH = 40000;
+
+	public static void main( final String[] args )
+	{
+		final Random rnd = new Random( 42 );
+		for ( final int numTiles : NUM_TILES )
+		{
+			final TileInfo[] tiles = createTileGrid( rnd, numTiles );
+
+			long elapsedIndex = System.nanoTime();
+			final int pairsIndex = TileOperations.findOverlappingTiles( tiles ).size();
+			elapsedIndex = System.nanoTime() - elapsedIndex;
+
+			String exhaustiveStr = "skipped";
+			if ( numTiles <= MAX_TILES_FOR_EXHAUSTIVE_SEARCH )
+			{
+				long elapsedExhaustive = System.nanoTime();
+				int pairsExhaustive = 0;
+				for ( int i = 0; i < tiles.length; i++ )
+					for ( int j = i + 1; j < tiles.length; j++ )
+						if ( TileOperations.overlap( tiles[ i ], tiles[ j ] ) )
+							++pairsExhaustive;
+				elapsedExhaustive = System.nanoTime() - elapsedExhaustive;
+
+				if ( pairsExhaustive != pairsIndex )
+					throw new RuntimeException( "Results do not match: " + pairsExhaustive + " vs " + pairsIndex );
+				exhaustiveStr = String.format( "%.3fs", elapsedExhaustive / 1e9 );
+			}
+
+			System.out.println( String.format( "%d tiles, %d pairs: index %.3fs, exhaustive %s", numTiles, pairsIndex, elapsedIndex / 1e9, exhaustiveStr ) );
+		}
+	}
+
+	/**
+	 * Creates a 3d grid of tiles with 10% overlap and small random stage offsets.
+	 */
+	private static TileInfo[] createTileGrid( final Random rnd, final int numTiles )
+	{
+		final long[] tileSize = new long[] { 1000, 1000, 250 };
+		final int gridSide = ( int ) Math.ceil( Math.sqrt( numTiles / 10.0 ) );
+		final TileInfo[] tiles = new TileInfo[ numTiles ];
+		for ( int i = 0; i < numTiles; ++i )
+		{
+			final int[] gridPosition = new int[] { i % gridSide, ( i / gridSide ) % gridSide, i / ( gridSide * gridSide ) };
+			tiles[ i ] = new TileInfo( 3 );
+			tiles[ i ].setIndex( i );
+			tiles[ i ].setSize( tileSize.clone() );
+			for ( int d = 0; d < 3; ++d )
+				tiles[ i ].setPosition( d, gridPosition[ d ] * tileSize[ d ] * 0.9 + rnd.nextGaussian() * 10 );
+		}
+		return tiles;
+	}
+}
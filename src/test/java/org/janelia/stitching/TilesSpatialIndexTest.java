@@ -0,0 +1,85 @@
+package org.janelia.stitching;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import net.imglib2.FinalRealInterval;
+import net.imglib2.RealInterval;
+
+public class TilesSpatialIndexTest
+{
+	private static TileInfo[] createRandomTiles( final Random rnd, final int numTiles, final int dim )
+	{
+		final TileInfo[] tiles = new TileInfo[ numTiles ];
+		for ( int i = 0; i < numTiles; ++i )
+		{
+			tiles[ i ] = new TileInfo( dim );
+			tiles[ i ].setIndex( i );
+			for ( int d = 0; d < dim; ++d )
+			{
+				tiles[ i ].setPosition( d, rnd.nextDouble() * 1000 - 500 );
+				tiles[ i ].setSize( d, rnd.nextInt( 100 ) + 1 );
+			}
+		}
+		return tiles;
+	}
+
+	private static List< TilePair > findOverlappingTilesExhaustive( final TileInfo[] tiles )
+	{
+		final List< TilePair > overlappingTiles = new ArrayList<>();
+		for ( int i = 0; i < tiles.length; i++ )
+			for ( int j = i + 1; j < tiles.length; j++ )
+				if ( TileOperations.overlap( tiles[ i ], tiles[ j ] ) )
+					overlappingTiles.add( new TilePair( tiles[ i ], tiles[ j ] ) );
+		return overlappingTiles;
+	}
+
+	@Test
+	public void testOverlappingPairs()
+	{
+		final Random rnd = new Random( 42 );
+		for ( int dim = 2; dim <= 3; ++dim )
+		{
+			final TileInfo[] tiles = createRandomTiles( rnd, 500, dim );
+			final List< TilePair > expected = findOverlappingTilesExhaustive( tiles );
+			final List< TilePair > actual = TileOperations.findOverlappingTiles( tiles );
+
+			Assert.assertEquals( expected.size(), actual.size() );
+			for ( int i = 0; i < expected.size(); ++i )
+			{
+				Assert.assertSame( expected.get( i ).getA(), actual.get( i ).getA() );
+				Assert.assertSame( expected.get( i ).getB(), actual.get( i ).getB() );
+			}
+		}
+	}
+
+	@Test
+	public void testSubregion()
+	{
+		final Random rnd = new Random( 42 );
+		final TileInfo[] tiles = createRandomTiles( rnd, 500, 3 );
+		final TilesSpatialIndex index = new TilesSpatialIndex( tiles );
+		for ( int i = 0; i < 100; ++i )
+		{
+			final double[] min = new double[ 3 ], max = new double[ 3 ];
+			for ( int d = 0; d < 3; ++d )
+			{
+				min[ d ] = rnd.nextDouble() * 1000 - 500;
+				max[ d ] = min[ d ] + rnd.nextDouble() * 200;
+			}
+			final RealInterval subregion = new FinalRealInterval( min, max );
+			Assert.assertEquals( TileOperations.findTilesWithinSubregion( tiles, subregion ), index.findTilesWithinSubregion( subregion ) );
+		}
+	}
+
+	@Test
+	public void testEmpty()
+	{
+		Assert.assertTrue( TileOperations.findOverlappingTiles( new TileInfo[ 0 ] ).isEmpty() );
+		Assert.assertTrue( new TilesSpatialIndex( new TileInfo[ 0 ] ).findTilesWithinSubregion( new FinalRealInterval( new double[] { 0, 0 }, new double[] { 1, 1 } ) ).isEmpty() );
+	}
+}
@@ -0,0 +1,69 @@
+package org.janelia.stitching;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TranslationLeastSquaresSolverTest
+{
+	private static final double EPSILON = 1e-5;
+
+	@Test
+	public void testConsistentGrid()
+	{
+		// 4x3 grid of tiles with exact shifts between the neighbors
+		final int[] gridSize = new int[] { 4, 3 };
+		final double[] tileSize = new double[] { 90, 110 };
+		final int numTiles = gridSize[ 0 ] * gridSize[ 1 ];
+
+		final TranslationLeastSquaresSolver solver = new TranslationLeastSquaresSolver( numTiles, 2 );
+		final double[][] initialPositions = new double[ numTiles ][];
+		for ( int y = 0; y < gridSize[ 1 ]; ++y )
+		{
+			for ( int x = 0; x < gridSize[ 0 ]; ++x )
+			{
+				final int tile = y * gridSize[ 0 ] + x;
+				initialPositions[ tile ] = new double[] { x * 100, y * 100 };
+				if ( x > 0 )
+					solver.addEdge( tile - 1, tile, new double[] { tileSize[ 0 ], 0 }, 1 );
+				if ( y > 0 )
+					solver.addEdge( tile - gridSize[ 0 ], tile, new double[] { 0, tileSize[ 1 ] }, 0.5 );
+			}
+		}
+		solver.fixTile( 0 );
+
+		final double[][] solution = solver.solve( initialPositions );
+		for ( int y = 0; y < gridSize[ 1 ]; ++y )
+			for ( int x = 0; x < gridSize[ 0 ]; ++x )
+				Assert.assertArrayEquals( new double[] { x * tileSize[ 0 ], y * tileSize[ 1 ] }, solution[ y * gridSize[ 0 ] + x ], EPSILON );
+
+		for ( int e = 0; e < solver.numEdges(); ++e )
+			Assert.assertEquals( 0, solver.getResidual( e, solution ), EPSILON );
+	}
+
+	@Test
+	public void testWeightedLoopAndRemoval()
+	{
+		// triangle with an inconsistent edge: 0->1 = 10, 1->2 = 10, 0->2 = 26
+		final TranslationLeastSquaresSolver solver = new TranslationLeastSquaresSolver( 3, 1 );
+		solver.addEdge( 0, 1, new double[] { 10 }, 1 );
+		solver.addEdge( 1, 2, new double[] { 10 }, 1 );
+		final int badEdge = solver.addEdge( 0, 2, new double[] { 26 }, 1 );
+		solver.fixTile( 0 );
+
+		// the error of 6 is distributed evenly between the edges
+		final double[][] solution = solver.solve( new double[][] { { 0 }, { 0 }, { 0 } } );
+		Assert.assertEquals( 12, solution[ 1 ][ 0 ], EPSILON );
+		Assert.assertEquals( 24, solution[ 2 ][ 0 ], EPSILON );
+		Assert.assertEquals( 2, solver.getResidual( badEdge, solution ), EPSILON );
+
+		// after removing the inconsistent edge the remaining ones are satisfied exactly
+		solver.removeEdge( badEdge );
+		final double[][] updatedSolution = solver.solve();
+		Assert.assertEquals( 10, updatedSolution[ 1 ][ 0 ], EPSILON );
+		Assert.assertEquals( 20, updatedSolution[ 2 ][ 0 ], EPSILON );
+
+		// the already solved system does not need any more iterations
+		solver.solve();
+		Assert.assertEquals( 0, solver.getLastIterations() );
+	}
+}
@@ -0,0 +1,33 @@
+package org.janelia.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class UnionFindTest
+{
+	@Test
+	public void testComponents()
+	{
+		final UnionFind unionFind = new UnionFind( 7 );
+		Assert.assertEquals( 7, unionFind.numSets() );
+
+		unionFind.union( 0, 1 );
+		unionFind.union( 2, 1 );
+		unionFind.union( 4, 5 );
+		unionFind.union( 5, 4 );
+
+		Assert.assertEquals( 4, unionFind.numSets() );
+		Assert.assertEquals( unionFind.find( 0 ), unionFind.find( 2 ) );
+		Assert.assertEquals( unionFind.find( 4 ), unionFind.find( 5 ) );
+		Assert.assertNotEquals( unionFind.find( 0 ), unionFind.find( 4 ) );
+		Assert.assertNotEquals( unionFind.find( 3 ), unionFind.find( 6 ) );
+
+		Assert.assertEquals( 3, unionFind.size( 1 ) );
+		Assert.assertEquals( 2, unionFind.size( 5 ) );
+		Assert.assertEquals( 1, unionFind.size( 6 ) );
+
+		unionFind.union( 6, 0 );
+		Assert.assertEquals( 4, unionFind.size( 2 ) );
+		Assert.assertEquals( 3, unionFind.numSets() );
+	}
+}
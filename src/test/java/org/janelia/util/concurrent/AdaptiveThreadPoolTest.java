@@ -0,0 +1,88 @@
+package org.janelia.util.concurrent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AdaptiveThreadPoolTest
+{
+	@Test
+	public void testThreadsShare() throws Exception
+	{
+		// use a separate pool instance so the test does not depend on the tasks registered in the shared one
+		final AdaptiveThreadPool pool = new AdaptiveThreadPool();
+		Assert.assertEquals( 0, pool.getActiveTasksCount() );
+
+		try ( final AdaptiveThreadPool.TaskThreads task1 = pool.start( 8 ) )
+		{
+			Assert.assertEquals( 8, task1.getNumThreads() );
+
+			final AdaptiveThreadPool.TaskThreads task2 = pool.start( 8 );
+			final AdaptiveThreadPool.TaskThreads task3 = pool.start( 8 );
+			Assert.assertEquals( 2, task1.getNumThreads() );
+
+			// the remaining task gets the cores of the finished tasks
+			task2.close();
+			task3.close();
+			task3.close();
+			Assert.assertEquals( 8, task1.getNumThreads() );
+			Assert.assertFalse( task1.getExecutorService() instanceof SameThreadExecutorService );
+
+			// more tasks than cores
+			final AdaptiveThreadPool.TaskThreads[] tasks = new AdaptiveThreadPool.TaskThreads[ 10 ];
+			for ( int i = 0; i < tasks.length; ++i )
+				tasks[ i ] = pool.start( 8 );
+			Assert.assertEquals( 1, task1.getNumThreads() );
+			Assert.assertTrue( task1.getExecutorService() instanceof SameThreadExecutorService );
+			for ( final AdaptiveThreadPool.TaskThreads task : tasks )
+				task.close();
+		}
+
+		Assert.assertEquals( 0, pool.getActiveTasksCount() );
+	}
+
+	@Test
+	public void testBoundedExecutor() throws Exception
+	{
+		final AdaptiveThreadPool pool = new AdaptiveThreadPool();
+		try ( final AdaptiveThreadPool.TaskThreads task = pool.start( 8 ) )
+		{
+			// the executor reports the task share as its pool size, so the algorithms split the work accordingly
+			final ExecutorService executorService = task.getExecutorService( 3 );
+			Assert.assertTrue( executorService instanceof ThreadPoolExecutor );
+			Assert.assertEquals( 3, ( ( ThreadPoolExecutor ) executorService ).getMaximumPoolSize() );
+
+			// no more than 3 jobs are running at the same time, and all jobs are completed
+			final AtomicInteger running = new AtomicInteger(), maxRunning = new AtomicInteger(), completed = new AtomicInteger();
+			final List< Future< ? > > futures = new ArrayList<>();
+			for ( int i = 0; i < 20; ++i )
+			{
+				futures.add( executorService.submit( () ->
+					{
+						maxRunning.accumulateAndGet( running.incrementAndGet(), Math::max );
+						try
+						{
+							Thread.sleep( 5 );
+						}
+						catch ( final InterruptedException e )
+						{
+							Thread.currentThread().interrupt();
+						}
+						running.decrementAndGet();
+						completed.incrementAndGet();
+					} ) );
+			}
+			for ( final Future< ? > future : futures )
+				future.get();
+
+			Assert.assertEquals( 20, completed.get() );
+			Assert.assertTrue( maxRunning.get() <= 3 );
+		}
+	}
+}